@@ -1,100 +1,82 @@
 package org.decision_deck.services;
 
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.Arrays;
 import java.util.Set;
 
 import org.decision_deck.jmcda.structure.Alternative;
-import org.decision_deck.jmcda.structure.scores.AlternativesScores;
-import org.decision_deck.utils.matrix.Matrixes;
-import org.decision_deck.utils.matrix.SparseMatrixFuzzy;
 import org.decision_deck.utils.matrix.SparseMatrixFuzzyRead;
 import org.decision_deck.utils.relation.graph.Preorder;
 import org.decision_deck.utils.relation.graph.mess.GraphUtils;
-import org.decisiondeck.jmcda.exc.InvalidInputException;
-import org.decisiondeck.xmcda_oo.services.flow.Flow;
 
 /**
+ * <p>
  * Simple distillation on the basis of the net flow computed a la Promethee. This is a simplification of the
  * distillation procedure used by Electre III, and is not equivalent to the Promethee ranking.
- * 
+ * </p>
+ * <p>
+ * The net flows of the remaining alternatives are kept in an array, indexed like the alternatives. When alternatives
+ * are distilled, they are masked, and their contributions are subtracted from the net flows of the remaining ones, in
+ * linear time per alternative, thus a distillation takes a time quadratic in the number of alternatives. The net
+ * flows are not divided by the number of alternatives minus one, as this does not change their order.
+ * </p>
+ * <p>
+ * The net flows are computed with doubles, and net flows that differ by less than the rounding errors that their
+ * computation may accumulate are considered equal, thus the alternatives whose net flows are exactly equal are
+ * ex-æquo, whatever the order of the additions.
+ * </p>
+ * <p>
+ * Each distillation reads the source matrix anew, thus sees the changes made to it since the previous distillation.
+ * </p>
+ *
  * @author Olivier Cailloux
- * 
+ *
  */
 public class SimpleDistillation {
     private final SparseMatrixFuzzyRead<Alternative, Alternative> m_source;
+    /**
+     * As read by the last distillation, <code>null</code> until first needed.
+     */
+    private Alternative[] m_alternatives;
+    /**
+     * In array[index(i, j)], for i &lt; j, the preference of i over j minus the preference of j over i, as read by the
+     * last distillation. <code>null</code> until first needed.
+     */
+    private double[] m_differences;
+    /**
+     * A bound on the rounding errors of the net flows: net flows closer than this are considered equal.
+     */
+    private double m_band;
 
     public SimpleDistillation(SparseMatrixFuzzyRead<Alternative, Alternative> source) {
 	m_source = source;
+	m_alternatives = null;
+	m_differences = null;
     }
 
     public Preorder<Alternative> getAscending() {
-	final SparseMatrixFuzzy<Alternative, Alternative> source = Matrixes.newSparseFuzzy(m_source);
-	assert (source.getRows().equals(source.getColumns()));
+	final Distiller distiller = new Distiller();
 	final Preorder<Alternative> result = new Preorder<Alternative>();
-
-	while (!source.isEmpty()) {
-	    final AlternativesScores netFlowsOld;
-	    try {
-		netFlowsOld = new Flow().getNetFlows(source);
-	    } catch (InvalidInputException exc) {
-		throw new IllegalStateException(exc);
-	    }
-	    final AlternativesScores netFlows = new AlternativesScores(netFlowsOld);
-
-	    final Set<Entry<Alternative, Double>> scores = netFlows.entrySet();
-	    final Iterator<Entry<Alternative, Double>> iterator = scores.iterator();
-	    final Entry<Alternative, Double> first = iterator.next();
-	    result.putAsHighest(first.getKey());
-	    source.removeRow(first.getKey());
-	    source.removeColumn(first.getKey());
-	    final double firstScore = first.getValue().doubleValue();
-	    while (iterator.hasNext()) {
-		final Entry<Alternative, Double> next = iterator.next();
-		final double nextScore = next.getValue().doubleValue();
-		assert (nextScore >= firstScore);
-		if (nextScore > firstScore) {
-		    break;
-		}
-		result.put(next.getKey(), 1);
-		source.removeRow(next.getKey());
-		source.removeColumn(next.getKey());
+	while (!distiller.isEmpty()) {
+	    final int[] lowest = distiller.getExtremes(false);
+	    result.putAsHighest(m_alternatives[lowest[0]]);
+	    for (int i = 1; i < lowest.length; ++i) {
+		result.put(m_alternatives[lowest[i]], 1);
 	    }
+	    distiller.remove(lowest);
 	}
 	return result;
     }
 
     public Preorder<Alternative> getDescending() {
-	final SparseMatrixFuzzy<Alternative, Alternative> source = Matrixes.newSparseFuzzy(m_source);
-	assert (source.getRows().equals(source.getColumns()));
+	final Distiller distiller = new Distiller();
 	final Preorder<Alternative> result = new Preorder<Alternative>();
-
 	int currentRank = 1;
-	while (!source.isEmpty()) {
-	    final AlternativesScores netFlowsOld;
-	    try {
-		netFlowsOld = new Flow().getNetFlows(source);
-	    } catch (InvalidInputException exc) {
-		throw new IllegalStateException(exc);
-	    }
-	    final AlternativesScores netFlows = new AlternativesScores(netFlowsOld);
-	    final Iterator<Alternative> alternativesFromBest = netFlows.descendingMap().keySet().iterator();
-	    final Alternative first = alternativesFromBest.next();
-	    result.put(first, currentRank);
-	    source.removeRow(first);
-	    source.removeColumn(first);
-	    final double firstScore = netFlows.getScore(first);
-	    while (alternativesFromBest.hasNext()) {
-		final Alternative next = alternativesFromBest.next();
-		final double nextScore = netFlows.getScore(next);
-		assert (nextScore <= firstScore);
-		if (nextScore < firstScore) {
-		    break;
-		}
-		result.put(next, currentRank);
-		source.removeRow(next);
-		source.removeColumn(next);
+	while (!distiller.isEmpty()) {
+	    final int[] highest = distiller.getExtremes(true);
+	    for (int alternative : highest) {
+		result.put(m_alternatives[alternative], currentRank);
 	    }
+	    distiller.remove(highest);
 	    ++currentRank;
 	}
 	return result;
@@ -103,4 +85,156 @@ public class SimpleDistillation {
     public SparseMatrixFuzzyRead<Alternative, Alternative> getIntersection() {
 	return GraphUtils.getIntersection(getAscending(), getDescending());
     }
+
+    /**
+     * Reads the source matrix into the differences, replacing those read before.
+     *
+     * @throws IllegalStateException
+     *             if the matrix is not complete, or if it has too many alternatives for the differences to fit in an
+     *             array.
+     */
+    private void readSource() {
+	final Set<Alternative> alternatives = m_source.getRows();
+	assert (alternatives.equals(m_source.getColumns()));
+	m_alternatives = alternatives.toArray(new Alternative[alternatives.size()]);
+	final int nbAlts = m_alternatives.length;
+	final long nbPairs = (long) nbAlts * (nbAlts - 1) / 2;
+	if (nbPairs > Integer.MAX_VALUE) {
+	    throw new IllegalStateException("Too many alternatives: " + nbAlts + ".");
+	}
+	m_differences = new double[(int) nbPairs];
+	final double[] sumsOfMagnitudes = new double[nbAlts];
+	for (int i = 0; i < nbAlts; ++i) {
+	    for (int j = i + 1; j < nbAlts; ++j) {
+		final Double iOverJ = m_source.getEntry(m_alternatives[i], m_alternatives[j]);
+		final Double jOverI = m_source.getEntry(m_alternatives[j], m_alternatives[i]);
+		if (iOverJ == null || jOverI == null) {
+		    throw new IllegalStateException("Given matrix is not complete.");
+		}
+		final double difference = iOverJ.doubleValue() - jOverI.doubleValue();
+		m_differences[getIndex(i, j)] = difference;
+		sumsOfMagnitudes[i] += Math.abs(difference);
+		sumsOfMagnitudes[j] += Math.abs(difference);
+	    }
+	}
+	double maxSum = 0d;
+	for (double sum : sumsOfMagnitudes) {
+	    maxSum = Math.max(maxSum, sum);
+	}
+	m_band = 4d * (nbAlts + 1) * Math.ulp(maxSum);
+    }
+
+    /**
+     * @return the index, in the differences, of the pair (i, j), with i &lt; j.
+     */
+    private int getIndex(int i, int j) {
+	assert i < j;
+	return (int) ((long) i * (2 * m_alternatives.length - i - 1) / 2 + j - i - 1);
+    }
+
+    /**
+     * @return the preference of i over j minus the preference of j over i.
+     */
+    private double getDifference(int i, int j) {
+	if (i < j) {
+	    return m_differences[getIndex(i, j)];
+	}
+	if (i > j) {
+	    return -m_differences[getIndex(j, i)];
+	}
+	return 0d;
+    }
+
+    /**
+     * The net flows of the alternatives not distilled yet. Building one reads the source matrix.
+     */
+    private class Distiller {
+	private final double[] m_netFlows;
+	/**
+	 * The indexes of the remaining alternatives, in increasing order, in the first cells.
+	 */
+	private final int[] m_remaining;
+	private int m_nbRemaining;
+	private final boolean[] m_removed;
+
+	public Distiller() {
+	    readSource();
+	    final int nbAlts = m_alternatives.length;
+	    m_remaining = new int[nbAlts];
+	    for (int i = 0; i < nbAlts; ++i) {
+		m_remaining[i] = i;
+	    }
+	    m_nbRemaining = nbAlts;
+	    m_removed = new boolean[nbAlts];
+	    m_netFlows = new double[nbAlts];
+	    for (int i = 0; i < nbAlts; ++i) {
+		m_netFlows[i] = getNetFlow(i);
+	    }
+	}
+
+	public boolean isEmpty() {
+	    return m_nbRemaining == 0;
+	}
+
+	/**
+	 * @return the net flow of the given alternative against the remaining ones.
+	 */
+	private double getNetFlow(int alternative) {
+	    double sum = 0d;
+	    for (int k = 0; k < m_nbRemaining; ++k) {
+		sum += getDifference(alternative, m_remaining[k]);
+	    }
+	    return sum;
+	}
+
+	/**
+	 * Must not be empty.
+	 *
+	 * @param highest
+	 *            <code>true</code> to retrieve the alternatives having the highest net flow, <code>false</code> for
+	 *            the lowest.
+	 * @return the indexes of the remaining alternatives having the highest, or lowest, net flow, up to rounding
+	 *         errors, in increasing order, not empty.
+	 */
+	public int[] getExtremes(boolean highest) {
+	    double extreme = m_netFlows[m_remaining[0]];
+	    for (int k = 1; k < m_nbRemaining; ++k) {
+		final double netFlow = m_netFlows[m_remaining[k]];
+		extreme = highest ? Math.max(extreme, netFlow) : Math.min(extreme, netFlow);
+	    }
+	    final int[] extremes = new int[m_nbRemaining];
+	    int nbExtremes = 0;
+	    for (int k = 0; k < m_nbRemaining; ++k) {
+		final int alternative = m_remaining[k];
+		if (Math.abs(m_netFlows[alternative] - extreme) <= m_band) {
+		    extremes[nbExtremes] = alternative;
+		    ++nbExtremes;
+		}
+	    }
+	    return Arrays.copyOf(extremes, nbExtremes);
+	}
+
+	/**
+	 * Removes the given alternatives and subtracts their contributions from the net flows of the remaining ones.
+	 */
+	public void remove(int[] alternatives) {
+	    for (int alternative : alternatives) {
+		m_removed[alternative] = true;
+	    }
+	    int nbRemaining = 0;
+	    for (int k = 0; k < m_nbRemaining; ++k) {
+		if (!m_removed[m_remaining[k]]) {
+		    m_remaining[nbRemaining] = m_remaining[k];
+		    ++nbRemaining;
+		}
+	    }
+	    m_nbRemaining = nbRemaining;
+	    for (int removed : alternatives) {
+		for (int k = 0; k < m_nbRemaining; ++k) {
+		    final int alternative = m_remaining[k];
+		    m_netFlows[alternative] -= getDifference(alternative, removed);
+		}
+	    }
+	}
+    }
 }
@@ -0,0 +1,153 @@
+package org.decisiondeck.jmcda.persist.text;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+
+/**
+ * <p>
+ * Numbers distinct strings given as UTF-8 encoded byte ranges, in order of first appearance, without decoding them:
+ * a string is decoded only once, when first met. Not thread-safe, except that, when no more strings are added, it may
+ * be queried from several threads.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+class ByteStringDictionary {
+	/**
+	 * Open addressing hash table, containing the identifier plus one of the string whose hash code leads to that slot,
+	 * or zero for an empty slot. Its length is a power of two.
+	 */
+	private int[] m_table;
+	/**
+	 * The bytes of all strings, one after the other.
+	 */
+	private byte[] m_bytes;
+	/**
+	 * The bytes of the string i are from index array[i], inclusive, to array[i + 1], exclusive, of the bytes.
+	 */
+	private int[] m_starts;
+	private int[] m_hashes;
+	private final List<String> m_strings;
+
+	public ByteStringDictionary() {
+		m_table = new int[16];
+		m_bytes = new byte[256];
+		m_starts = new int[9];
+		m_hashes = new int[8];
+		m_strings = new ArrayList<String>();
+	}
+
+	/**
+	 * @return the number of strings in this dictionary, which are numbered from zero.
+	 */
+	public int size() {
+		return m_strings.size();
+	}
+
+	/**
+	 * @return not <code>null</code>.
+	 */
+	public String getString(int id) {
+		return m_strings.get(id);
+	}
+
+	/**
+	 * @param bytes
+	 *            not <code>null</code>.
+	 * @param start
+	 *            the index of the first byte of the string.
+	 * @param end
+	 *            the index following the last byte of the string.
+	 * @return the identifier of the given string, or -1 iff it is not in this dictionary.
+	 */
+	public int get(byte[] bytes, int start, int end) {
+		final int hash = hash(bytes, start, end);
+		for (int slot = hash & (m_table.length - 1);; slot = (slot + 1) & (m_table.length - 1)) {
+			final int id = m_table[slot] - 1;
+			if (id == -1) {
+				return -1;
+			}
+			if (m_hashes[id] == hash && matches(id, bytes, start, end)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Adds the given string if it is not already in this dictionary.
+	 *
+	 * @param bytes
+	 *            not <code>null</code>.
+	 * @param start
+	 *            the index of the first byte of the string.
+	 * @param end
+	 *            the index following the last byte of the string.
+	 * @return the identifier of the given string.
+	 */
+	public int add(byte[] bytes, int start, int end) {
+		final int hash = hash(bytes, start, end);
+		int slot = hash & (m_table.length - 1);
+		while (m_table[slot] != 0) {
+			final int id = m_table[slot] - 1;
+			if (m_hashes[id] == hash && matches(id, bytes, start, end)) {
+				return id;
+			}
+			slot = (slot + 1) & (m_table.length - 1);
+		}
+		final int id = m_strings.size();
+		final int length = end - start;
+		if (id == m_hashes.length) {
+			m_hashes = Arrays.copyOf(m_hashes, id * 2);
+			m_starts = Arrays.copyOf(m_starts, id * 2 + 1);
+		}
+		final int bytesStart = m_starts[id];
+		if (bytesStart + length > m_bytes.length) {
+			m_bytes = Arrays.copyOf(m_bytes, Math.max(m_bytes.length * 2, bytesStart + length));
+		}
+		System.arraycopy(bytes, start, m_bytes, bytesStart, length);
+		m_starts[id + 1] = bytesStart + length;
+		m_hashes[id] = hash;
+		m_strings.add(new String(bytes, start, length, Charsets.UTF_8));
+		m_table[slot] = id + 1;
+		if (2 * m_strings.size() > m_table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private boolean matches(int id, byte[] bytes, int start, int end) {
+		final int idStart = m_starts[id];
+		if (m_starts[id + 1] - idStart != end - start) {
+			return false;
+		}
+		for (int i = 0; i < end - start; ++i) {
+			if (m_bytes[idStart + i] != bytes[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash() {
+		m_table = new int[m_table.length * 2];
+		for (int id = 0; id < m_strings.size(); ++id) {
+			int slot = m_hashes[id] & (m_table.length - 1);
+			while (m_table[slot] != 0) {
+				slot = (slot + 1) & (m_table.length - 1);
+			}
+			m_table[slot] = id + 1;
+		}
+	}
+
+	static private int hash(byte[] bytes, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; ++i) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,417 @@
+package org.decisiondeck.jmcda.persist.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.decisiondeck.jmcda.exc.InvalidInputException;
+
+import com.google.common.base.Charsets;
+
+/**
+ * <p>
+ * Parses a part of a credibilities CSV file, made of whole lines, each containing one record (DM, Alternative,
+ * Category, Credibility), as bytes encoded in UTF-8. The decision makers and alternatives are numbered in the order
+ * they are first met in this part, each identifier being decoded only once; the categories are numbered according to
+ * a given dictionary; the credibilities are parsed without building strings, in most cases. The records are kept in
+ * primitive arrays, in the order of the lines.
+ * </p>
+ * <p>
+ * Fields may be quoted, with double quotes, a quote in a quoted field being written as two quotes. Blanks around
+ * fields are ignored. Fields may not contain line breaks. Empty lines are ignored.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+class CredibilitiesChunk {
+	static private final int BUFFER_SIZE = 1 << 16;
+	/**
+	 * The powers of ten that are exactly representable as doubles.
+	 */
+	static private final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final ByteStringDictionary m_categoriesIds;
+	private final ByteStringDictionary m_dmsIds;
+	private final ByteStringDictionary m_alternativesIds;
+	private int m_nbRecords;
+	private int[] m_dms;
+	private int[] m_alternatives;
+	private int[] m_categories;
+	private double[] m_credibilities;
+	/**
+	 * The field last read is in this array, from the start, inclusive, to the end, exclusive.
+	 */
+	private byte[] m_field;
+	private int m_fieldStart;
+	private int m_fieldEnd;
+	/**
+	 * Receives the quoted fields containing escaped quotes, once unescaped.
+	 */
+	private byte[] m_unescaped;
+
+	/**
+	 * @param categoriesIds
+	 *            not <code>null</code>, the identifiers of the known categories. Is only read.
+	 */
+	public CredibilitiesChunk(ByteStringDictionary categoriesIds) {
+		m_categoriesIds = categoriesIds;
+		m_dmsIds = new ByteStringDictionary();
+		m_alternativesIds = new ByteStringDictionary();
+		m_nbRecords = 0;
+		m_dms = new int[1024];
+		m_alternatives = new int[1024];
+		m_categories = new int[1024];
+		m_credibilities = new double[1024];
+		m_field = null;
+		m_unescaped = new byte[64];
+	}
+
+	/**
+	 * Parses the records read from the given stream, until its end. The stream is not closed.
+	 *
+	 * @param input
+	 *            not <code>null</code>, must start at the beginning of a line.
+	 * @param offset
+	 *            the position, in the source, of the start of the stream, used to tell where an invalid record is.
+	 * @throws InvalidInputException
+	 *             if a record is invalid, with the position of its line in the source.
+	 */
+	public void parse(InputStream input, long offset) throws IOException, InvalidInputException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		/** The position, in the source, of the start of the buffer. */
+		long bufferOffset = offset;
+		int filled = 0;
+		int lineStart = 0;
+		while (true) {
+			final int read = input.read(buffer, filled, buffer.length - filled);
+			if (read == -1) {
+				break;
+			}
+			int scanned = filled;
+			filled += read;
+			for (; scanned < filled; ++scanned) {
+				if (buffer[scanned] == '\n') {
+					parseLine(buffer, lineStart, scanned, bufferOffset + lineStart);
+					lineStart = scanned + 1;
+				}
+			}
+			if (lineStart > 0) {
+				System.arraycopy(buffer, lineStart, buffer, 0, filled - lineStart);
+				filled -= lineStart;
+				bufferOffset += lineStart;
+				lineStart = 0;
+			} else if (filled == buffer.length) {
+				/** A line longer than the buffer. */
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+		}
+		if (lineStart < filled) {
+			parseLine(buffer, lineStart, filled, bufferOffset + lineStart);
+		}
+	}
+
+	/**
+	 * Parses the record of the given line, telling where the line is if it is invalid.
+	 *
+	 * @param position
+	 *            the position of the line in the source.
+	 */
+	private void parseLine(byte[] line, int start, int end, long position) throws InvalidInputException {
+		try {
+			parseRecord(line, start, end);
+		} catch (InvalidInputException exc) {
+			throw getAtPosition(exc, position);
+		} catch (IllegalArgumentException exc) {
+			throw getAtPosition(exc, position);
+		}
+	}
+
+	static private InvalidInputException getAtPosition(Exception exc, long position) {
+		final InvalidInputException atPosition = new InvalidInputException("Line at byte " + position + ": "
+				+ exc.getMessage());
+		atPosition.initCause(exc);
+		return atPosition;
+	}
+
+	/**
+	 * @param line
+	 *            not <code>null</code>.
+	 * @param start
+	 *            the index of the first byte of the line.
+	 * @param end
+	 *            the index of the line feed ending the line, or following the last byte of the line.
+	 * @return not <code>null</code>, the fields of the given line, decoded.
+	 */
+	public List<String> getFields(byte[] line, int start, int end) throws InvalidInputException {
+		final int lineEnd = end > start && line[end - 1] == '\r' ? end - 1 : end;
+		final List<String> fields = new ArrayList<String>();
+		int position = start;
+		while (position <= lineEnd) {
+			position = readField(line, position, lineEnd);
+			fields.add(new String(m_field, m_fieldStart, m_fieldEnd - m_fieldStart, Charsets.UTF_8));
+		}
+		return fields;
+	}
+
+	private void parseRecord(byte[] line, int start, int end) throws InvalidInputException {
+		final int lineEnd = end > start && line[end - 1] == '\r' ? end - 1 : end;
+		if (lineEnd == start) {
+			return;
+		}
+		int position = readField(line, start, lineEnd);
+		if (m_fieldStart == m_fieldEnd) {
+			throw new InvalidInputException("Empty DM found.");
+		}
+		final int dm = m_dmsIds.add(m_field, m_fieldStart, m_fieldEnd);
+
+		position = readNextField(line, position, lineEnd);
+		if (m_fieldStart == m_fieldEnd) {
+			throw new InvalidInputException("Empty alternative found.");
+		}
+		final int alternative = m_alternativesIds.add(m_field, m_fieldStart, m_fieldEnd);
+
+		position = readNextField(line, position, lineEnd);
+		if (m_fieldStart == m_fieldEnd) {
+			throw new InvalidInputException("Empty category found.");
+		}
+		final int category = m_categoriesIds.get(m_field, m_fieldStart, m_fieldEnd);
+		if (category == -1) {
+			throw new InvalidInputException("Unknown category: " + getFieldString() + ".");
+		}
+
+		position = readNextField(line, position, lineEnd);
+		final double credibility;
+		try {
+			credibility = parseDouble(m_field, m_fieldStart, m_fieldEnd);
+		} catch (NumberFormatException exc) {
+			throw new InvalidInputException("Invalid credibility string: " + getFieldString() + ".");
+		}
+		if (!(credibility >= 0d) || Double.isInfinite(credibility)) {
+			throw new InvalidInputException("Invalid credibility: " + credibility + ".");
+		}
+		if (position <= lineEnd) {
+			throw new InvalidInputException("Too many fields in record: "
+					+ new String(line, start, lineEnd - start, Charsets.UTF_8) + ".");
+		}
+
+		if (m_nbRecords == m_dms.length) {
+			final int capacity = m_nbRecords * 2;
+			m_dms = Arrays.copyOf(m_dms, capacity);
+			m_alternatives = Arrays.copyOf(m_alternatives, capacity);
+			m_categories = Arrays.copyOf(m_categories, capacity);
+			m_credibilities = Arrays.copyOf(m_credibilities, capacity);
+		}
+		m_dms[m_nbRecords] = dm;
+		m_alternatives[m_nbRecords] = alternative;
+		m_categories[m_nbRecords] = category;
+		m_credibilities[m_nbRecords] = credibility;
+		++m_nbRecords;
+	}
+
+	private int readNextField(byte[] line, int position, int end) throws InvalidInputException {
+		if (position > end) {
+			throw new InvalidInputException("Missing fields in record.");
+		}
+		return readField(line, position, end);
+	}
+
+	/**
+	 * Reads the field beginning at the given position, which must not be after the given end of line, and sets the
+	 * current field.
+	 *
+	 * @return the position following the delimiter ending the field, or end + 1 if the field ends the line.
+	 */
+	private int readField(byte[] line, int position, int end) throws InvalidInputException {
+		int start = position;
+		while (start < end && isBlank(line[start])) {
+			++start;
+		}
+		if (start < end && line[start] == '"') {
+			int current = start + 1;
+			boolean escaped = false;
+			while (true) {
+				if (current >= end) {
+					throw new InvalidInputException("Unterminated quoted field.");
+				}
+				if (line[current] == '"') {
+					if (current + 1 < end && line[current + 1] == '"') {
+						escaped = true;
+						current += 2;
+						continue;
+					}
+					break;
+				}
+				++current;
+			}
+			if (escaped) {
+				unescape(line, start + 1, current);
+			} else {
+				m_field = line;
+				m_fieldStart = start + 1;
+				m_fieldEnd = current;
+			}
+			int next = current + 1;
+			while (next < end && isBlank(line[next])) {
+				++next;
+			}
+			if (next == end) {
+				return end + 1;
+			}
+			if (line[next] != ',') {
+				throw new InvalidInputException("Unexpected character after quoted field.");
+			}
+			return next + 1;
+		}
+		int current = start;
+		while (current < end && line[current] != ',') {
+			++current;
+		}
+		int fieldEnd = current;
+		while (fieldEnd > start && isBlank(line[fieldEnd - 1])) {
+			--fieldEnd;
+		}
+		m_field = line;
+		m_fieldStart = start;
+		m_fieldEnd = fieldEnd;
+		return current == end ? end + 1 : current + 1;
+	}
+
+	private void unescape(byte[] line, int start, int end) {
+		if (m_unescaped.length < end - start) {
+			m_unescaped = new byte[end - start];
+		}
+		int length = 0;
+		for (int i = start; i < end; ++i) {
+			m_unescaped[length] = line[i];
+			++length;
+			if (line[i] == '"') {
+				/** Skips the second quote. */
+				++i;
+			}
+		}
+		m_field = m_unescaped;
+		m_fieldStart = 0;
+		m_fieldEnd = length;
+	}
+
+	private String getFieldString() {
+		return new String(m_field, m_fieldStart, m_fieldEnd - m_fieldStart, Charsets.UTF_8);
+	}
+
+	static private boolean isBlank(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	/**
+	 * Parses a decimal number written with ASCII characters, such as <code>-12.5e3</code>. When the significant digits
+	 * fit in 53 bits and the power of ten is exactly representable, the number is computed directly, with a single,
+	 * correctly rounded, operation. Otherwise, this method delegates to {@link Double#parseDouble(String)}, which also
+	 * accepts the other formats.
+	 *
+	 * @return the number, as {@link Double#parseDouble(String)} would parse it.
+	 * @throws NumberFormatException
+	 *             if the given bytes do not represent a number.
+	 */
+	static double parseDouble(byte[] bytes, int start, int end) {
+		int position = start;
+		final boolean negative = position < end && bytes[position] == '-';
+		if (position < end && (bytes[position] == '-' || bytes[position] == '+')) {
+			++position;
+		}
+		long mantissa = 0;
+		int nbDigits = 0;
+		int exponent = 0;
+		boolean exact = true;
+		boolean point = false;
+		for (; position < end; ++position) {
+			final byte b = bytes[position];
+			if (b >= '0' && b <= '9') {
+				if (mantissa < (1L << 53) / 10) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (point) {
+						--exponent;
+					}
+				} else {
+					exact = false;
+				}
+				++nbDigits;
+			} else if (b == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (position < end && (bytes[position] == 'e' || bytes[position] == 'E') && nbDigits > 0) {
+			++position;
+			final boolean negativeExponent = position < end && bytes[position] == '-';
+			if (position < end && (bytes[position] == '-' || bytes[position] == '+')) {
+				++position;
+			}
+			int written = 0;
+			int nbExponentDigits = 0;
+			for (; position < end && bytes[position] >= '0' && bytes[position] <= '9'; ++position) {
+				written = Math.min(written * 10 + (bytes[position] - '0'), 10000);
+				++nbExponentDigits;
+			}
+			if (nbExponentDigits == 0) {
+				exact = false;
+			}
+			exponent += negativeExponent ? -written : written;
+		}
+		if (!exact || nbDigits == 0 || position != end || exponent < -22 || exponent > 22) {
+			return Double.parseDouble(new String(bytes, start, end - start, Charsets.US_ASCII));
+		}
+		final double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa
+				/ POWERS_OF_TEN[-exponent];
+		return negative ? -value : value;
+	}
+
+	public int getNbRecords() {
+		return m_nbRecords;
+	}
+
+	/**
+	 * @return the number, in this part, of the decision maker of the given record.
+	 */
+	public int getDm(int record) {
+		return m_dms[record];
+	}
+
+	/**
+	 * @return the number, in this part, of the alternative of the given record.
+	 */
+	public int getAlternative(int record) {
+		return m_alternatives[record];
+	}
+
+	/**
+	 * @return the number, in the dictionary of categories, of the category of the given record.
+	 */
+	public int getCategory(int record) {
+		return m_categories[record];
+	}
+
+	public double getCredibility(int record) {
+		return m_credibilities[record];
+	}
+
+	/**
+	 * @return not <code>null</code>, the identifiers of the decision makers met in this part, in order of first
+	 *         appearance.
+	 */
+	public ByteStringDictionary getDmsIds() {
+		return m_dmsIds;
+	}
+
+	/**
+	 * @return not <code>null</code>, the identifiers of the alternatives met in this part, in order of first
+	 *         appearance.
+	 */
+	public ByteStringDictionary getAlternativesIds() {
+		return m_alternativesIds;
+	}
+}
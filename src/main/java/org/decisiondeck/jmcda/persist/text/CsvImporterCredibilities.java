@@ -1,22 +1,34 @@
 package org.decisiondeck.jmcda.persist.text;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.decision_deck.jmcda.structure.Alternative;
 import org.decision_deck.jmcda.structure.DecisionMaker;
+import org.decision_deck.jmcda.structure.sorting.category.Categories;
 import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
 import org.decisiondeck.jmcda.exc.InvalidInputException;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
 import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilities;
 import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsUtils;
 import org.decisiondeck.jmcda.structure.sorting.problem.ProblemFactory;
 import org.decisiondeck.jmcda.structure.sorting.problem.group_assignments.IGroupSortingAssignmentsWithCredibilities;
 
 import com.csvreader.CsvReader;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteSource;
 import com.google.common.io.CharSource;
 
 /**
@@ -28,21 +40,48 @@ import com.google.common.io.CharSource;
  * criteria and alternatives are set. Accepts a completely empty row or column,
  * as long as all headers (rows and columns) are set. TODO true?
  * </p>
+ * <p>
+ * A fast mode, {@link #readDense(Collection)}, reads a byte source encoded in
+ * UTF-8 into dense credibilities. It splits the source into parts made of
+ * whole lines, parses them in parallel, and merges them in order. Identifiers
+ * are decoded once per part, and most numbers are parsed without building
+ * strings.
+ * </p>
  *
  * @author Olivier Cailloux
  *
  */
 public class CsvImporterCredibilities {
+	static private final long DEFAULT_CHUNK_SIZE = 64L << 20;
+	static private final List<String> HEADERS = Arrays.asList("DM", "Alternative", "Category", "Credibility");
+
 	private CharSource m_source;
+	private ByteSource m_byteSource;
+	private ForkJoinPool m_pool;
+	private long m_chunkSize;
 
 	public CsvImporterCredibilities() {
 		m_source = null;
+		m_byteSource = null;
+		m_pool = null;
+		m_chunkSize = DEFAULT_CHUNK_SIZE;
 	}
 
 	public CsvImporterCredibilities(CharSource source) {
+		this();
 		m_source = source;
 	}
 
+	/**
+	 * @param source
+	 *            the source used by {@link #readDense(Collection)}, encoded in
+	 *            UTF-8.
+	 */
+	public CsvImporterCredibilities(ByteSource source) {
+		this();
+		m_byteSource = source;
+	}
+
 	public CharSource getSource() {
 		return m_source;
 	}
@@ -60,7 +99,7 @@ public class CsvImporterCredibilities {
 			}
 
 			final List<String> headers = Arrays.asList(csvReader.getHeaders());
-			if (!headers.equals(Arrays.asList("DM", "Alternative", "Category", "Credibility"))) {
+			if (!headers.equals(HEADERS)) {
 				throw new InvalidInputException("Unexpected headers.");
 			}
 			final IGroupSortingAssignmentsWithCredibilities data = ProblemFactory
@@ -112,4 +151,239 @@ public class CsvImporterCredibilities {
 	public void setSource(CharSource source) {
 		m_source = source;
 	}
+
+	public ByteSource getByteSource() {
+		return m_byteSource;
+	}
+
+	/**
+	 * @param source
+	 *            the source used by {@link #readDense(Collection)}, encoded in
+	 *            UTF-8.
+	 */
+	public void setByteSource(ByteSource source) {
+		m_byteSource = source;
+	}
+
+	/**
+	 * <p>
+	 * Reads the credibilities from the byte source, which must be set, in the
+	 * same format as {@link #read(Collection)} does, except that fields may
+	 * not contain line breaks. Each decision maker, alternative and category
+	 * object is built only once, and the credibilities are written directly
+	 * into dense arrays.
+	 * </p>
+	 * <p>
+	 * The source is split into parts of about the chunk size, made of whole
+	 * lines, that are parsed in parallel if a pool is set, then merged in
+	 * order. With a pool, at most twice as many parts as its parallelism are
+	 * parsed or waiting to be merged at a time. The result does not depend on
+	 * the splitting.
+	 * </p>
+	 * <p>
+	 * As in dense credibilities a zero means that the alternative is not
+	 * assigned to the category, the alternatives having only zero
+	 * credibilities for a decision maker are not included in its
+	 * credibilities.
+	 * </p>
+	 *
+	 * @param categories
+	 *            not <code>null</code>, the categories, from the worst to the
+	 *            best. Every category of the source must be one of them.
+	 * @return not <code>null</code>, the credibilities of each decision maker,
+	 *         the decision makers and their alternatives being in the order
+	 *         they are first met in the source.
+	 */
+	public Map<DecisionMaker, DenseCredibilities> readDense(Collection<Category> categories)
+			throws InvalidInputException, IOException {
+		Preconditions.checkState(m_byteSource != null, "No byte source set.");
+		final CatsAndProfs catsAndProfs = Categories.newCatsAndProfs();
+		final ByteStringDictionary categoriesIds = new ByteStringDictionary();
+		final List<Category> categoriesList = Lists.newArrayList();
+		for (Category category : categories) {
+			catsAndProfs.addCategory(category);
+			final byte[] id = category.getId().getBytes(Charsets.UTF_8);
+			categoriesIds.add(id, 0, id.length);
+			categoriesList.add(category);
+		}
+		final NavigableSet<Category> orderedCategories = catsAndProfs.getCategories();
+		/** In array[i], the column of the category numbered i in the dictionary. */
+		final int[] columns = new int[categoriesList.size()];
+		int column = 0;
+		for (Category category : orderedCategories) {
+			columns[categoriesList.indexOf(category)] = column;
+			++column;
+		}
+
+		final long size = m_byteSource.size();
+		if (size == 0) {
+			throw new InvalidInputException("Couldn't read headers.");
+		}
+		final long headersEnd = findLineEnd(0, size);
+		final byte[] headersLine = m_byteSource.slice(0, headersEnd).read();
+		final List<String> headers = new CredibilitiesChunk(categoriesIds).getFields(headersLine, 0,
+				headersLine.length);
+		if (!headers.equals(HEADERS)) {
+			throw new InvalidInputException("Unexpected headers.");
+		}
+
+		final List<long[]> bounds = Lists.newArrayList();
+		long start = Math.min(headersEnd + 1, size);
+		while (start < size) {
+			final long end = size - start <= m_chunkSize ? size
+					: Math.min(findLineEnd(start + m_chunkSize - 1, size) + 1, size);
+			bounds.add(new long[] { start, end });
+			start = end;
+		}
+
+		final DenseCredibilitiesMerger merger = new DenseCredibilitiesMerger(orderedCategories, columns);
+		if (m_pool == null) {
+			for (long[] chunkBounds : bounds) {
+				merger.merge(parse(categoriesIds, chunkBounds[0], chunkBounds[1]));
+			}
+		} else {
+			/**
+			 * At most a window of parts are submitted and not yet merged, which
+			 * bounds the memory held by parsed parts: the part following the
+			 * window is submitted when the oldest one is merged.
+			 */
+			final int window = 2 * m_pool.getParallelism();
+			final List<ChunkTask> tasks = Lists.newArrayListWithCapacity(bounds.size());
+			for (long[] chunkBounds : bounds) {
+				tasks.add(new ChunkTask(categoriesIds, chunkBounds[0], chunkBounds[1]));
+			}
+			for (ChunkTask task : tasks.subList(0, Math.min(window, tasks.size()))) {
+				m_pool.execute(task);
+			}
+			/** The parts are merged in order, as soon as they are parsed. */
+			for (int i = 0; i < tasks.size(); ++i) {
+				final ChunkTask task = tasks.get(i);
+				final CredibilitiesChunk chunk = task.join();
+				if (task.m_failure != null) {
+					for (ChunkTask other : tasks.subList(i + 1, Math.min(i + window, tasks.size()))) {
+						other.cancel(false);
+					}
+					if (task.m_failure instanceof InvalidInputException) {
+						throw (InvalidInputException) task.m_failure;
+					}
+					throw (IOException) task.m_failure;
+				}
+				tasks.set(i, null);
+				if (i + window < tasks.size()) {
+					m_pool.execute(tasks.get(i + window));
+				}
+				merger.merge(chunk);
+			}
+		}
+		return merger.getCredibilities();
+	}
+
+	/**
+	 * @return the index of the first line feed at or after the given index,
+	 *         or the given size if there is none.
+	 */
+	private long findLineEnd(long from, long size) throws IOException {
+		long position = from;
+		while (position < size) {
+			final byte[] bytes = m_byteSource.slice(position, 8192).read();
+			for (int i = 0; i < bytes.length; ++i) {
+				if (bytes[i] == '\n') {
+					return position + i;
+				}
+			}
+			position += bytes.length;
+		}
+		return size;
+	}
+
+	/**
+	 * Parses the given part. Used by the sequential and parallel modes
+	 * alike, thus both report an invalid part the same way, rather than the
+	 * parallel mode failing in the pool.
+	 *
+	 * @throws InvalidInputException
+	 *             if the part is invalid, with its position in the source.
+	 */
+	private CredibilitiesChunk parse(ByteStringDictionary categoriesIds, long start, long end)
+			throws IOException, InvalidInputException {
+		final CredibilitiesChunk chunk = new CredibilitiesChunk(categoriesIds);
+		final InputStream input = m_byteSource.slice(start, end - start).openBufferedStream();
+		try {
+			chunk.parse(input, start);
+		} catch (IllegalArgumentException exc) {
+			final InvalidInputException invalid = new InvalidInputException("Invalid part between bytes " + start
+					+ " and " + end + ": " + exc.getMessage());
+			invalid.initCause(exc);
+			throw invalid;
+		} finally {
+			input.close();
+		}
+		return chunk;
+	}
+
+	private class ChunkTask extends RecursiveTask<CredibilitiesChunk> {
+		private static final long serialVersionUID = 1L;
+		private final ByteStringDictionary m_categoriesIds;
+		private final long m_start;
+		private final long m_end;
+		/**
+		 * <code>null</code> iff the part has been parsed successfully, or has
+		 * not been parsed yet.
+		 */
+		private Exception m_failure;
+
+		public ChunkTask(ByteStringDictionary categoriesIds, long start, long end) {
+			m_categoriesIds = categoriesIds;
+			m_start = start;
+			m_end = end;
+			m_failure = null;
+		}
+
+		@Override
+		protected CredibilitiesChunk compute() {
+			try {
+				return parse(m_categoriesIds, m_start, m_end);
+			} catch (IOException exc) {
+				m_failure = exc;
+			} catch (InvalidInputException exc) {
+				m_failure = exc;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the pool used to parse the parts of the source in parallel, in the
+	 * fast mode. The results do not depend on whether a pool is used.
+	 *
+	 * @param pool
+	 *            <code>null</code> to compute sequentially (the default).
+	 */
+	public void setForkJoinPool(ForkJoinPool pool) {
+		m_pool = pool;
+	}
+
+	/**
+	 * @return <code>null</code> iff the computation is sequential.
+	 */
+	public ForkJoinPool getForkJoinPool() {
+		return m_pool;
+	}
+
+	/**
+	 * @return the approximate size, in bytes, of the parts the source is split
+	 *         into, in the fast mode.
+	 */
+	public long getChunkSize() {
+		return m_chunkSize;
+	}
+
+	/**
+	 * @param chunkSize
+	 *            at least one. Defaults to 64 MiB.
+	 */
+	public void setChunkSize(long chunkSize) {
+		Preconditions.checkArgument(chunkSize >= 1);
+		m_chunkSize = chunkSize;
+	}
 }
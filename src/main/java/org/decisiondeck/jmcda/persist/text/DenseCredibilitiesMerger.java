@@ -0,0 +1,239 @@
+package org.decisiondeck.jmcda.persist.text;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.DecisionMaker;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decisiondeck.jmcda.exc.InvalidInputException;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * Merges parsed parts of a credibilities file, in order, into one dense credibilities object per decision maker. Each
+ * decision maker and alternative object is built once, the first time its identifier is met.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+class DenseCredibilitiesMerger {
+	/**
+	 * The credibilities of one decision maker, one row per alternative, in order of first appearance.
+	 */
+	static private class DmRows {
+		private final DecisionMaker m_dm;
+		private final int m_nbCats;
+		/**
+		 * Open addressing hash table from the numbers of the alternatives, or -1 for an empty slot, to their rows,
+		 * in the next array. Its length is a power of two.
+		 */
+		private int[] m_keys;
+		private int[] m_rows;
+		/**
+		 * In array[r], the number of the alternative of the row r.
+		 */
+		private int[] m_alternatives;
+		private int m_nbRows;
+		/**
+		 * The credibility of the row r for the column c is at index r × number of categories + c; -1 if not given.
+		 */
+		private double[] m_cells;
+		/**
+		 * The alternative last looked for, and its row: records are usually grouped by alternative.
+		 */
+		private int m_lastAlternative;
+		private int m_lastRow;
+
+		public DmRows(DecisionMaker dm, int nbCats) {
+			m_dm = dm;
+			m_nbCats = nbCats;
+			m_keys = new int[16];
+			Arrays.fill(m_keys, -1);
+			m_rows = new int[16];
+			m_alternatives = new int[8];
+			m_nbRows = 0;
+			m_cells = new double[8 * nbCats];
+			Arrays.fill(m_cells, -1d);
+			m_lastAlternative = -1;
+			m_lastRow = -1;
+		}
+
+		/**
+		 * @return <code>false</code> iff a credibility was already given for that cell.
+		 */
+		public boolean set(int alternative, int column, double credibility) {
+			final int cell = getRow(alternative) * m_nbCats + column;
+			if (m_cells[cell] != -1d) {
+				return false;
+			}
+			m_cells[cell] = credibility;
+			return true;
+		}
+
+		private int getRow(int alternative) {
+			if (alternative == m_lastAlternative) {
+				return m_lastRow;
+			}
+			m_lastAlternative = alternative;
+			m_lastRow = findRow(alternative);
+			return m_lastRow;
+		}
+
+		private int findRow(int alternative) {
+			int slot = getSlot(alternative, m_keys.length);
+			while (m_keys[slot] != -1) {
+				if (m_keys[slot] == alternative) {
+					return m_rows[slot];
+				}
+				slot = (slot + 1) & (m_keys.length - 1);
+			}
+			final int row = m_nbRows;
+			m_keys[slot] = alternative;
+			m_rows[slot] = row;
+			if (row == m_alternatives.length) {
+				m_alternatives = Arrays.copyOf(m_alternatives, row * 2);
+				final int filled = m_cells.length;
+				m_cells = Arrays.copyOf(m_cells, filled * 2);
+				Arrays.fill(m_cells, filled, m_cells.length, -1d);
+			}
+			m_alternatives[row] = alternative;
+			++m_nbRows;
+			if (2 * m_nbRows > m_keys.length) {
+				rehash();
+			}
+			return row;
+		}
+
+		private void rehash() {
+			final int[] keys = m_keys;
+			final int[] rows = m_rows;
+			m_keys = new int[keys.length * 2];
+			Arrays.fill(m_keys, -1);
+			m_rows = new int[keys.length * 2];
+			for (int i = 0; i < keys.length; ++i) {
+				if (keys[i] != -1) {
+					int slot = getSlot(keys[i], m_keys.length);
+					while (m_keys[slot] != -1) {
+						slot = (slot + 1) & (m_keys.length - 1);
+					}
+					m_keys[slot] = keys[i];
+					m_rows[slot] = rows[i];
+				}
+			}
+		}
+
+		static private int getSlot(int key, int length) {
+			final int hash = key * 0x9E3779B9;
+			return (hash ^ (hash >>> 16)) & (length - 1);
+		}
+
+		/**
+		 * Drops the rows having no positive credibility, as a zero credibility means that the alternative is not
+		 * assigned to the category.
+		 */
+		public DenseCredibilities getCredibilities(NavigableSet<Category> categories, List<Alternative> alternatives) {
+			final List<Alternative> assigned = Lists.newArrayListWithCapacity(m_nbRows);
+			int nbAssigned = 0;
+			for (int row = 0; row < m_nbRows; ++row) {
+				boolean positive = false;
+				for (int cell = row * m_nbCats; cell < (row + 1) * m_nbCats; ++cell) {
+					if (m_cells[cell] == -1d) {
+						m_cells[cell] = 0d;
+					}
+					positive |= m_cells[cell] > 0d;
+				}
+				if (positive) {
+					System.arraycopy(m_cells, row * m_nbCats, m_cells, nbAssigned * m_nbCats, m_nbCats);
+					assigned.add(alternatives.get(m_alternatives[row]));
+					++nbAssigned;
+				}
+			}
+			return new DenseCredibilities(categories, assigned, Arrays.copyOf(m_cells, nbAssigned * m_nbCats));
+		}
+	}
+
+	private final NavigableSet<Category> m_categories;
+	private final int[] m_columns;
+	private final Map<String, Integer> m_dmsIndexes;
+	private final List<DmRows> m_dmsRows;
+	private final Map<String, Integer> m_alternativesIndexes;
+	private final List<Alternative> m_alternatives;
+
+	/**
+	 * @param categories
+	 *            not <code>null</code>, the categories, in order.
+	 * @param columns
+	 *            not <code>null</code>, in array[i], the index in the given categories of the category numbered i by
+	 *            the parts.
+	 */
+	public DenseCredibilitiesMerger(NavigableSet<Category> categories, int[] columns) {
+		m_categories = categories;
+		m_columns = columns;
+		m_dmsIndexes = Maps.newHashMap();
+		m_dmsRows = Lists.newArrayList();
+		m_alternativesIndexes = Maps.newHashMap();
+		m_alternatives = Lists.newArrayList();
+	}
+
+	/**
+	 * Merges the given part, which must follow the parts already merged in the source.
+	 *
+	 * @param chunk
+	 *            not <code>null</code>.
+	 */
+	public void merge(CredibilitiesChunk chunk) throws InvalidInputException {
+		final ByteStringDictionary dmsIds = chunk.getDmsIds();
+		final int[] dms = new int[dmsIds.size()];
+		for (int dm = 0; dm < dms.length; ++dm) {
+			final String id = dmsIds.getString(dm);
+			Integer index = m_dmsIndexes.get(id);
+			if (index == null) {
+				index = Integer.valueOf(m_dmsRows.size());
+				m_dmsIndexes.put(id, index);
+				m_dmsRows.add(new DmRows(new DecisionMaker(id), m_columns.length));
+			}
+			dms[dm] = index.intValue();
+		}
+		final ByteStringDictionary alternativesIds = chunk.getAlternativesIds();
+		final int[] alternatives = new int[alternativesIds.size()];
+		for (int alternative = 0; alternative < alternatives.length; ++alternative) {
+			final String id = alternativesIds.getString(alternative);
+			Integer index = m_alternativesIndexes.get(id);
+			if (index == null) {
+				index = Integer.valueOf(m_alternatives.size());
+				m_alternativesIndexes.put(id, index);
+				m_alternatives.add(new Alternative(id));
+			}
+			alternatives[alternative] = index.intValue();
+		}
+
+		for (int record = 0; record < chunk.getNbRecords(); ++record) {
+			final DmRows rows = m_dmsRows.get(dms[chunk.getDm(record)]);
+			final int alternative = alternatives[chunk.getAlternative(record)];
+			final int column = m_columns[chunk.getCategory(record)];
+			if (!rows.set(alternative, column, chunk.getCredibility(record))) {
+				throw new InvalidInputException("Duplicate entry at: " + rows.m_dm + ", "
+						+ m_alternatives.get(alternative) + ", " + Iterables.get(m_categories, column) + ".");
+			}
+		}
+	}
+
+	/**
+	 * @return not <code>null</code>, the credibilities of each decision maker met, in order of first appearance.
+	 */
+	public Map<DecisionMaker, DenseCredibilities> getCredibilities() {
+		final Map<DecisionMaker, DenseCredibilities> credibilities = Maps.newLinkedHashMap();
+		for (DmRows rows : m_dmsRows) {
+			credibilities.put(rows.m_dm, rows.getCredibilities(m_categories, m_alternatives));
+		}
+		return credibilities;
+	}
+}
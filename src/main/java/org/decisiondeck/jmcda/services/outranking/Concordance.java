@@ -69,18 +69,7 @@ public class Concordance {
     private SparseAlternativesMatrixFuzzy computeMatrix(IProblemData data, Thresholds thresholds,
 	    Weights weights,
 	    boolean prometheeStyle) throws InvalidInputException {
-	InputCheck.check(m_rows == null || data.getAlternatives().containsAll(m_rows),
-		"Restriction on rows is not a subset of the given alternatives.");
-	InputCheck.check(m_columns == null || data.getAlternatives().containsAll(m_columns),
-		"Restriction on columns is not a subset of the given alternatives.");
-	InputCheck.check(data.getCriteria().containsAll(weights.keySet()),
-		"Some weights are defined on unknown criteria.");
-	new ConsistencyChecker().assertCompleteWeights(data.getCriteria(), weights.keySet());
-	InputCheck.check(data.getCriteria().containsAll(thresholds.getCriteria()),
-		"Some thresholds are defined on unknown criteria.");
-	final ConsistencyChecker consistencyChecker = new ConsistencyChecker();
-	consistencyChecker.assertCompleteAlternativesEvaluations(data);
-	consistencyChecker.assertCompletePreferenceDirections(data);
+	checkInput(data, thresholds, weights);
 
 	final String debugStr = prometheeStyle ? "preference" : "concordance";
 	final Set<Alternative> rows = m_rows == null ? data.getAlternatives() : m_rows;
@@ -116,6 +105,62 @@ public class Concordance {
 	return results;
     }
 
+    /**
+     * Checks the input exactly as {@link #concordance(IProblemData, Thresholds, Weights)} does, without computing
+     * anything. The thresholds are compared only if there is at least one pair of alternatives to compute, as the
+     * computation does.
+     *
+     * @param data
+     *            not <code>null</code>.
+     * @param thresholds
+     *            not <code>null</code>, may be incomplete.
+     * @param weights
+     *            not <code>null</code>.
+     * @throws InvalidInputException
+     *             if the input is not valid.
+     */
+    void checkInput(IProblemData data, Thresholds thresholds, Weights weights) throws InvalidInputException {
+	InputCheck.check(m_rows == null || data.getAlternatives().containsAll(m_rows),
+		"Restriction on rows is not a subset of the given alternatives.");
+	InputCheck.check(m_columns == null || data.getAlternatives().containsAll(m_columns),
+		"Restriction on columns is not a subset of the given alternatives.");
+	InputCheck.check(data.getCriteria().containsAll(weights.keySet()),
+		"Some weights are defined on unknown criteria.");
+	new ConsistencyChecker().assertCompleteWeights(data.getCriteria(), weights.keySet());
+	InputCheck.check(data.getCriteria().containsAll(thresholds.getCriteria()),
+		"Some thresholds are defined on unknown criteria.");
+	final ConsistencyChecker consistencyChecker = new ConsistencyChecker();
+	consistencyChecker.assertCompleteAlternativesEvaluations(data);
+	consistencyChecker.assertCompletePreferenceDirections(data);
+
+	final Set<Alternative> rows = m_rows == null ? data.getAlternatives() : m_rows;
+	final Set<Alternative> columns = m_columns == null ? data.getAlternatives() : m_columns;
+	if (rows.isEmpty() || columns.isEmpty()) {
+	    return;
+	}
+	for (final Criterion crit : data.getCriteria()) {
+	    final double p = thresholds.containsPreferenceThreshold(crit) ? thresholds.getPreferenceThreshold(crit) : 0;
+	    final double q = thresholds.containsIndifferenceThreshold(crit) ? thresholds.getIndifferenceThreshold(crit)
+		    : 0;
+	    checkThresholds(crit, p, q);
+	}
+    }
+
+    /**
+     * @param crit
+     *            only used for the error message, may be <code>null</code>.
+     * @throws InvalidInputException
+     *             iff the preference threshold is smaller than the indifference threshold.
+     */
+    static private void checkThresholds(Criterion crit, double p, double q) throws InvalidInputException {
+	if (p < q) {
+	    final String message = crit == null ? "Preference treshold (" + p
+		    + ") is smaller than indifference threshold (" + q + ")." : "Criterion " + crit
+		    + " has preference treshold (" + p + ") smaller than indifference threshold (" + q + ").";
+	    throw new InvalidInputException(message);
+	}
+    }
+
     /**
      * <p>
      * Computes a matrix containing the preference indices, a la Promethee, for all the alternatives in the given data.
@@ -192,12 +237,7 @@ public class Concordance {
 	    throw new IllegalStateException();
 	}
 
-	if (p < q) {
-	    final String message = crit == null ? "Preference treshold (" + p
-		    + ") is smaller than indifference threshold (" + q + ")." : "Criterion " + crit
-		    + " has preference treshold (" + p + ") smaller than indifference threshold (" + q + ").";
-	    throw new InvalidInputException(message);
-	}
+	checkThresholds(crit, p, q);
 
 	if (p == q && perfDiff == p) {
 	    return prometheeStyle ? 0 : 1;
@@ -52,11 +52,7 @@ public class Discordance {
      */
     public Map<Criterion, SparseAlternativesMatrixFuzzy> discordances(IProblemData data,
 	    Thresholds thresholds) throws InvalidInputException {
-	final ConsistencyChecker consistencyChecker = new ConsistencyChecker();
-	consistencyChecker.assertCompleteAlternativesEvaluations(data);
-	consistencyChecker.assertCompletePreferenceDirections(data);
-	InputCheck.check(data.getCriteria().containsAll(thresholds.getCriteria()),
-		"Thresholds are defined on some unknown criterion.");
+	checkInput(data, thresholds);
 	final Map<Criterion, SparseAlternativesMatrixFuzzy> discordanceMatrixes = new HashMap<Criterion, SparseAlternativesMatrixFuzzy>();
 	if (m_sharpVetoes) {
 	    m_internalSmallestSep = Double.POSITIVE_INFINITY;
@@ -100,6 +96,48 @@ public class Discordance {
 	return discordanceMatrixes;
     }
 
+    /**
+     * Checks the input exactly as {@link #discordances(IProblemData, Thresholds)} does, without computing anything.
+     * The thresholds are compared only if there is at least one alternative, as the computation does.
+     *
+     * @param data
+     *            not <code>null</code>.
+     * @param thresholds
+     *            not <code>null</code>, some may be missing.
+     * @throws InvalidInputException
+     *             if the input is not valid.
+     */
+    void checkInput(IProblemData data, Thresholds thresholds) throws InvalidInputException {
+	final ConsistencyChecker consistencyChecker = new ConsistencyChecker();
+	consistencyChecker.assertCompleteAlternativesEvaluations(data);
+	consistencyChecker.assertCompletePreferenceDirections(data);
+	InputCheck.check(data.getCriteria().containsAll(thresholds.getCriteria()),
+		"Thresholds are defined on some unknown criterion.");
+	if (m_sharpVetoes || data.getAlternatives().isEmpty()) {
+	    return;
+	}
+	for (final Criterion crit : data.getCriteria()) {
+	    if (thresholds.containsVetoThreshold(crit)) {
+		final double pValue = thresholds.containsPreferenceThreshold(crit) ? thresholds
+			.getPreferenceThreshold(crit) : 0;
+		checkThresholds(crit, pValue, thresholds.getVetoThreshold(crit));
+	    }
+	}
+    }
+
+    /**
+     * @param criterion
+     *            only used for the error message, may be <code>null</code>.
+     * @throws InvalidInputException
+     *             iff the veto threshold is smaller than the preference threshold.
+     */
+    static private void checkThresholds(Criterion criterion, double p, double v) throws InvalidInputException {
+	if (v < p) {
+	    throw new InvalidInputException("Veto threshold is lower that preference threshold (crit " + criterion
+		    + ").");
+	}
+    }
+
     /**
      * Evaluates the discordance between two alternatives having the given evaluations.
      * 
@@ -141,10 +179,7 @@ public class Discordance {
 	}
 
 	final double vThresh = v.doubleValue();
-	if (vThresh < p) {
-	    throw new InvalidInputException("Veto threshold is lower that preference threshold (crit " + criterion
-		    + ").");
-	}
+	checkThresholds(criterion, p, vThresh);
 	final double disc;
 	if (perfDiff <= p) {
 	    disc = 0;
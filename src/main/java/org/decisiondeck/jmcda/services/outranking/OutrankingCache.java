@@ -0,0 +1,256 @@
+package org.decisiondeck.jmcda.services.outranking;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.interval.Interval;
+import org.decision_deck.jmcda.structure.matrix.EvaluationsRead;
+import org.decision_deck.jmcda.structure.matrix.SparseAlternativesMatrixFuzzy;
+import org.decision_deck.jmcda.structure.thresholds.Thresholds;
+import org.decision_deck.jmcda.structure.weights.Coalitions;
+import org.decisiondeck.jmcda.structure.sorting.problem.data.IProblemData;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * <p>
+ * A size-bounded, least recently used, cache of outranking results, which may be shared by several
+ * {@link OutrankingFull} objects (and through them, by several sorting services) in order to avoid computing again an
+ * outranking relation from the same inputs. This object is safe for use by concurrent threads.
+ * </p>
+ * <p>
+ * The results are keyed by a copy of the inputs: the alternatives, criteria, evaluations, scales (including their
+ * steps), thresholds, weights, majority threshold, veto mode and tolerance. A 128 bits hash of these inputs serves as
+ * hash code, and the copies are compared when looking up a result, thus two distinct inputs never share a result,
+ * even if their hashes collide. Each result held thus also holds a copy of its evaluations. Two inputs having the same
+ * content but iterating their alternatives or criteria in a different order have different keys, which only causes a
+ * cache miss.
+ * </p>
+ * <p>
+ * Caching is opt-in: see {@link OutrankingFull#setCache(OutrankingCache)}.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class OutrankingCache {
+    static class CachedOutranking {
+	private final SparseAlternativesMatrixFuzzy m_outranking;
+	private final Double m_smallestSep;
+
+	public CachedOutranking(SparseAlternativesMatrixFuzzy outranking, Double smallestSep) {
+	    m_outranking = checkNotNull(outranking);
+	    m_smallestSep = smallestSep;
+	}
+
+	/**
+	 * @return not <code>null</code>, must not be modified.
+	 */
+	public SparseAlternativesMatrixFuzzy getOutranking() {
+	    return m_outranking;
+	}
+
+	public Double getSmallestSep() {
+	    return m_smallestSep;
+	}
+    }
+
+    private final Cache<Key, CachedOutranking> m_cache;
+
+    /**
+     * @param maximumSize
+     *            the maximal number of outranking results this cache may hold. When reached, the least recently used
+     *            results are evicted.
+     */
+    public OutrankingCache(long maximumSize) {
+	checkArgument(maximumSize >= 0);
+	m_cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /**
+     * The inputs of an outranking computation, as a sequence of values, together with a hash of these values.
+     */
+    static class Key {
+	private final HashCode m_fingerprint;
+	private final ImmutableList<Object> m_values;
+
+	/**
+	 * @param fingerprint
+	 *            not <code>null</code>, a hash of the given values.
+	 * @param values
+	 *            not <code>null</code>.
+	 */
+	Key(HashCode fingerprint, List<?> values) {
+	    m_fingerprint = checkNotNull(fingerprint);
+	    m_values = ImmutableList.copyOf(values);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj) {
+		return true;
+	    }
+	    if (!(obj instanceof Key)) {
+		return false;
+	    }
+	    final Key other = (Key) obj;
+	    return m_fingerprint.equals(other.m_fingerprint) && m_values.equals(other.m_values);
+	}
+
+	@Override
+	public int hashCode() {
+	    return m_fingerprint.asInt();
+	}
+    }
+
+    /**
+     * Puts the given values into a hasher and into a list, in the same order.
+     */
+    static private class KeyBuilder {
+	private final Hasher m_hasher;
+	private final ImmutableList.Builder<Object> m_values;
+
+	public KeyBuilder() {
+	    m_hasher = Hashing.murmur3_128().newHasher();
+	    m_values = ImmutableList.builder();
+	}
+
+	public void putBoolean(boolean value) {
+	    m_hasher.putBoolean(value);
+	    m_values.add(Boolean.valueOf(value));
+	}
+
+	public void putInt(int value) {
+	    m_hasher.putInt(value);
+	    m_values.add(Integer.valueOf(value));
+	}
+
+	public void putDouble(double value) {
+	    m_hasher.putDouble(value);
+	    m_values.add(Double.valueOf(value));
+	}
+
+	/**
+	 * Puts the length of the given string before it, so that distinct sequences of strings can not be confused.
+	 */
+	public void putString(String string) {
+	    putInt(string.length());
+	    m_hasher.putString(string, Charsets.UTF_8);
+	    m_values.add(string);
+	}
+
+	public void putOptional(boolean present, double value) {
+	    putBoolean(present);
+	    if (present) {
+		putDouble(value);
+	    }
+	}
+
+	public Key build() {
+	    return new Key(m_hasher.hash(), m_values.build());
+	}
+    }
+
+    /**
+     * Computes the key of the given outranking inputs. Missing evaluations and thresholds are accepted.
+     *
+     * @param data
+     *            not <code>null</code>.
+     * @param thresholds
+     *            not <code>null</code>.
+     * @param coalitions
+     *            not <code>null</code>.
+     * @param sharpVetoes
+     *            the veto mode.
+     * @param tolerance
+     *            the tolerance used when cutting the outranking relation.
+     * @return not <code>null</code>.
+     */
+    static Key getKey(IProblemData data, Thresholds thresholds, Coalitions coalitions, boolean sharpVetoes,
+	    double tolerance) {
+	final KeyBuilder key = new KeyBuilder();
+	key.putBoolean(sharpVetoes);
+	key.putDouble(tolerance);
+
+	key.putInt(data.getCriteria().size());
+	for (Criterion criterion : data.getCriteria()) {
+	    key.putString(criterion.getId());
+	    final Interval scale = data.getScales().get(criterion);
+	    if (scale == null) {
+		key.putBoolean(false);
+	    } else {
+		key.putBoolean(true);
+		key.putDouble(scale.getMinimum());
+		key.putDouble(scale.getMaximum());
+		key.putInt(scale.getPreferenceDirection() == null ? -1 : scale.getPreferenceDirection().ordinal());
+		key.putOptional(scale.getStepSize() != null, scale.getStepSize() == null ? 0d : scale.getStepSize()
+			.doubleValue());
+	    }
+	    key.putOptional(thresholds.containsPreferenceThreshold(criterion),
+		    thresholds.containsPreferenceThreshold(criterion) ? thresholds
+			    .getPreferenceThreshold(criterion) : 0d);
+	    key.putOptional(thresholds.containsIndifferenceThreshold(criterion),
+		    thresholds.containsIndifferenceThreshold(criterion) ? thresholds
+			    .getIndifferenceThreshold(criterion) : 0d);
+	    key.putOptional(thresholds.containsVetoThreshold(criterion),
+		    thresholds.containsVetoThreshold(criterion) ? thresholds.getVetoThreshold(criterion) : 0d);
+	    final boolean hasWeight = coalitions.getCriteria().contains(criterion);
+	    key.putOptional(hasWeight, hasWeight ? coalitions.getWeight(criterion) : 0d);
+	}
+	key.putOptional(coalitions.containsMajorityThreshold(),
+		coalitions.containsMajorityThreshold() ? coalitions.getMajorityThreshold() : 0d);
+
+	final EvaluationsRead evaluations = data.getAlternativesEvaluations();
+	key.putInt(data.getAlternatives().size());
+	for (Alternative alternative : data.getAlternatives()) {
+	    key.putString(alternative.getId());
+	    for (Criterion criterion : data.getCriteria()) {
+		final Double entry = evaluations.getEntry(alternative, criterion);
+		key.putOptional(entry != null, entry == null ? 0d : entry.doubleValue());
+	    }
+	}
+	return key.build();
+    }
+
+    /**
+     * @param key
+     *            not <code>null</code>.
+     * @return <code>null</code> iff no result is cached for that key.
+     */
+    CachedOutranking get(Key key) {
+	return m_cache.getIfPresent(key);
+    }
+
+    void put(Key key, CachedOutranking outranking) {
+	m_cache.put(key, outranking);
+    }
+
+    /**
+     * @return a snapshot of the hit, miss and eviction counts of this cache since its creation.
+     */
+    public CacheStats getStats() {
+	return m_cache.stats();
+    }
+
+    /**
+     * @return the approximate number of results currently held.
+     */
+    public long size() {
+	return m_cache.size();
+    }
+
+    public void invalidateAll() {
+	m_cache.invalidateAll();
+    }
+}
@@ -4,11 +4,14 @@ import java.util.Map;
 
 import org.decision_deck.jmcda.structure.Alternative;
 import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.matrix.MatrixesMC;
 import org.decision_deck.jmcda.structure.matrix.SparseAlternativesMatrixFuzzy;
 import org.decision_deck.jmcda.structure.thresholds.Thresholds;
 import org.decision_deck.jmcda.structure.weights.Coalitions;
 import org.decision_deck.utils.matrix.SparseMatrixFuzzy;
 import org.decisiondeck.jmcda.exc.InvalidInputException;
+import org.decisiondeck.jmcda.services.outranking.OutrankingCache.CachedOutranking;
+import org.decisiondeck.jmcda.services.outranking.OutrankingCache.Key;
 import org.decisiondeck.jmcda.structure.sorting.problem.data.IProblemData;
 
 public class OutrankingFull {
@@ -17,11 +20,13 @@ public class OutrankingFull {
 	m_sharpVetoes = false;
 	m_smallestSep = null;
 	m_tolerance = Outranking.DEFAULT_TOLERANCE;
+	m_cache = null;
     }
 
     private boolean m_sharpVetoes;
     private Double m_smallestSep;
     private double m_tolerance;
+    private OutrankingCache m_cache;
 
     /**
      * <p>
@@ -48,7 +53,68 @@ public class OutrankingFull {
      */
     public SparseAlternativesMatrixFuzzy getOutranking(IProblemData data, Thresholds thresholds,
 	    Coalitions coalitions) throws InvalidInputException {
+	final SparseAlternativesMatrixFuzzy outranking = getOutrankingShared(data, thresholds, coalitions);
+	if (m_cache == null) {
+	    return outranking;
+	}
+	final SparseAlternativesMatrixFuzzy copy = MatrixesMC.newAlternativesFuzzy();
+	for (Alternative alt1 : outranking.getRows()) {
+	    for (Alternative alt2 : outranking.getColumns()) {
+		final Double entry = outranking.getEntry(alt1, alt2);
+		if (entry != null) {
+		    copy.put(alt1, alt2, entry.doubleValue());
+		}
+	    }
+	}
+	return copy;
+    }
 
+    /**
+     * Computes an outranking relation exactly as {@link #getOutranking(IProblemData, Thresholds, Coalitions)} does.
+     * If a cache is set, the returned matrix may be the one held in the cache, thus it must not be modified. This
+     * avoids copying the result, for callers that only read it.
+     * 
+     * @param data
+     *            not <code>null</code>.
+     * @param thresholds
+     *            the thresholds to use (missing thresholds are accepted). Not <code>null</code>.
+     * @param coalitions
+     *            not <code>null</code>.
+     * @return not <code>null</code>, not to be modified.
+     * @throws InvalidInputException
+     *             iff the input is not valid.
+     */
+    public SparseAlternativesMatrixFuzzy getOutrankingShared(IProblemData data, Thresholds thresholds,
+	    Coalitions coalitions) throws InvalidInputException {
+	if (m_cache == null) {
+	    return computeOutranking(data, thresholds, coalitions);
+	}
+	/** A cached result must not hide that the input is invalid. */
+	checkInput(data, thresholds, coalitions);
+	final Key key = OutrankingCache.getKey(data, thresholds, coalitions, m_sharpVetoes, m_tolerance);
+	final CachedOutranking cached = m_cache.get(key);
+	if (cached != null) {
+	    m_smallestSep = cached.getSmallestSep();
+	    return cached.getOutranking();
+	}
+	final SparseAlternativesMatrixFuzzy outranking = computeOutranking(data, thresholds, coalitions);
+	m_cache.put(key, new CachedOutranking(outranking, m_smallestSep));
+	return outranking;
+    }
+
+    /**
+     * Checks the input as the computation of the outranking relation does, without computing it.
+     */
+    private void checkInput(IProblemData data, Thresholds thresholds, Coalitions coalitions)
+	    throws InvalidInputException {
+	new Concordance().checkInput(data, thresholds, coalitions.getWeights());
+	final Discordance discordance = new Discordance();
+	discordance.setSharpVetoes(m_sharpVetoes);
+	discordance.checkInput(data, thresholds);
+    }
+
+    private SparseAlternativesMatrixFuzzy computeOutranking(IProblemData data, Thresholds thresholds,
+	    Coalitions coalitions) throws InvalidInputException {
 	final SparseMatrixFuzzy<Alternative, Alternative> concs = new Concordance().concordance(data, thresholds,
 		coalitions.getWeights());
 
@@ -98,6 +164,25 @@ public class OutrankingFull {
 	return m_smallestSep;
     }
 
+    /**
+     * @return <code>null</code> iff no cache is used.
+     */
+    public OutrankingCache getCache() {
+	return m_cache;
+    }
+
+    /**
+     * Sets the cache this object uses to retrieve outranking relations already computed from the same inputs and to
+     * store the ones it computes. The results are the same with or without a cache, but the matrixes returned by
+     * {@link #getOutranking(IProblemData, Thresholds, Coalitions)} are then copies of the cached ones.
+     * 
+     * @param cache
+     *            <code>null</code> for no cache (the default).
+     */
+    public void setCache(OutrankingCache cache) {
+	m_cache = cache;
+    }
+
     public double getTolerance() {
 	return m_tolerance;
     }
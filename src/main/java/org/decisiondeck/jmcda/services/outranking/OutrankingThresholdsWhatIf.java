@@ -0,0 +1,312 @@
+package org.decisiondeck.jmcda.services.outranking;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import org.decision_deck.jmcda.services.ConsistencyChecker;
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.interval.PreferenceDirection;
+import org.decision_deck.jmcda.structure.matrix.EvaluationsRead;
+import org.decision_deck.jmcda.structure.matrix.MatrixesMC;
+import org.decision_deck.jmcda.structure.matrix.SparseAlternativesMatrixFuzzy;
+import org.decision_deck.jmcda.structure.thresholds.Thresholds;
+import org.decision_deck.jmcda.structure.weights.Coalitions;
+import org.decisiondeck.jmcda.exc.InputCheck;
+import org.decisiondeck.jmcda.exc.InvalidInputException;
+import org.decisiondeck.jmcda.structure.sorting.problem.data.IProblemData;
+
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * A retained outranking model which accepts changes of the thresholds of one criterion at a time, and updates the
+ * cut outranking relation accordingly. The relation is the same as the one {@link OutrankingFull} computes on the
+ * changed thresholds, up to floating point rounding of the concordance, which is here updated incrementally.
+ * </p>
+ * <p>
+ * The partial concordance and discordance of every pair of alternatives on every criterion are retained. Changing
+ * the thresholds of one criterion recomputes only the partial indices of that criterion, updates the weighted sum of
+ * the partial concordances of each pair by the difference, and cuts again. The discordances of the other criteria
+ * are only visited for the pairs having at least one non zero discordance.
+ * </p>
+ * <p>
+ * The evaluations, scales and coalitions are those given when this object is built; later changes to these objects
+ * are not seen by this object.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class OutrankingThresholdsWhatIf {
+    private final boolean m_sharpVetoes;
+    private final double m_tolerance;
+    private final Alternative[] m_alternatives;
+    private final Map<Criterion, Integer> m_critsToInt = Maps.newHashMap();
+    private final Criterion[] m_criteria;
+    private final PreferenceDirection[] m_directions;
+    /**
+     * array[crit][alt] = evaluation of the alternative alt on the criterion crit.
+     */
+    private final double[][] m_evals;
+    private final double[] m_weights;
+    private final double m_sumWeights;
+    private final double m_cut;
+    private final double[] m_preferenceThresholds;
+    private final double[] m_indifferenceThresholds;
+    /**
+     * In array[crit], the veto threshold of the criterion crit, or <code>null</code> for no veto.
+     */
+    private final Double[] m_vetoThresholds;
+    /**
+     * array[crit][alt1 * nbAlts + alt2] = partial concordance of alt1 over alt2 on the criterion crit.
+     */
+    private final double[][] m_concs;
+    /**
+     * array[crit][alt1 * nbAlts + alt2] = partial discordance of alt1 over alt2 on the criterion crit.
+     */
+    private final double[][] m_discs;
+    /**
+     * In array[pair], the weighted sum, not normalized, of the partial concordances of the pair.
+     */
+    private final double[] m_totals;
+    /**
+     * In array[pair], the number of criteria whose partial discordance for the pair is not zero.
+     */
+    private final int[] m_nbDiscs;
+    private final boolean[] m_outranks;
+
+    /**
+     * @param data
+     *            not <code>null</code>. The same validity conditions as the ones required by
+     *            {@link OutrankingFull#getOutranking(IProblemData, Thresholds, Coalitions)} apply.
+     * @param thresholds
+     *            the initial thresholds (missing thresholds are accepted). Not <code>null</code>.
+     * @param coalitions
+     *            not <code>null</code>, must contain a majority threshold.
+     * @param sharpVetoes
+     *            see {@link OutrankingFull#setSharpVetoes(boolean)}.
+     * @param tolerance
+     *            see {@link OutrankingFull#setTolerance(double)}.
+     * @throws InvalidInputException
+     *             iff the input is not valid.
+     */
+    public OutrankingThresholdsWhatIf(IProblemData data, Thresholds thresholds, Coalitions coalitions,
+	    boolean sharpVetoes, double tolerance) throws InvalidInputException {
+	checkNotNull(data);
+	checkNotNull(thresholds);
+	checkNotNull(coalitions);
+	m_sharpVetoes = sharpVetoes;
+	m_tolerance = tolerance;
+	final ConsistencyChecker checker = new ConsistencyChecker();
+	checker.assertCompleteWeights(data.getCriteria(), coalitions.getCriteria());
+	checker.assertCompleteAlternativesEvaluations(data);
+	checker.assertCompletePreferenceDirections(data);
+	InputCheck.check(data.getCriteria().containsAll(thresholds.getCriteria()),
+		"Thresholds are defined on some unknown criterion.");
+	InputCheck.check(coalitions.containsMajorityThreshold(), "Missing majority threshold.");
+
+	final int nbCrits = data.getCriteria().size();
+	m_criteria = data.getCriteria().toArray(new Criterion[nbCrits]);
+	m_alternatives = data.getAlternatives().toArray(new Alternative[data.getAlternatives().size()]);
+	final int nbAlts = m_alternatives.length;
+	m_directions = new PreferenceDirection[nbCrits];
+	m_evals = new double[nbCrits][nbAlts];
+	m_weights = new double[nbCrits];
+	m_preferenceThresholds = new double[nbCrits];
+	m_indifferenceThresholds = new double[nbCrits];
+	m_vetoThresholds = new Double[nbCrits];
+	final EvaluationsRead evaluations = data.getAlternativesEvaluations();
+	for (int crit = 0; crit < nbCrits; ++crit) {
+	    final Criterion criterion = m_criteria[crit];
+	    m_critsToInt.put(criterion, Integer.valueOf(crit));
+	    m_directions[crit] = data.getScales().get(criterion).getPreferenceDirection();
+	    m_weights[crit] = coalitions.getWeight(criterion);
+	    for (int alt = 0; alt < nbAlts; ++alt) {
+		m_evals[crit][alt] = evaluations.getEntry(m_alternatives[alt], criterion).doubleValue();
+	    }
+	}
+	m_sumWeights = coalitions.getWeights().getSum();
+	final double cutThreshold = coalitions.getMajorityThreshold() / m_sumWeights;
+	/** Same rounding as the one done by OutrankingFull. */
+	m_cut = cutThreshold < 1 + 1e6 && cutThreshold > 1 ? 1d : cutThreshold;
+	checkArgument(m_cut >= 0 && m_cut <= 1, "Invalid " + m_cut + ".");
+
+	final int nbPairs = nbAlts * nbAlts;
+	m_concs = new double[nbCrits][nbPairs];
+	m_discs = new double[nbCrits][nbPairs];
+	m_totals = new double[nbPairs];
+	m_nbDiscs = new int[nbPairs];
+	m_outranks = new boolean[nbPairs];
+	for (int crit = 0; crit < nbCrits; ++crit) {
+	    final Criterion criterion = m_criteria[crit];
+	    m_preferenceThresholds[crit] = thresholds.containsPreferenceThreshold(criterion) ? thresholds
+		    .getPreferenceThreshold(criterion) : 0;
+	    m_indifferenceThresholds[crit] = thresholds.containsIndifferenceThreshold(criterion) ? thresholds
+		    .getIndifferenceThreshold(criterion) : 0;
+	    m_vetoThresholds[crit] = thresholds.containsVetoThreshold(criterion) ? Double.valueOf(thresholds
+		    .getVetoThreshold(criterion)) : null;
+	    computePartials(crit, m_preferenceThresholds[crit], m_indifferenceThresholds[crit],
+		    m_vetoThresholds[crit], m_concs[crit], m_discs[crit]);
+	}
+	/** Sums in the same order as Concordance does. */
+	for (int pair = 0; pair < nbPairs; ++pair) {
+	    double total = 0;
+	    int nbDiscs = 0;
+	    for (int crit = 0; crit < nbCrits; ++crit) {
+		total += m_weights[crit] * m_concs[crit][pair];
+		if (m_discs[crit][pair] != 0) {
+		    ++nbDiscs;
+		}
+	    }
+	    m_totals[pair] = total;
+	    m_nbDiscs[pair] = nbDiscs;
+	    m_outranks[pair] = cut(pair);
+	}
+    }
+
+    private void computePartials(int crit, double p, double q, Double v, double[] concs, double[] discs)
+	    throws InvalidInputException {
+	final Concordance concordance = new Concordance();
+	final Discordance discordance = new Discordance();
+	/** A sharp veto is a discordance whose preference threshold equals the veto threshold. */
+	final double pDisc = (m_sharpVetoes && v != null) ? v.doubleValue() : p;
+	final double[] evals = m_evals[crit];
+	final PreferenceDirection direction = m_directions[crit];
+	final int nbAlts = m_alternatives.length;
+	for (int alt1 = 0; alt1 < nbAlts; ++alt1) {
+	    for (int alt2 = 0; alt2 < nbAlts; ++alt2) {
+		final int pair = alt1 * nbAlts + alt2;
+		concs[pair] = concordance.concordancePairwize(evals[alt1], evals[alt2], direction, p, q);
+		discs[pair] = discordance.discordancePairwize(evals[alt1], evals[alt2], m_criteria[crit], direction,
+			pDisc, v);
+	    }
+	}
+    }
+
+    private boolean cut(int pair) {
+	double c = m_totals[pair] / m_sumWeights;
+	if (c > 1d) {
+	    if (c > 1.1d) {
+		throw new IllegalStateException("More than 10% error: total = " + c + ", should be ≤ 1.");
+	    }
+	    c = 1d;
+	}
+	double outr = c;
+	if (m_nbDiscs[pair] != 0) {
+	    final double complC = 1 - c;
+	    for (int crit = 0; crit < m_criteria.length; ++crit) {
+		final double disc = m_discs[crit][pair];
+		if (disc > c) {
+		    outr = outr * (1 - disc) / complC;
+		} else if (disc == 1) {
+		    outr = 0;
+		}
+	    }
+	}
+	return outr - m_cut >= -m_tolerance;
+    }
+
+    /**
+     * Changes the thresholds of the given criterion, and updates the outranking relation. If the input is not valid,
+     * this object is left unchanged.
+     *
+     * @param criterion
+     *            not <code>null</code>, one of the criteria of the data.
+     * @param preferenceThreshold
+     *            the new preference threshold, greater than or equal to the indifference threshold.
+     * @param indifferenceThreshold
+     *            the new indifference threshold.
+     * @param vetoThreshold
+     *            the new veto threshold, <code>null</code> for no veto, greater than or equal to the preference
+     *            threshold.
+     * @return the number of pairs of alternatives whose outranking changed.
+     * @throws InvalidInputException
+     *             if the thresholds are not valid.
+     */
+    public int setThresholds(Criterion criterion, double preferenceThreshold, double indifferenceThreshold,
+	    Double vetoThreshold) throws InvalidInputException {
+	final Integer critIdx = m_critsToInt.get(criterion);
+	checkArgument(critIdx != null, "Unknown criterion " + criterion + ".");
+	final int crit = critIdx.intValue();
+	final int nbPairs = m_totals.length;
+	final double[] concs = new double[nbPairs];
+	final double[] discs = new double[nbPairs];
+	computePartials(crit, preferenceThreshold, indifferenceThreshold, vetoThreshold, concs, discs);
+	m_preferenceThresholds[crit] = preferenceThreshold;
+	m_indifferenceThresholds[crit] = indifferenceThreshold;
+	m_vetoThresholds[crit] = vetoThreshold;
+
+	final double weight = m_weights[crit];
+	final double[] oldConcs = m_concs[crit];
+	final double[] oldDiscs = m_discs[crit];
+	int nbChanged = 0;
+	for (int pair = 0; pair < nbPairs; ++pair) {
+	    final boolean wasDisc = oldDiscs[pair] != 0;
+	    final boolean isDisc = discs[pair] != 0;
+	    if (concs[pair] == oldConcs[pair] && discs[pair] == oldDiscs[pair]) {
+		continue;
+	    }
+	    m_totals[pair] += weight * (concs[pair] - oldConcs[pair]);
+	    if (wasDisc != isDisc) {
+		m_nbDiscs[pair] += isDisc ? 1 : -1;
+	    }
+	    oldConcs[pair] = concs[pair];
+	    oldDiscs[pair] = discs[pair];
+	    final boolean outranks = cut(pair);
+	    if (outranks != m_outranks[pair]) {
+		m_outranks[pair] = outranks;
+		++nbChanged;
+	    }
+	}
+	return nbChanged;
+    }
+
+    /**
+     * @return the cut outranking relation, in a new matrix containing one iff the row alternative outranks the column
+     *         alternative and zero otherwise, as {@link OutrankingFull} computes it. Not <code>null</code>.
+     */
+    public SparseAlternativesMatrixFuzzy getOutranking() {
+	final SparseAlternativesMatrixFuzzy outranking = MatrixesMC.newAlternativesFuzzy();
+	final int nbAlts = m_alternatives.length;
+	for (int alt1 = 0; alt1 < nbAlts; ++alt1) {
+	    for (int alt2 = 0; alt2 < nbAlts; ++alt2) {
+		outranking.put(m_alternatives[alt1], m_alternatives[alt2], m_outranks[alt1 * nbAlts + alt2] ? 1 : 0);
+	    }
+	}
+	return outranking;
+    }
+
+    public double getPreferenceThreshold(Criterion criterion) {
+	return m_preferenceThresholds[getCritIndex(criterion)];
+    }
+
+    public double getIndifferenceThreshold(Criterion criterion) {
+	return m_indifferenceThresholds[getCritIndex(criterion)];
+    }
+
+    /**
+     * @param criterion
+     *            one of the criteria of the data.
+     * @return <code>null</code> iff the criterion has no veto threshold.
+     */
+    public Double getVetoThreshold(Criterion criterion) {
+	return m_vetoThresholds[getCritIndex(criterion)];
+    }
+
+    private int getCritIndex(Criterion criterion) {
+	final Integer crit = m_critsToInt.get(criterion);
+	checkArgument(crit != null, "Unknown criterion " + criterion + ".");
+	return crit.intValue();
+    }
+
+    public boolean isSharpVetoes() {
+	return m_sharpVetoes;
+    }
+
+    public double getTolerance() {
+	return m_tolerance;
+    }
+}
@@ -13,6 +13,7 @@ import org.decision_deck.jmcda.structure.matrix.SparseAlternativesMatrixFuzzy;
 import org.decision_deck.jmcda.structure.sorting.SortingMode;
 import org.decisiondeck.jmcda.exc.InvalidInputException;
 import org.decisiondeck.jmcda.services.outranking.Outranking;
+import org.decisiondeck.jmcda.services.outranking.OutrankingCache;
 import org.decisiondeck.jmcda.services.outranking.OutrankingFull;
 import org.decisiondeck.jmcda.structure.sorting.assignment.IOrderedAssignments;
 import org.decisiondeck.jmcda.structure.sorting.assignment.IOrderedAssignmentsToMultiple;
@@ -35,11 +36,13 @@ public class SortingFull {
 	m_sharpVetoes = true;
 	m_smallestSep = null;
 	m_tolerance = Outranking.DEFAULT_TOLERANCE;
+	m_cache = null;
     }
 
     private boolean m_sharpVetoes;
     private Double m_smallestSep;
     private double m_tolerance;
+    private OutrankingCache m_cache;
 
     public boolean isSharpVetoes() {
 	return m_sharpVetoes;
@@ -156,7 +159,8 @@ public class SortingFull {
 	final OutrankingFull outr = new OutrankingFull();
 	outr.setSharpVetoes(m_sharpVetoes);
 	outr.setTolerance(m_tolerance);
-	final SparseAlternativesMatrixFuzzy outranking = outr.getOutranking(
+	outr.setCache(m_cache);
+	final SparseAlternativesMatrixFuzzy outranking = outr.getOutrankingShared(
 ProblemFactory.newProblemData(
 		EvaluationsUtils.merge(problem.getAlternativesEvaluations(), problem.getProfilesEvaluations()),
 		problem.getScales()), problem.getThresholds(),
@@ -180,6 +184,25 @@ ProblemFactory.newProblemData(
 	return m_smallestSep;
     }
 
+    /**
+     * @return <code>null</code> iff no cache is used.
+     */
+    public OutrankingCache getCache() {
+	return m_cache;
+    }
+
+    /**
+     * Sets the cache used to retrieve the outranking relations already computed from the same inputs, possibly by
+     * other sorting objects sharing the same cache. Only the outranking relation is cached; the assignments are
+     * computed again from it at each call, thus the returned assignments are still independent objects.
+     * 
+     * @param cache
+     *            <code>null</code> for no cache (the default).
+     */
+    public void setCache(OutrankingCache cache) {
+	m_cache = cache;
+    }
+
     public double getTolerance() {
 	return m_tolerance;
     }
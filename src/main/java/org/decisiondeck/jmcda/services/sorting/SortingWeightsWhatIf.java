@@ -0,0 +1,415 @@
+package org.decisiondeck.jmcda.services.sorting;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+
+import org.decision_deck.jmcda.services.ConsistencyChecker;
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.interval.PreferenceDirection;
+import org.decision_deck.jmcda.structure.matrix.EvaluationsRead;
+import org.decision_deck.jmcda.structure.sorting.SortingMode;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decision_deck.jmcda.structure.thresholds.Thresholds;
+import org.decisiondeck.jmcda.exc.InputCheck;
+import org.decisiondeck.jmcda.exc.InvalidInputException;
+import org.decisiondeck.jmcda.services.outranking.Concordance;
+import org.decisiondeck.jmcda.services.outranking.Discordance;
+import org.decisiondeck.jmcda.services.outranking.Outranking;
+import org.decisiondeck.jmcda.structure.sorting.assignment.IOrderedAssignments;
+import org.decisiondeck.jmcda.structure.sorting.assignment.IOrderedAssignmentsToMultiple;
+import org.decisiondeck.jmcda.structure.sorting.assignment.IOrderedAssignmentsToMultipleRead;
+import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsFactory;
+import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsUtils;
+import org.decisiondeck.jmcda.structure.sorting.problem.preferences.ISortingPreferences;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>
+ * A what-if session over a sorting problem, permitting to change the weights and the majority threshold and obtain the
+ * resulting assignments quickly. The assignments are the same as those {@link SortingFull} computes on the problem
+ * with the changed coalitions.
+ * </p>
+ * <p>
+ * The partial concordance and discordance indices of every alternative over every profile, and of every profile over
+ * every alternative, are computed once, when this object is built. As the concordance is linear in the weights, a
+ * change of weights then only requires, for each pair, a reduction over the criteria.
+ * </p>
+ * <p>
+ * The evaluations, scales, thresholds and categories are those of the problem when this object is built; later
+ * changes to the problem are not seen by this object.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class SortingWeightsWhatIf {
+    private final SortingMode m_mode;
+    private final boolean m_sharpVetoes;
+    private final double m_tolerance;
+    private final Alternative[] m_alternatives;
+    private final Map<Alternative, Integer> m_altsToInt = Maps.newHashMap();
+    private final NavigableSet<Category> m_categories;
+    private final Category[] m_cats;
+    private final Map<Criterion, Integer> m_critsToInt = Maps.newHashMap();
+    /**
+     * In array[crit], the weight of the criterion crit.
+     */
+    private final double[] m_weights;
+    private double m_majorityThreshold;
+    private final int m_nbProfs;
+    /**
+     * array[crit][alt * nbProfs + prof] = partial concordance of the alternative alt over the profile prof, on the
+     * criterion crit. The profile numbered prof is the up profile of the category numbered prof.
+     */
+    private final double[][] m_concsAltProf;
+    /**
+     * array[crit][alt * nbProfs + prof] = partial concordance of the profile prof over the alternative alt.
+     */
+    private final double[][] m_concsProfAlt;
+    /**
+     * array[crit][alt * nbProfs + prof] = partial discordance of the alternative alt over the profile prof.
+     */
+    private final double[][] m_discsAltProf;
+    /**
+     * array[crit][alt * nbProfs + prof] = partial discordance of the profile prof over the alternative alt.
+     */
+    private final double[][] m_discsProfAlt;
+    /**
+     * In array[alt], the pessimistic category of the alternative alt, or -1 if not computed in the current mode.
+     */
+    private final int[] m_pessimistic;
+    /**
+     * In array[alt], the optimistic category of the alternative alt, or -1 if not computed in the current mode.
+     */
+    private final int[] m_optimistic;
+
+    /**
+     * Builds a session using sharp vetoes and the default tolerance, as {@link SortingFull} does by default.
+     *
+     * @param problem
+     *            not <code>null</code>. The same validity conditions as the ones required by {@link SortingFull}
+     *            apply, and the problem must contain a majority threshold.
+     * @param mode
+     *            not <code>null</code>.
+     * @throws InvalidInputException
+     *             if the input is not valid.
+     */
+    public SortingWeightsWhatIf(ISortingPreferences problem, SortingMode mode) throws InvalidInputException {
+	this(problem, mode, true, Outranking.DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param problem
+     *            not <code>null</code>. The same validity conditions as the ones required by {@link SortingFull}
+     *            apply, and the problem must contain a majority threshold.
+     * @param mode
+     *            not <code>null</code>.
+     * @param sharpVetoes
+     *            see {@link SortingFull#setSharpVetoes(boolean)}.
+     * @param tolerance
+     *            see {@link SortingFull#setTolerance(double)}.
+     * @throws InvalidInputException
+     *             if the input is not valid.
+     */
+    public SortingWeightsWhatIf(ISortingPreferences problem, SortingMode mode, boolean sharpVetoes, double tolerance)
+	    throws InvalidInputException {
+	checkNotNull(problem);
+	m_mode = checkNotNull(mode);
+	m_sharpVetoes = sharpVetoes;
+	m_tolerance = tolerance;
+	final ConsistencyChecker checker = new ConsistencyChecker();
+	checker.assertCompleteCoalitions(problem);
+	checker.assertCompleteCatsAndProfs(problem);
+	checker.assertCompleteAlternativesEvaluations(problem);
+	checker.assertCompleteProfilesEvaluations(problem);
+	checker.assertCompletePreferenceDirections(problem.getScales());
+
+	final Set<Criterion> criteria = problem.getCriteria();
+	m_weights = new double[criteria.size()];
+	int critIdx = 0;
+	for (Criterion criterion : criteria) {
+	    m_critsToInt.put(criterion, Integer.valueOf(critIdx));
+	    m_weights[critIdx] = problem.getCoalitions().getWeight(criterion);
+	    ++critIdx;
+	}
+	m_majorityThreshold = problem.getCoalitions().getMajorityThreshold();
+	final double sum = getSumOfWeights(-1, 0d);
+	InputCheck.check(sum > 0d, "The sum of the weights must be positive.");
+	InputCheck.check(m_majorityThreshold <= sum, "The majority threshold is greater than the sum of all weights.");
+
+	m_categories = ImmutableSortedSet.copyOfSorted(problem.getCatsAndProfs().getCategories());
+	m_cats = m_categories.toArray(new Category[m_categories.size()]);
+	m_nbProfs = m_cats.length - 1;
+	final Alternative[] profiles = new Alternative[m_nbProfs];
+	for (int prof = 0; prof < m_nbProfs; ++prof) {
+	    profiles[prof] = m_cats[prof].getProfileUp();
+	}
+	m_alternatives = problem.getAlternatives().toArray(new Alternative[problem.getAlternatives().size()]);
+	for (int alt = 0; alt < m_alternatives.length; ++alt) {
+	    m_altsToInt.put(m_alternatives[alt], Integer.valueOf(alt));
+	}
+
+	final int nbPairs = m_alternatives.length * m_nbProfs;
+	m_concsAltProf = new double[criteria.size()][nbPairs];
+	m_concsProfAlt = new double[criteria.size()][nbPairs];
+	m_discsAltProf = new double[criteria.size()][nbPairs];
+	m_discsProfAlt = new double[criteria.size()][nbPairs];
+	final Concordance concordance = new Concordance();
+	final Discordance discordance = new Discordance();
+	final Thresholds thresholds = problem.getThresholds();
+	final EvaluationsRead altsEvals = problem.getAlternativesEvaluations();
+	final EvaluationsRead profsEvals = problem.getProfilesEvaluations();
+	for (Criterion criterion : criteria) {
+	    final int crit = m_critsToInt.get(criterion).intValue();
+	    final PreferenceDirection direction = problem.getScales().get(criterion).getPreferenceDirection();
+	    final double p = thresholds.containsPreferenceThreshold(criterion) ? thresholds
+		    .getPreferenceThreshold(criterion) : 0;
+	    final double q = thresholds.containsIndifferenceThreshold(criterion) ? thresholds
+		    .getIndifferenceThreshold(criterion) : 0;
+	    final Double v = thresholds.containsVetoThreshold(criterion) ? Double.valueOf(thresholds
+		    .getVetoThreshold(criterion)) : null;
+	    /** A sharp veto is a discordance whose preference threshold equals the veto threshold. */
+	    final double pDisc = (sharpVetoes && v != null) ? v.doubleValue() : p;
+	    for (int alt = 0; alt < m_alternatives.length; ++alt) {
+		final double altEval = altsEvals.getEntry(m_alternatives[alt], criterion).doubleValue();
+		for (int prof = 0; prof < m_nbProfs; ++prof) {
+		    final double profEval = profsEvals.getEntry(profiles[prof], criterion).doubleValue();
+		    final int pair = alt * m_nbProfs + prof;
+		    m_concsAltProf[crit][pair] = concordance.concordancePairwize(altEval, profEval, direction, p, q);
+		    m_concsProfAlt[crit][pair] = concordance.concordancePairwize(profEval, altEval, direction, p, q);
+		    m_discsAltProf[crit][pair] = discordance.discordancePairwize(altEval, profEval, criterion,
+			    direction, pDisc, v);
+		    m_discsProfAlt[crit][pair] = discordance.discordancePairwize(profEval, altEval, criterion,
+			    direction, pDisc, v);
+		}
+	    }
+	}
+
+	m_pessimistic = new int[m_alternatives.length];
+	m_optimistic = new int[m_alternatives.length];
+	assignAll();
+    }
+
+    /**
+     * Changes the weight of the given criterion, and computes the resulting assignments. If the weight is rejected,
+     * this session is left unchanged.
+     *
+     * @param criterion
+     *            not <code>null</code>, a criterion of the problem.
+     * @param weight
+     *            positive or zero, finite, such that the sum of the weights stays positive and not lower than the
+     *            majority threshold.
+     * @return the alternatives whose assignment changed. Not <code>null</code>.
+     */
+    public Set<Alternative> setWeight(Criterion criterion, double weight) {
+	final Integer crit = m_critsToInt.get(criterion);
+	checkArgument(crit != null, "Unknown criterion " + criterion + ".");
+	checkArgument(weight >= 0d && !Double.isInfinite(weight), "Invalid weight: " + weight + ".");
+	final double sum = getSumOfWeights(crit.intValue(), weight);
+	checkArgument(sum > 0d, "The sum of the weights must be positive.");
+	checkArgument(m_majorityThreshold <= sum, "The majority threshold is greater than the sum of all weights.");
+	m_weights[crit.intValue()] = weight;
+	return assignAll();
+    }
+
+    /**
+     * Changes the majority threshold, and computes the resulting assignments. If the threshold is rejected, this
+     * session is left unchanged.
+     *
+     * @param majorityThreshold
+     *            on the same scale as the weights, positive or zero, not greater than their sum.
+     * @return the alternatives whose assignment changed. Not <code>null</code>.
+     */
+    public Set<Alternative> setMajorityThreshold(double majorityThreshold) {
+	checkArgument(majorityThreshold >= 0d, "Invalid majority threshold: " + majorityThreshold + ".");
+	checkArgument(majorityThreshold <= getSumOfWeights(-1, 0d),
+		"The majority threshold is greater than the sum of all weights.");
+	m_majorityThreshold = majorityThreshold;
+	return assignAll();
+    }
+
+    public double getWeight(Criterion criterion) {
+	final Integer crit = m_critsToInt.get(criterion);
+	checkArgument(crit != null, "Unknown criterion " + criterion + ".");
+	return m_weights[crit.intValue()];
+    }
+
+    public double getMajorityThreshold() {
+	return m_majorityThreshold;
+    }
+
+    /**
+     * Sums the weights in the order of the criteria, the weight of the given criterion being replaced by the given
+     * one, thus obtaining exactly the sum that {@link #assignAll()} uses once the weight is changed.
+     *
+     * @param replaced
+     *            the criterion whose weight is replaced, or -1 to sum the current weights.
+     */
+    private double getSumOfWeights(int replaced, double weight) {
+	double sum = 0d;
+	for (int crit = 0; crit < m_weights.length; ++crit) {
+	    sum += crit == replaced ? weight : m_weights[crit];
+	}
+	return sum;
+    }
+
+    /**
+     * Computes the assignments of all alternatives. The sum of the weights must be positive and not lower than the
+     * majority threshold.
+     */
+    private Set<Alternative> assignAll() {
+	final double sum = getSumOfWeights(-1, 0d);
+	assert sum > 0d && m_majorityThreshold <= sum;
+	final double cutThreshold = m_majorityThreshold / sum;
+	/** Same rounding as the one done when computing the full outranking. */
+	final double cut = cutThreshold < 1 + 1e6 && cutThreshold > 1 ? 1d : cutThreshold;
+
+	final Set<Alternative> changed = Sets.newLinkedHashSet();
+	final boolean withPessimistic = m_mode == SortingMode.PESSIMISTIC || m_mode == SortingMode.BOTH;
+	final boolean withOptimistic = m_mode == SortingMode.OPTIMISTIC || m_mode == SortingMode.BOTH;
+	for (int alt = 0; alt < m_alternatives.length; ++alt) {
+	    final int pessimistic;
+	    if (withPessimistic) {
+		int cat = 0;
+		for (int prof = m_nbProfs - 1; prof >= 0; --prof) {
+		    if (outranks(m_concsAltProf, m_discsAltProf, alt * m_nbProfs + prof, sum, cut)) {
+			cat = prof + 1;
+			break;
+		    }
+		}
+		pessimistic = cat;
+	    } else {
+		pessimistic = -1;
+	    }
+	    final int optimistic;
+	    if (withOptimistic) {
+		int cat = m_nbProfs;
+		for (int prof = 0; prof < m_nbProfs; ++prof) {
+		    final int pair = alt * m_nbProfs + prof;
+		    if (outranks(m_concsProfAlt, m_discsProfAlt, pair, sum, cut)
+			    && !outranks(m_concsAltProf, m_discsAltProf, pair, sum, cut)) {
+			cat = prof;
+			break;
+		    }
+		}
+		optimistic = cat;
+	    } else {
+		optimistic = -1;
+	    }
+	    if (pessimistic != m_pessimistic[alt] || optimistic != m_optimistic[alt]) {
+		changed.add(m_alternatives[alt]);
+		m_pessimistic[alt] = pessimistic;
+		m_optimistic[alt] = optimistic;
+	    }
+	}
+	return changed;
+    }
+
+    /**
+     * Computes the outranking exactly as {@link Concordance} and {@link Outranking} do, thus in the same order of
+     * criteria, in order to obtain the same values up to the last bit.
+     */
+    private boolean outranks(double[][] concs, double[][] discs, int pair, double sum, double cut) {
+	double total = 0;
+	for (int crit = 0; crit < m_weights.length; ++crit) {
+	    total += m_weights[crit] * concs[crit][pair];
+	}
+	double c = total / sum;
+	if (c > 1d) {
+	    if (c > 1.1d) {
+		throw new IllegalStateException("More than 10% error: total = " + c + ", should be ≤ 1.");
+	    }
+	    c = 1d;
+	}
+	final double complC = 1 - c;
+	double outr = c;
+	for (int crit = 0; crit < m_weights.length; ++crit) {
+	    final double disc = discs[crit][pair];
+	    if (disc > c) {
+		outr = outr * (1 - disc) / complC;
+	    } else if (disc == 1) {
+		outr = 0;
+	    }
+	}
+	return outr - cut >= -m_tolerance;
+    }
+
+    /**
+     * @param alternative
+     *            an alternative of the problem.
+     * @return the pessimistic category the alternative is currently assigned to, or <code>null</code> if the mode of
+     *         this session does not compute pessimistic assignments.
+     */
+    public Category getPessimisticCategory(Alternative alternative) {
+	final int cat = m_pessimistic[getIndex(alternative)];
+	return cat == -1 ? null : m_cats[cat];
+    }
+
+    /**
+     * @param alternative
+     *            an alternative of the problem.
+     * @return the optimistic category the alternative is currently assigned to, or <code>null</code> if the mode of
+     *         this session does not compute optimistic assignments.
+     */
+    public Category getOptimisticCategory(Alternative alternative) {
+	final int cat = m_optimistic[getIndex(alternative)];
+	return cat == -1 ? null : m_cats[cat];
+    }
+
+    private int getIndex(Alternative alternative) {
+	final Integer alt = m_altsToInt.get(alternative);
+	checkArgument(alt != null, "Unknown alternative " + alternative + ".");
+	return alt.intValue();
+    }
+
+    /**
+     * Retrieves the current assignments, in a new object, as {@link SortingFull#assign} would return them.
+     *
+     * @return not <code>null</code>.
+     */
+    public IOrderedAssignmentsToMultipleRead getAssignments() {
+	switch (m_mode) {
+	case PESSIMISTIC:
+	case OPTIMISTIC: {
+	    final IOrderedAssignments assignments = AssignmentsFactory.newOrderedAssignments();
+	    assignments.setCategories(m_categories);
+	    final int[] cats = m_mode == SortingMode.PESSIMISTIC ? m_pessimistic : m_optimistic;
+	    for (int alt = 0; alt < m_alternatives.length; ++alt) {
+		assignments.setCategory(m_alternatives[alt], m_cats[cats[alt]]);
+	    }
+	    return assignments;
+	}
+	case BOTH: {
+	    final IOrderedAssignmentsToMultiple assignments = AssignmentsFactory.newOrderedAssignmentsToMultiple();
+	    assignments.setCategories(m_categories);
+	    for (int alt = 0; alt < m_alternatives.length; ++alt) {
+		AssignmentsUtils.addToCategories(assignments, m_alternatives[alt], m_cats[m_optimistic[alt]]);
+		AssignmentsUtils.addToCategories(assignments, m_alternatives[alt], m_cats[m_pessimistic[alt]]);
+	    }
+	    return assignments;
+	}
+	default:
+	    throw new IllegalStateException("Unknown mode.");
+	}
+    }
+
+    public SortingMode getMode() {
+	return m_mode;
+    }
+
+    public boolean isSharpVetoes() {
+	return m_sharpVetoes;
+    }
+
+    public double getTolerance() {
+	return m_tolerance;
+    }
+}
@@ -1,16 +1,11 @@
 package org.decisiondeck.jmcda.services.sorting.assignments;
 
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Arrays;
 
-import org.decision_deck.jmcda.structure.Alternative;
-import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
 import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilitiesRead;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.PeekingIterator;
 
 /**
  * Computes statistics pertaining to an {@link IOrderedAssignmentsWithCredibilitiesRead} object.
@@ -89,7 +84,9 @@ public class CredibilitiesHelper {
      * at least two different values in the given assignments, equivalently, the minimal difference is not defined iff
      * the given assignments use only one value as credibilities, e.g., it consists of only one assigned alternative
      * which has credibility (3, 3). The credibility values are all positive and non zero, as usual, thus so is also the
-     * maximal sum and the maximal value. The minimal difference is positive and non zero as well.
+     * maximal sum and the maximal value. The minimal difference is positive and non zero as well. The statistics are
+     * computed in a single pass over a {@link DenseCredibilities} copy of the given assignments, or directly over the
+     * given assignments if they are of that type; zero credibilities are considered as absent.
      * 
      * @param assignments
      *            not <code>null</code>, must contain at least one assignment.
@@ -104,16 +101,20 @@ public class CredibilitiesHelper {
 	m_minSum = Double.POSITIVE_INFINITY;
 	m_minMax = Double.POSITIVE_INFINITY;
 
-	final TreeSet<Double> allValues = new TreeSet<Double>();
-
-	final Set<Alternative> alternatives = assignments.getAlternatives();
-	for (Alternative alternative : alternatives) {
-	    final Map<Category, Double> credibilities = assignments.getCredibilities(alternative);
+	/** Dense assignments, such as those the extractors hold, are read directly, without a copy. */
+	final DenseCredibilities credibilities = DenseCredibilities.copyOf(assignments);
+	final int nbCats = credibilities.getNbCategories();
+	/** The positive credibility values, in the first nbValues cells. */
+	final double[] allValues = new double[credibilities.getNbAlternatives() * nbCats];
+	int nbValues = 0;
+	for (int alt = 0; alt < credibilities.getNbAlternatives(); ++alt) {
 	    double sum = 0d;
 	    double localMax = Double.NEGATIVE_INFINITY;
-	    for (Category cat : credibilities.keySet()) {
-		final Double cred = credibilities.get(cat);
-		final double credibility = cred.doubleValue();
+	    for (int cat = 0; cat < nbCats; ++cat) {
+		final double credibility = credibilities.getCredibility(alt, cat);
+		if (credibility == 0d) {
+		    continue;
+		}
 		sum += credibility;
 		if (credibility > m_maxValue) {
 		    m_maxValue = credibility;
@@ -124,7 +125,8 @@ public class CredibilitiesHelper {
 		if (credibility > localMax) {
 		    localMax = credibility;
 		}
-		allValues.add(cred);
+		allValues[nbValues] = credibility;
+		++nbValues;
 	    }
 	    if (sum > m_maxSum) {
 		m_maxSum = sum;
@@ -137,18 +139,10 @@ public class CredibilitiesHelper {
 	    }
 	}
 
-	final PeekingIterator<Double> valuesIter = Iterators.peekingIterator(allValues.iterator());
-	while (valuesIter.hasNext()) {
-	    final double v1 = valuesIter.next().doubleValue();
-	    if (!valuesIter.hasNext()) {
-		break;
-	    }
-	    final double v2 = valuesIter.peek().doubleValue();
-	    final double diff = v2 - v1;
-	    if (diff <= 0d) {
-		throw new IllegalStateException("Should be sorted.");
-	    }
-	    if (diff < m_minDiff) {
+	Arrays.sort(allValues, 0, nbValues);
+	for (int i = 1; i < nbValues; ++i) {
+	    final double diff = allValues[i] - allValues[i - 1];
+	    if (diff > 0d && diff < m_minDiff) {
 		m_minDiff = diff;
 	    }
 	}
@@ -0,0 +1,217 @@
+package org.decisiondeck.jmcda.services.sorting.assignments;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>
+ * Follows the “smallest” intervals of every alternative of an assignments object while the minimal credibility level
+ * decreases. The set of intervals reaching a given level changes only when the level goes below the sum of
+ * credibilities of some interval: for each alternative, those sums are sorted once, and when the level is lowered,
+ * only the alternatives having such a sum between the former level and the new one are recomputed.
+ * </p>
+ * <p>
+ * The sums are computed in order of the categories, as {@link SmallestCredibleIntervals} does when close to the
+ * minimal credibility, thus the intervals found for a given level are exactly those that would be found by computing
+ * them from scratch.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+class CredibilityLevelsSweep {
+    private class AlternativeLevels {
+	private final int m_alternative;
+	private final double[] m_credibilities;
+	/**
+	 * The distinct sums of credibilities of the intervals of this alternative, in decreasing order.
+	 */
+	private final double[] m_levels;
+	/**
+	 * The index of the first level that has not been gone below yet.
+	 */
+	private int m_next;
+	private Set<SortedMap<Category, Double>> m_intervals;
+	/**
+	 * The smallest sum of credibilities among the current intervals.
+	 */
+	private double m_minSum;
+
+	public AlternativeLevels(int alternative) {
+	    m_alternative = alternative;
+	    m_credibilities = m_assignments.getRow(alternative);
+
+	    final double[] sums = new double[m_credibilities.length * (m_credibilities.length + 1) / 2];
+	    int nbSums = 0;
+	    for (int first = 0; first < m_credibilities.length; ++first) {
+		double sum = 0d;
+		for (int last = first; last < m_credibilities.length; ++last) {
+		    sum += m_credibilities[last];
+		    sums[nbSums] = sum;
+		    ++nbSums;
+		}
+	    }
+	    Arrays.sort(sums);
+	    final double[] levels = new double[sums.length];
+	    int nbLevels = 0;
+	    for (int i = sums.length - 1; i >= 0; --i) {
+		if (nbLevels == 0 || sums[i] != levels[nbLevels - 1]) {
+		    levels[nbLevels] = sums[i];
+		    ++nbLevels;
+		}
+	    }
+	    m_levels = Arrays.copyOf(levels, nbLevels);
+	    m_next = 0;
+	    m_intervals = null;
+	    m_minSum = Double.NaN;
+	}
+
+	public boolean hasNextLevel() {
+	    return m_next < m_levels.length;
+	}
+
+	public double getNextLevel() {
+	    return m_levels[m_next];
+	}
+
+	/**
+	 * Goes below the levels greater than or equal to the given one and recomputes the intervals.
+	 *
+	 * @return <code>true</code> iff the intervals changed.
+	 */
+	public boolean lowerTo(double minimalCredibility, boolean mostCredibleOnly) {
+	    while (hasNextLevel() && getNextLevel() >= minimalCredibility) {
+		++m_next;
+	    }
+	    final int[][] intervals = mostCredibleOnly ? SmallestCredibleIntervals.getSmallestMostCredibleIntervals(
+		    m_credibilities, minimalCredibility, EmbeddedCredibilitiesExtractor.DEFAULT_TOLERANCE)
+		    : SmallestCredibleIntervals.getSmallestIntervals(m_credibilities, minimalCredibility);
+	    final Set<SortedMap<Category, Double>> intervalsMaps = Sets.newHashSet();
+	    double minSum = Double.POSITIVE_INFINITY;
+	    for (int[] interval : intervals) {
+		intervalsMaps.add(m_assignments.getCredibilitiesWithZeroes(m_alternative, interval[0], interval[1]));
+		double sum = 0d;
+		for (int cat = interval[0]; cat <= interval[1]; ++cat) {
+		    sum += m_credibilities[cat];
+		}
+		minSum = Math.min(minSum, sum);
+	    }
+	    final boolean changed = !intervalsMaps.equals(m_intervals);
+	    m_intervals = intervalsMaps;
+	    m_minSum = minSum;
+	    return changed;
+	}
+    }
+
+    private final DenseCredibilities m_assignments;
+    private final boolean m_mostCredibleOnly;
+    private final List<AlternativeLevels> m_alternatives = Lists.newArrayList();
+    /**
+     * The alternatives having levels not gone below yet, the one having the highest next level first.
+     */
+    private final PriorityQueue<AlternativeLevels> m_pending;
+    private double m_level;
+
+    /**
+     * @param assignments
+     *            not <code>null</code>, must contain at least one alternative.
+     * @param mostCredibleOnly
+     *            <code>true</code> to retain, among the smallest intervals, only the most credible ones, as
+     *            {@link EmbeddedCredibilitiesExtractor} does; <code>false</code> to retain all of them, as
+     *            {@link EmbeddedCredibilitiesExtractorT2} does.
+     */
+    public CredibilityLevelsSweep(DenseCredibilities assignments, boolean mostCredibleOnly) {
+	Preconditions.checkArgument(assignments.getNbAlternatives() >= 1);
+	m_assignments = assignments;
+	m_mostCredibleOnly = mostCredibleOnly;
+	m_pending = new PriorityQueue<AlternativeLevels>(assignments.getNbAlternatives(),
+		new Comparator<AlternativeLevels>() {
+		    @Override
+		    public int compare(AlternativeLevels o1, AlternativeLevels o2) {
+			return Double.compare(o2.getNextLevel(), o1.getNextLevel());
+		    }
+		});
+	for (int alternative = 0; alternative < assignments.getNbAlternatives(); ++alternative) {
+	    m_alternatives.add(new AlternativeLevels(alternative));
+	}
+	m_level = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Lowers the minimal credibility level to the given one, and recomputes the intervals of the alternatives that
+     * have an interval whose sum of credibilities is between the former level, exclusive, and the given one,
+     * inclusive. The first call computes the intervals of every alternative.
+     *
+     * @param minimalCredibility
+     *            a number greater than zero, lower than the level given at the previous call, if any. Must be less than
+     *            or equal to the smallest sum of credibilities found in the bound assignments.
+     * @return <code>true</code> iff the intervals of some alternative changed, equivalently, iff the product set
+     *         changed.
+     */
+    public boolean lowerTo(double minimalCredibility) {
+	Preconditions.checkArgument(minimalCredibility < m_level);
+	final boolean first = Double.isInfinite(m_level);
+	m_level = minimalCredibility;
+	if (first) {
+	    for (AlternativeLevels levels : m_alternatives) {
+		levels.lowerTo(minimalCredibility, m_mostCredibleOnly);
+		if (levels.hasNextLevel()) {
+		    m_pending.add(levels);
+		}
+	    }
+	    return true;
+	}
+	boolean changed = false;
+	while (!m_pending.isEmpty() && m_pending.peek().getNextLevel() >= minimalCredibility) {
+	    final AlternativeLevels levels = m_pending.poll();
+	    changed |= levels.lowerTo(minimalCredibility, m_mostCredibleOnly);
+	    if (levels.hasNextLevel()) {
+		m_pending.add(levels);
+	    }
+	}
+	return changed;
+    }
+
+    /**
+     * At least one level must have been given.
+     *
+     * @return not <code>null</code>, the product set of the intervals reaching the current level.
+     */
+    public ProductSetOfIntervals getProductSet() {
+	Preconditions.checkState(!Double.isInfinite(m_level));
+	final Map<Alternative, Set<SortedMap<Category, Double>>> allIntervals = Maps.newLinkedHashMap();
+	for (AlternativeLevels levels : m_alternatives) {
+	    allIntervals.put(m_assignments.getAlternative(levels.m_alternative), levels.m_intervals);
+	}
+	return new ProductSetOfIntervals(m_assignments.getCategories(), allIntervals);
+    }
+
+    /**
+     * At least one level must have been given.
+     *
+     * @return the smallest sum of credibilities of an interval reaching the current level, over all alternatives,
+     *         which is the smallest sum of credibilities found in the assignments of the product set.
+     */
+    public double getMinSum() {
+	Preconditions.checkState(!Double.isInfinite(m_level));
+	double minSum = Double.POSITIVE_INFINITY;
+	for (AlternativeLevels levels : m_alternatives) {
+	    minSum = Math.min(minSum, levels.m_minSum);
+	}
+	return minSum;
+    }
+}
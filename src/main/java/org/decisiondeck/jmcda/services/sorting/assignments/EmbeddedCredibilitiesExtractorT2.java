@@ -1,12 +1,8 @@
 package org.decisiondeck.jmcda.services.sorting.assignments;
 
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.NavigableMap;
-import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -14,17 +10,12 @@ import java.util.TreeMap;
 
 import org.decision_deck.jmcda.structure.Alternative;
 import org.decision_deck.jmcda.structure.sorting.category.Category;
-import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilities;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
 import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilitiesRead;
-import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsFactory;
-import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Collections2;
-import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -39,10 +30,10 @@ public class EmbeddedCredibilitiesExtractorT2 {
 
     static public final double DEFAULT_TOLERANCE = 1e-6;
     private final CredibilitiesHelper m_credibilitiesHelper = new CredibilitiesHelper();
-    private final IOrderedAssignmentsWithCredibilitiesRead m_assignments;
+    private final DenseCredibilities m_assignments;
 
     public EmbeddedCredibilitiesExtractorT2(IOrderedAssignmentsWithCredibilitiesRead assignments) {
-	m_assignments = AssignmentsFactory.newOrderedAssignmentsWithCredibilities(assignments);
+	m_assignments = DenseCredibilities.copyOf(assignments);
     }
 
     /**
@@ -80,52 +71,25 @@ public class EmbeddedCredibilitiesExtractorT2 {
 	Preconditions.checkArgument(credibilities.size() > 0);
 	Preconditions.checkArgument(minimalCredibility > 0d);
 
-	final Set<SortedMap<Category, Double>> validIntervals = Sets.newHashSet();
-	final Iterator<Category> beginIterator = credibilities.keySet().iterator();
-	int smallestNbCategories = Integer.MAX_VALUE;
-	do {
-	    Category begin = beginIterator.next();
-	    final Iterator<Category> endIter = credibilities.tailMap(begin).keySet().iterator();
-	    double sumOfCredibilities = 0d;
-	    Category end;
-	    int nbCategories = 0;
-	    do {
-		end = endIter.next();
-		final double nextCred = credibilities.get(end).doubleValue();
-		assert nextCred >= 0d;
-		sumOfCredibilities += nextCred;
-		++nbCategories;
-	    } while (endIter.hasNext() && sumOfCredibilities < minimalCredibility
-		    && nbCategories < smallestNbCategories);
-	    if (nbCategories > smallestNbCategories) {
-		continue;
-	    }
-	    if (sumOfCredibilities < minimalCredibility) {
-		continue;
-	    }
-
-	    final NavigableMap<Category, Double> credibilitiesNav = new TreeMap<Category, Double>(credibilities);
-	    if (nbCategories < smallestNbCategories) {
-		validIntervals.clear();
-	    } else if (nbCategories == smallestNbCategories) {
-		/** Ex-æquo, need to add the interval found. */
-	    } else {
-		throw new IllegalStateException("Unexpected case.");
-	    }
-	    validIntervals.add(credibilitiesNav.subMap(begin, true, end, true));
-	    smallestNbCategories = nbCategories;
-	} while (beginIterator.hasNext());
-
-	if (validIntervals.isEmpty()) {
-	    throw new IllegalStateException("No intervals found whose credibility reach the given level "
-		    + minimalCredibility + ".");
+	final Category[] categories = credibilities.keySet().toArray(new Category[credibilities.size()]);
+	final double[] values = new double[categories.length];
+	int cat = 0;
+	for (Double credibility : credibilities.values()) {
+	    values[cat] = credibility.doubleValue();
+	    ++cat;
 	}
+	final int[][] intervals = SmallestCredibleIntervals.getSmallestIntervals(values, minimalCredibility);
 
+	final Set<SortedMap<Category, Double>> validIntervals = Sets.newHashSet();
+	for (int[] interval : intervals) {
+	    validIntervals.add(SmallestCredibleIntervals.getInterval(categories, values, interval,
+		    credibilities.comparator()));
+	}
 	return validIntervals;
     }
 
-    static public Set<IOrderedAssignmentsWithCredibilitiesRead> getProductSetOfIntervals(
-	    IOrderedAssignmentsWithCredibilitiesRead assignments, double minimalCredibility) {
+    static public ProductSetOfIntervals getProductSetOfIntervals(IOrderedAssignmentsWithCredibilitiesRead assignments,
+	    double minimalCredibility) {
 	return new EmbeddedCredibilitiesExtractorT2(assignments).getProductSetOfIntervals(minimalCredibility);
     }
 
@@ -145,76 +109,7 @@ public class EmbeddedCredibilitiesExtractorT2 {
      */
     static public Iterator<IOrderedAssignmentsWithCredibilitiesRead> getProductSetOfIntervalsIterator(
 	    SortedSet<Category> categories, Map<Alternative, Set<SortedMap<Category, Double>>> allIntervals) {
-	return new ProductSetOfIntervalsIterator(categories, allIntervals);
-    }
-
-    static private class ProductSetOfIntervalsIterator implements Iterator<IOrderedAssignmentsWithCredibilitiesRead> {
-	private final Map<Alternative, Set<SortedMap<Category, Double>>> m_productIntervals;
-	private final LinkedHashMap<Alternative, Iterator<SortedMap<Category, Double>>> m_intervalsIterators = Maps
-		.newLinkedHashMap();
-	private final IOrderedAssignmentsWithCredibilities m_current;
-
-	/**
-	 * @param categories
-	 *            not <code>null</code>; is required in order to determine the total ordering of the categories.
-	 *            Must be a superset of all categories used in the intervals. Will be used as the categories
-	 *            associated to all the returned assignments objects in the returned set.
-	 * @param productIntervals
-	 *            not <code>null</code>, may be empty. The values may not be <code>null</code>, may not be empty.
-	 */
-	public ProductSetOfIntervalsIterator(SortedSet<Category> categories,
-		Map<Alternative, Set<SortedMap<Category, Double>>> productIntervals) {
-	    m_productIntervals = productIntervals;
-	    for (Alternative alternative : Sets.newTreeSet(m_productIntervals.keySet()).descendingSet()) {
-		final Set<SortedMap<Category, Double>> intervals = m_productIntervals.get(alternative);
-		final Iterator<SortedMap<Category, Double>> iterator = intervals.iterator();
-		m_intervalsIterators.put(alternative, iterator);
-	    }
-
-	    m_current = AssignmentsFactory.newOrderedAssignmentsWithCredibilities();
-	    m_current.setCategories(categories);
-	    final Iterator<Alternative> alternativesIterator = m_intervalsIterators.keySet().iterator();
-	    /** Do not put the first one, it will be put again at the first call to next(). */
-	    alternativesIterator.next();
-	    while (alternativesIterator.hasNext()) {
-		final Alternative alternative = alternativesIterator.next();
-		Iterator<SortedMap<Category, Double>> iterator = m_intervalsIterators.get(alternative);
-		if (!iterator.hasNext()) {
-		    throw new IllegalArgumentException("Sets may not be empty.");
-		}
-		final SortedMap<Category, Double> first = iterator.next();
-		m_current.setCredibilities(alternative, first);
-	    }
-	}
-
-	@Override
-	public boolean hasNext() {
-	    for (Iterator<SortedMap<Category, Double>> iterator : m_intervalsIterators.values()) {
-		if (iterator.hasNext()) {
-		    return true;
-		}
-	    }
-	    return false;
-	}
-
-	@Override
-	public IOrderedAssignmentsWithCredibilitiesRead next() {
-	    for (Alternative alternative : m_intervalsIterators.keySet()) {
-		final Iterator<SortedMap<Category, Double>> iterator = m_intervalsIterators.get(alternative);
-		if (iterator.hasNext()) {
-		    final SortedMap<Category, Double> current = iterator.next();
-		    m_current.setCredibilities(alternative, current);
-		    return AssignmentsFactory.newOrderedAssignmentsWithCredibilities(m_current);
-		}
-	    }
-	    throw new NoSuchElementException();
-	}
-
-	@Override
-	public void remove() {
-	    throw new UnsupportedOperationException();
-	}
-
+	return new ProductSetOfIntervals(categories, allIntervals).iterator();
     }
 
     /**
@@ -245,6 +140,11 @@ public class EmbeddedCredibilitiesExtractorT2 {
      * intervals reaching a credibility of 3. The relevant smallest interval is [c4], which is not included in the
      * former one.
      * </p>
+     * <p>
+     * The levels are swept downwards and the intervals of an alternative are recomputed only when the level goes below
+     * the sum of credibilities of one of its intervals, thus the product set is computed only at the levels where it
+     * changes.
+     * </p>
      * 
      * @return not <code>null</code>, not empty.
      */
@@ -264,10 +164,16 @@ public class EmbeddedCredibilitiesExtractorT2 {
 	final double start = getStats().getMinSum() - offset / 2d;
 	/** Currentmin must be a bit below the level we target to account for numerical errors. */
 	double currentMin = start;
+	final CredibilityLevelsSweep sweep = new CredibilityLevelsSweep(m_assignments, false);
 	while (currentMin >= getStats().getMinValue()) {
-	    final Set<IOrderedAssignmentsWithCredibilitiesRead> productSet = getProductSetOfIntervals(currentMin);
+	    if (!sweep.lowerTo(currentMin)) {
+		/** No intervals changed since the previous level, thus neither did the product set. */
+		currentMin -= offset;
+		continue;
+	    }
+	    final ProductSetOfIntervals productSet = sweep.getProductSet();
 	    assert productSet.size() >= 1;
-	    final Double overallCredibility = Double.valueOf(getMinSum(productSet));
+	    final Double overallCredibility = Double.valueOf(sweep.getMinSum());
 	    if (res.containsKey(overallCredibility)) {
 		final Set<IOrderedAssignmentsWithCredibilitiesRead> resAtOverall = res.get(overallCredibility);
 		assert productSet.equals(resAtOverall) : "Expected equal " + productSet + ", " + resAtOverall + ".";
@@ -279,28 +185,6 @@ public class EmbeddedCredibilitiesExtractorT2 {
 	return res;
     }
 
-    /**
-     * Note that this method does not consider possible numerical errors and thus may fail if precision is needed.
-     * 
-     * @param productSet
-     *            not <code>null</code>, not empty.
-     * @return a value greater than zero.
-     */
-    private double getMinSum(final Set<IOrderedAssignmentsWithCredibilitiesRead> productSet) {
-	final Collection<Double> minSums = Collections2.transform(productSet,
-		new Function<IOrderedAssignmentsWithCredibilitiesRead, Double>() {
-		    @Override
-		    public Double apply(IOrderedAssignmentsWithCredibilitiesRead input) {
-			final CredibilitiesHelper helper = new CredibilitiesHelper();
-			helper.computeStatistics(input);
-			return Double.valueOf(helper.getMinSum());
-		    }
-		});
-	// final Double minSum = Iterables.getOnlyElement(Ordering.<Double> natural().leastOf(minSums, 1));
-	final Double minSum = Collections.min(minSums);
-	return minSum.doubleValue();
-    }
-
     /**
      * Retrieves the smallest credibility level found in an edge of the credibilities among all assignments. For
      * example, if an assignment has credibilities (in order of the categories) 5, 3, 1, then the considered numbers are
@@ -341,7 +225,8 @@ public class EmbeddedCredibilitiesExtractorT2 {
      * returned.
      * </p>
      * <p>
-     * Then, computes the product set of all these intervals.
+     * Then, computes the product set of all these intervals. The returned set is not materialized: its elements are
+     * built when they are asked for, see {@link ProductSetOfIntervals}.
      * </p>
      * <p>
      * For example, consider an assignments object of two alternatives into three categories, with a1 having
@@ -360,23 +245,20 @@ public class EmbeddedCredibilitiesExtractorT2 {
      * @param minimalCredibility
      *            a number greater than zero. Must be less than or equal to the smallest sum of credibilities found in
      *            the bound assignments, otherwize it is impossible to find adequate intervals.
-     * @return not <code>null</code>, empty iff no alternatives are assigned in the input assignments.
+     * @return not <code>null</code>, empty iff no alternatives are assigned in the input assignments. Immutable.
      */
-    public Set<IOrderedAssignmentsWithCredibilitiesRead> getProductSetOfIntervals(double minimalCredibility) {
+    public ProductSetOfIntervals getProductSetOfIntervals(double minimalCredibility) {
 	final Map<Alternative, Set<SortedMap<Category, Double>>> allIntervals = Maps.newLinkedHashMap();
-	final Set<Alternative> alternatives = m_assignments.getAlternatives();
-	for (Alternative alternative : alternatives) {
-	    final NavigableMap<Category, Double> credibilities = AssignmentsUtils.getCredibilitiesWithZeroes(
-		    m_assignments, alternative);
-	    final Set<SortedMap<Category, Double>> intervals = getSmallestMostCredibleIntervals(credibilities,
+	for (int alternative = 0; alternative < m_assignments.getNbAlternatives(); ++alternative) {
+	    final int[][] intervals = SmallestCredibleIntervals.getSmallestIntervals(m_assignments.getRow(alternative),
 		    minimalCredibility);
-	    allIntervals.put(alternative, intervals);
+	    final Set<SortedMap<Category, Double>> intervalsMaps = Sets.newHashSet();
+	    for (int[] interval : intervals) {
+		intervalsMaps.add(m_assignments.getCredibilitiesWithZeroes(alternative, interval[0], interval[1]));
+	    }
+	    allIntervals.put(m_assignments.getAlternative(alternative), intervalsMaps);
 	}
-	final Set<IOrderedAssignmentsWithCredibilitiesRead> product = Sets.newLinkedHashSet();
-	final Iterator<IOrderedAssignmentsWithCredibilitiesRead> iterator = getProductSetOfIntervalsIterator(
-		m_assignments.getCategories(), allIntervals);
-	Iterators.addAll(product, iterator);
-	return product;
+	return new ProductSetOfIntervals(m_assignments.getCategories(), allIntervals);
     }
 
     /**
@@ -6,20 +6,19 @@ import java.util.NavigableMap;
 import java.util.NavigableSet;
 import java.util.TreeMap;
 
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
 import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilitiesRead;
-import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsFactory;
 import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsUtils;
-import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsViewFactory;
 
 import com.google.common.base.Preconditions;
 
 public class ExcludeLeastCredibilities {
 
-    private final IOrderedAssignmentsWithCredibilitiesRead m_assignments;
+    private final DenseCredibilities m_assignments;
     private static final double TOLERANCE = 1e-5;
 
     public ExcludeLeastCredibilities(IOrderedAssignmentsWithCredibilitiesRead assignments) {
-	m_assignments = AssignmentsFactory.newOrderedAssignmentsWithCredibilities(assignments);
+	m_assignments = DenseCredibilities.copyOf(assignments);
     }
 
     /**
@@ -34,7 +33,8 @@ public class ExcludeLeastCredibilities {
      * assignments are ordered by credibility level. The assignments object corresponding to a given credibility level
      * comprises, for each assigned alternative, the credibilities given in input, excluded the credibilities less or
      * equal to the complementary of the cedibility level to the sum of credibilities. For example, at a credibility
-     * level of 8, assuming a constant sum of 10, those credibilites of 2 or lower are excluded.
+     * level of 8, assuming a constant sum of 10, those credibilites of 2 or lower are excluded. The returned
+     * assignments objects are read-only views sharing the credibilities of the bound assignments, sorted once.
      * </p>
      * <p>
      * The highest excluded credibility level in the returned map is the one just lower to the minimum over all
@@ -61,14 +61,15 @@ public class ExcludeLeastCredibilities {
 	/** First: exclude zero. */
 	res.put(Double.valueOf(sum), m_assignments);
 
-	/** Then: exclude step by step. */
+	/** Then: exclude step by step. The views share the cells, sorted once. */
+	final SortedCredibilityCells cells = new SortedCredibilityCells(m_assignments);
 	final NavigableSet<Double> credibilityLevels = AssignmentsUtils.getCredibilityLevels(m_assignments);
 	for (Double level : credibilityLevels.headSet(Double.valueOf(minMax))) {
 	    assert minDiff != null : "Here we should have more than one different credibility levels as we have excluded the min max one.";
 	    final double offset = minDiff.doubleValue() / 2d;
 	    final double toExclude = level.doubleValue();
 	    final double toKeep = toExclude + offset;
-	    res.put(Double.valueOf(sum - toExclude), AssignmentsViewFactory.getAssignmentsGEQ(m_assignments, toKeep));
+	    res.put(Double.valueOf(sum - toExclude), cells.getAtLeast(toKeep));
 	}
 	return res;
     }
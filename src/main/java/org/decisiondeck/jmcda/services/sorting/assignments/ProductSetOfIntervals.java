@@ -0,0 +1,307 @@
+package org.decisiondeck.jmcda.services.sorting.assignments;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilities;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilitiesRead;
+import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>
+ * The set of every assignments that can possibly be built using, for each alternative, one of the intervals given as
+ * possible for this alternative. This set is not materialized: its elements are built when they are asked for, thus it
+ * may be used even when the number of elements, which is the product of the numbers of possible intervals over all
+ * alternatives, is very large. This set is empty iff no alternatives are given. Immutable.
+ * </p>
+ * <p>
+ * The elements are indexed by a mixed-radix number whose digits are the positions of the intervals chosen for each
+ * alternative, the last alternative, in the natural ordering of the alternatives, being the least significant digit.
+ * The iteration order is the order of the indexes. An element may be retrieved directly from its index, and the
+ * {@link #spliterator()} splits the range of indexes, thus the set may be processed in parallel.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class ProductSetOfIntervals extends AbstractSet<IOrderedAssignmentsWithCredibilitiesRead> {
+    private final SortedSet<Category> m_categories;
+    private final Alternative[] m_alternatives;
+    /**
+     * Indexed like the alternatives, the possible intervals of each alternative, without their zero credibilities, as
+     * the assignments objects do not keep them. No set is empty.
+     */
+    private final List<ImmutableSet<SortedMap<Category, Double>>> m_intervals;
+    private final long m_size;
+    private final int m_hashCode;
+
+    /**
+     * @param categories
+     *            not <code>null</code>; is required in order to determine the total ordering of the categories. Must be
+     *            a superset of all categories used in the intervals. Will be used as the categories associated to all
+     *            the assignments objects in this set.
+     * @param allIntervals
+     *            not <code>null</code>; may be empty. Contains the set, for each alternative, of all possible intervals
+     *            the alternative may be assigned to. The sets must be non <code>null</code> and non empty. The number
+     *            of elements of the product set must be lower than or equal to {@link Long#MAX_VALUE}.
+     */
+    public ProductSetOfIntervals(SortedSet<Category> categories,
+	    Map<Alternative, Set<SortedMap<Category, Double>>> allIntervals) {
+	m_categories = Preconditions.checkNotNull(categories);
+	final SortedSet<Alternative> alternatives = Sets.newTreeSet(allIntervals.keySet());
+	m_alternatives = alternatives.toArray(new Alternative[alternatives.size()]);
+	m_intervals = Lists.newArrayListWithCapacity(m_alternatives.length);
+	long size = m_alternatives.length == 0 ? 0 : 1;
+	for (Alternative alternative : m_alternatives) {
+	    final Set<SortedMap<Category, Double>> intervals = allIntervals.get(alternative);
+	    if (intervals.isEmpty()) {
+		throw new IllegalArgumentException("Sets may not be empty.");
+	    }
+	    final ImmutableSet.Builder<SortedMap<Category, Double>> positiveIntervals = ImmutableSet.builder();
+	    for (SortedMap<Category, Double> interval : intervals) {
+		positiveIntervals.add(getPositive(interval));
+	    }
+	    final ImmutableSet<SortedMap<Category, Double>> alternativeIntervals = positiveIntervals.build();
+	    m_intervals.add(alternativeIntervals);
+	    Preconditions.checkArgument(size <= Long.MAX_VALUE / alternativeIntervals.size(), "Too many elements.");
+	    size *= alternativeIntervals.size();
+	}
+	m_size = size;
+	m_hashCode = getHashCode();
+    }
+
+    /**
+     * Computes the hash code of the set of the elements from the intervals, without building the elements. The hash
+     * code of an element is the one of the map associating each alternative to its credibilities, as
+     * {@link DenseCredibilities#getHashCode} computes it, thus the sum over the alternatives of a term depending on the
+     * alternative and its interval. Each interval of an alternative appears in as many elements as the product of the
+     * numbers of intervals of the other alternatives, thus the sum over the elements is the sum over the alternatives
+     * of that number times the sum of the terms of the intervals of the alternative.
+     *
+     * @return the sum of the hash codes of the elements of this set.
+     */
+    private int getHashCode() {
+	int hashCode = 0;
+	for (int alt = 0; alt < m_alternatives.length; ++alt) {
+	    final ImmutableSet<SortedMap<Category, Double>> intervals = m_intervals.get(alt);
+	    int sum = 0;
+	    for (SortedMap<Category, Double> interval : intervals) {
+		sum += m_alternatives[alt].hashCode() ^ interval.hashCode();
+	    }
+	    /** The products overflow, but their low order bits, which are the ones kept, are right. */
+	    hashCode += (int) (m_size / intervals.size() * sum);
+	}
+	return hashCode;
+    }
+
+    /**
+     * @return the number of elements of this set, which is the product of the numbers of possible intervals over all
+     *         alternatives.
+     */
+    public long getSize() {
+	return m_size;
+    }
+
+    /**
+     * @return the number of elements of this set, or {@link Integer#MAX_VALUE} if it does not fit in an integer: see
+     *         {@link #getSize()}.
+     */
+    @Override
+    public int size() {
+	return (int) Math.min(m_size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Builds the element of this set having the given index.
+     *
+     * @param index
+     *            positive or zero, less than {@link #getSize()}.
+     * @return not <code>null</code>, a new object.
+     */
+    public IOrderedAssignmentsWithCredibilitiesRead get(long index) {
+	Preconditions.checkArgument(index >= 0 && index < m_size, "Index " + index + " out of bounds.");
+	final IOrderedAssignmentsWithCredibilities assignments = AssignmentsFactory
+		.newOrderedAssignmentsWithCredibilities();
+	assignments.setCategories(m_categories);
+	long remaining = index;
+	for (int alt = m_alternatives.length - 1; alt >= 0; --alt) {
+	    final ImmutableList<SortedMap<Category, Double>> intervals = m_intervals.get(alt).asList();
+	    final int position = (int) (remaining % intervals.size());
+	    remaining /= intervals.size();
+	    assignments.setCredibilities(m_alternatives[alt], intervals.get(position));
+	}
+	assert remaining == 0;
+	return assignments;
+    }
+
+    @Override
+    public Iterator<IOrderedAssignmentsWithCredibilitiesRead> iterator() {
+	return new Iterator<IOrderedAssignmentsWithCredibilitiesRead>() {
+	    private long m_next = 0;
+
+	    @Override
+	    public boolean hasNext() {
+		return m_next < m_size;
+	    }
+
+	    @Override
+	    public IOrderedAssignmentsWithCredibilitiesRead next() {
+		if (!hasNext()) {
+		    throw new NoSuchElementException();
+		}
+		final IOrderedAssignmentsWithCredibilitiesRead next = get(m_next);
+		++m_next;
+		return next;
+	    }
+
+	    @Override
+	    public void remove() {
+		throw new UnsupportedOperationException();
+	    }
+	};
+    }
+
+    /**
+     * Retrieves a spliterator over this set that splits the range of indexes in halves, thus is suitable for parallel
+     * processing. It reports the characteristics {@link Spliterator#SIZED}, {@link Spliterator#SUBSIZED},
+     * {@link Spliterator#ORDERED}, {@link Spliterator#DISTINCT}, {@link Spliterator#NONNULL} and
+     * {@link Spliterator#IMMUTABLE}.
+     *
+     * @return not <code>null</code>.
+     */
+    @Override
+    public Spliterator<IOrderedAssignmentsWithCredibilitiesRead> spliterator() {
+	return new IndexSpliterator(0, m_size);
+    }
+
+    /**
+     * Checks, for each alternative, whether the credibilities of the given object are one of the possible intervals,
+     * without building the elements of this set.
+     */
+    @Override
+    public boolean contains(Object o) {
+	if (!(o instanceof IOrderedAssignmentsWithCredibilitiesRead)) {
+	    return false;
+	}
+	final IOrderedAssignmentsWithCredibilitiesRead assignments = (IOrderedAssignmentsWithCredibilitiesRead) o;
+	if (m_size == 0 || !Iterables.elementsEqual(m_categories, assignments.getCategories())
+		|| assignments.getAlternatives().size() != m_alternatives.length) {
+	    return false;
+	}
+	for (int alt = 0; alt < m_alternatives.length; ++alt) {
+	    if (!assignments.getAlternatives().contains(m_alternatives[alt])
+		    || !m_intervals.get(alt).contains(getPositive(assignments.getCredibilities(m_alternatives[alt])))) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Two product sets are compared through their categories and their sets of intervals, without the elements having
+     * to be built: the elements of a non empty product set determine the categories and the set of possible
+     * intervals of each alternative.
+     */
+    @Override
+    public boolean equals(Object obj) {
+	if (obj instanceof ProductSetOfIntervals) {
+	    final ProductSetOfIntervals other = (ProductSetOfIntervals) obj;
+	    if (m_size == 0 || other.m_size == 0) {
+		return m_size == other.m_size;
+	    }
+	    return Iterables.elementsEqual(m_categories, other.m_categories)
+		    && Arrays.equals(m_alternatives, other.m_alternatives) && m_intervals.equals(other.m_intervals);
+	}
+	return super.equals(obj);
+    }
+
+    /**
+     * The hash code is computed from the intervals, without the elements having to be built: see
+     * {@link #getHashCode()}.
+     */
+    @Override
+    public int hashCode() {
+	return m_hashCode;
+    }
+
+    /**
+     * @return not <code>null</code>, a new map containing the entries of the given one whose value is not zero.
+     */
+    static private SortedMap<Category, Double> getPositive(SortedMap<Category, Double> credibilities) {
+	final SortedMap<Category, Double> positive = new TreeMap<Category, Double>(credibilities.comparator());
+	for (Map.Entry<Category, Double> entry : credibilities.entrySet()) {
+	    if (entry.getValue().doubleValue() != 0d) {
+		positive.put(entry.getKey(), entry.getValue());
+	    }
+	}
+	return positive;
+    }
+
+    private class IndexSpliterator implements Spliterator<IOrderedAssignmentsWithCredibilitiesRead> {
+	private long m_next;
+	private final long m_end;
+
+	/**
+	 * @param begin
+	 *            the index of the first element, inclusive.
+	 * @param end
+	 *            the index of the last element, exclusive.
+	 */
+	public IndexSpliterator(long begin, long end) {
+	    m_next = begin;
+	    m_end = end;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super IOrderedAssignmentsWithCredibilitiesRead> action) {
+	    Preconditions.checkNotNull(action);
+	    if (m_next >= m_end) {
+		return false;
+	    }
+	    action.accept(get(m_next));
+	    ++m_next;
+	    return true;
+	}
+
+	@Override
+	public Spliterator<IOrderedAssignmentsWithCredibilitiesRead> trySplit() {
+	    if (m_end - m_next < 2) {
+		return null;
+	    }
+	    final long middle = m_next + (m_end - m_next) / 2;
+	    final IndexSpliterator prefix = new IndexSpliterator(m_next, middle);
+	    m_next = middle;
+	    return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+	    return m_end - m_next;
+	}
+
+	@Override
+	public int characteristics() {
+	    return SIZED | SUBSIZED | ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+	}
+    }
+}
@@ -0,0 +1,154 @@
+package org.decisiondeck.jmcda.services.sorting.assignments;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Finds the “smallest” intervals of categories, i.e., the intervals containing the least possible number of
+ * categories, whose sum of credibilities is greater than or equal to a given minimal credibility level. The
+ * credibilities are given as an array indexed by the rank of the categories, the worst one having rank zero, and the
+ * intervals are returned as pairs of ranks, thus no map is built unless asked for using
+ * {@link #getInterval(Category[], double[], int[], Comparator)}.
+ * </p>
+ * <p>
+ * As the credibilities are not negative, the smallest interval beginning at a given category ends at or after the
+ * one beginning at the previous category: the smallest size is found by sliding a window over the categories, in
+ * linear time. The intervals having that size are then found by a second pass. The sums of credibilities of the
+ * intervals are computed as differences of cumulated sums, except close to the minimal credibility where they are
+ * summed in order, so that an interval whose credibilities sum exactly to the minimal credibility reaches it.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class SmallestCredibleIntervals {
+    /**
+     * Retrieves all the smallest intervals, whatever their sums of credibilities, as the procedure T2 requires.
+     *
+     * @param credibilities
+     *            not <code>null</code>, not empty. The values must be positive or zero.
+     * @param minimalCredibility
+     *            a positive, not null, number. Must be less than or equal to the sum of the given credibilities.
+     * @return not <code>null</code>, not empty. In array[i], the ranks of the first and the last categories of the
+     *         interval i, in increasing order of first category. All the intervals have the same size.
+     */
+    static public int[][] getSmallestIntervals(double[] credibilities, double minimalCredibility) {
+	return getSmallestIntervals(credibilities, minimalCredibility, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Retrieves the most credible of the smallest intervals, i.e., those whose sum of credibilities is, up to the given
+     * tolerance, the highest. Ex-æquos are possible, thus more than one interval may be returned.
+     *
+     * @param credibilities
+     *            not <code>null</code>, not empty. The values must be positive or zero.
+     * @param minimalCredibility
+     *            a positive, not null, number. Must be less than or equal to the sum of the given credibilities.
+     * @param tolerance
+     *            the intervals whose sums of credibilities are lower than the highest one by less than this tolerance
+     *            are considered as equally credible.
+     * @return not <code>null</code>, not empty. In array[i], the ranks of the first and the last categories of the
+     *         interval i, in increasing order of first category. All the intervals have the same size.
+     */
+    static public int[][] getSmallestMostCredibleIntervals(double[] credibilities, double minimalCredibility,
+	    double tolerance) {
+	Preconditions.checkArgument(tolerance >= 0d);
+	return getSmallestIntervals(credibilities, minimalCredibility, tolerance);
+    }
+
+    static private int[][] getSmallestIntervals(double[] credibilities, double minimalCredibility, double tolerance) {
+	Preconditions.checkArgument(credibilities.length > 0);
+	Preconditions.checkArgument(minimalCredibility > 0d);
+	final int nbCats = credibilities.length;
+	/** In array[i], the sum of the credibilities of the categories of rank lower than i. */
+	final double[] cumulated = new double[nbCats + 1];
+	for (int cat = 0; cat < nbCats; ++cat) {
+	    assert credibilities[cat] >= 0d;
+	    cumulated[cat + 1] = cumulated[cat] + credibilities[cat];
+	}
+
+	/**
+	 * The cumulated sums differences may differ from the sums computed in order by some ulps. Farther than this from
+	 * the minimal credibility, both are on the same side of it.
+	 */
+	final double band = 4d * (nbCats + 1) * Math.ulp(cumulated[nbCats]);
+
+	int size = Integer.MAX_VALUE;
+	int begin = 0;
+	for (int end = 0; end < nbCats; ++end) {
+	    while (begin <= end && reaches(credibilities, cumulated, begin, end, minimalCredibility, band)) {
+		size = Math.min(size, end - begin + 1);
+		++begin;
+	    }
+	}
+	if (size == Integer.MAX_VALUE) {
+	    throw new IllegalStateException("No intervals found whose credibility reach the given level "
+		    + minimalCredibility + ".");
+	}
+
+	final boolean[] valid = new boolean[nbCats - size + 1];
+	double bestSum = Double.NEGATIVE_INFINITY;
+	for (int first = 0; first + size <= nbCats; ++first) {
+	    valid[first] = reaches(credibilities, cumulated, first, first + size - 1, minimalCredibility, band);
+	    if (valid[first]) {
+		bestSum = Math.max(bestSum, cumulated[first + size] - cumulated[first]);
+	    }
+	}
+	final int[][] found = new int[valid.length][];
+	int nbFound = 0;
+	for (int first = 0; first < valid.length; ++first) {
+	    if (valid[first] && cumulated[first + size] - cumulated[first] >= bestSum - tolerance) {
+		found[nbFound] = new int[] { first, first + size - 1 };
+		++nbFound;
+	    }
+	}
+	return Arrays.copyOf(found, nbFound);
+    }
+
+    /**
+     * Tells whether the sum of the credibilities of the given interval, computed in order, is greater than or equal to
+     * the minimal credibility, using the cumulated sums when they are far enough from it.
+     */
+    static private boolean reaches(double[] credibilities, double[] cumulated, int first, int last,
+	    double minimalCredibility, double band) {
+	final double sum = cumulated[last + 1] - cumulated[first];
+	if (Math.abs(sum - minimalCredibility) > band) {
+	    return sum > minimalCredibility;
+	}
+	double sumInOrder = 0d;
+	for (int cat = first; cat <= last; ++cat) {
+	    sumInOrder += credibilities[cat];
+	}
+	return sumInOrder >= minimalCredibility;
+    }
+
+    /**
+     * Builds the map view of an interval.
+     *
+     * @param categories
+     *            not <code>null</code>, the categories in increasing order of rank.
+     * @param credibilities
+     *            not <code>null</code>, the credibilities of the categories, indexed by rank.
+     * @param interval
+     *            not <code>null</code>, the ranks of the first and the last categories of the interval.
+     * @param comparator
+     *            the comparator of the returned map, <code>null</code> for the natural ordering of the categories.
+     * @return not <code>null</code>, a new map containing the categories of the interval and their credibilities,
+     *         including the zero ones.
+     */
+    static public SortedMap<Category, Double> getInterval(Category[] categories, double[] credibilities,
+	    int[] interval, Comparator<? super Category> comparator) {
+	final SortedMap<Category, Double> map = new TreeMap<Category, Double>(comparator);
+	for (int cat = interval[0]; cat <= interval[1]; ++cat) {
+	    map.put(categories[cat], Double.valueOf(credibilities[cat]));
+	}
+	return map;
+    }
+}
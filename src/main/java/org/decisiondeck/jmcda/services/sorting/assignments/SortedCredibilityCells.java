@@ -0,0 +1,204 @@
+package org.decisiondeck.jmcda.services.sorting.assignments;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilitiesRead;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * The positive credibility cells of a {@link DenseCredibilities} object, sorted once by alternative then by decreasing
+ * credibility, from which views retaining only the credibilities greater than or equal to a threshold may be obtained
+ * at no cost. Those views share this structure: the credibilities of an alternative in a view are a prefix of the
+ * sorted cells of that alternative, found by binary search, and whether an alternative belongs to a view is checked in
+ * constant time, by comparing its highest credibility to the threshold. Immutable.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+class SortedCredibilityCells {
+    private final DenseCredibilities m_credibilities;
+    /**
+     * The cells of the alternative a are from index array[a], inclusive, to array[a + 1], exclusive.
+     */
+    private final int[] m_rowStarts;
+    /**
+     * The category indexes of the cells, sorted by alternative then by decreasing credibility.
+     */
+    private final int[] m_categories;
+    /**
+     * The credibilities of the cells, in the same order.
+     */
+    private final double[] m_values;
+
+    /**
+     * @param credibilities
+     *            not <code>null</code>.
+     */
+    public SortedCredibilityCells(DenseCredibilities credibilities) {
+	m_credibilities = credibilities;
+	final int nbAlts = credibilities.getNbAlternatives();
+	final int nbCats = credibilities.getNbCategories();
+	m_rowStarts = new int[nbAlts + 1];
+	int nbCells = 0;
+	for (int alt = 0; alt < nbAlts; ++alt) {
+	    m_rowStarts[alt] = nbCells;
+	    for (int cat = 0; cat < nbCats; ++cat) {
+		if (credibilities.getCredibility(alt, cat) > 0d) {
+		    ++nbCells;
+		}
+	    }
+	}
+	m_rowStarts[nbAlts] = nbCells;
+	m_categories = new int[nbCells];
+	m_values = new double[nbCells];
+	for (int alt = 0; alt < nbAlts; ++alt) {
+	    final int start = m_rowStarts[alt];
+	    int end = start;
+	    for (int cat = 0; cat < nbCats; ++cat) {
+		final double credibility = credibilities.getCredibility(alt, cat);
+		if (credibility == 0d) {
+		    continue;
+		}
+		/** Insertion sort, stable: there are few categories. */
+		int cell = end;
+		while (cell > start && m_values[cell - 1] < credibility) {
+		    m_values[cell] = m_values[cell - 1];
+		    m_categories[cell] = m_categories[cell - 1];
+		    --cell;
+		}
+		m_values[cell] = credibility;
+		m_categories[cell] = cat;
+		++end;
+	    }
+	    assert end == m_rowStarts[alt + 1];
+	}
+    }
+
+    /**
+     * @param alternative
+     *            the index of an alternative.
+     * @param threshold
+     *            any number.
+     * @return the number of cells of the given alternative whose credibility is greater than or equal to the given
+     *         threshold.
+     */
+    public int getNbCellsAtLeast(int alternative, double threshold) {
+	int low = m_rowStarts[alternative];
+	int high = m_rowStarts[alternative + 1];
+	/** Finds the first cell whose credibility is lower than the threshold. */
+	while (low < high) {
+	    final int middle = (low + high) >>> 1;
+	    if (m_values[middle] >= threshold) {
+		low = middle + 1;
+	    } else {
+		high = middle;
+	    }
+	}
+	return low - m_rowStarts[alternative];
+    }
+
+    /**
+     * @param threshold
+     *            any number.
+     * @return not <code>null</code>, a view of the credibilities that are greater than or equal to the given
+     *         threshold, excluding the alternatives having no such credibility. The view uses this structure and is
+     *         built in constant time.
+     */
+    public IOrderedAssignmentsWithCredibilitiesRead getAtLeast(double threshold) {
+	return new AtLeast(threshold);
+    }
+
+    private class AtLeast implements IOrderedAssignmentsWithCredibilitiesRead {
+	private final double m_threshold;
+	/**
+	 * <code>null</code> until first asked for.
+	 */
+	private Set<Alternative> m_alternatives;
+
+	public AtLeast(double threshold) {
+	    m_threshold = threshold;
+	    m_alternatives = null;
+	}
+
+	private boolean isAssigned(int alternative) {
+	    final int start = m_rowStarts[alternative];
+	    return start < m_rowStarts[alternative + 1] && m_values[start] >= m_threshold;
+	}
+
+	@Override
+	public Set<Alternative> getAlternatives() {
+	    if (m_alternatives == null) {
+		final ImmutableSet.Builder<Alternative> alternatives = ImmutableSet.builder();
+		for (int alt = 0; alt < m_credibilities.getNbAlternatives(); ++alt) {
+		    if (isAssigned(alt)) {
+			alternatives.add(m_credibilities.getAlternative(alt));
+		    }
+		}
+		m_alternatives = alternatives.build();
+	    }
+	    return m_alternatives;
+	}
+
+	@Override
+	public NavigableSet<Category> getCategories() {
+	    return m_credibilities.getCategories();
+	}
+
+	/**
+	 * @return <code>null</code> iff the given alternative has no credibility reaching the threshold, otherwise a
+	 *         new unmodifiable map containing its credibilities reaching the threshold, built in time proportional
+	 *         to its size.
+	 */
+	@Override
+	public NavigableMap<Category, Double> getCredibilities(Alternative alternative) {
+	    final int alt = m_credibilities.getAlternativeIndex(alternative);
+	    if (alt == -1 || !isAssigned(alt)) {
+		return null;
+	    }
+	    final TreeMap<Category, Double> credibilities = new TreeMap<Category, Double>(getCategories()
+		    .comparator());
+	    final int end = m_rowStarts[alt] + getNbCellsAtLeast(alt, m_threshold);
+	    for (int cell = m_rowStarts[alt]; cell < end; ++cell) {
+		credibilities.put(m_credibilities.getCategory(m_categories[cell]), Double.valueOf(m_values[cell]));
+	    }
+	    return Collections.unmodifiableNavigableMap(credibilities);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj) {
+		return true;
+	    }
+	    if (!(obj instanceof IOrderedAssignmentsWithCredibilitiesRead)) {
+		return false;
+	    }
+	    return DenseCredibilities.equivalent(this, (IOrderedAssignmentsWithCredibilitiesRead) obj);
+	}
+
+	@Override
+	public int hashCode() {
+	    return DenseCredibilities.getHashCode(this);
+	}
+
+	@Override
+	public String toString() {
+	    final Map<Alternative, NavigableMap<Category, Double>> credibilities = Maps.newLinkedHashMap();
+	    for (Alternative alternative : getAlternatives()) {
+		credibilities.put(alternative, getCredibilities(alternative));
+	    }
+	    return credibilities.toString();
+	}
+    }
+}
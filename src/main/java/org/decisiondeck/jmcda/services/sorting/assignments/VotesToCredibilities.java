@@ -0,0 +1,248 @@
+package org.decisiondeck.jmcda.services.sorting.assignments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.DecisionMaker;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decisiondeck.jmcda.structure.sorting.assignment.IOrderedAssignmentsToMultipleRead;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>
+ * Aggregates the crisp assignments of a group of decision makers into assignments with credibilities, by weighted
+ * voting: each decision maker gives its weight to every alternative it assigns, shared equally among the categories it
+ * assigns the alternative to. The credibility of an alternative for a category is the sum of the votes it received for
+ * that category, thus the sum of the credibilities of an alternative is the sum of the weights of the decision makers
+ * who assigned it.
+ * </p>
+ * <p>
+ * The votes are accumulated in dense arrays of primitive values. The decision makers are split into a fixed number of
+ * slices, each slice accumulating the votes of its decision makers into its own array, the slices being then summed
+ * in order. The slicing does not depend on the pool used, thus neither do the results.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class VotesToCredibilities {
+    /**
+     * The maximal number of slices. Bounds the memory used, as every slice holds one credibility per alternative and
+     * category.
+     */
+    static private final int MAX_SLICES = 16;
+
+    private ForkJoinPool m_pool;
+
+    public VotesToCredibilities() {
+	m_pool = null;
+    }
+
+    /**
+     * Aggregates the given assignments, every decision maker having the weight one.
+     *
+     * @param categories
+     *            not <code>null</code>, the categories of the result, in order. Must contain every category used in the
+     *            given assignments.
+     * @param groupAssignments
+     *            not <code>null</code>.
+     * @return not <code>null</code>, the credibilities of every alternative assigned by at least one decision maker.
+     */
+    public DenseCredibilities aggregate(NavigableSet<Category> categories,
+	    Map<DecisionMaker, ? extends IOrderedAssignmentsToMultipleRead> groupAssignments) {
+	final Map<DecisionMaker, Double> weights = Maps.newHashMap();
+	for (DecisionMaker dm : groupAssignments.keySet()) {
+	    weights.put(dm, Double.valueOf(1d));
+	}
+	return aggregate(categories, groupAssignments, weights);
+    }
+
+    /**
+     * @param categories
+     *            not <code>null</code>, the categories of the result, in order. Must contain every category used in the
+     *            given assignments.
+     * @param groupAssignments
+     *            not <code>null</code>.
+     * @param weights
+     *            not <code>null</code>, a positive, finite weight for each decision maker of the given assignments.
+     * @return not <code>null</code>, the credibilities of every alternative assigned by at least one decision maker,
+     *         the alternatives being in the order of their identifiers, whatever the order of the decision makers.
+     */
+    public DenseCredibilities aggregate(NavigableSet<Category> categories,
+	    Map<DecisionMaker, ? extends IOrderedAssignmentsToMultipleRead> groupAssignments,
+	    Map<DecisionMaker, Double> weights) {
+	final List<IOrderedAssignmentsToMultipleRead> assignments = new ArrayList<IOrderedAssignmentsToMultipleRead>(
+		groupAssignments.size());
+	final double[] dmWeights = new double[groupAssignments.size()];
+	for (Map.Entry<DecisionMaker, ? extends IOrderedAssignmentsToMultipleRead> entry : groupAssignments.entrySet()) {
+	    final Double weight = weights.get(entry.getKey());
+	    Preconditions.checkArgument(weight != null, "No weight for " + entry.getKey() + ".");
+	    Preconditions.checkArgument(weight.doubleValue() > 0d && !Double.isInfinite(weight.doubleValue()),
+		    "Invalid weight for " + entry.getKey() + ": " + weight + ".");
+	    dmWeights[assignments.size()] = weight.doubleValue();
+	    assignments.add(entry.getValue());
+	}
+
+	final Map<Category, Integer> catsIndexes = Maps.newHashMapWithExpectedSize(categories.size());
+	for (Category category : categories) {
+	    catsIndexes.put(category, Integer.valueOf(catsIndexes.size()));
+	}
+	final Set<Alternative> allAlternatives = Sets.newHashSet();
+	for (IOrderedAssignmentsToMultipleRead dmAssignments : assignments) {
+	    allAlternatives.addAll(dmAssignments.getAlternatives());
+	}
+	final List<Alternative> alternatives = new ArrayList<Alternative>(allAlternatives);
+	Collections.sort(alternatives, new Comparator<Alternative>() {
+	    @Override
+	    public int compare(Alternative o1, Alternative o2) {
+		return o1.getId().compareTo(o2.getId());
+	    }
+	});
+	final Map<Alternative, Integer> altsIndexes = Maps.newHashMapWithExpectedSize(alternatives.size());
+	for (Alternative alternative : alternatives) {
+	    altsIndexes.put(alternative, Integer.valueOf(altsIndexes.size()));
+	}
+
+	final int nbDms = assignments.size();
+	final int nbSlices = Math.min(MAX_SLICES, nbDms);
+	final int nbCells = altsIndexes.size() * categories.size();
+	final double[] credibilities = new double[nbCells];
+	if (m_pool == null) {
+	    final double[] votes = new double[nbCells];
+	    for (int slice = 0; slice < nbSlices; ++slice) {
+		Arrays.fill(votes, 0d);
+		vote(assignments, dmWeights, getSliceStart(slice, nbSlices, nbDms),
+			getSliceStart(slice + 1, nbSlices, nbDms), catsIndexes, altsIndexes, votes);
+		add(votes, credibilities);
+	    }
+	} else {
+	    final List<RecursiveTask<double[]>> tasks = new ArrayList<RecursiveTask<double[]>>(nbSlices);
+	    for (int slice = 0; slice < nbSlices; ++slice) {
+		final int begin = getSliceStart(slice, nbSlices, nbDms);
+		final int end = getSliceStart(slice + 1, nbSlices, nbDms);
+		tasks.add(new RecursiveTask<double[]>() {
+		    private static final long serialVersionUID = 1L;
+
+		    @Override
+		    protected double[] compute() {
+			final double[] votes = new double[nbCells];
+			vote(assignments, dmWeights, begin, end, catsIndexes, altsIndexes, votes);
+			return votes;
+		    }
+		});
+	    }
+	    m_pool.invoke(new RecursiveAction() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+		    invokeAll(tasks);
+		}
+	    });
+	    for (RecursiveTask<double[]> task : tasks) {
+		add(task.join(), credibilities);
+	    }
+	}
+	return getAssigned(categories, alternatives, credibilities);
+    }
+
+    /**
+     * @return the index of the first decision maker of the given slice, the decision makers being split in slices of
+     *         sizes differing by at most one. The start of the slice following the last one is the number of decision
+     *         makers.
+     */
+    static private int getSliceStart(int slice, int nbSlices, int nbDms) {
+	return (int) ((long) slice * nbDms / nbSlices);
+    }
+
+    /**
+     * Adds the votes of the decision makers from the given begin index, inclusive, to the given end index, exclusive,
+     * to the given array.
+     */
+    static private void vote(List<IOrderedAssignmentsToMultipleRead> assignments, double[] weights, int begin,
+	    int end, Map<Category, Integer> catsIndexes, Map<Alternative, Integer> altsIndexes, double[] votes) {
+	final int nbCats = catsIndexes.size();
+	for (int dm = begin; dm < end; ++dm) {
+	    final IOrderedAssignmentsToMultipleRead dmAssignments = assignments.get(dm);
+	    for (Alternative alternative : dmAssignments.getAlternatives()) {
+		final Set<Category> assigned = dmAssignments.getCategories(alternative);
+		if (assigned.isEmpty()) {
+		    continue;
+		}
+		final double vote = weights[dm] / assigned.size();
+		final int row = altsIndexes.get(alternative).intValue() * nbCats;
+		for (Category category : assigned) {
+		    final Integer cat = catsIndexes.get(category);
+		    if (cat == null) {
+			throw new IllegalArgumentException("Unknown category: " + category + ".");
+		    }
+		    votes[row + cat.intValue()] += vote;
+		}
+	    }
+	}
+    }
+
+    static private void add(double[] source, double[] target) {
+	for (int cell = 0; cell < target.length; ++cell) {
+	    target[cell] += source[cell];
+	}
+    }
+
+    /**
+     * Drops the alternatives having received no vote, which may only happen when they are given with no category.
+     */
+    static private DenseCredibilities getAssigned(NavigableSet<Category> categories, List<Alternative> alternatives,
+	    double[] credibilities) {
+	final int nbCats = categories.size();
+	final List<Alternative> assigned = new ArrayList<Alternative>(alternatives.size());
+	int nbAssigned = 0;
+	int alt = 0;
+	for (Alternative alternative : alternatives) {
+	    boolean voted = false;
+	    for (int cat = 0; cat < nbCats; ++cat) {
+		voted |= credibilities[alt * nbCats + cat] > 0d;
+	    }
+	    if (voted) {
+		System.arraycopy(credibilities, alt * nbCats, credibilities, nbAssigned * nbCats, nbCats);
+		assigned.add(alternative);
+		++nbAssigned;
+	    }
+	    ++alt;
+	}
+	final double[] assignedCredibilities = nbAssigned == alternatives.size() ? credibilities : Arrays.copyOf(
+		credibilities, nbAssigned * nbCats);
+	return new DenseCredibilities(categories, assigned, assignedCredibilities);
+    }
+
+    /**
+     * Sets the pool used to accumulate the votes of the slices of decision makers in parallel. The results do not
+     * depend on whether a pool is used.
+     *
+     * @param pool
+     *            <code>null</code> to compute sequentially (the default).
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+	m_pool = pool;
+    }
+
+    /**
+     * @return <code>null</code> iff the computation is sequential.
+     */
+    public ForkJoinPool getForkJoinPool() {
+	return m_pool;
+    }
+}
@@ -0,0 +1,287 @@
+package org.decisiondeck.jmcda.structure.sorting.assignment.credibilities;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * Assignments with credibilities stored as a dense matrix of primitive values, one row per alternative and one column
+ * per category, the columns being in the order of the categories. A zero credibility means that the alternative is
+ * not assigned to the category, thus the maps returned by {@link #getCredibilities(Alternative)} only contain the
+ * positive credibilities. Alternatives and categories are also given indexes, in their iteration order, which permits
+ * to read the credibilities without building any map.
+ * </p>
+ * <p>
+ * Objects of this class are immutable. They are equal to any {@link IOrderedAssignmentsWithCredibilitiesRead} having
+ * the same categories, in the same order, and the same credibilities for the same alternatives.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class DenseCredibilities implements IOrderedAssignmentsWithCredibilitiesRead {
+    private final NavigableSet<Category> m_categories;
+    private final Category[] m_categoriesByIndex;
+    private final Map<Category, Integer> m_categoriesIndexes;
+    private final Set<Alternative> m_alternatives;
+    private final Alternative[] m_alternativesByIndex;
+    private final Map<Alternative, Integer> m_alternativesIndexes;
+    /**
+     * The credibility of the alternative a for the category c is at index a × number of categories + c.
+     */
+    private final double[] m_credibilities;
+
+    /**
+     * Builds an object using the given credibilities. The given array is not copied: it must not be modified after
+     * this object is built.
+     *
+     * @param categories
+     *            not <code>null</code>, the categories, in order.
+     * @param alternatives
+     *            not <code>null</code>, no duplicates. Their iteration order gives their indexes.
+     * @param credibilities
+     *            not <code>null</code>, the credibilities of the alternative a for the category c at index a × number
+     *            of categories + c. The values must be positive or zero, and each alternative must have at least one
+     *            positive credibility.
+     */
+    public DenseCredibilities(NavigableSet<Category> categories, Collection<Alternative> alternatives,
+	    double[] credibilities) {
+	m_categories = Collections.unmodifiableNavigableSet(new TreeSet<Category>(categories));
+	m_categoriesByIndex = m_categories.toArray(new Category[m_categories.size()]);
+	m_categoriesIndexes = getIndexes(m_categoriesByIndex);
+	m_alternatives = ImmutableSet.copyOf(alternatives);
+	Preconditions.checkArgument(m_alternatives.size() == alternatives.size(), "Duplicate alternatives.");
+	m_alternativesByIndex = m_alternatives.toArray(new Alternative[m_alternatives.size()]);
+	m_alternativesIndexes = getIndexes(m_alternativesByIndex);
+	final int nbCats = m_categoriesByIndex.length;
+	Preconditions.checkArgument(credibilities.length == m_alternativesByIndex.length * nbCats,
+		"Expected " + m_alternativesByIndex.length * nbCats + " credibilities, found " + credibilities.length
+			+ ".");
+	for (int alt = 0; alt < m_alternativesByIndex.length; ++alt) {
+	    boolean assigned = false;
+	    for (int cell = alt * nbCats; cell < (alt + 1) * nbCats; ++cell) {
+		Preconditions.checkArgument(credibilities[cell] >= 0d && !Double.isInfinite(credibilities[cell]),
+			"Invalid credibility: " + credibilities[cell] + ".");
+		assigned |= credibilities[cell] > 0d;
+	    }
+	    Preconditions.checkArgument(assigned, "Unassigned alternative: " + m_alternativesByIndex[alt] + ".");
+	}
+	m_credibilities = credibilities;
+    }
+
+    /**
+     * @param source
+     *            not <code>null</code>.
+     * @return not <code>null</code>, the given object if it is already of this type, a copy otherwise.
+     */
+    static public DenseCredibilities copyOf(IOrderedAssignmentsWithCredibilitiesRead source) {
+	if (source instanceof DenseCredibilities) {
+	    return (DenseCredibilities) source;
+	}
+	final NavigableSet<Category> categories = source.getCategories();
+	final Map<Category, Integer> indexes = getIndexes(categories.toArray(new Category[categories.size()]));
+	final Set<Alternative> alternatives = source.getAlternatives();
+	final double[] credibilities = new double[alternatives.size() * categories.size()];
+	int row = 0;
+	for (Alternative alternative : alternatives) {
+	    for (Map.Entry<Category, Double> entry : source.getCredibilities(alternative).entrySet()) {
+		final Integer cat = indexes.get(entry.getKey());
+		Preconditions.checkArgument(cat != null, "Unknown category: " + entry.getKey() + ".");
+		credibilities[row + cat.intValue()] = entry.getValue().doubleValue();
+	    }
+	    row += categories.size();
+	}
+	return new DenseCredibilities(categories, alternatives, credibilities);
+    }
+
+    static private <T> Map<T, Integer> getIndexes(T[] values) {
+	final Map<T, Integer> indexes = Maps.newHashMapWithExpectedSize(values.length);
+	for (int i = 0; i < values.length; ++i) {
+	    indexes.put(values[i], Integer.valueOf(i));
+	}
+	return indexes;
+    }
+
+    @Override
+    public Set<Alternative> getAlternatives() {
+	return m_alternatives;
+    }
+
+    @Override
+    public NavigableSet<Category> getCategories() {
+	return m_categories;
+    }
+
+    /**
+     * @return <code>null</code> iff the given alternative is not assigned, otherwise a new unmodifiable map
+     *         containing the positive credibilities of the alternative.
+     */
+    @Override
+    public NavigableMap<Category, Double> getCredibilities(Alternative alternative) {
+	final Integer alt = m_alternativesIndexes.get(alternative);
+	if (alt == null) {
+	    return null;
+	}
+	final TreeMap<Category, Double> credibilities = new TreeMap<Category, Double>(m_categories.comparator());
+	final int nbCats = m_categoriesByIndex.length;
+	for (int cat = 0; cat < nbCats; ++cat) {
+	    final double credibility = m_credibilities[alt.intValue() * nbCats + cat];
+	    if (credibility > 0d) {
+		credibilities.put(m_categoriesByIndex[cat], Double.valueOf(credibility));
+	    }
+	}
+	return Collections.unmodifiableNavigableMap(credibilities);
+    }
+
+    public int getNbAlternatives() {
+	return m_alternativesByIndex.length;
+    }
+
+    public int getNbCategories() {
+	return m_categoriesByIndex.length;
+    }
+
+    public Alternative getAlternative(int alternative) {
+	return m_alternativesByIndex[alternative];
+    }
+
+    public Category getCategory(int category) {
+	return m_categoriesByIndex[category];
+    }
+
+    /**
+     * @return the index of the given alternative, or -1 iff it is not assigned.
+     */
+    public int getAlternativeIndex(Alternative alternative) {
+	final Integer alt = m_alternativesIndexes.get(alternative);
+	return alt == null ? -1 : alt.intValue();
+    }
+
+    /**
+     * @return the index of the given category, or -1 iff it is not one of the categories.
+     */
+    public int getCategoryIndex(Category category) {
+	final Integer cat = m_categoriesIndexes.get(category);
+	return cat == null ? -1 : cat.intValue();
+    }
+
+    /**
+     * @return the credibility of the given alternative for the given category, zero if it is not assigned to that
+     *         category.
+     */
+    public double getCredibility(int alternative, int category) {
+	Preconditions.checkElementIndex(alternative, m_alternativesByIndex.length);
+	Preconditions.checkElementIndex(category, m_categoriesByIndex.length);
+	return m_credibilities[alternative * m_categoriesByIndex.length + category];
+    }
+
+    /**
+     * @return not <code>null</code>, a new array containing the credibilities of the given alternative, indexed by
+     *         category, including the zero ones.
+     */
+    public double[] getRow(int alternative) {
+	Preconditions.checkElementIndex(alternative, m_alternativesByIndex.length);
+	final int nbCats = m_categoriesByIndex.length;
+	return Arrays.copyOfRange(m_credibilities, alternative * nbCats, (alternative + 1) * nbCats);
+    }
+
+    /**
+     * @param alternative
+     *            the index of an alternative.
+     * @param first
+     *            the index of the first category, inclusive.
+     * @param last
+     *            the index of the last category, inclusive, greater than or equal to the first one.
+     * @return not <code>null</code>, a new map containing the credibilities of the given alternative for the given
+     *         categories, including the zero ones.
+     */
+    public NavigableMap<Category, Double> getCredibilitiesWithZeroes(int alternative, int first, int last) {
+	Preconditions.checkElementIndex(alternative, m_alternativesByIndex.length);
+	Preconditions.checkPositionIndexes(first, last + 1, m_categoriesByIndex.length);
+	final TreeMap<Category, Double> credibilities = new TreeMap<Category, Double>(m_categories.comparator());
+	for (int cat = first; cat <= last; ++cat) {
+	    credibilities.put(m_categoriesByIndex[cat],
+		    Double.valueOf(m_credibilities[alternative * m_categoriesByIndex.length + cat]));
+	}
+	return credibilities;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj) {
+	    return true;
+	}
+	if (!(obj instanceof IOrderedAssignmentsWithCredibilitiesRead)) {
+	    return false;
+	}
+	final IOrderedAssignmentsWithCredibilitiesRead other = (IOrderedAssignmentsWithCredibilitiesRead) obj;
+	if (other instanceof DenseCredibilities) {
+	    final DenseCredibilities dense = (DenseCredibilities) other;
+	    if (Arrays.equals(m_categoriesByIndex, dense.m_categoriesByIndex)
+		    && Arrays.equals(m_alternativesByIndex, dense.m_alternativesByIndex)) {
+		return Arrays.equals(m_credibilities, dense.m_credibilities);
+	    }
+	}
+	return equivalent(this, other);
+    }
+
+    /**
+     * @return <code>true</code> iff the given assignments have the same categories, in the same order, and the same
+     *         credibilities for the same alternatives.
+     */
+    static public boolean equivalent(IOrderedAssignmentsWithCredibilitiesRead assignments1,
+	    IOrderedAssignmentsWithCredibilitiesRead assignments2) {
+	if (!Arrays.equals(assignments1.getCategories().toArray(), assignments2.getCategories().toArray())
+		|| !assignments1.getAlternatives().equals(assignments2.getAlternatives())) {
+	    return false;
+	}
+	for (Alternative alternative : assignments1.getAlternatives()) {
+	    if (!assignments1.getCredibilities(alternative).equals(assignments2.getCredibilities(alternative))) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * @return the hash code of the map associating each alternative of the given assignments to its credibilities.
+     */
+    static public int getHashCode(IOrderedAssignmentsWithCredibilitiesRead assignments) {
+	int hashCode = 0;
+	for (Alternative alternative : assignments.getAlternatives()) {
+	    hashCode += alternative.hashCode() ^ assignments.getCredibilities(alternative).hashCode();
+	}
+	return hashCode;
+    }
+
+    /**
+     * @return the hash code of the map associating each alternative to its credibilities.
+     */
+    @Override
+    public int hashCode() {
+	return getHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+	final Map<Alternative, NavigableMap<Category, Double>> credibilities = Maps.newLinkedHashMap();
+	for (Alternative alternative : m_alternatives) {
+	    credibilities.put(alternative, getCredibilities(alternative));
+	}
+	return credibilities.toString();
+    }
+}
@@ -8,64 +8,54 @@ import org.decision_deck.utils.matrix.SparseMatrixDRead;
 import org.decisiondeck.jmcda.exc.InvalidInputException;
 
 /**
+ * Computes the flows of alternatives given a preference matrix, reading the entries of the matrix alternative per
+ * alternative, without copying it. The net flow of an alternative is the sum, in the order of the rows, of the
+ * differences between its preference over each alternative and the preference of that alternative over it. All sums
+ * use Kahan compensated summation, thus the net flows are those {@link FlowEngine} computes. To compute several flows
+ * from the same matrix, {@link FlowEngine} reads the matrix once, at the cost of a dense copy.
+ * <p>
  * TODO check if alts size is one (because alts.size() - 1 will lead to division by zero).
- * 
+ * </p>
+ *
  * @author Olivier Cailloux
- * 
+ *
  */
 public class Flow {
     public AlternativesScores getNegativeFlows(SparseMatrixDRead<Alternative, Alternative> pref)
 	    throws InvalidInputException {
-	if (!pref.isComplete()) {
-	    throw new InvalidInputException("Given matrix is not complete.");
-	}
-	final Set<Alternative> alts = pref.getRows();
-	if (!alts.equals(pref.getColumns())) {
-	    throw new InvalidInputException("Given matrix is not square.");
-	}
+	final Set<Alternative> alts = getAlternatives(pref);
 	final AlternativesScores flowsOut = new AlternativesScores();
+	final double[] sum = new double[1];
+	final double[] compensation = new double[1];
 	for (final Alternative alt1 : alts) {
-	    float sum = 0;
+	    sum[0] = 0d;
+	    compensation[0] = 0d;
 	    for (final Alternative alt2 : alts) {
-		sum += pref.getEntry(alt2, alt1).doubleValue();
+		FlowEngine.add(sum, compensation, 0, pref.getEntry(alt2, alt1).doubleValue());
 	    }
-	    sum = sum / (alts.size() - 1);
-	    flowsOut.put(alt1, Double.valueOf(sum));
+	    flowsOut.put(alt1, Double.valueOf(sum[0] / (alts.size() - 1)));
 	}
 	return flowsOut;
     }
 
     public AlternativesScores getNetFlowsNotDivided(SparseMatrixDRead<Alternative, Alternative> pref)
 	    throws InvalidInputException {
-	if (!pref.isComplete()) {
-	    throw new InvalidInputException("Given matrix is not complete.");
-	}
-	final Set<Alternative> alts = pref.getRows();
-	if (!alts.equals(pref.getColumns())) {
-	    throw new InvalidInputException("Given matrix is not square.");
-	}
+	final Set<Alternative> alts = getAlternatives(pref);
 	final AlternativesScores flows = new AlternativesScores();
 	for (final Alternative alt1 : alts) {
-	    float sum = 0;
-	    for (final Alternative alt2 : alts) {
-		sum += pref.getEntry(alt1, alt2).doubleValue() - pref.getEntry(alt2, alt1).doubleValue();
-	    }
-	    flows.put(alt1, Double.valueOf(sum));
+	    flows.put(alt1, Double.valueOf(getNetFlowNotDivided(pref, alts, alt1)));
 	}
 	return flows;
     }
 
     public AlternativesScores getNetFlows(SparseMatrixDRead<Alternative, Alternative> pref)
 	    throws InvalidInputException {
-	final AlternativesScores scores = getNetFlowsNotDivided(pref);
-	final Set<Alternative> alts = pref.getRows();
-	if (!alts.equals(pref.getColumns())) {
-	    throw new InvalidInputException("Given matrix is not square.");
-	}
-	for (Alternative alternative : alts) {
-	    scores.put(alternative, scores.get(alternative).doubleValue() / (alts.size() - 1));
+	final Set<Alternative> alts = getAlternatives(pref);
+	final AlternativesScores flows = new AlternativesScores();
+	for (final Alternative alt1 : alts) {
+	    flows.put(alt1, Double.valueOf(getNetFlowNotDivided(pref, alts, alt1) / (alts.size() - 1)));
 	}
-	return scores;
+	return flows;
     }
 
     public AlternativesScores getFlows(FlowType type, SparseMatrixDRead<Alternative, Alternative> pref)
@@ -89,24 +79,51 @@ public class Flow {
 
     public AlternativesScores getPositiveFlows(SparseMatrixDRead<Alternative, Alternative> pref)
 	    throws InvalidInputException {
-	if (!pref.isComplete()) {
-	    throw new InvalidInputException("Given matrix is not complete.");
-	}
-	final Set<Alternative> alts = pref.getRows();
-	if (!alts.equals(pref.getColumns())) {
-	    throw new InvalidInputException("Given matrix is not square.");
-	}
+	final Set<Alternative> alts = getAlternatives(pref);
 	final AlternativesScores flowsIn = new AlternativesScores();
+	final double[] sum = new double[1];
+	final double[] compensation = new double[1];
 	for (final Alternative alt1 : alts) {
-	    float sum = 0;
+	    sum[0] = 0d;
+	    compensation[0] = 0d;
 	    for (final Alternative alt2 : alts) {
-		sum += pref.getEntry(alt1, alt2).doubleValue();
+		FlowEngine.add(sum, compensation, 0, pref.getEntry(alt1, alt2).doubleValue());
 	    }
-	    sum = sum / (alts.size() - 1);
-	    flowsIn.put(alt1, Double.valueOf(sum));
+	    flowsIn.put(alt1, Double.valueOf(sum[0] / (alts.size() - 1)));
 	}
 
 	return flowsIn;
     }
 
+    /**
+     * @return the net flow of the given alternative, not divided by the number of alternatives minus one.
+     */
+    static private double getNetFlowNotDivided(SparseMatrixDRead<Alternative, Alternative> pref, Set<Alternative> alts,
+	    Alternative alt1) {
+	final double[] sum = new double[1];
+	final double[] compensation = new double[1];
+	for (final Alternative alt2 : alts) {
+	    FlowEngine.add(sum, compensation, 0,
+		    pref.getEntry(alt1, alt2).doubleValue() - pref.getEntry(alt2, alt1).doubleValue());
+	}
+	return sum[0];
+    }
+
+    /**
+     * @return the rows of the given matrix.
+     * @throws InvalidInputException
+     *             if the given matrix is not complete or not square.
+     */
+    static private Set<Alternative> getAlternatives(SparseMatrixDRead<Alternative, Alternative> pref)
+	    throws InvalidInputException {
+	if (!pref.isComplete()) {
+	    throw new InvalidInputException("Given matrix is not complete.");
+	}
+	final Set<Alternative> alts = pref.getRows();
+	if (!alts.equals(pref.getColumns())) {
+	    throw new InvalidInputException("Given matrix is not square.");
+	}
+	return alts;
+    }
+
 }
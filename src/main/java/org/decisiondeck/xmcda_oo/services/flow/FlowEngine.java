@@ -0,0 +1,309 @@
+package org.decisiondeck.xmcda_oo.services.flow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.scores.AlternativesScores;
+import org.decision_deck.utils.matrix.SparseMatrixDRead;
+import org.decisiondeck.jmcda.exc.InvalidInputException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Computes the positive, negative and net flows of alternatives from a dense preference matrix, the three of them in
+ * a single computation. The positive flow of an alternative is the sum of its row, its negative flow is the sum of its
+ * column, both including the diagonal, and its net flow is the sum of the differences between its preference over
+ * each alternative and the preference of that alternative over it; the flows are divided by the number of
+ * alternatives minus one, as {@link Flow} does.
+ * </p>
+ * <p>
+ * The rows are split into a fixed number of blocks, which are processed in parallel. Each block sums its rows and
+ * accumulates partial sums of the columns; the partial sums are then added in the order of the blocks. These sums use
+ * Kahan compensated summation. The net flows are summed pair per pair in the order of the alternatives, also with
+ * compensation, exactly as {@link Flow} sums them, thus both give the same net flows, ties included. The blocks do not
+ * depend on the pool used, thus neither do the results.
+ * </p>
+ * <p>
+ * The matrix is held in a single array, thus it has at most 46340 alternatives. {@link Flow} has no such limit and
+ * uses no memory proportional to the size of the matrix.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class FlowEngine {
+    /**
+     * The maximal number of blocks of rows. Bounds the memory used, as every block holds a partial sum per column.
+     */
+    static private final int MAX_BLOCKS = 32;
+
+    private final Alternative[] m_alternatives;
+    /**
+     * The preference of the alternative i over the alternative j is at index i × number of alternatives + j.
+     */
+    private final double[] m_preferences;
+    /**
+     * The sums of the rows, not divided. <code>null</code> until computed.
+     */
+    private double[] m_rowSums;
+    /**
+     * The sums of the columns, not divided. <code>null</code> until computed.
+     */
+    private double[] m_columnSums;
+    /**
+     * The net flows, not divided. <code>null</code> until computed.
+     */
+    private double[] m_netSums;
+    private ForkJoinPool m_pool;
+
+    /**
+     * Builds an engine using the given preferences. The given array is not copied: it must not be modified after this
+     * object is built.
+     *
+     * @param alternatives
+     *            not <code>null</code>, no duplicates. Their iteration order gives their indexes.
+     * @param preferences
+     *            not <code>null</code>, the preference of the alternative i over the alternative j at index i × number
+     *            of alternatives + j.
+     */
+    public FlowEngine(Collection<Alternative> alternatives, double[] preferences) {
+	m_alternatives = alternatives.toArray(new Alternative[alternatives.size()]);
+	final int nbAlts = m_alternatives.length;
+	Preconditions.checkArgument(preferences.length == (long) nbAlts * nbAlts, "Expected " + (long) nbAlts
+		* nbAlts + " preferences, found " + preferences.length + ".");
+	m_preferences = preferences;
+	m_rowSums = null;
+	m_columnSums = null;
+	m_netSums = null;
+	m_pool = null;
+    }
+
+    /**
+     * Copies the given matrix into a dense array, reading each entry once.
+     *
+     * @param pref
+     *            not <code>null</code>, must be complete and square, with at most 46340 alternatives.
+     * @return not <code>null</code>, a new engine, the alternatives being in the order of the rows of the matrix.
+     * @throws InvalidInputException
+     *             if the given matrix is not complete or not square.
+     */
+    static public FlowEngine compile(SparseMatrixDRead<Alternative, Alternative> pref) throws InvalidInputException {
+	if (!pref.isComplete()) {
+	    throw new InvalidInputException("Given matrix is not complete.");
+	}
+	final Set<Alternative> alts = pref.getRows();
+	if (!alts.equals(pref.getColumns())) {
+	    throw new InvalidInputException("Given matrix is not square.");
+	}
+	final long nbCells = (long) alts.size() * alts.size();
+	Preconditions.checkArgument(nbCells <= Integer.MAX_VALUE, "Too many alternatives for a dense matrix: "
+		+ alts.size() + ".");
+	final double[] preferences = new double[(int) nbCells];
+	int cell = 0;
+	for (Alternative alt1 : alts) {
+	    for (Alternative alt2 : alts) {
+		preferences[cell] = pref.getEntry(alt1, alt2).doubleValue();
+		++cell;
+	    }
+	}
+	return new FlowEngine(alts, preferences);
+    }
+
+    public int getNbAlternatives() {
+	return m_alternatives.length;
+    }
+
+    public Alternative getAlternative(int alternative) {
+	return m_alternatives[alternative];
+    }
+
+    /**
+     * @param type
+     *            not <code>null</code>.
+     * @param alternative
+     *            the index of an alternative.
+     * @return the flow of the given type of the given alternative, not divided by the number of alternatives minus
+     *         one.
+     */
+    public double getFlowNotDivided(FlowType type, int alternative) {
+	compute();
+	switch (type) {
+	case POSITIVE:
+	    return m_rowSums[alternative];
+	case NEGATIVE:
+	    return m_columnSums[alternative];
+	case NET:
+	    return m_netSums[alternative];
+	default:
+	    throw new IllegalStateException("Unknown flow type.");
+	}
+    }
+
+    /**
+     * @param type
+     *            not <code>null</code>.
+     * @param alternative
+     *            the index of an alternative.
+     * @return the flow of the given type of the given alternative.
+     */
+    public double getFlow(FlowType type, int alternative) {
+	return getFlowNotDivided(type, alternative) / (m_alternatives.length - 1);
+    }
+
+    /**
+     * @param type
+     *            not <code>null</code>.
+     * @return not <code>null</code>, a new object containing the flows of the given type of every alternative.
+     */
+    public AlternativesScores getFlows(FlowType type) {
+	final AlternativesScores flows = new AlternativesScores();
+	for (int alternative = 0; alternative < m_alternatives.length; ++alternative) {
+	    flows.put(m_alternatives[alternative], Double.valueOf(getFlow(type, alternative)));
+	}
+	return flows;
+    }
+
+    /**
+     * @param type
+     *            not <code>null</code>.
+     * @return not <code>null</code>, a new object containing the flows of the given type of every alternative, not
+     *         divided by the number of alternatives minus one.
+     */
+    public AlternativesScores getFlowsNotDivided(FlowType type) {
+	final AlternativesScores flows = new AlternativesScores();
+	for (int alternative = 0; alternative < m_alternatives.length; ++alternative) {
+	    flows.put(m_alternatives[alternative], Double.valueOf(getFlowNotDivided(type, alternative)));
+	}
+	return flows;
+    }
+
+    private void compute() {
+	if (m_rowSums != null) {
+	    return;
+	}
+	final int nbAlts = m_alternatives.length;
+	final int nbBlocks = Math.min(MAX_BLOCKS, nbAlts);
+	final double[] rowSums = new double[nbAlts];
+	final double[] netSums = new double[nbAlts];
+	final List<RowsBlock> blocks = new ArrayList<RowsBlock>(nbBlocks);
+	for (int block = 0; block < nbBlocks; ++block) {
+	    blocks.add(new RowsBlock(getBlockStart(block, nbBlocks, nbAlts), getBlockStart(block + 1, nbBlocks,
+		    nbAlts), rowSums, netSums));
+	}
+	if (m_pool == null) {
+	    for (RowsBlock block : blocks) {
+		block.compute();
+	    }
+	} else {
+	    m_pool.invoke(new RecursiveAction() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+		    invokeAll(blocks);
+		}
+	    });
+	}
+	final double[] columnSums = new double[nbAlts];
+	final double[] compensations = new double[nbAlts];
+	for (RowsBlock block : blocks) {
+	    for (int column = 0; column < nbAlts; ++column) {
+		add(columnSums, compensations, column, block.m_columnSums[column]);
+		add(columnSums, compensations, column, -block.m_compensations[column]);
+	    }
+	}
+	m_rowSums = rowSums;
+	m_columnSums = columnSums;
+	m_netSums = netSums;
+    }
+
+    /**
+     * @return the index of the first row of the given block, or the number of alternatives if the block is the number
+     *         of blocks.
+     */
+    static private int getBlockStart(int block, int nbBlocks, int nbAlts) {
+	return (int) ((long) block * nbAlts / nbBlocks);
+    }
+
+    /**
+     * Adds the given value to the sum at the given index, using Kahan compensated summation.
+     */
+    static void add(double[] sums, double[] compensations, int index, double value) {
+	final double corrected = value - compensations[index];
+	final double newSum = sums[index] + corrected;
+	compensations[index] = (newSum - sums[index]) - corrected;
+	sums[index] = newSum;
+    }
+
+    /**
+     * Sums the rows from the begin index, inclusive, to the end index, exclusive, and the net flows of these rows, into
+     * the shared arrays, and the part of the columns in these rows into its own arrays. Distinct blocks write to
+     * distinct entries of the shared arrays, thus blocks may be computed concurrently.
+     */
+    private class RowsBlock extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private final int m_begin;
+	private final int m_end;
+	private final double[] m_rowSums;
+	private final double[] m_netSums;
+	private double[] m_columnSums;
+	private double[] m_compensations;
+
+	public RowsBlock(int begin, int end, double[] rowSums, double[] netSums) {
+	    m_begin = begin;
+	    m_end = end;
+	    m_rowSums = rowSums;
+	    m_netSums = netSums;
+	}
+
+	@Override
+	protected void compute() {
+	    final int nbAlts = m_alternatives.length;
+	    m_columnSums = new double[nbAlts];
+	    m_compensations = new double[nbAlts];
+	    final double[] rowSum = new double[1];
+	    final double[] rowCompensation = new double[1];
+	    final double[] netSum = new double[1];
+	    final double[] netCompensation = new double[1];
+	    for (int row = m_begin; row < m_end; ++row) {
+		rowSum[0] = 0d;
+		rowCompensation[0] = 0d;
+		netSum[0] = 0d;
+		netCompensation[0] = 0d;
+		final int rowStart = row * nbAlts;
+		for (int column = 0; column < nbAlts; ++column) {
+		    final double preference = m_preferences[rowStart + column];
+		    add(rowSum, rowCompensation, 0, preference);
+		    add(m_columnSums, m_compensations, column, preference);
+		    add(netSum, netCompensation, 0, preference - m_preferences[column * nbAlts + row]);
+		}
+		m_rowSums[row] = rowSum[0];
+		m_netSums[row] = netSum[0];
+	    }
+	}
+    }
+
+    /**
+     * Sets the pool used to process the blocks of rows in parallel. The results do not depend on whether a pool is
+     * used. Must be set before the flows are computed to have an effect.
+     *
+     * @param pool
+     *            <code>null</code> to compute sequentially (the default).
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+	m_pool = pool;
+    }
+
+    /**
+     * @return <code>null</code> iff the computation is sequential.
+     */
+    public ForkJoinPool getForkJoinPool() {
+	return m_pool;
+    }
+}
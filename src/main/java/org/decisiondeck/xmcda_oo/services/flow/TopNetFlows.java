@@ -0,0 +1,399 @@
+package org.decisiondeck.xmcda_oo.services.flow;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.decision_deck.jmcda.services.ConsistencyChecker;
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.interval.PreferenceDirection;
+import org.decision_deck.jmcda.structure.thresholds.Thresholds;
+import org.decision_deck.jmcda.structure.weights.Weights;
+import org.decisiondeck.jmcda.exc.InputCheck;
+import org.decisiondeck.jmcda.exc.InvalidInputException;
+import org.decisiondeck.jmcda.services.outranking.Concordance;
+import org.decisiondeck.jmcda.structure.sorting.problem.data.IProblemData;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * Finds the alternatives having the best net flows, computed on the preference matrix a la Promethee, without
+ * computing the net flows of all alternatives. The net flows are those that {@link Flow#getNetFlows} computes on the
+ * matrix that {@link Concordance#preference} computes, when the alternatives are in the order of the given data.
+ * </p>
+ * <p>
+ * The evaluations on each criterion are sorted once. The preference of an alternative over the others, on one
+ * criterion, is monotone in the order of their evaluations, thus it is one up to some position, zero from some further
+ * position, and the sum of the values in between is bounded by cutting these into blocks and using the values at the
+ * ends of each block. This gives bounds on the net flows of all alternatives for a few evaluations of preferences per
+ * alternative and criterion. The alternatives whose upper bound is lower than the lower bound of enough other
+ * alternatives are pruned, the bounds of the others are tightened using more blocks, and the net flows of the
+ * remaining candidates only are finally computed exactly, in the same way as {@link Flow}. The bounds account for
+ * rounding errors, thus the result is the same as if all net flows were computed.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class TopNetFlows {
+    /**
+     * The number of blocks per criterion used to compute the first bounds.
+     */
+    static private final int INITIAL_RESOLUTION = 16;
+    /**
+     * The factor by which the number of blocks increases at each tightening of the bounds.
+     */
+    static private final int RESOLUTION_FACTOR = 8;
+
+    private final Alternative[] m_alternatives;
+    private final Map<Alternative, Integer> m_indexes;
+    /**
+     * In array[c][i], the evaluation of the alternative i on the criterion c.
+     */
+    private final double[][] m_evaluations;
+    /**
+     * In array[c], the evaluations on the criterion c, from the worst to the best.
+     */
+    private final double[][] m_sortedEvaluations;
+    private final boolean[] m_maximize;
+    private final double[] m_preferenceThresholds;
+    private final double[] m_indifferenceThresholds;
+    private final double[] m_weights;
+    private final double m_weightsSum;
+    /**
+     * The sum of the weights of the criteria divided by the sum of the weights as given by the weights object.
+     */
+    private final double m_weightsRatio;
+
+    /**
+     * For the input to be valid, all weights must be provided and be non negative, all criteria must have
+     * preference directions, all evaluations must be provided, the set of criteria on which thresholds and weights are
+     * defined must be in the set of criteria, the preference threshold must be greater or equal to the indifference
+     * threshold for each criteria. Otherwise, an {@link InvalidInputException} is thrown. The scales are not used
+     * apart from the preference direction information.
+     *
+     * @param data
+     *            not <code>null</code>.
+     * @param thresholds
+     *            not <code>null</code>. Missing thresholds are considered zero. Vetoes are not used.
+     * @param weights
+     *            not <code>null</code>. Do not have to be normalized.
+     * @throws InvalidInputException
+     *             if the input is not valid.
+     */
+    public TopNetFlows(IProblemData data, Thresholds thresholds, Weights weights) throws InvalidInputException {
+	InputCheck.check(data.getCriteria().containsAll(weights.keySet()),
+		"Some weights are defined on unknown criteria.");
+	new ConsistencyChecker().assertCompleteWeights(data.getCriteria(), weights.keySet());
+	InputCheck.check(data.getCriteria().containsAll(thresholds.getCriteria()),
+		"Some thresholds are defined on unknown criteria.");
+	final ConsistencyChecker consistencyChecker = new ConsistencyChecker();
+	consistencyChecker.assertCompleteAlternativesEvaluations(data);
+	consistencyChecker.assertCompletePreferenceDirections(data);
+
+	final Set<Alternative> alternatives = data.getAlternatives();
+	m_alternatives = alternatives.toArray(new Alternative[alternatives.size()]);
+	m_indexes = Maps.newHashMap();
+	for (int alternative = 0; alternative < m_alternatives.length; ++alternative) {
+	    m_indexes.put(m_alternatives[alternative], Integer.valueOf(alternative));
+	}
+	final Set<Criterion> criteria = data.getCriteria();
+	final int nbCriteria = criteria.size();
+	m_evaluations = new double[nbCriteria][];
+	m_sortedEvaluations = new double[nbCriteria][];
+	m_maximize = new boolean[nbCriteria];
+	m_preferenceThresholds = new double[nbCriteria];
+	m_indifferenceThresholds = new double[nbCriteria];
+	m_weights = new double[nbCriteria];
+	m_weightsSum = weights.getSum();
+	double sumOfWeights = 0d;
+	int criterionIndex = 0;
+	for (Criterion criterion : criteria) {
+	    final PreferenceDirection direction = data.getScales().get(criterion).getPreferenceDirection();
+	    final double p = thresholds.containsPreferenceThreshold(criterion) ? thresholds
+		    .getPreferenceThreshold(criterion) : 0;
+	    final double q = thresholds.containsIndifferenceThreshold(criterion) ? thresholds
+		    .getIndifferenceThreshold(criterion) : 0;
+	    if (p < q) {
+		throw new InvalidInputException("Criterion " + criterion + " has preference treshold (" + p
+			+ ") smaller than indifference threshold (" + q + ").");
+	    }
+	    final double weight = weights.getWeightBetter(criterion);
+	    InputCheck.check(weight >= 0d, "Criterion " + criterion + " has a negative weight.");
+	    sumOfWeights += weight;
+
+	    final double[] evaluations = new double[m_alternatives.length];
+	    for (int alternative = 0; alternative < m_alternatives.length; ++alternative) {
+		evaluations[alternative] = data.getAlternativesEvaluations().getEntry(m_alternatives[alternative],
+			criterion).doubleValue();
+	    }
+	    final double[] sorted = evaluations.clone();
+	    Arrays.sort(sorted);
+	    m_maximize[criterionIndex] = direction == PreferenceDirection.MAXIMIZE;
+	    if (!m_maximize[criterionIndex]) {
+		reverse(sorted);
+	    }
+	    m_evaluations[criterionIndex] = evaluations;
+	    m_sortedEvaluations[criterionIndex] = sorted;
+	    m_preferenceThresholds[criterionIndex] = p;
+	    m_indifferenceThresholds[criterionIndex] = q;
+	    m_weights[criterionIndex] = weight;
+	    ++criterionIndex;
+	}
+	InputCheck.check(m_weightsSum > 0d, "The sum of the weights must be positive.");
+	m_weightsRatio = sumOfWeights / m_weightsSum;
+    }
+
+    /**
+     * Retrieves the alternatives having the best net flows. When several alternatives have equal net flows, those
+     * coming first in the data come first.
+     *
+     * @param k
+     *            at least zero.
+     * @return not <code>null</code>, the k alternatives (or all alternatives, if there are less than k) having the best
+     *         net flows, in order of decreasing net flows.
+     */
+    public List<Alternative> getBest(int k) {
+	Preconditions.checkArgument(k >= 0);
+	final int nbAlts = m_alternatives.length;
+	final int nbBest = Math.min(k, nbAlts);
+	if (nbBest == 0) {
+	    return Lists.newArrayList();
+	}
+	int[] candidates = new int[nbAlts];
+	for (int alternative = 0; alternative < nbAlts; ++alternative) {
+	    candidates[alternative] = alternative;
+	}
+	final double[] lowerBounds = new double[nbAlts];
+	final double[] upperBounds = new double[nbAlts];
+	final double[] bounds = new double[2];
+	for (int resolution = INITIAL_RESOLUTION; candidates.length > nbBest; resolution *= RESOLUTION_FACTOR) {
+	    final double[] sortedLowerBounds = new double[candidates.length];
+	    for (int i = 0; i < candidates.length; ++i) {
+		final int candidate = candidates[i];
+		setNetFlowBounds(candidate, resolution, bounds);
+		lowerBounds[candidate] = bounds[0];
+		upperBounds[candidate] = bounds[1];
+		sortedLowerBounds[i] = bounds[0];
+	    }
+	    Arrays.sort(sortedLowerBounds);
+	    /** At least nbBest alternatives have a net flow not lower than this. */
+	    final double threshold = sortedLowerBounds[candidates.length - nbBest];
+	    int nbKept = 0;
+	    for (int candidate : candidates) {
+		if (upperBounds[candidate] >= threshold) {
+		    candidates[nbKept] = candidate;
+		    ++nbKept;
+		}
+	    }
+	    candidates = Arrays.copyOf(candidates, nbKept);
+	    if (2L * resolution >= nbAlts) {
+		/** The sums were computed without cutting into blocks, more blocks would not tighten the bounds. */
+		break;
+	    }
+	}
+
+	final double[] netFlows = new double[nbAlts];
+	final List<Integer> ranked = Lists.newArrayListWithCapacity(candidates.length);
+	for (int candidate : candidates) {
+	    netFlows[candidate] = getNetFlow(candidate);
+	    ranked.add(Integer.valueOf(candidate));
+	}
+	Collections.sort(ranked, new Comparator<Integer>() {
+	    @Override
+	    public int compare(Integer o1, Integer o2) {
+		final int byFlow = Double.compare(netFlows[o2.intValue()], netFlows[o1.intValue()]);
+		return byFlow != 0 ? byFlow : Integer.compare(o1.intValue(), o2.intValue());
+	    }
+	});
+	final List<Alternative> best = Lists.newArrayListWithCapacity(nbBest);
+	for (Integer alternative : ranked.subList(0, nbBest)) {
+	    best.add(m_alternatives[alternative.intValue()]);
+	}
+	return best;
+    }
+
+    /**
+     * Computes the net flow of the given alternative. This takes a time linear in the number of alternatives.
+     *
+     * @param alternative
+     *            one of the alternatives of the data.
+     * @return the net flow of the given alternative.
+     */
+    public double getNetFlow(Alternative alternative) {
+	final Integer index = m_indexes.get(alternative);
+	Preconditions.checkArgument(index != null, "Unknown alternative: " + alternative + ".");
+	return getNetFlow(index.intValue());
+    }
+
+    /**
+     * Computes the net flow exactly as {@link Flow#getNetFlows} does: the differences of preferences are summed pair
+     * per pair, in the order of the alternatives, using Kahan compensated summation.
+     */
+    private double getNetFlow(int alternative) {
+	final double[] sum = new double[1];
+	final double[] compensation = new double[1];
+	for (int other = 0; other < m_alternatives.length; ++other) {
+	    FlowEngine.add(sum, compensation, 0, getPreference(alternative, other) - getPreference(other, alternative));
+	}
+	return sum[0] / (m_alternatives.length - 1);
+    }
+
+    /**
+     * Computes the preference exactly as {@link Concordance#preference} does.
+     */
+    private double getPreference(int alternative1, int alternative2) {
+	double total = 0;
+	for (int criterion = 0; criterion < m_weights.length; ++criterion) {
+	    total += (m_weights[criterion] * getCriterionPreference(criterion, m_evaluations[criterion][alternative1],
+		    m_evaluations[criterion][alternative2]));
+	}
+	total = total / m_weightsSum;
+	if (total > 1d) {
+	    if (total > 1.1d) {
+		throw new IllegalStateException("More than 10% error: total = " + total + ", should be ≤ 1.");
+	    }
+	    total = 1d;
+	}
+	return total;
+    }
+
+    /**
+     * Computes the preference on one criterion exactly as {@link Concordance#preferencePairwize} does. Is non
+     * decreasing in the first evaluation and non increasing in the second one, in the order of the sorted evaluations.
+     */
+    private double getCriterionPreference(int criterion, double eval1, double eval2) {
+	final double perfDiff = m_maximize[criterion] ? eval1 - eval2 : -(eval1 - eval2);
+	final double p = m_preferenceThresholds[criterion];
+	final double q = m_indifferenceThresholds[criterion];
+	if (p == q && perfDiff == p) {
+	    return 0;
+	}
+	if (perfDiff <= q) {
+	    return 0;
+	}
+	if (perfDiff >= p) {
+	    return 1;
+	}
+	return ((perfDiff - q) / (p - q));
+    }
+
+    /**
+     * Sets the given bounds to a lower and an upper bound of the net flow of the given alternative, including the
+     * rounding errors of the exact computation and a margin ensuring that an alternative whose upper bound is lower
+     * than the lower bound of an other one has a net flow strictly lower.
+     *
+     * @param resolution
+     *            the number of blocks per criterion.
+     * @param bounds
+     *            not <code>null</code>, two cells.
+     */
+    private void setNetFlowBounds(int alternative, int resolution, double[] bounds) {
+	double forLower = 0d;
+	double forUpper = 0d;
+	double againstLower = 0d;
+	double againstUpper = 0d;
+	for (int criterion = 0; criterion < m_weights.length; ++criterion) {
+	    final double eval = m_evaluations[criterion][alternative];
+	    setSumBounds(criterion, eval, false, resolution, bounds);
+	    forLower += m_weights[criterion] * bounds[0];
+	    forUpper += m_weights[criterion] * bounds[1];
+	    setSumBounds(criterion, eval, true, resolution, bounds);
+	    againstLower += m_weights[criterion] * bounds[0];
+	    againstUpper += m_weights[criterion] * bounds[1];
+	}
+	final int nbAlts = m_alternatives.length;
+	/**
+	 * Generously bounds the rounding errors of the bounds, of the preferences and of their sums, the net flows being
+	 * at most the number of alternatives in absolute value.
+	 */
+	final double slack = Math.ulp(1d) * nbAlts
+		* (m_weightsRatio * (4d * resolution + 4d * m_weights.length + 32d) + 8d);
+	bounds[0] = ((forLower - againstUpper) / m_weightsSum - slack) / (nbAlts - 1);
+	bounds[1] = ((forUpper - againstLower) / m_weightsSum + slack) / (nbAlts - 1);
+    }
+
+    /**
+     * Sets the given bounds to a lower and an upper bound of the sum of the preferences, on the given criterion, of the
+     * given evaluation over all alternatives, or of all alternatives over the given evaluation. The bounds do not
+     * account for rounding errors.
+     *
+     * @param against
+     *            <code>true</code> to bound the sum of the preferences over the given evaluation.
+     * @param resolution
+     *            at least one, the number of blocks the preferences strictly between zero and one are cut into.
+     * @param bounds
+     *            not <code>null</code>, two cells.
+     */
+    private void setSumBounds(int criterion, double eval, boolean against, int resolution, double[] bounds) {
+	final int nbAlts = m_alternatives.length;
+	final int ones = getFirstBelow(criterion, eval, against, 1d, 0);
+	/** The preferences being non negative, the first zero. */
+	final int zeros = getFirstBelow(criterion, eval, against, Double.MIN_VALUE, ones);
+	assert zeros <= nbAlts;
+	double lower = ones;
+	double upper = ones;
+	final int nbBetween = zeros - ones;
+	if (nbBetween <= 2 * resolution) {
+	    for (int position = ones; position < zeros; ++position) {
+		lower += getSortedPreference(criterion, eval, against, position);
+	    }
+	    upper = lower;
+	} else {
+	    for (int block = 0; block < resolution; ++block) {
+		final int start = ones + (int) ((long) block * nbBetween / resolution);
+		final int end = ones + (int) ((long) (block + 1) * nbBetween / resolution);
+		lower += (end - start) * getSortedPreference(criterion, eval, against, end - 1);
+		upper += (end - start) * getSortedPreference(criterion, eval, against, start);
+	    }
+	}
+	bounds[0] = lower;
+	bounds[1] = upper;
+    }
+
+    /**
+     * @return the first position, from the given one, from which the preferences are lower than the given bound, or
+     *         the number of alternatives if there is none.
+     */
+    private int getFirstBelow(int criterion, double eval, boolean against, double bound, int from) {
+	int low = from;
+	int high = m_alternatives.length;
+	while (low < high) {
+	    final int middle = (low + high) >>> 1;
+	    if (getSortedPreference(criterion, eval, against, middle) < bound) {
+		high = middle;
+	    } else {
+		low = middle + 1;
+	    }
+	}
+	return low;
+    }
+
+    /**
+     * Retrieves the preference of the given evaluation over the alternative at the given position in the sorted
+     * evaluations, or, if against, of the alternative at the given position from the end over the given evaluation.
+     * This is non increasing with the position.
+     */
+    private double getSortedPreference(int criterion, double eval, boolean against, int position) {
+	final double[] sorted = m_sortedEvaluations[criterion];
+	if (against) {
+	    return getCriterionPreference(criterion, sorted[sorted.length - 1 - position], eval);
+	}
+	return getCriterionPreference(criterion, eval, sorted[position]);
+    }
+
+    static private void reverse(double[] values) {
+	for (int i = 0, j = values.length - 1; i < j; ++i, --j) {
+	    final double value = values[i];
+	    values[i] = values[j];
+	    values[j] = value;
+	}
+    }
+}
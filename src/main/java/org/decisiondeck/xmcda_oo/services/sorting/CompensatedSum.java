@@ -0,0 +1,62 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+/**
+ * A sum of doubles using Kahan compensated summation: the low order bits lost at each addition are kept and added back
+ * at the next one. The result depends on the order of the additions, thus sums must be added in a fixed order to
+ * obtain reproducible results.
+ *
+ * @author Olivier Cailloux
+ *
+ */
+class CompensatedSum {
+    private double m_sum;
+    private double m_compensation;
+
+    public CompensatedSum() {
+	m_sum = 0d;
+	m_compensation = 0d;
+    }
+
+    /**
+     * Restores a sum from its state, as given by {@link #getSum()} and {@link #getCompensation()}. Adding the same
+     * values to the restored sum and to the original one gives exactly the same results.
+     *
+     * @param sum
+     *            the sum.
+     * @param compensation
+     *            the compensation of the sum.
+     */
+    public CompensatedSum(double sum, double compensation) {
+	m_sum = sum;
+	m_compensation = compensation;
+    }
+
+    public void add(double value) {
+	final double corrected = value - m_compensation;
+	final double newSum = m_sum + corrected;
+	m_compensation = (newSum - m_sum) - corrected;
+	m_sum = newSum;
+    }
+
+    /**
+     * Adds the given sum, including its compensation.
+     *
+     * @param sum
+     *            not <code>null</code>.
+     */
+    public void add(CompensatedSum sum) {
+	add(sum.m_sum);
+	add(-sum.m_compensation);
+    }
+
+    public double getSum() {
+	return m_sum;
+    }
+
+    /**
+     * @return the low order bits lost by the sum so far, to be subtracted from the next added value.
+     */
+    public double getCompensation() {
+	return m_compensation;
+    }
+}
@@ -0,0 +1,315 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.decision_deck.jmcda.services.internal.PreferencesToArrays;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.matrix.EvaluationsRead;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
+import org.decision_deck.jmcda.structure.weights.Coalitions;
+
+import com.google.common.collect.BiMap;
+
+/**
+ * <p>
+ * Progressively assigns a batch of alternatives using pessimistic Electre TRI sorting, no thresholds, as evaluations
+ * become known. The evaluation of each alternative on each criterion is known to lie in an interval, begin inclusive,
+ * end not inclusive; an evaluation not yet set is considered as lying anywhere. Each alternative may then be assigned
+ * to any category between its worst and its best category.
+ * </p>
+ * <p>
+ * This is the batch counterpart of {@link ElectrePessimisticProgressiveWithArrays}: the alternatives are held in
+ * struct-of-arrays form, thus setting the evaluations of every alternative on one criterion updates all their weight
+ * limits in a few loops over primitive arrays. Contrary to that class, an evaluation may be set again, e.g. narrowed,
+ * after it has been set.
+ * </p>
+ * <p>
+ * Alternatives are numbered from zero to the number of alternatives minus one. The worst category is numbered zero;
+ * the best is numbered nbCats-1. Criteria are numbered as in the weights and profiles arrays.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class ElectrePessimisticProgressiveBatch {
+    private final int m_nbAlts;
+    private final int m_nbCats;
+    private final double m_lambda;
+    /**
+     * In array[crit], the weight of the criterion crit.
+     */
+    private final double[] m_weights;
+    private final double m_sumWeights;
+    /**
+     * array[i][j] = evaluation of the profile above category i on the criterion j.
+     */
+    private final double[][] m_profs;
+    /**
+     * array[crit][alt] = lower bound, inclusive, of the evaluation of the alternative alt on the criterion crit.
+     */
+    private final double[][] m_minEvals;
+    /**
+     * array[crit][alt] = upper bound, not inclusive, of the evaluation of the alternative alt on the criterion crit.
+     */
+    private final double[][] m_maxEvals;
+    /**
+     * array[cat][alt] = the min weight for the alternative alt to reach category cat or above. Unused for cat zero.
+     */
+    private final double[][] m_wMin;
+    /**
+     * array[cat][alt] = the max weight for the alternative alt to reach category cat or above. Unused for cat zero.
+     */
+    private final double[][] m_wMax;
+    private final int[] m_worstCats;
+    private final int[] m_bestCats;
+    /**
+     * <code>null</code> iff this object has been built from arrays.
+     */
+    private final PreferencesToArrays m_preferencesToArrays;
+
+    /**
+     * @param weights
+     *            in array[crit], the weight of the criterion crit. Not <code>null</code>. Need not be normalized.
+     * @param lambda
+     *            the majority threshold, on the same scale as the weights.
+     * @param profs
+     *            array[i][j] = evaluation of the profile above category i on the criterion j. Not <code>null</code>.
+     * @param nbAlternatives
+     *            the number of alternatives to assign.
+     */
+    public ElectrePessimisticProgressiveBatch(double[] weights, double lambda, double[][] profs, int nbAlternatives) {
+	this(null, weights, lambda, profs, nbAlternatives);
+    }
+
+    /**
+     * Builds an object whose criteria are numbered in the order of the criteria in the given coalitions, see
+     * {@link #getCritsToInt()}.
+     *
+     * @param categories
+     *            not <code>null</code>, must be complete.
+     * @param coalitions
+     *            not <code>null</code>.
+     * @param profilesEvaluations
+     *            not <code>null</code>.
+     * @param nbAlternatives
+     *            the number of alternatives to assign.
+     */
+    public ElectrePessimisticProgressiveBatch(CatsAndProfs categories, Coalitions coalitions,
+	    EvaluationsRead profilesEvaluations, int nbAlternatives) {
+	this(new PreferencesToArrays(categories, coalitions, profilesEvaluations), coalitions.getMajorityThreshold(),
+		nbAlternatives);
+    }
+
+    private ElectrePessimisticProgressiveBatch(PreferencesToArrays preferencesToArrays, double lambda,
+	    int nbAlternatives) {
+	this(preferencesToArrays, preferencesToArrays.getWeights(), lambda, preferencesToArrays.getProfs(),
+		nbAlternatives);
+    }
+
+    private ElectrePessimisticProgressiveBatch(PreferencesToArrays preferencesToArrays, double[] weights,
+	    double lambda, double[][] profs, int nbAlternatives) {
+	checkArgument(nbAlternatives >= 0);
+	m_preferencesToArrays = preferencesToArrays;
+	m_weights = weights;
+	m_lambda = lambda - ElectrePessimisticProgressiveWithArrays.TOLERANCE;
+	m_profs = profs;
+	m_nbAlts = nbAlternatives;
+	m_nbCats = profs.length + 1;
+
+	double sum = 0d;
+	for (double weight : weights) {
+	    sum += weight;
+	}
+	m_sumWeights = sum;
+
+	m_minEvals = new double[weights.length][nbAlternatives];
+	m_maxEvals = new double[weights.length][nbAlternatives];
+	m_wMin = new double[m_nbCats][nbAlternatives];
+	m_wMax = new double[m_nbCats][nbAlternatives];
+	m_worstCats = new int[nbAlternatives];
+	m_bestCats = new int[nbAlternatives];
+	reset();
+    }
+
+    /**
+     * Forgets every evaluation: every alternative may again be assigned to any category.
+     */
+    public void reset() {
+	for (int crit = 0; crit < m_weights.length; ++crit) {
+	    Arrays.fill(m_minEvals[crit], Double.NEGATIVE_INFINITY);
+	    Arrays.fill(m_maxEvals[crit], Double.POSITIVE_INFINITY);
+	}
+	for (int cat = 0; cat < m_nbCats; ++cat) {
+	    Arrays.fill(m_wMin[cat], 0d);
+	    Arrays.fill(m_wMax[cat], m_sumWeights);
+	}
+	updateCats();
+    }
+
+    /**
+     * Sets the evaluations of every alternative on the given criterion, replacing the ones possibly set before.
+     *
+     * @param crit
+     *            the criterion index.
+     * @param minEvals
+     *            in array[alt], the lower bound, inclusive, of the evaluation of the alternative alt. Not
+     *            <code>null</code>, one entry per alternative.
+     * @param maxEvals
+     *            in array[alt], the upper bound, not inclusive, of the evaluation of the alternative alt, strictly
+     *            greater than the lower bound. Not <code>null</code>, one entry per alternative.
+     */
+    public void setEvaluations(int crit, double[] minEvals, double[] maxEvals) {
+	checkArgument(minEvals.length == m_nbAlts && maxEvals.length == m_nbAlts, "Expected " + m_nbAlts
+		+ " evaluations.");
+	for (int alt = 0; alt < m_nbAlts; ++alt) {
+	    checkArgument(minEvals[alt] < maxEvals[alt], "Empty interval for alternative " + alt + ".");
+	}
+	final double weight = m_weights[crit];
+	final double[] oldMins = m_minEvals[crit];
+	final double[] oldMaxs = m_maxEvals[crit];
+	for (int cat = 1; cat < m_nbCats; ++cat) {
+	    final double profBelow = m_profs[cat - 1][crit];
+	    final double[] wMin = m_wMin[cat];
+	    final double[] wMax = m_wMax[cat];
+	    for (int alt = 0; alt < m_nbAlts; ++alt) {
+		final boolean wasAbove = oldMins[alt] >= profBelow;
+		final boolean isAbove = minEvals[alt] >= profBelow;
+		if (wasAbove != isAbove) {
+		    wMin[alt] += isAbove ? weight : -weight;
+		}
+		final boolean wasBelow = oldMaxs[alt] <= profBelow;
+		final boolean isBelow = maxEvals[alt] <= profBelow;
+		if (wasBelow != isBelow) {
+		    wMax[alt] += isBelow ? -weight : weight;
+		}
+	    }
+	}
+	System.arraycopy(minEvals, 0, oldMins, 0, m_nbAlts);
+	System.arraycopy(maxEvals, 0, oldMaxs, 0, m_nbAlts);
+	updateCats();
+    }
+
+    /**
+     * Sets the precise evaluations of every alternative on the given criterion, replacing the ones possibly set before.
+     *
+     * @param crit
+     *            the criterion index.
+     * @param evals
+     *            in array[alt], the evaluation of the alternative alt. Not <code>null</code>, one entry per
+     *            alternative.
+     */
+    public void setEvaluations(int crit, double[] evals) {
+	final double[] maxEvals = new double[evals.length];
+	for (int alt = 0; alt < evals.length; ++alt) {
+	    maxEvals[alt] = Math.nextUp(evals[alt]);
+	}
+	setEvaluations(crit, evals, maxEvals);
+    }
+
+    /**
+     * Sets the evaluation of one alternative on one criterion, replacing the one possibly set before.
+     *
+     * @param alt
+     *            the alternative index.
+     * @param crit
+     *            the criterion index.
+     * @param minEval
+     *            the lower bound, inclusive.
+     * @param maxEval
+     *            the upper bound, not inclusive. Must be strictly greater than the lower bound.
+     */
+    public void setEvaluation(int alt, int crit, double minEval, double maxEval) {
+	checkArgument(minEval < maxEval, "Empty interval.");
+	final double weight = m_weights[crit];
+	final double oldMin = m_minEvals[crit][alt];
+	final double oldMax = m_maxEvals[crit][alt];
+	for (int cat = 1; cat < m_nbCats; ++cat) {
+	    final double profBelow = m_profs[cat - 1][crit];
+	    final boolean wasAbove = oldMin >= profBelow;
+	    final boolean isAbove = minEval >= profBelow;
+	    if (wasAbove != isAbove) {
+		m_wMin[cat][alt] += isAbove ? weight : -weight;
+	    }
+	    final boolean wasBelow = oldMax <= profBelow;
+	    final boolean isBelow = maxEval <= profBelow;
+	    if (wasBelow != isBelow) {
+		m_wMax[cat][alt] += isBelow ? -weight : weight;
+	    }
+	}
+	m_minEvals[crit][alt] = minEval;
+	m_maxEvals[crit][alt] = maxEval;
+
+	int worst = 0;
+	int best = m_nbCats - 1;
+	for (int cat = 1; cat < m_nbCats; ++cat) {
+	    if (m_wMin[cat][alt] >= m_lambda) {
+		worst = cat;
+	    }
+	    if (m_wMax[cat][alt] < m_lambda && best >= cat) {
+		best = cat - 1;
+	    }
+	}
+	m_worstCats[alt] = worst;
+	m_bestCats[alt] = best;
+    }
+
+    private void updateCats() {
+	Arrays.fill(m_worstCats, 0);
+	Arrays.fill(m_bestCats, m_nbCats - 1);
+	for (int cat = 1; cat < m_nbCats; ++cat) {
+	    final double[] wMin = m_wMin[cat];
+	    final double[] wMax = m_wMax[cat];
+	    for (int alt = 0; alt < m_nbAlts; ++alt) {
+		if (wMin[alt] >= m_lambda) {
+		    m_worstCats[alt] = cat;
+		}
+		if (wMax[alt] < m_lambda && m_bestCats[alt] >= cat) {
+		    m_bestCats[alt] = cat - 1;
+		}
+	    }
+	}
+    }
+
+    /**
+     * @return not <code>null</code>, a new array containing, in array[alt], the minimal (worst) category the
+     *         alternative alt may be assigned to, given the evaluations set so far.
+     */
+    public int[] getWorstCats() {
+	return m_worstCats.clone();
+    }
+
+    /**
+     * @return not <code>null</code>, a new array containing, in array[alt], the maximal (best) category the alternative
+     *         alt may be assigned to, given the evaluations set so far.
+     */
+    public int[] getBestCats() {
+	return m_bestCats.clone();
+    }
+
+    public boolean isSetCat(int alt) {
+	return m_worstCats[alt] == m_bestCats[alt];
+    }
+
+    public int getNbAlternatives() {
+	return m_nbAlts;
+    }
+
+    /**
+     * @return <code>null</code> iff this object has been built from arrays.
+     */
+    public Map<Criterion, Integer> getCritsToInt() {
+	return m_preferencesToArrays == null ? null : m_preferencesToArrays.getCritsToInt();
+    }
+
+    /**
+     * @return <code>null</code> iff this object has been built from arrays.
+     */
+    public BiMap<Integer, Category> getIntsToCats() {
+	return m_preferencesToArrays == null ? null : m_preferencesToArrays.getIntsToCats();
+    }
+
+}
@@ -1,11 +1,22 @@
 package org.decisiondeck.xmcda_oo.services.sorting;
 
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 class ElectrePessimisticProgressiveWithArrays {
     private static final Logger s_logger = LoggerFactory.getLogger(ElectrePessimisticProgressiveWithArrays.class);
 
+    /**
+     * The tolerance used when comparing a sum of weights to the majority threshold, as such sums are not exact: with
+     * doubles, 0.7 + 0.1 is smaller than 0.8.
+     */
+    static final double TOLERANCE = 1e-9;
+
     private final int m_nbCats;
     /**
      * In array[0], the minimal (worst) category the current alternative may be assigned to; in array[1] the maximal
@@ -17,6 +28,7 @@ class ElectrePessimisticProgressiveWithArrays {
      * In array[crit], the weight of the criterion crit.
      */
     private final double[] m_weights;
+    private final double m_sumWeights;
     /**
      * In array[cat][0], the min weight for category cat or above ; in array[cat][1], the max weight for category cat.
      */
@@ -26,15 +38,28 @@ class ElectrePessimisticProgressiveWithArrays {
      * best is numbered nbCats-1.
      */
     private final double[][] m_profs;
+    /**
+     * The saved states, only the first {@link #m_depth} ones are in use: the others are kept for reuse. Each state
+     * holds the weight limits, flattened in the order of {@link #m_wLimits}, followed by the categories limits.
+     */
+    private final List<double[]> m_undoStack;
+    private int m_depth;
 
     public ElectrePessimisticProgressiveWithArrays(double[] weights, double lambda, double[][] profs) {
 	m_weights = weights;
 	m_lambda = lambda;
 	m_profs = profs;
 
+	double sum = 0d;
+	for (double weight : weights) {
+	    sum += weight;
+	}
+	m_sumWeights = sum;
+
 	m_catsLimits = new int[2];
 	m_nbCats = profs.length + 1;
 	m_wLimits = new double[m_nbCats][2];
+	m_undoStack = new ArrayList<double[]>();
 	reset();
     }
 
@@ -49,10 +74,54 @@ class ElectrePessimisticProgressiveWithArrays {
     public void reset() {
 	for (int i = 0; i < m_wLimits.length; ++i) {
 	    m_wLimits[i][0] = 0d;
-	    m_wLimits[i][1] = 1d;
+	    m_wLimits[i][1] = m_sumWeights;
 	}
 	m_catsLimits[0] = 0;
 	m_catsLimits[1] = m_wLimits.length - 1;
+	m_depth = 0;
+    }
+
+    /**
+     * Saves the current state (the weight limits and categories limits) on top of a stack of states, so that it may
+     * be restored later using {@link #pop()}. This costs a copy of the weight limits, thus is linear in the number of
+     * categories, and permits to try an evaluation and come back without replaying the evaluations set before it.
+     * {@link #reset()} empties the stack.
+     */
+    public void push() {
+	if (m_undoStack.size() == m_depth) {
+	    m_undoStack.add(new double[m_nbCats * 2 + 2]);
+	}
+	final double[] state = m_undoStack.get(m_depth);
+	for (int cat = 0; cat < m_nbCats; ++cat) {
+	    state[cat * 2] = m_wLimits[cat][0];
+	    state[cat * 2 + 1] = m_wLimits[cat][1];
+	}
+	state[m_nbCats * 2] = m_catsLimits[0];
+	state[m_nbCats * 2 + 1] = m_catsLimits[1];
+	++m_depth;
+    }
+
+    /**
+     * Restores the state saved by the last call to {@link #push()} not yet popped, and removes it from the stack. The
+     * state is restored exactly, without accumulating floating point errors.
+     */
+    public void pop() {
+	checkState(m_depth > 0, "No state to restore.");
+	--m_depth;
+	final double[] state = m_undoStack.get(m_depth);
+	for (int cat = 0; cat < m_nbCats; ++cat) {
+	    m_wLimits[cat][0] = state[cat * 2];
+	    m_wLimits[cat][1] = state[cat * 2 + 1];
+	}
+	m_catsLimits[0] = (int) state[m_nbCats * 2];
+	m_catsLimits[1] = (int) state[m_nbCats * 2 + 1];
+    }
+
+    /**
+     * @return the number of states saved by {@link #push()} and not yet popped.
+     */
+    public int getDepth() {
+	return m_depth;
     }
 
     /**
@@ -71,23 +140,27 @@ class ElectrePessimisticProgressiveWithArrays {
 		final double profBelow = m_profs[cat - 1][crit];
 		if (minEval >= profBelow) {
 		    m_wLimits[cat][0] += m_weights[crit];
-		    if (m_wLimits[cat][0] >= m_lambda) {
+		    if (m_wLimits[cat][0] >= m_lambda - TOLERANCE) {
 			m_catsLimits[0] = cat;
 		    }
 		}
 		if (maxEval <= profBelow) {
 		    m_wLimits[cat][1] -= m_weights[crit];
-		    if (m_wLimits[cat][1] < m_lambda) {
+		    if (m_wLimits[cat][1] < m_lambda - TOLERANCE) {
 			m_catsLimits[1] = cat - 1;
 		    }
 		}
 	    }
-	    s_logger.debug("Weights limits for cat " + cat + ": {} (lambda=" + m_lambda + ").", m_wLimits[cat]);
+	    if (s_logger.isDebugEnabled()) {
+		s_logger.debug("Weights limits for cat " + cat + ": {} (lambda=" + m_lambda + ").", m_wLimits[cat]);
+	    }
 	    if (m_wLimits[cat][0] > m_wLimits[cat][1] + 1e-6) {
 		throw new IllegalStateException("Min weight greater than max weight.");
 	    }
 	}
-	s_logger.debug("Evaluation {} set for crit " + crit + ".", interval);
+	if (s_logger.isDebugEnabled()) {
+	    s_logger.debug("Evaluation {} set for crit " + crit + ".", interval);
+	}
 	return m_catsLimits;
     }
 
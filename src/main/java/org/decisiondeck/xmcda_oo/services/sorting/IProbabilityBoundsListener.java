@@ -0,0 +1,17 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+/**
+ * Is notified of the bounds of a probability being computed, as they converge.
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public interface IProbabilityBoundsListener {
+    /**
+     * @param atLeast
+     *            the current lower bound of the probability.
+     * @param atMost
+     *            the current upper bound of the probability.
+     */
+    public void boundsChanged(double atLeast, double atMost);
+}
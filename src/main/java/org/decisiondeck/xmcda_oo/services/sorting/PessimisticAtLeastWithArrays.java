@@ -0,0 +1,182 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import java.util.Map;
+
+import org.decision_deck.jmcda.services.internal.PreferencesToArrays;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.interval.Interval;
+import org.decision_deck.jmcda.structure.matrix.EvaluationsRead;
+import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
+import org.decision_deck.jmcda.structure.weights.Coalitions;
+
+/**
+ * Computes, for two pessimistic sorting models without thresholds and an alternative uniformly distributed on the
+ * scales (step or continuous scales, see {@link UniformScale}), the probability that the alternative is assigned to at
+ * least some category by the first model and at least some category by the second one. The criteria order and scales
+ * are shared by all the models compiled by this object, so that compiling n models once permits to compare any pair of
+ * them.
+ *
+ * @author Olivier Cailloux
+ *
+ */
+class PessimisticAtLeastWithArrays {
+    /**
+     * A sorting model compiled to arrays, in the criteria order of the object that created it. Immutable.
+     */
+    static final class Model {
+	private final double[] m_weights;
+	private final double m_lambda;
+	/**
+	 * In array[crit], the sum of the weights of the criteria crit and after, array[nbCrits] being zero.
+	 */
+	private final double[] m_remaining;
+	/**
+	 * In array[cat][crit], the evaluation of the profile below the category cat, the worst one being numbered zero
+	 * and having the minimum of the scales as profile.
+	 */
+	private final double[][] m_profsDown;
+
+	Model(double[] weights, double lambda, double[][] profsDown) {
+	    m_weights = weights;
+	    m_lambda = lambda - ElectrePessimisticProgressiveWithArrays.TOLERANCE;
+	    m_profsDown = profsDown;
+	    m_remaining = new double[weights.length + 1];
+	    for (int crit = weights.length - 1; crit >= 0; --crit) {
+		m_remaining[crit] = m_remaining[crit + 1] + weights[crit];
+	    }
+	}
+
+	public int getNbCats() {
+	    return m_profsDown.length;
+	}
+
+	/**
+	 * @param cat
+	 *            the category number, the worst one being numbered zero.
+	 * @return the evaluations of the profile below the given category, not to be modified.
+	 */
+	public double[] getProfileDown(int cat) {
+	    return m_profsDown[cat];
+	}
+    }
+
+    private final List<Criterion> m_critsOrder;
+    private final double[] m_mins;
+    private final UniformScale[] m_scales;
+
+    /**
+     * @param critsOrder
+     *            the order of the criteria in the compiled models, not <code>null</code>. Putting the heaviest
+     *            criteria first permits to determine the assignments sooner.
+     * @param scales
+     *            not <code>null</code>, must contain a scale for each criterion.
+     */
+    public PessimisticAtLeastWithArrays(List<Criterion> critsOrder, Map<Criterion, Interval> scales) {
+	m_critsOrder = critsOrder;
+	final int nbCrits = critsOrder.size();
+	m_mins = new double[nbCrits];
+	m_scales = new UniformScale[nbCrits];
+	for (int crit = 0; crit < nbCrits; ++crit) {
+	    final Interval scale = scales.get(critsOrder.get(crit));
+	    checkArgument(scale != null, "Missing scale for " + critsOrder.get(crit) + ".");
+	    m_scales[crit] = new UniformScale(scale);
+	    m_mins[crit] = scale.getMinimum();
+	}
+    }
+
+    public Model newModel(CatsAndProfs categories, Coalitions coalitions, EvaluationsRead profilesEvaluations) {
+	final PreferencesToArrays preferencesToArrays = new PreferencesToArrays(categories, coalitions, m_critsOrder,
+		profilesEvaluations);
+	final double[][] profs = preferencesToArrays.getProfs();
+	final double[][] profsDown = new double[profs.length + 1][];
+	profsDown[0] = m_mins;
+	for (int cat = 1; cat < profsDown.length; ++cat) {
+	    profsDown[cat] = profs[cat - 1];
+	}
+	return new Model(preferencesToArrays.getWeights(), coalitions.getMajorityThreshold(), profsDown);
+    }
+
+    /**
+     * Does not modify this object, thus may be called concurrently.
+     *
+     * @param model1
+     *            not <code>null</code>.
+     * @param profile1
+     *            the profile the first model must reach, in the criteria order.
+     * @param model2
+     *            not <code>null</code>.
+     * @param profile2
+     *            the profile the second model must reach, in the criteria order.
+     * @return the probability that an alternative reaches the first profile according to the first model and the
+     *         second profile according to the second one.
+     */
+    public double getProbAtLeast(Model model1, double[] profile1, Model model2, double[] profile2) {
+	final CompensatedSum sum = new CompensatedSum();
+	accumulate(model1, profile1, model2, profile2, 0, 0d, 0d, 1d, sum);
+	return sum.getSum();
+    }
+
+    /**
+     * Adds to the given sum the probabilities of the leaves below the given node, where the criteria before crit are
+     * set. On each criterion, the evaluation is either below both profiles, reaches only the lowest one, or reaches
+     * both: three branches.
+     */
+    private void accumulate(Model model1, double[] profile1, Model model2, double[] profile2, int crit, double sum1,
+	    double sum2, double prob, CompensatedSum sum) {
+	if (sum1 >= model1.m_lambda && sum2 >= model2.m_lambda) {
+	    sum.add(prob);
+	    return;
+	}
+	/** Also stops at the last criterion as nothing remains to be added. */
+	if (sum1 + model1.m_remaining[crit] < model1.m_lambda || sum2 + model2.m_remaining[crit] < model2.m_lambda) {
+	    return;
+	}
+	final UniformScale scale = m_scales[crit];
+	final double eval1 = profile1[crit];
+	final double eval2 = profile2[crit];
+	final double low = Math.min(eval1, eval2);
+	final double high = Math.max(eval1, eval2);
+	final double probBelow = scale.getProbBelow(low);
+	final double probBelowHigh = scale.getProbBelow(high);
+
+	if (probBelow > 0d) {
+	    accumulate(model1, profile1, model2, profile2, crit + 1, sum1, sum2, prob * probBelow, sum);
+	}
+	final double probBetween = probBelowHigh - probBelow;
+	if (probBetween > 0d) {
+	    final double added1 = eval1 <= low ? model1.m_weights[crit] : 0d;
+	    final double added2 = eval2 <= low ? model2.m_weights[crit] : 0d;
+	    accumulate(model1, profile1, model2, profile2, crit + 1, sum1 + added1, sum2 + added2, prob
+		    * probBetween, sum);
+	}
+	final double probAbove = 1d - probBelowHigh;
+	if (probAbove > 0d) {
+	    accumulate(model1, profile1, model2, profile2, crit + 1, sum1 + model1.m_weights[crit], sum2
+		    + model2.m_weights[crit], prob * probAbove, sum);
+	}
+    }
+
+    /**
+     * Computes the probabilities of each category being the assignment of both models, given the probabilities of
+     * reaching at least each pair of equal or adjacent categories.
+     *
+     * @param probsAtLeast
+     *            in array[cat1][cat2], the probability of being assigned to at least cat1 by the first model and at
+     *            least cat2 by the second one; only the entries of equal or adjacent categories are read.
+     * @return in array[cat], the probability that both models assign to cat.
+     */
+    static double[] getProbsSameAffectation(double[][] probsAtLeast) {
+	final int nbCats = probsAtLeast.length;
+	final double[] probs = new double[nbCats];
+	for (int cat = 0; cat < nbCats - 1; ++cat) {
+	    final int betterCat = cat + 1;
+	    probs[cat] = probsAtLeast[cat][cat] + probsAtLeast[betterCat][betterCat] - probsAtLeast[cat][betterCat]
+		    - probsAtLeast[betterCat][cat];
+	}
+	probs[nbCats - 1] = probsAtLeast[nbCats - 1][nbCats - 1];
+	return probs;
+    }
+}
@@ -0,0 +1,232 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.interval.Interval;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
+import org.decision_deck.jmcda.structure.weights.Weights;
+import org.decisiondeck.jmcda.structure.sorting.problem.preferences.ISortingPreferences;
+
+/**
+ * Given a list of preference models of decision makers, computes for each pair of decision makers the probability that
+ * an alternative be assigned to the same category by both models, as {@link PreferencesProbabilisticDifference} does
+ * for one pair. Uses pessimistic Electre TRI sorting, no thresholds.
+ * <p>
+ * Each model is compiled to arrays once, in a criteria order shared by all models. As the agreement is symmetric, only
+ * the pairs (i, j) with i ≤ j are computed. When computed in parallel, the row i is computed in the same task as the
+ * row n - 1 - i, where n is the number of decision makers, so that the tasks have about the same number of pairs. The
+ * diagonal gives the probability of each category for a single decision maker.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class PreferencesAgreementMatrix {
+    private final CatsAndProfs m_categories;
+    private final int m_nbDms;
+    private final int m_nbCats;
+    private final PessimisticAtLeastWithArrays m_atLeast;
+    private final List<PessimisticAtLeastWithArrays.Model> m_models;
+    /**
+     * In array[dm1][dm2][cat], the probability that both decision makers assign to cat. Symmetric in dm1 and dm2.
+     */
+    private final double[][][] m_probsSameAffectation;
+    /**
+     * In array[dm1][dm2], the probability that both decision makers assign to the same category.
+     */
+    private final double[][] m_probsMatch;
+    private boolean m_computed;
+    private ForkJoinPool m_pool;
+
+    /**
+     * @param preferences
+     *            not <code>null</code>, not empty. The models must share their categories, profiles, criteria and
+     *            scales. The index of a model in this list is the index of the decision maker in the results.
+     */
+    public PreferencesAgreementMatrix(List<? extends ISortingPreferences> preferences) {
+	checkArgument(!preferences.isEmpty(), "No preferences.");
+	final ISortingPreferences first = preferences.get(0);
+	m_categories = first.getCatsAndProfs();
+	final Map<Criterion, Interval> scales = first.getScales();
+	final Weights[] weights = new Weights[preferences.size()];
+	for (int dm = 0; dm < preferences.size(); ++dm) {
+	    final ISortingPreferences pref = preferences.get(dm);
+	    if (!pref.getCatsAndProfs().getCategories().equals(m_categories.getCategories())) {
+		throw new IllegalArgumentException("Categories do not match.");
+	    }
+	    if (!pref.getScales().equals(scales)) {
+		throw new IllegalArgumentException("Scales do not match.");
+	    }
+	    PreferencesProbabilisticDifference.checkSameCriteriaAndProfiles(pref.getCoalitions(),
+		    pref.getProfilesEvaluations(), first.getCoalitions(), first.getProfilesEvaluations());
+	    weights[dm] = pref.getCoalitions().getWeights();
+	}
+
+	/** The heaviest criteria over all models first, as they permit to determine the assignments sooner. */
+	final List<Criterion> critsOrder = new ArrayList<Criterion>(first.getCoalitions().getCriteria());
+	Collections.sort(critsOrder,
+		Collections.reverseOrder(new PreferencesProbabilisticDifference.CompareSumWeights(weights)));
+
+	m_atLeast = new PessimisticAtLeastWithArrays(critsOrder, scales);
+	m_models = new ArrayList<PessimisticAtLeastWithArrays.Model>(preferences.size());
+	for (ISortingPreferences pref : preferences) {
+	    m_models.add(m_atLeast.newModel(m_categories, pref.getCoalitions(), pref.getProfilesEvaluations()));
+	}
+	m_nbDms = preferences.size();
+	m_nbCats = m_categories.getCategories().size();
+	m_probsSameAffectation = new double[m_nbDms][m_nbDms][];
+	m_probsMatch = new double[m_nbDms][m_nbDms];
+	m_computed = false;
+	m_pool = null;
+    }
+
+    private void compute() {
+	if (m_computed) {
+	    return;
+	}
+	if (m_pool == null) {
+	    for (int dm1 = 0; dm1 < m_nbDms; ++dm1) {
+		computeRow(dm1);
+	    }
+	} else {
+	    /** The row dm has m_nbDms - dm pairs, thus the rows dm and m_nbDms - 1 - dm have m_nbDms + 1 pairs. */
+	    final List<RecursiveAction> rows = new ArrayList<RecursiveAction>((m_nbDms + 1) / 2);
+	    for (int dm = 0; dm < (m_nbDms + 1) / 2; ++dm) {
+		final int dm1 = dm;
+		final int dm2 = m_nbDms - 1 - dm;
+		rows.add(new RecursiveAction() {
+		    private static final long serialVersionUID = 1L;
+
+		    @Override
+		    protected void compute() {
+			computeRow(dm1);
+			if (dm2 != dm1) {
+			    computeRow(dm2);
+			}
+		    }
+		});
+	    }
+	    m_pool.invoke(new RecursiveAction() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+		    invokeAll(rows);
+		}
+	    });
+	}
+	m_computed = true;
+    }
+
+    /**
+     * Computes the entries (dm1, dm2) and (dm2, dm1) for every dm2 ≥ dm1. Distinct rows write to distinct entries, thus
+     * rows may be computed concurrently.
+     */
+    private void computeRow(int dm1) {
+	final PessimisticAtLeastWithArrays.Model model1 = m_models.get(dm1);
+	final double[][] probsAtLeast = new double[m_nbCats][m_nbCats];
+	for (int dm2 = dm1; dm2 < m_nbDms; ++dm2) {
+	    final PessimisticAtLeastWithArrays.Model model2 = m_models.get(dm2);
+	    for (int cat = 0; cat < m_nbCats; ++cat) {
+		probsAtLeast[cat][cat] = m_atLeast.getProbAtLeast(model1, model1.getProfileDown(cat), model2,
+			model2.getProfileDown(cat));
+		if (cat + 1 < m_nbCats) {
+		    probsAtLeast[cat][cat + 1] = m_atLeast.getProbAtLeast(model1, model1.getProfileDown(cat), model2,
+			    model2.getProfileDown(cat + 1));
+		    probsAtLeast[cat + 1][cat] = m_atLeast.getProbAtLeast(model1, model1.getProfileDown(cat + 1),
+			    model2, model2.getProfileDown(cat));
+		}
+	    }
+	    final double[] probs = PessimisticAtLeastWithArrays.getProbsSameAffectation(probsAtLeast);
+	    double match = 0d;
+	    for (double prob : probs) {
+		match += prob;
+	    }
+	    m_probsSameAffectation[dm1][dm2] = probs;
+	    m_probsSameAffectation[dm2][dm1] = probs;
+	    m_probsMatch[dm1][dm2] = match;
+	    m_probsMatch[dm2][dm1] = match;
+	}
+    }
+
+    /**
+     * @return the number of decision makers, which is the size of the matrix.
+     */
+    public int getNbDms() {
+	return m_nbDms;
+    }
+
+    /**
+     * @return a copy of the agreement matrix: in array[dm1][dm2], the probability that both decision makers assign an
+     *         alternative to the same category. Symmetric; the diagonal is one, up to rounding.
+     */
+    public double[][] getProbabilitiesMatch() {
+	compute();
+	final double[][] copy = new double[m_nbDms][];
+	for (int dm = 0; dm < m_nbDms; ++dm) {
+	    copy[dm] = m_probsMatch[dm].clone();
+	}
+	return copy;
+    }
+
+    public double getProbabilityMatch(int dm1, int dm2) {
+	compute();
+	return m_probsMatch[dm1][dm2];
+    }
+
+    /**
+     * @param dm1
+     *            a decision maker index.
+     * @param dm2
+     *            a decision maker index.
+     * @return a copy of the per category breakdown: in array[cat], the probability that both decision makers assign
+     *         an alternative to the category cat, the worst one being numbered zero.
+     */
+    public double[] getProbsSameAffectation(int dm1, int dm2) {
+	compute();
+	return m_probsSameAffectation[dm1][dm2].clone();
+    }
+
+    /**
+     * @param dm1
+     *            a decision maker index.
+     * @param dm2
+     *            a decision maker index.
+     * @param category
+     *            one of the categories of the models.
+     * @return the probability that both decision makers assign an alternative to the given category.
+     */
+    public double getProbSameAffectation(int dm1, int dm2, Category category) {
+	compute();
+	checkArgument(m_categories.getCategories().contains(category), "Unknown category: " + category + ".");
+	final int cat = m_categories.getCategories().headSet(category).size();
+	return m_probsSameAffectation[dm1][dm2][cat];
+    }
+
+    /**
+     * Sets the pool used to compute the rows of the matrix in parallel, by pairs of rows. The results do not depend on
+     * whether a pool is used. Must be set before the probabilities are computed to have an effect.
+     *
+     * @param pool
+     *            <code>null</code> to compute sequentially (the default).
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+	m_pool = pool;
+    }
+
+    /**
+     * @return <code>null</code> iff the computation is sequential.
+     */
+    public ForkJoinPool getForkJoinPool() {
+	return m_pool;
+    }
+}
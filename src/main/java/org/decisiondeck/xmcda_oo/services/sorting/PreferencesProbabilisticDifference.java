@@ -1,5 +1,19 @@
 package org.decisiondeck.xmcda_oo.services.sorting;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -7,6 +21,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.decision_deck.jmcda.services.internal.PreferencesToArrays;
 import org.decision_deck.jmcda.structure.Alternative;
@@ -17,7 +37,6 @@ import org.decision_deck.jmcda.structure.sorting.category.Category;
 import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
 import org.decision_deck.jmcda.structure.weights.Coalitions;
 import org.decision_deck.jmcda.structure.weights.Weights;
-import org.decision_deck.utils.Pair;
 import org.decisiondeck.jmcda.structure.sorting.problem.preferences.ISortingPreferences;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +45,10 @@ import org.slf4j.LoggerFactory;
  * Given two sets of preference parameters: weights and profiles, compute the probability that an alternative be
  * assigned to the same category according to each preference model. Uses pessimistic Electre TRI sorting, no
  * thresholds.
+ * <p>
+ * The alternative is uniformly distributed on the scales: each point of a step scale, whatever its step, has the same
+ * probability, and a scale without step is considered as continuous.
+ * </p>
  * 
  * @author Olivier Cailloux
  * 
@@ -34,54 +57,155 @@ public class PreferencesProbabilisticDifference {
     private static final Logger s_logger = LoggerFactory.getLogger(PreferencesProbabilisticDifference.class);
 
     /**
-     * Is not consistent with an intuitive notion of equals (because equal interval size are equal from the pov of this
-     * comparator).
-     * 
-     * @author Olivier Cailloux
-     * 
+     * Orders the criteria by increasing sum of their weights over the given models. Reverse it to get the heaviest
+     * criteria first.
      */
-    private static class CompareByIntervalSize implements Comparator<Pair<Double, Double>> {
-	public CompareByIntervalSize() {
-	    /** Public constructor. */
+    static class CompareSumWeights implements Comparator<Criterion> {
+	private final Weights[] m_weights;
+
+	public CompareSumWeights(Weights... weights) {
+	    m_weights = weights;
 	}
 
 	@Override
-	public int compare(Pair<Double, Double> o1, Pair<Double, Double> o2) {
-	    final double min1 = o1.getElt1().doubleValue();
-	    final double max1 = o1.getElt2().doubleValue();
-	    if (min1 > max1) {
-		throw new IllegalStateException("Got strange pair: " + o1 + " (and " + o2 + ").");
-	    }
-	    final double min2 = o2.getElt1().doubleValue();
-	    final double max2 = o2.getElt2().doubleValue();
-	    if (min2 > max2) {
-		throw new IllegalStateException("Got strange pair: (" + o1 + ") and " + o2 + ".");
+	public int compare(Criterion o1, Criterion o2) {
+	    return Double.compare(getSum(o1), getSum(o2));
+	}
+
+	private double getSum(Criterion criterion) {
+	    double sum = 0d;
+	    for (Weights weights : m_weights) {
+		sum += weights.getWeightBetter(criterion);
 	    }
-	    return Double.compare(max1 - min1, max2 - min2);
+	    return sum;
+	}
+    }
+
+    /**
+     * Checks that the given models share their criteria and profiles.
+     *
+     * @throws IllegalArgumentException
+     *             if they do not.
+     */
+    static void checkSameCriteriaAndProfiles(Coalitions coalitions1, EvaluationsRead profilesEvaluations1,
+	    Coalitions coalitions2, EvaluationsRead profilesEvaluations2) {
+	if (!profilesEvaluations1.getColumns().equals(profilesEvaluations2.getColumns())) {
+	    throw new IllegalArgumentException("Criteria do not match.");
+	}
+	if (!coalitions1.getCriteria().equals(coalitions2.getCriteria())) {
+	    throw new IllegalArgumentException("Criteria do not match.");
+	}
+	if (!profilesEvaluations1.getColumns().equals(coalitions1.getCriteria())) {
+	    throw new IllegalArgumentException("Criteria do not match.");
+	}
+	if (!profilesEvaluations1.getRows().equals(profilesEvaluations2.getRows())) {
+	    throw new IllegalArgumentException("Profiles do not match.");
 	}
     }
 
-    private static class CompareSumWeights implements Comparator<Criterion> {
-	private final Weights m_weights1;
-	private final Weights m_weights2;
 
-	public CompareSumWeights(Weights weights1, Weights weights2) {
-	    m_weights1 = weights1;
-	    m_weights2 = weights2;
+    /**
+     * The probabilities summed over the leaves of one subtree of the interval products.
+     */
+    static private class SubtreeSums {
+	CompensatedSum m_match;
+	CompensatedSum m_mismatch;
+	final CompensatedSum[] m_perCats;
+	/**
+	 * <code>true</code> iff the whole subtree has been enumerated.
+	 */
+	boolean m_complete;
+	/**
+	 * The match and mismatch sums already reported to the listener.
+	 */
+	double m_reportedMatch;
+	double m_reportedMismatch;
+	long m_lastReport;
+	/**
+	 * The intervals indices of the criteria set at the last leaf enumerated, thus where to resume the enumeration of
+	 * an incomplete subtree, or <code>null</code> if no leaf has been enumerated.
+	 */
+	int[] m_position;
+
+	public SubtreeSums(int nbCats) {
+	    m_complete = false;
+	    m_reportedMatch = 0d;
+	    m_reportedMismatch = 0d;
+	    m_lastReport = System.nanoTime();
+	    m_position = null;
+	    m_match = new CompensatedSum();
+	    m_mismatch = new CompensatedSum();
+	    m_perCats = new CompensatedSum[nbCats];
+	    for (int cat = 0; cat < nbCats; ++cat) {
+		m_perCats[cat] = new CompensatedSum();
+	    }
+	}
+
+	/**
+	 * @return a copy of these sums, including their compensations and position, not reported to the listener.
+	 */
+	public SubtreeSums copy() {
+	    final SubtreeSums copy = new SubtreeSums(m_perCats.length);
+	    copy.m_complete = m_complete;
+	    copy.m_position = m_position == null ? null : m_position.clone();
+	    copy.m_match = copy(m_match);
+	    copy.m_mismatch = copy(m_mismatch);
+	    for (int cat = 0; cat < m_perCats.length; ++cat) {
+		copy.m_perCats[cat] = copy(m_perCats[cat]);
+	    }
+	    return copy;
 	}
 
-	@Override
-	public int compare(Criterion o1, Criterion o2) {
-	    final double w11 = m_weights1.getWeightBetter(o1);
-	    final double w12 = m_weights2.getWeightBetter(o1);
-	    final double w1 = w11 + w12;
-	    final double w21 = m_weights1.getWeightBetter(o2);
-	    final double w22 = m_weights2.getWeightBetter(o2);
-	    final double w2 = w21 + w22;
-	    return Double.compare(w1, w2);
+	static private CompensatedSum copy(CompensatedSum sum) {
+	    return new CompensatedSum(sum.getSum(), sum.getCompensation());
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+	    out.writeBoolean(m_complete);
+	    writeSum(out, m_match);
+	    writeSum(out, m_mismatch);
+	    for (CompensatedSum sum : m_perCats) {
+		writeSum(out, sum);
+	    }
+	    if (m_position == null) {
+		out.writeInt(-1);
+	    } else {
+		out.writeInt(m_position.length);
+		for (int index : m_position) {
+		    out.writeInt(index);
+		}
+	    }
+	}
+
+	static private void writeSum(DataOutputStream out, CompensatedSum sum) throws IOException {
+	    out.writeDouble(sum.getSum());
+	    out.writeDouble(sum.getCompensation());
+	}
+
+	public static SubtreeSums read(DataInputStream in, int nbCats) throws IOException {
+	    final SubtreeSums sums = new SubtreeSums(nbCats);
+	    sums.m_complete = in.readBoolean();
+	    sums.m_match = readSum(in);
+	    sums.m_mismatch = readSum(in);
+	    for (int cat = 0; cat < nbCats; ++cat) {
+		sums.m_perCats[cat] = readSum(in);
+	    }
+	    final int length = in.readInt();
+	    if (length >= 0) {
+		sums.m_position = new int[length];
+		for (int crit = 0; crit < length; ++crit) {
+		    sums.m_position[crit] = in.readInt();
+		}
+	    }
+	    return sums;
 	}
-    }
 
+	static private CompensatedSum readSum(DataInputStream in) throws IOException {
+	    final double sum = in.readDouble();
+	    final double compensation = in.readDouble();
+	    return new CompensatedSum(sum, compensation);
+	}
+    }
 
     private Coalitions m_coalitions1;
     private EvaluationsRead m_profilesEvaluations1;
@@ -98,27 +222,70 @@ public class PreferencesProbabilisticDifference {
      * crit (and higher part for array...[1]).
      */
     private final double[][][] m_intervals;
+    /**
+     * In array[crit][intervalNumber], the probability that the evaluation on the criterion crit lies in the interval
+     * number intervalNumber, the evaluations being uniformly distributed on the scales.
+     */
+    private final double[][] m_probs;
     private boolean m_computed;
     private double m_probabilityMatchAtMost;
     private final double[] m_probsSameAffectPerCats;
+    private ForkJoinPool m_pool;
+    /**
+     * The number of leaves enumerated between two checks of the deadline and cancellation.
+     */
+    static private final int CHECK_PERIOD = 1024;
+    /**
+     * The minimal time between two reports to the listener from a given subtree.
+     */
+    static private final long REPORT_PERIOD = TimeUnit.MILLISECONDS.toNanos(20);
+    /**
+     * In array[firstInterval], the sums of the subtree where the first criterion lies in that interval, complete or
+     * not, or <code>null</code> iff the enumeration of that subtree has not started yet. Modified only between the
+     * computations.
+     */
+    private final SubtreeSums[] m_subtrees;
+    /**
+     * Identifies the models, scales and criteria order, to check that a checkpoint has been written for them.
+     */
+    private final long m_signature;
+    static private final int CHECKPOINT_VERSION = 1;
+    /**
+     * <code>null</code> iff no checkpoint must be written.
+     */
+    private File m_checkpointFile;
+    private long m_checkpointPeriod;
+    /**
+     * A {@link System#nanoTime()} value. Guarded by this object.
+     */
+    private long m_lastCheckpoint;
+    /**
+     * In array[firstInterval], a copy of the sums of the subtree as last published by the computing thread during the
+     * current computation, or <code>null</code> if none. Guarded by this object.
+     */
+    private final SubtreeSums[] m_snapshots;
+    private volatile boolean m_cancelled;
+    /**
+     * Meaningful only when {@link #m_timed}, a {@link System#nanoTime()} value.
+     */
+    private long m_deadline;
+    private boolean m_timed;
+    /**
+     * The number of leaves that may still be enumerated during the current computation, counted by blocks of
+     * {@link #CHECK_PERIOD} leaves. The computation is interrupted when it is no more positive.
+     */
+    private final AtomicLong m_leavesLeft;
+    private IProbabilityBoundsListener m_listener;
+    /**
+     * The match and mismatch sums reported to the listener during the current computation. Guarded by this object.
+     */
+    private CompensatedSum m_reportedMatch;
+    private CompensatedSum m_reportedMismatch;
 
     public PreferencesProbabilisticDifference(CatsAndProfs categories, Coalitions coalitions1,
 	    EvaluationsRead profilesEvaluations1, Coalitions coalitions2, EvaluationsRead profilesEvaluations2,
 	    Map<Criterion, Interval> scales) {
-	if (!profilesEvaluations1.getColumns().equals(profilesEvaluations2.getColumns())) {
-	    throw new IllegalArgumentException("Criteria do not match.");
-	}
-	if (!coalitions1.getCriteria().equals(coalitions2.getCriteria())) {
-	    throw new IllegalArgumentException("Criteria do not match.");
-	}
-	final Set<Criterion> cols1 = profilesEvaluations1.getColumns();
-	final Set<Criterion> cols2 = coalitions1.getCriteria();
-	if (!cols1.equals(cols2)) {
-	    throw new IllegalArgumentException("Criteria do not match.");
-	}
-	if (!profilesEvaluations1.getRows().equals(profilesEvaluations2.getRows())) {
-	    throw new IllegalArgumentException("Profiles do not match.");
-	}
+	checkSameCriteriaAndProfiles(coalitions1, profilesEvaluations1, coalitions2, profilesEvaluations2);
 
 	final Set<Alternative> profiles = profilesEvaluations1.getRows();
 	m_coalitions1 = coalitions1;
@@ -139,6 +306,7 @@ public class PreferencesProbabilisticDifference {
 	m_preferencesToArrays2.setBounds(scales);
 
 	m_intervals = new double[critsOrder.size()][][];
+	m_probs = new double[critsOrder.size()][];
 	for (int crit = 0; crit < critsOrder.size(); ++crit) {
 	    final Set<Double> profEvals = new HashSet<Double>();
 	    for (Alternative prof : profiles) {
@@ -147,39 +315,42 @@ public class PreferencesProbabilisticDifference {
 		final double prof2 = profilesEvaluations2.getEntry(prof, critsOrder.get(crit)).doubleValue();
 		profEvals.add(Double.valueOf(prof2));
 	    }
-	    final Interval scale = scales.get(critsOrder.get(crit));
-	    if (scale.getStepSize() == null) {
-		throw new UnsupportedOperationException("Scale should be a step scale.");
-	    }
-	    final double step = scale.getStepSize().doubleValue();
+	    final UniformScale scale = new UniformScale(scales.get(critsOrder.get(crit)));
 	    profEvals.add(Double.valueOf(scale.getMinimum()));
-	    final double maxNotInclusive = scale.getMaximum() + step;
-	    profEvals.add(Double.valueOf(maxNotInclusive));
-	    if (step != 1d) {
-		throw new UnsupportedOperationException(
-			"Steps different than one not yet supported (step used in proba computation).");
-	    }
+	    profEvals.add(Double.valueOf(scale.getEnd()));
 	    final List<Double> profEvalsList = new LinkedList<Double>(profEvals);
 	    Collections.sort(profEvalsList);
 	    /**
 	     * NB intervals are begin inclusive, end not inclusive. This is a generalisation of the continuous case: end
-	     * not inclusive minus begin inclusive equals the range.
+	     * not inclusive minus begin inclusive equals the range. Each interval is stored with its probability, the
+	     * intervals containing no point of the scale being dropped.
 	     */
-	    final List<Pair<Double, Double>> intervalsList = new LinkedList<Pair<Double, Double>>();
+	    final List<double[]> intervalsList = new LinkedList<double[]>();
 	    double previous = profEvalsList.get(0).doubleValue();
 	    for (int i = 1; i < profEvalsList.size(); ++i) {
 		double current = profEvalsList.get(i).doubleValue();
-		final Pair<Double, Double> pair = new Pair<Double, Double>(Double.valueOf(previous),
-			Double.valueOf(current));
-		intervalsList.add(pair);
+		final double prob = scale.getProb(previous, current);
+		if (prob > 0d) {
+		    intervalsList.add(new double[] { previous, current, prob });
+		}
 		previous = current;
 	    }
-	    Collections.sort(intervalsList, new CompareByIntervalSize());
+	    /** The most probable intervals first, so that an interrupted enumeration has explored the biggest leaves. */
+	    Collections.sort(intervalsList, new Comparator<double[]>() {
+		@Override
+		public int compare(double[] o1, double[] o2) {
+		    return Double.compare(o2[2], o1[2]);
+		}
+	    });
 	    m_intervals[crit] = new double[intervalsList.size()][2];
+	    m_probs[crit] = new double[intervalsList.size()];
 	    for (int intvl = 0; intvl < intervalsList.size(); ++intvl) {
-		m_intervals[crit][intvl][0] = intervalsList.get(intvl).getElt1().doubleValue();
-		m_intervals[crit][intvl][1] = intervalsList.get(intvl).getElt2().doubleValue();
-		s_logger.info("Interval " + intvl + " for crit " + crit + ": {}.", m_intervals[crit][intvl]);
+		m_intervals[crit][intvl][0] = intervalsList.get(intvl)[0];
+		m_intervals[crit][intvl][1] = intervalsList.get(intvl)[1];
+		m_probs[crit][intvl] = intervalsList.get(intvl)[2];
+		if (s_logger.isDebugEnabled()) {
+		    s_logger.debug("Interval " + intvl + " for crit " + crit + ": {}.", m_intervals[crit][intvl]);
+		}
 	    }
 	}
 
@@ -189,6 +360,17 @@ public class PreferencesProbabilisticDifference {
 .getMajorityThreshold(), m_preferencesToArrays2.getProfs());
 
 	m_computed = false;
+	m_pool = null;
+	m_subtrees = new SubtreeSums[m_intervals[0].length];
+	m_snapshots = new SubtreeSums[m_intervals[0].length];
+	m_signature = getSignature();
+	m_checkpointFile = null;
+	m_checkpointPeriod = 0;
+	m_lastCheckpoint = System.nanoTime();
+	m_cancelled = false;
+	m_timed = false;
+	m_leavesLeft = new AtomicLong(Long.MAX_VALUE);
+	m_listener = null;
 	m_probabilityMatchAtLeast = 0d;
 	m_probabilityMatchAtMost = 1d;
     }
@@ -198,6 +380,13 @@ public class PreferencesProbabilisticDifference {
 		pref2.getProfilesEvaluations(), pref1.getScales());
     }
 
+    /**
+     * Computes the probabilities if not done yet, without time limit.
+     *
+     * @return the probability that an alternative is assigned to the same category by both models.
+     * @throws CancellationException
+     *             if {@link #cancel()} is called during the computation.
+     */
     public double getProbabilityMatch() {
 	if (!m_computed) {
 	    compute();
@@ -209,86 +398,594 @@ public class PreferencesProbabilisticDifference {
 	if (m_computed) {
 	    return;
 	}
+	m_timed = false;
+	m_leavesLeft.set(Long.MAX_VALUE);
+	if (!enumerateRemaining()) {
+	    throw new CancellationException("Computation cancelled.");
+	}
+    }
+
+    /**
+     * Computes the probabilities until the computation is complete, the given time is elapsed or {@link #cancel()} is
+     * called, whichever comes first. The bounds of the probability of match are then available, and converge to the
+     * exact value as the computation proceeds. An interrupted computation may be continued by calling this method
+     * again, in which case the enumeration resumes where it stopped.
+     *
+     * @param timeout
+     *            the maximal time to spend.
+     * @param unit
+     *            not <code>null</code>.
+     * @return <code>true</code> iff the computation is complete.
+     * @see #getProbabilityMatchAtLeast()
+     * @see #getProbabilityMatchAtMost()
+     */
+    public boolean computeBounds(long timeout, TimeUnit unit) {
+	if (m_computed) {
+	    return true;
+	}
+	m_timed = true;
+	m_deadline = System.nanoTime() + unit.toNanos(timeout);
+	m_leavesLeft.set(Long.MAX_VALUE);
+	return enumerateRemaining();
+    }
+
+    /**
+     * Computes the probabilities as {@link #computeBounds(long, TimeUnit)} does, but stops after a given number of
+     * leaves of the interval products instead of a given time. The leaves are counted by blocks of
+     * {@link #CHECK_PERIOD} leaves of a same subtree, thus more leaves than asked may be enumerated. When computed
+     * sequentially, the computation always stops at the same leaf, which permits to test the interrupted computations
+     * deterministically.
+     *
+     * @param nbLeaves
+     *            at least one.
+     * @return <code>true</code> iff the computation is complete.
+     */
+    boolean computeLeaves(long nbLeaves) {
+	checkArgument(nbLeaves >= 1);
+	if (m_computed) {
+	    return true;
+	}
+	m_timed = false;
+	m_leavesLeft.set(nbLeaves);
+	return enumerateRemaining();
+    }
+
+    /**
+     * Asks the computation currently running to stop as soon as possible, or, if none is running, the next one to stop
+     * as soon as it starts. May be called from any thread. The request is cleared when the computation it stops
+     * finishes, thus the computations started afterwards are not affected.
+     */
+    public void cancel() {
+	m_cancelled = true;
+    }
+
+    /**
+     * @return <code>true</code> iff the computation is complete, thus the bounds are equal (up to rounding errors)
+     *         and the probabilities per category are available.
+     */
+    public boolean isComputed() {
+	return m_computed;
+    }
+
+    /**
+     * Does not start any computation.
+     *
+     * @return a lower bound of the probability of match, as computed so far: zero if nothing has been computed, the
+     *         exact probability if the computation is complete.
+     */
+    public double getProbabilityMatchAtLeast() {
+	return m_probabilityMatchAtLeast;
+    }
+
+    /**
+     * Does not start any computation.
+     *
+     * @return an upper bound of the probability of match, as computed so far: one if nothing has been computed, the
+     *         exact probability (up to rounding errors) if the computation is complete.
+     */
+    public double getProbabilityMatchAtMost() {
+	return m_probabilityMatchAtMost;
+    }
+
+    /**
+     * @param listener
+     *            <code>null</code> for no listener (the default). Is notified of the bounds during the computation,
+     *            from the computing threads, but not concurrently.
+     */
+    public void setListener(IProbabilityBoundsListener listener) {
+	m_listener = listener;
+    }
+
+    public IProbabilityBoundsListener getListener() {
+	return m_listener;
+    }
+
+    /**
+     * Makes the computations save their state to the given file, at most every given period and when they stop, so
+     * that a computation interrupted by a crash or the end of the JVM may be continued by another object, possibly in
+     * another JVM, using {@link #resume(File)}. The file is replaced atomically, thus always contains a complete
+     * state. A failure to write the file is logged and does not stop the computation.
+     *
+     * @param file
+     *            <code>null</code> to save no state (the default).
+     * @param period
+     *            the minimal time between two saves during a computation.
+     * @param unit
+     *            not <code>null</code>.
+     */
+    public void setCheckpoint(File file, long period, TimeUnit unit) {
+	checkArgument(period >= 0, "Negative period.");
+	synchronized (this) {
+	    m_checkpointFile = file;
+	    m_checkpointPeriod = unit.toNanos(period);
+	    m_lastCheckpoint = System.nanoTime();
+	}
+    }
+
+    /**
+     * @return <code>null</code> iff no state is saved.
+     */
+    public File getCheckpointFile() {
+	return m_checkpointFile;
+    }
+
+    /**
+     * Restores the state saved in the given file, replacing the state of this object, and sets the bounds
+     * accordingly. The next computation continues from there, and gives exactly the same results as if it had not
+     * been interrupted. Must not be called during a computation.
+     *
+     * @param file
+     *            a file written by an object of this class for the same models, scales and criteria order.
+     * @return <code>true</code> iff the restored computation is complete.
+     * @throws IOException
+     *             if the file can't be read or is not a valid checkpoint.
+     * @throws IllegalArgumentException
+     *             if the file has been written for different models.
+     */
+    public boolean resume(File file) throws IOException {
+	final int nbFirstIntervals = m_intervals[0].length;
+	final int nbCats = m_probsSameAffectPerCats.length;
+	final SubtreeSums[] subtrees = new SubtreeSums[nbFirstIntervals];
+	final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+	try {
+	    if (in.readInt() != CHECKPOINT_VERSION) {
+		throw new IOException("Unsupported checkpoint version in " + file + ".");
+	    }
+	    if (in.readLong() != m_signature || in.readInt() != nbFirstIntervals || in.readInt() != nbCats) {
+		throw new IllegalArgumentException("Checkpoint " + file + " does not match these models.");
+	    }
+	    for (int firstInterval = 0; firstInterval < nbFirstIntervals; ++firstInterval) {
+		if (in.readBoolean()) {
+		    final SubtreeSums sums = SubtreeSums.read(in, nbCats);
+		    if (sums.m_position != null && !isValidPosition(firstInterval, sums.m_position)) {
+			throw new IOException("Invalid position in checkpoint " + file + ".");
+		    }
+		    subtrees[firstInterval] = sums;
+		}
+	    }
+	} finally {
+	    in.close();
+	}
+	System.arraycopy(subtrees, 0, m_subtrees, 0, nbFirstIntervals);
+	m_computed = false;
+	return reduce();
+    }
+
+    private boolean isValidPosition(int firstInterval, int[] position) {
+	if (position.length == 0 || position.length > m_intervals.length || position[0] != firstInterval) {
+	    return false;
+	}
+	for (int crit = 0; crit < position.length; ++crit) {
+	    if (position[crit] < 0 || position[crit] >= m_intervals[crit].length) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Publishes the current state of the given subtree, and saves all the states if the checkpoint period has elapsed.
+     * Does nothing if no checkpoint must be written.
+     */
+    private void checkpoint(int firstInterval, SubtreeSums sums) {
+	if (m_checkpointFile == null) {
+	    return;
+	}
+	synchronized (this) {
+	    m_snapshots[firstInterval] = sums.copy();
+	    if (System.nanoTime() - m_lastCheckpoint >= m_checkpointPeriod) {
+		writeCheckpoint();
+	    }
+	}
+    }
+
+    /**
+     * Writes the last published state of each subtree, or the state at the start of the current computation, to a
+     * temporary file that then replaces the checkpoint file. To be called while holding the lock of this object.
+     */
+    private void writeCheckpoint() {
+	final File temp = new File(m_checkpointFile.getPath() + ".tmp");
+	try {
+	    final FileOutputStream fileOut = new FileOutputStream(temp);
+	    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+	    try {
+		out.writeInt(CHECKPOINT_VERSION);
+		out.writeLong(m_signature);
+		out.writeInt(m_subtrees.length);
+		out.writeInt(m_probsSameAffectPerCats.length);
+		for (int firstInterval = 0; firstInterval < m_subtrees.length; ++firstInterval) {
+		    final SubtreeSums sums = m_snapshots[firstInterval] != null ? m_snapshots[firstInterval]
+			    : m_subtrees[firstInterval];
+		    out.writeBoolean(sums != null);
+		    if (sums != null) {
+			sums.write(out);
+		    }
+		}
+		out.flush();
+		fileOut.getFD().sync();
+	    } finally {
+		out.close();
+	    }
+	    Files.move(temp.toPath(), m_checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+		    StandardCopyOption.ATOMIC_MOVE);
+	} catch (IOException exc) {
+	    s_logger.warn("Could not write checkpoint to " + m_checkpointFile + ".", exc);
+	}
+	m_lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * @return a hash of everything the enumeration depends on: the intervals and their probabilities, and the weights,
+     *         thresholds and profiles of both models, in the criteria order.
+     */
+    private long getSignature() {
+	long signature = 1;
+	for (int crit = 0; crit < m_intervals.length; ++crit) {
+	    for (int intvl = 0; intvl < m_intervals[crit].length; ++intvl) {
+		signature = 31 * signature + Double.doubleToLongBits(m_intervals[crit][intvl][0]);
+		signature = 31 * signature + Double.doubleToLongBits(m_intervals[crit][intvl][1]);
+		signature = 31 * signature + Double.doubleToLongBits(m_probs[crit][intvl]);
+	    }
+	}
+	for (PreferencesToArrays arrays : new PreferencesToArrays[] { m_preferencesToArrays1, m_preferencesToArrays2 }) {
+	    for (double weight : arrays.getWeights()) {
+		signature = 31 * signature + Double.doubleToLongBits(weight);
+	    }
+	    for (double[] prof : arrays.getProfs()) {
+		for (double eval : prof) {
+		    signature = 31 * signature + Double.doubleToLongBits(eval);
+		}
+	    }
+	}
+	signature = 31 * signature + Double.doubleToLongBits(m_coalitions1.getMajorityThreshold());
+	signature = 31 * signature + Double.doubleToLongBits(m_coalitions2.getMajorityThreshold());
+	return signature;
+    }
+
+    /**
+     * Enumerates the subtrees not completed yet, until done or interrupted, and sets the bounds accordingly.
+     *
+     * @return <code>true</code> iff the computation is complete.
+     */
+    private boolean enumerateRemaining() {
+	try {
+	    return enumerateRemainingUntilInterrupted();
+	} finally {
+	    /** Cleared only now, so that a cancellation requested before or during this computation is not lost. */
+	    m_cancelled = false;
+	}
+    }
+
+    private boolean enumerateRemainingUntilInterrupted() {
+	final int nbFirstIntervals = m_intervals[0].length;
+	final List<Integer> remaining = new ArrayList<Integer>();
+	synchronized (this) {
+	    Arrays.fill(m_snapshots, null);
+	    m_reportedMatch = new CompensatedSum();
+	    m_reportedMismatch = new CompensatedSum();
+	    for (int firstInterval = 0; firstInterval < nbFirstIntervals; ++firstInterval) {
+		final SubtreeSums sums = m_subtrees[firstInterval];
+		if (sums == null || !sums.m_complete) {
+		    remaining.add(Integer.valueOf(firstInterval));
+		}
+		if (sums != null) {
+		    m_reportedMatch.add(sums.m_match);
+		    m_reportedMismatch.add(sums.m_mismatch);
+		}
+	    }
+	}
+
+	if (m_pool == null) {
+	    for (Integer firstInterval : remaining) {
+		final SubtreeSums sums = enumerate(firstInterval.intValue(), m_progress1, m_progress2);
+		m_subtrees[firstInterval.intValue()] = sums;
+		if (!sums.m_complete) {
+		    break;
+		}
+	    }
+	} else {
+	    final List<RecursiveTask<SubtreeSums>> tasks = new ArrayList<RecursiveTask<SubtreeSums>>(remaining.size());
+	    for (final Integer firstInterval : remaining) {
+		tasks.add(new RecursiveTask<SubtreeSums>() {
+		    private static final long serialVersionUID = 1L;
+
+		    @Override
+		    protected SubtreeSums compute() {
+			return enumerate(firstInterval.intValue(), newProgress1(), newProgress2());
+		    }
+		});
+	    }
+	    m_pool.invoke(new RecursiveAction() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+		    invokeAll(tasks);
+		}
+	    });
+	    for (int i = 0; i < tasks.size(); ++i) {
+		m_subtrees[remaining.get(i).intValue()] = tasks.get(i).join();
+	    }
+	}
+	if (m_checkpointFile != null) {
+	    synchronized (this) {
+		Arrays.fill(m_snapshots, null);
+		writeCheckpoint();
+	    }
+	}
+	return reduce();
+    }
 
+    /**
+     * Sets the bounds from the sums of the subtrees, and the probabilities if all the subtrees are complete.
+     *
+     * @return <code>true</code> iff the computation is complete.
+     */
+    private boolean reduce() {
+	/** Reduces in the order of the first intervals, thus the result does not depend on the scheduling. */
+	final CompensatedSum match = new CompensatedSum();
+	final CompensatedSum mismatch = new CompensatedSum();
+	final CompensatedSum[] perCats = new CompensatedSum[m_probsSameAffectPerCats.length];
+	for (int cat = 0; cat < perCats.length; ++cat) {
+	    perCats[cat] = new CompensatedSum();
+	}
+	boolean complete = true;
+	for (SubtreeSums sums : m_subtrees) {
+	    if (sums == null) {
+		complete = false;
+		continue;
+	    }
+	    complete = complete && sums.m_complete;
+	    match.add(sums.m_match);
+	    mismatch.add(sums.m_mismatch);
+	    for (int cat = 0; cat < perCats.length; ++cat) {
+		perCats[cat].add(sums.m_perCats[cat]);
+	    }
+	}
+	m_probabilityMatchAtLeast = match.getSum();
+	m_probabilityMatchAtMost = 1d - mismatch.getSum();
+	if (m_listener != null) {
+	    synchronized (this) {
+		m_listener.boundsChanged(m_probabilityMatchAtLeast, m_probabilityMatchAtMost);
+	    }
+	}
+	if (!complete) {
+	    return false;
+	}
+	for (int cat = 0; cat < perCats.length; ++cat) {
+	    m_probsSameAffectPerCats[cat] = perCats[cat].getSum();
+	}
+
+	/** A very minimal level of imprecision that should be achieved. */
+	final double imprec = 0.05d;
+	if (m_probabilityMatchAtLeast - m_probabilityMatchAtMost > imprec) {
+	    throw new IllegalStateException("Invalid computation: prob match at least = " + m_probabilityMatchAtLeast
+		    + ", at most = " + m_probabilityMatchAtMost + ".");
+	}
+	m_computed = true;
+	return true;
+    }
+
+    private boolean isInterrupted() {
+	return m_cancelled || m_leavesLeft.get() <= 0 || (m_timed && System.nanoTime() - m_deadline >= 0);
+    }
+
+    /**
+     * Reports to the listener, if any, the sums of the given subtree that have not been reported yet.
+     */
+    private void report(SubtreeSums sums) {
+	if (m_listener == null) {
+	    return;
+	}
+	final long now = System.nanoTime();
+	if (now - sums.m_lastReport < REPORT_PERIOD) {
+	    return;
+	}
+	sums.m_lastReport = now;
+	final double match = sums.m_match.getSum();
+	final double mismatch = sums.m_mismatch.getSum();
+	synchronized (this) {
+	    m_reportedMatch.add(match - sums.m_reportedMatch);
+	    m_reportedMismatch.add(mismatch - sums.m_reportedMismatch);
+	    m_listener.boundsChanged(m_reportedMatch.getSum(), 1d - m_reportedMismatch.getSum());
+	}
+	sums.m_reportedMatch = match;
+	sums.m_reportedMismatch = mismatch;
+    }
+
+    private ElectrePessimisticProgressiveWithArrays newProgress1() {
+	return new ElectrePessimisticProgressiveWithArrays(m_preferencesToArrays1.getWeights(),
+		m_coalitions1.getMajorityThreshold(), m_preferencesToArrays1.getProfs());
+    }
+
+    private ElectrePessimisticProgressiveWithArrays newProgress2() {
+	return new ElectrePessimisticProgressiveWithArrays(m_preferencesToArrays2.getWeights(),
+		m_coalitions2.getMajorityThreshold(), m_preferencesToArrays2.getProfs());
+    }
+
+    /**
+     * Enumerates the subtree of the interval products where the first criterion lies in the given interval, or the
+     * rest of it if its enumeration has been started by a previous computation. Uses only the given progressive
+     * assigners and does not modify this object except through checkpointing, thus may be called concurrently with
+     * distinct assigners. Stops early if the computation is interrupted.
+     *
+     * @param firstInterval
+     *            the index of the interval of the first criterion.
+     * @param progress1
+     *            the assigner of the first model, will be reset.
+     * @param progress2
+     *            the assigner of the second model, will be reset.
+     * @return the probabilities summed over the leaves of the subtree, or of the leaves enumerated before the
+     *         interruption, with the position of the last one.
+     */
+    private SubtreeSums enumerate(int firstInterval, ElectrePessimisticProgressiveWithArrays progress1,
+	    ElectrePessimisticProgressiveWithArrays progress2) {
+	final SubtreeSums start = m_subtrees[firstInterval];
+	final SubtreeSums sums = start == null ? new SubtreeSums(m_probsSameAffectPerCats.length) : start.copy();
+	/** The sums of the previous computations have been reported already. */
+	sums.m_reportedMatch = sums.m_match.getSum();
+	sums.m_reportedMismatch = sums.m_mismatch.getSum();
+	if (isInterrupted()) {
+	    return sums;
+	}
+	int nbLeaves = 0;
 	int[] currentIntervalsIdx = new int[m_intervals.length];
 	for (int crit = 0; crit < m_intervals.length; ++crit) {
 	    currentIntervalsIdx[crit] = -1;
 	}
 	int curCrit = 0;
+	progress1.reset();
+	progress2.reset();
+	if (sums.m_position == null) {
+	    currentIntervalsIdx[0] = firstInterval - 1;
+	} else {
+	    /** Sets again the criteria of the last leaf enumerated, then goes on with the next one. */
+	    for (int crit = 0; crit < sums.m_position.length; ++crit) {
+		currentIntervalsIdx[crit] = sums.m_position[crit];
+		final double[] interval = m_intervals[crit][currentIntervalsIdx[crit]];
+		progress1.push();
+		progress2.push();
+		progress1.setEvaluation(crit, interval);
+		progress2.setEvaluation(crit, interval);
+	    }
+	    curCrit = getCritToIncrement(currentIntervalsIdx, sums.m_position.length - 1);
+	    if (curCrit < 1) {
+		sums.m_complete = true;
+		sums.m_position = null;
+		checkpoint(firstInterval, sums);
+		return sums;
+	    }
+	}
 
 	do {
-	    m_progress1.reset();
-	    m_progress2.reset();
-	    for (int crit = 0; crit < curCrit; ++crit) {
-		final int intervalIndex = currentIntervalsIdx[crit];
-		final double[] interval = m_intervals[crit][intervalIndex];
-		m_progress1.setEvaluation(crit, interval);
-		m_progress2.setEvaluation(crit, interval);
+	    /**
+	     * Comes back to the state where the criteria before curCrit are set, as the state before setting each
+	     * criterion has been pushed.
+	     */
+	    while (progress1.getDepth() > curCrit) {
+		progress1.pop();
+		progress2.pop();
 	    }
 	    {
 		currentIntervalsIdx[curCrit] += 1;
 		final int intervalIndex = currentIntervalsIdx[curCrit];
 		final double[] interval = m_intervals[curCrit][intervalIndex];
-		m_progress1.setEvaluation(curCrit, interval);
-		m_progress2.setEvaluation(curCrit, interval);
+		progress1.push();
+		progress2.push();
+		progress1.setEvaluation(curCrit, interval);
+		progress2.setEvaluation(curCrit, interval);
 		++curCrit;
 	    }
-	    while (!m_progress1.isSetCat() || !m_progress2.isSetCat()) {
+	    while (!progress1.isSetCat() || !progress2.isSetCat()) {
 		currentIntervalsIdx[curCrit] = 0;
 		final int intervalIndex = currentIntervalsIdx[curCrit];
 		final double[] interval = m_intervals[curCrit][intervalIndex];
-		m_progress1.setEvaluation(curCrit, interval);
-		m_progress2.setEvaluation(curCrit, interval);
+		progress1.push();
+		progress2.push();
+		progress1.setEvaluation(curCrit, interval);
+		progress2.setEvaluation(curCrit, interval);
 		++curCrit;
 	    }
 	    --curCrit;
 
 	    // print, compute proba... with currentIntervals.
-	    print(currentIntervalsIdx, curCrit);
-
-	    while (curCrit >= 0 && (currentIntervalsIdx[curCrit] == m_intervals[curCrit].length - 1)) {
-		--curCrit;
-		// remove evaluation?
+	    print(currentIntervalsIdx, curCrit, progress1, progress2, sums);
+	    ++nbLeaves;
+	    if (nbLeaves % CHECK_PERIOD == 0) {
+		report(sums);
+		sums.m_position = Arrays.copyOf(currentIntervalsIdx, curCrit + 1);
+		checkpoint(firstInterval, sums);
+		m_leavesLeft.addAndGet(-CHECK_PERIOD);
+		if (isInterrupted()) {
+		    return sums;
+		}
 	    }
-	} while (curCrit >= 0);
 
-	/** A very minimal level of imprecision that should be achieved. */
-	final double imprec = 0.05d;
-	if (m_probabilityMatchAtLeast - m_probabilityMatchAtMost > imprec) {
-	    throw new IllegalStateException("Invalid computation: prob match at least = " + m_probabilityMatchAtLeast
-		    + ", at most = " + m_probabilityMatchAtMost + ".");
-	}
-	m_computed = true;
+	    curCrit = getCritToIncrement(currentIntervalsIdx, curCrit);
+	} while (curCrit >= 1);
+	sums.m_complete = true;
+	sums.m_position = null;
+	checkpoint(firstInterval, sums);
+	return sums;
     }
 
-    private void print(int[] currentIntervalsIdx, int curCrit) {
-	final double stepSize = 1d;
+    /**
+     * @return the criterion whose interval is to be incremented to reach the leaf following the given one, or zero if
+     *         the given leaf is the last one of its subtree: the first criterion stays in the given interval.
+     */
+    private int getCritToIncrement(int[] currentIntervalsIdx, int leafCrit) {
+	int curCrit = leafCrit;
+	while (curCrit >= 1 && (currentIntervalsIdx[curCrit] == m_intervals[curCrit].length - 1)) {
+	    --curCrit;
+	}
+	return curCrit;
+    }
 
+    private void print(int[] currentIntervalsIdx, int curCrit, ElectrePessimisticProgressiveWithArrays progress1,
+	    ElectrePessimisticProgressiveWithArrays progress2, SubtreeSums sums) {
 	double prob = 1d;
 	for (int crit = 0; crit <= curCrit; ++crit) {
-	    final int index = currentIntervalsIdx[crit];
-	    final double[] interval;
-	    interval = m_intervals[crit][index];
-	    final double[] bounds = m_preferencesToArrays1.getBounds()[crit];
-	    final double intervalLength = interval[1] - interval[0];
-	    final double maxBoundNotInclusive = bounds[1] + stepSize;
-	    final double boundsLength = maxBoundNotInclusive - bounds[0];
-	    final double prop = intervalLength / boundsLength;
-	    prob *= prop;
-	    s_logger.debug("Crit " + crit + ", interval: {}.", interval);
-	}
-	for (int crit = curCrit + 1; crit < currentIntervalsIdx.length; ++crit) {
-	    final double[] bounds = m_preferencesToArrays1.getBounds()[crit];
-	    s_logger.debug("Crit " + crit + ", interval: {}.", bounds);
-	}
-
-	if (m_progress1.getBestCat() == m_progress2.getBestCat()) {
-	    m_probsSameAffectPerCats[m_progress1.getBestCat()] += prob;
-	    m_probabilityMatchAtLeast += prob;
+	    prob *= m_probs[crit][currentIntervalsIdx[crit]];
+	}
+	if (s_logger.isDebugEnabled()) {
+	    for (int crit = 0; crit <= curCrit; ++crit) {
+		s_logger.debug("Crit " + crit + ", interval: {}.", m_intervals[crit][currentIntervalsIdx[crit]]);
+	    }
+	    for (int crit = curCrit + 1; crit < currentIntervalsIdx.length; ++crit) {
+		final double[] bounds = m_preferencesToArrays1.getBounds()[crit];
+		s_logger.debug("Crit " + crit + ", interval: {}.", bounds);
+	    }
+	}
+
+	if (progress1.getBestCat() == progress2.getBestCat()) {
+	    sums.m_perCats[progress1.getBestCat()].add(prob);
+	    sums.m_match.add(prob);
 	} else {
-	    m_probabilityMatchAtMost -= prob;
+	    sums.m_mismatch.add(prob);
 	}
-	s_logger.debug("Match: at least " + m_probabilityMatchAtLeast + ", at most " + m_probabilityMatchAtMost + ".");
+	if (s_logger.isDebugEnabled()) {
+	    s_logger.debug("Match in subtree: " + sums.m_match.getSum() + ", mismatch: " + sums.m_mismatch.getSum()
+		    + ".");
+	}
+    }
+
+    /**
+     * Sets the pool used to enumerate in parallel the subtrees of the interval products, one task per interval of the
+     * first criterion. The results do not depend on whether a pool is used. Must be set before the probabilities are
+     * computed to have an effect.
+     *
+     * @param pool
+     *            <code>null</code> to compute sequentially (the default).
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+	m_pool = pool;
+    }
+
+    /**
+     * @return <code>null</code> iff the computation is sequential.
+     */
+    public ForkJoinPool getForkJoinPool() {
+	return m_pool;
     }
 
     public double getProbSameAffectation(Category cat) {
@@ -0,0 +1,307 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.decision_deck.jmcda.services.internal.PreferencesToArrays;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.interval.Interval;
+import org.decision_deck.jmcda.structure.matrix.EvaluationsRead;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
+import org.decision_deck.jmcda.structure.weights.Coalitions;
+import org.decisiondeck.jmcda.structure.sorting.problem.preferences.ISortingPreferences;
+
+/**
+ * <p>
+ * Given two sets of preference parameters: weights and profiles, computes the probability that an alternative be
+ * assigned to the same category according to each preference model, as {@link PreferencesProbabilisticDifference}
+ * does, but using dynamic programming over the criteria instead of enumerating the products of intervals. Uses
+ * pessimistic Electre TRI sorting, no thresholds; the alternative is drawn uniformly among the points of the scales
+ * (or in the scale, if it has no step, see {@link UniformScale}), and the criteria are considered to be maximized.
+ * </p>
+ * <p>
+ * The category an alternative is assigned to by a model only depends, for each profile, on the sum of the weights of
+ * the criteria on which the alternative reaches that profile. The states of the dynamic program are thus the vectors
+ * of such partial sums, one per profile and per model, reached after considering a prefix of the criteria, each
+ * associated with its probability. A partial sum which reaches the majority threshold, or which can no more reach it,
+ * is replaced by a marker, thus states leading to the same assignments are merged. A state whose assignments are all
+ * known contributes to the result immediately. With integer-like weights, the number of states is bounded by a
+ * polynomial in the number of criteria, whereas the number of interval products grows exponentially.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class PreferencesProbabilisticDifferenceByDynamicProgramming {
+    /**
+     * A vector of partial sums, usable as a key.
+     *
+     * @author Olivier Cailloux
+     *
+     */
+    static private class State {
+	private final double[] m_sums;
+	private final int m_hashCode;
+
+	public State(double[] sums) {
+	    m_sums = sums;
+	    m_hashCode = Arrays.hashCode(sums);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (!(obj instanceof State)) {
+		return false;
+	    }
+	    final State other = (State) obj;
+	    return m_hashCode == other.m_hashCode && Arrays.equals(m_sums, other.m_sums);
+	}
+
+	@Override
+	public int hashCode() {
+	    return m_hashCode;
+	}
+    }
+
+    static private final double REACHED = Double.POSITIVE_INFINITY;
+    static private final double UNREACHABLE = Double.NEGATIVE_INFINITY;
+
+    private final PreferencesToArrays m_preferencesToArrays1;
+    private final PreferencesToArrays m_preferencesToArrays2;
+    private final double m_lambda1;
+    private final double m_lambda2;
+    private final int m_nbProfs;
+    private final int m_nbCrits;
+    /**
+     * array[crit][segment][model * nbProfs + prof] = <code>true</code> iff the evaluations in the given segment of
+     * the scale of the criterion reach the profile prof of the model (model being zero or one).
+     */
+    private final boolean[][][] m_reaches;
+    /**
+     * array[crit][segment] = the probability that the evaluation on the criterion is in the segment.
+     */
+    private final double[][] m_probs;
+    private boolean m_computed;
+    private double m_probabilityMatch;
+    private final double[] m_probsSameAffectPerCats;
+    private int m_maxNbStates;
+
+    public PreferencesProbabilisticDifferenceByDynamicProgramming(CatsAndProfs categories,
+	    final Coalitions coalitions1, EvaluationsRead profilesEvaluations1, final Coalitions coalitions2,
+	    EvaluationsRead profilesEvaluations2, Map<Criterion, Interval> scales) {
+	PreferencesProbabilisticDifference.checkSameCriteriaAndProfiles(coalitions1, profilesEvaluations1, coalitions2,
+		profilesEvaluations2);
+
+	/** The heaviest criteria first, as they permit to determine the assignments sooner. */
+	final List<Criterion> critsOrder = new ArrayList<Criterion>(coalitions1.getCriteria());
+	Collections.sort(critsOrder, Collections.reverseOrder(new PreferencesProbabilisticDifference.CompareSumWeights(
+		coalitions1.getWeights(), coalitions2.getWeights())));
+	m_preferencesToArrays1 = new PreferencesToArrays(categories, coalitions1, critsOrder, profilesEvaluations1);
+	m_preferencesToArrays2 = new PreferencesToArrays(categories, coalitions2, critsOrder, profilesEvaluations2);
+	m_lambda1 = coalitions1.getMajorityThreshold() - ElectrePessimisticProgressiveWithArrays.TOLERANCE;
+	m_lambda2 = coalitions2.getMajorityThreshold() - ElectrePessimisticProgressiveWithArrays.TOLERANCE;
+	m_nbCrits = critsOrder.size();
+	m_nbProfs = categories.getCategories().size() - 1;
+	m_probsSameAffectPerCats = new double[m_nbProfs + 1];
+
+	m_reaches = new boolean[m_nbCrits][][];
+	m_probs = new double[m_nbCrits][];
+	final double[][] profs1 = m_preferencesToArrays1.getProfs();
+	final double[][] profs2 = m_preferencesToArrays2.getProfs();
+	for (int crit = 0; crit < m_nbCrits; ++crit) {
+	    final Interval scale = scales.get(critsOrder.get(crit));
+	    if (scale == null) {
+		throw new IllegalArgumentException("Missing scale for " + critsOrder.get(crit) + ".");
+	    }
+	    final UniformScale uniform = new UniformScale(scale);
+
+	    final TreeSet<Double> breaks = new TreeSet<Double>();
+	    for (int prof = 0; prof < m_nbProfs; ++prof) {
+		breaks.add(Double.valueOf(profs1[prof][crit]));
+		breaks.add(Double.valueOf(profs2[prof][crit]));
+	    }
+	    /** Segment i starts at the break i - 1 (inclusive) and ends at the break i (not inclusive). */
+	    final List<Double> breaksList = new ArrayList<Double>(breaks);
+	    final List<boolean[]> reaches = new ArrayList<boolean[]>();
+	    final List<Double> probs = new ArrayList<Double>();
+	    for (int segment = 0; segment <= breaksList.size(); ++segment) {
+		final double begin = segment == 0 ? Double.NEGATIVE_INFINITY : breaksList.get(segment - 1)
+			.doubleValue();
+		final double end = segment == breaksList.size() ? Double.POSITIVE_INFINITY : breaksList.get(segment)
+			.doubleValue();
+		final double prob = uniform.getProb(begin, end);
+		if (prob == 0d) {
+		    continue;
+		}
+		final boolean[] reach = new boolean[2 * m_nbProfs];
+		for (int prof = 0; prof < m_nbProfs; ++prof) {
+		    reach[prof] = profs1[prof][crit] <= begin;
+		    reach[m_nbProfs + prof] = profs2[prof][crit] <= begin;
+		}
+		reaches.add(reach);
+		probs.add(Double.valueOf(prob));
+	    }
+	    m_reaches[crit] = reaches.toArray(new boolean[reaches.size()][]);
+	    m_probs[crit] = new double[probs.size()];
+	    for (int segment = 0; segment < probs.size(); ++segment) {
+		m_probs[crit][segment] = probs.get(segment).doubleValue();
+	    }
+	}
+
+	m_computed = false;
+	m_probabilityMatch = 0d;
+	m_maxNbStates = 0;
+    }
+
+    public PreferencesProbabilisticDifferenceByDynamicProgramming(ISortingPreferences pref1, ISortingPreferences pref2) {
+	this(pref1.getCatsAndProfs(), pref1.getCoalitions(), pref1.getProfilesEvaluations(), pref2.getCoalitions(),
+		pref2.getProfilesEvaluations(), pref1.getScales());
+    }
+
+    public double getProbabilityMatch() {
+	if (!m_computed) {
+	    compute();
+	}
+	return m_probabilityMatch;
+    }
+
+    public double getProbSameAffectation(Category cat) {
+	if (!m_computed) {
+	    compute();
+	}
+	return m_probsSameAffectPerCats[m_preferencesToArrays1.getCatsToInt().get(cat).intValue()];
+    }
+
+    /**
+     * @return the largest number of states held at once during the computation, zero if not computed yet.
+     */
+    public int getMaxNbStates() {
+	return m_maxNbStates;
+    }
+
+    private void compute() {
+	if (m_computed) {
+	    return;
+	}
+	if (m_nbCrits == 0) {
+	    computeWithoutCriteria();
+	    return;
+	}
+	final double[] weights1 = m_preferencesToArrays1.getWeights();
+	final double[] weights2 = m_preferencesToArrays2.getWeights();
+	/** In array[crit], the sum of the weights of the criteria after crit. */
+	final double[] remaining1 = new double[m_nbCrits];
+	final double[] remaining2 = new double[m_nbCrits];
+	for (int crit = m_nbCrits - 2; crit >= 0; --crit) {
+	    remaining1[crit] = remaining1[crit + 1] + weights1[crit + 1];
+	    remaining2[crit] = remaining2[crit + 1] + weights2[crit + 1];
+	}
+	/**
+	 * A sum is considered unreachable only if it misses the threshold by a margin larger than rounding errors, as
+	 * considering it reachable is always safe.
+	 */
+	final double margin1 = 1e-9 * (remaining1.length == 0 ? 0 : remaining1[0] + weights1[0]);
+	final double margin2 = 1e-9 * (remaining2.length == 0 ? 0 : remaining2[0] + weights2[0]);
+
+	final CompensatedSum match = new CompensatedSum();
+	final CompensatedSum[] perCats = new CompensatedSum[m_nbProfs + 1];
+	for (int cat = 0; cat <= m_nbProfs; ++cat) {
+	    perCats[cat] = new CompensatedSum();
+	}
+
+	Map<State, Double> states = new LinkedHashMap<State, Double>();
+	states.put(new State(new double[2 * m_nbProfs]), Double.valueOf(1d));
+	for (int crit = 0; crit < m_nbCrits; ++crit) {
+	    final boolean last = crit == m_nbCrits - 1;
+	    final Map<State, Double> newStates = new LinkedHashMap<State, Double>();
+	    for (Map.Entry<State, Double> entry : states.entrySet()) {
+		final double[] sums = entry.getKey().m_sums;
+		final double prob = entry.getValue().doubleValue();
+		for (int segment = 0; segment < m_probs[crit].length; ++segment) {
+		    final boolean[] reach = m_reaches[crit][segment];
+		    final double[] newSums = new double[sums.length];
+		    boolean determined = true;
+		    for (int idx = 0; idx < sums.length; ++idx) {
+			final boolean first = idx < m_nbProfs;
+			final double lambda = first ? m_lambda1 : m_lambda2;
+			final double sum = sums[idx];
+			final double newSum;
+			if (sum == REACHED || sum == UNREACHABLE) {
+			    newSum = sum;
+			} else {
+			    final double added = reach[idx] ? sum + (first ? weights1[crit] : weights2[crit]) : sum;
+			    if (added >= lambda) {
+				newSum = REACHED;
+			    } else if (last
+				    || added + (first ? remaining1[crit] : remaining2[crit]) < lambda
+					    - (first ? margin1 : margin2)) {
+				newSum = UNREACHABLE;
+			    } else {
+				newSum = added;
+				determined = false;
+			    }
+			}
+			newSums[idx] = newSum;
+		    }
+		    final double newProb = prob * m_probs[crit][segment];
+		    if (determined) {
+			final int cat1 = getCategory(newSums, 0);
+			final int cat2 = getCategory(newSums, m_nbProfs);
+			if (cat1 == cat2) {
+			    match.add(newProb);
+			    perCats[cat1].add(newProb);
+			}
+		    } else {
+			final State newState = new State(newSums);
+			final Double previous = newStates.get(newState);
+			newStates.put(newState, Double.valueOf(previous == null ? newProb : previous.doubleValue()
+				+ newProb));
+		    }
+		}
+	    }
+	    states = newStates;
+	    m_maxNbStates = Math.max(m_maxNbStates, states.size());
+	}
+	assert states.isEmpty();
+
+	m_probabilityMatch = match.getSum();
+	for (int cat = 0; cat <= m_nbProfs; ++cat) {
+	    m_probsSameAffectPerCats[cat] = perCats[cat].getSum();
+	}
+	m_computed = true;
+    }
+
+    /**
+     * Without criteria, the coalitions are empty, thus each model assigns every alternative to the same category, with
+     * no segment to enumerate.
+     */
+    private void computeWithoutCriteria() {
+	final double[] sums = new double[2 * m_nbProfs];
+	for (int idx = 0; idx < sums.length; ++idx) {
+	    sums[idx] = 0d >= (idx < m_nbProfs ? m_lambda1 : m_lambda2) ? REACHED : UNREACHABLE;
+	}
+	final int cat1 = getCategory(sums, 0);
+	final int cat2 = getCategory(sums, m_nbProfs);
+	m_probabilityMatch = cat1 == cat2 ? 1d : 0d;
+	m_probsSameAffectPerCats[cat1] = m_probabilityMatch;
+	m_computed = true;
+    }
+
+    /**
+     * @return the best category whose profile below is reached, or zero.
+     */
+    private int getCategory(double[] sums, int offset) {
+	for (int prof = m_nbProfs - 1; prof >= 0; --prof) {
+	    if (sums[offset + prof] == REACHED) {
+		return prof + 1;
+	    }
+	}
+	return 0;
+    }
+}
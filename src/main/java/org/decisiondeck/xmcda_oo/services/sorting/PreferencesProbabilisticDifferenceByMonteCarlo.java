@@ -0,0 +1,780 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import org.decision_deck.jmcda.services.internal.PreferencesToArrays;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.interval.Interval;
+import org.decision_deck.jmcda.structure.interval.PreferenceDirection;
+import org.decision_deck.jmcda.structure.matrix.EvaluationsRead;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
+import org.decision_deck.jmcda.structure.weights.Coalitions;
+import org.decisiondeck.jmcda.structure.sorting.problem.preferences.ISortingPreferences;
+
+/**
+ * <p>
+ * Given two sets of preference parameters: weights and profiles, estimates the probability that an alternative be
+ * assigned to the same category according to each preference model, by drawing random alternatives until a requested
+ * precision is reached. Uses pessimistic Electre TRI sorting, no thresholds; the alternative is drawn uniformly among
+ * the points of the scales (or in the scale, if it has no step), as {@link PreferencesProbabilisticDifference}
+ * assumes.
+ * </p>
+ * <p>
+ * Contrary to {@link PreferencesProbabilisticDifferenceBySimulation}, the alternatives are not built as objects: each
+ * random alternative is assigned using arrays of weights and profiles only. The samples are drawn in rounds made of a
+ * fixed number of chunks, each chunk using its own random stream split from the seed, and the chunks are run as
+ * fork/join tasks. Thus, for a given seed, the result does not depend on the pool used.
+ * </p>
+ * <p>
+ * The estimation stops when the half-width of the Wilson score interval of the probability, at the requested
+ * confidence level, is at most the requested one, or when the maximal number of samples is reached.
+ * </p>
+ * <p>
+ * As the probability is the integral of a piecewise constant function over the scales, quasi random points cover the
+ * scales more evenly than random ones and usually need far fewer samples for a given precision. In the quasi Monte
+ * Carlo mode ({@link #estimateQuasiRandom(double, double)}), the alternatives are the points of a Halton sequence
+ * whose digits are randomly scrambled, the heaviest criteria using the smallest bases. Several independently scrambled
+ * replicas are drawn, and the precision is estimated from the spread of their results.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
+public class PreferencesProbabilisticDifferenceByMonteCarlo {
+    /**
+     * The counts obtained by one chunk.
+     */
+    static private class Counts {
+	long m_nbMatch;
+	final long[] m_nbMatchPerCats;
+
+	public Counts(int nbCats) {
+	    m_nbMatch = 0;
+	    m_nbMatchPerCats = new long[nbCats];
+	}
+    }
+
+    /**
+     * The random digit scrambling of a Halton sequence, one replica of the quasi Monte Carlo mode. Immutable.
+     */
+    static private class Scrambling {
+	/**
+	 * In array[crit][digitPosition][digit], the digit replacing the given one at the given position in the base of
+	 * the criterion crit.
+	 */
+	final int[][][] m_permutations;
+
+	public Scrambling(int[] bases, SplittableRandom random) {
+	    m_permutations = new int[bases.length][][];
+	    for (int crit = 0; crit < bases.length; ++crit) {
+		final int base = bases[crit];
+		m_permutations[crit] = new int[getNbDigits(base)][base];
+		for (int[] permutation : m_permutations[crit]) {
+		    for (int digit = 0; digit < base; ++digit) {
+			permutation[digit] = digit;
+		    }
+		    for (int digit = base - 1; digit > 0; --digit) {
+			final int other = random.nextInt(digit + 1);
+			final int swapped = permutation[digit];
+			permutation[digit] = permutation[other];
+			permutation[other] = swapped;
+		    }
+		}
+	    }
+	}
+    }
+
+    private final PreferencesToArrays m_preferencesToArrays1;
+    private final PreferencesToArrays m_preferencesToArrays2;
+    private final double m_lambda1;
+    private final double m_lambda2;
+    private final int m_nbProfs;
+    private final int m_nbCrits;
+    /**
+     * In array[crit], the minimum of the scale of the criterion crit.
+     */
+    private final double[] m_mins;
+    /**
+     * In array[crit], the step of the scale of the criterion crit, or, if the scale has no step, its length.
+     */
+    private final double[] m_steps;
+    /**
+     * In array[crit], the number of points of the scale of the criterion crit, or zero if the scale has no step.
+     */
+    private final int[] m_nbPoints;
+    /**
+     * In array[crit], <code>true</code> iff the criterion crit is to be minimized.
+     */
+    private final boolean[] m_minimize;
+    /**
+     * In array[crit], in increasing order, the points of the scale of the criterion crit at which the set of reached
+     * profiles changes, at most one per profile of each model. Is <code>null</code> for a criterion whose scale has no
+     * step.
+     */
+    private final int[][] m_breakpoints;
+    /**
+     * array[crit][interval] = the set of profiles reached by the points of the scale of the criterion crit from the
+     * breakpoint interval - 1, or the first point, inclusive, to the breakpoint interval, or the end of the scale,
+     * exclusive, as a bit set where the bit model * nbProfs + prof is set iff the profile prof of the model (zero or
+     * one) is reached. Is <code>null</code> for a criterion whose scale has no step. Its size does not depend on the
+     * number of points of the scale.
+     */
+    private final long[][] m_reached;
+    /**
+     * The bits of {@link #m_reached} that concern the first model.
+     */
+    private final long m_model1Mask;
+    private ForkJoinPool m_pool;
+    private SplittableRandom m_random;
+    private int m_nbChunks;
+    private int m_chunkSize;
+    private long m_maxNbSamples;
+    private long m_nbSamples;
+    private long m_nbMatch;
+    private final long[] m_nbMatchPerCats;
+    private double m_lowerBound;
+    private double m_upperBound;
+    /**
+     * In array[crit], the base of the Halton sequence used for the criterion crit, a prime number.
+     */
+    private final int[] m_bases;
+    private int m_nbReplicas;
+    /**
+     * The number of points of each replica at the first round of the quasi Monte Carlo mode, doubled at each round.
+     */
+    private int m_initialReplicaSize;
+
+    public PreferencesProbabilisticDifferenceByMonteCarlo(CatsAndProfs categories, final Coalitions coalitions1,
+	    EvaluationsRead profilesEvaluations1, final Coalitions coalitions2, EvaluationsRead profilesEvaluations2,
+	    Map<Criterion, Interval> scales) {
+	PreferencesProbabilisticDifference.checkSameCriteriaAndProfiles(coalitions1, profilesEvaluations1, coalitions2,
+		profilesEvaluations2);
+
+	/** The heaviest criteria first, so that they get the smallest, most uniform, bases in the quasi random mode. */
+	final List<Criterion> critsOrder = new ArrayList<Criterion>(coalitions1.getCriteria());
+	Collections.sort(critsOrder, Collections.reverseOrder(new PreferencesProbabilisticDifference.CompareSumWeights(
+		coalitions1.getWeights(), coalitions2.getWeights())));
+	m_preferencesToArrays1 = new PreferencesToArrays(categories, coalitions1, critsOrder, profilesEvaluations1);
+	m_preferencesToArrays2 = new PreferencesToArrays(categories, coalitions2, critsOrder, profilesEvaluations2);
+	m_lambda1 = coalitions1.getMajorityThreshold() - ElectrePessimisticProgressiveWithArrays.TOLERANCE;
+	m_lambda2 = coalitions2.getMajorityThreshold() - ElectrePessimisticProgressiveWithArrays.TOLERANCE;
+	m_nbCrits = critsOrder.size();
+	m_nbProfs = categories.getCategories().size() - 1;
+
+	checkArgument(2 * m_nbProfs <= Long.SIZE, "Too many categories.");
+	m_model1Mask = (1L << m_nbProfs) - 1;
+
+	m_mins = new double[m_nbCrits];
+	m_steps = new double[m_nbCrits];
+	m_nbPoints = new int[m_nbCrits];
+	m_minimize = new boolean[m_nbCrits];
+	m_breakpoints = new int[m_nbCrits][];
+	m_reached = new long[m_nbCrits][];
+	for (int crit = 0; crit < m_nbCrits; ++crit) {
+	    final Interval scale = scales.get(critsOrder.get(crit));
+	    if (scale == null) {
+		throw new IllegalArgumentException("Missing scale for " + critsOrder.get(crit) + ".");
+	    }
+	    checkArgument(!Double.isInfinite(scale.getMinimum()) && !Double.isInfinite(scale.getMaximum()),
+		    "Scale of " + critsOrder.get(crit) + " is not bounded.");
+	    m_mins[crit] = scale.getMinimum();
+	    m_minimize[crit] = scale.getPreferenceDirection() == PreferenceDirection.MINIMIZE;
+	    if (scale.getStepSize() == null) {
+		m_steps[crit] = scale.getMaximum() - scale.getMinimum();
+		m_nbPoints[crit] = 0;
+	    } else {
+		m_steps[crit] = scale.getStepSize().doubleValue();
+		final long nbPoints = UniformScale.getNbPoints(scale.getMinimum(), scale.getMaximum(), m_steps[crit]);
+		checkArgument(nbPoints <= Integer.MAX_VALUE, "Too many points in the scale of " + critsOrder.get(crit)
+			+ ".");
+		m_nbPoints[crit] = (int) nbPoints;
+		m_breakpoints[crit] = getBreakpoints(crit);
+		m_reached[crit] = new long[m_breakpoints[crit].length + 1];
+		m_reached[crit][0] = getReached(crit, m_mins[crit]);
+		for (int interval = 1; interval < m_reached[crit].length; ++interval) {
+		    m_reached[crit][interval] = getReached(crit, m_mins[crit] + m_breakpoints[crit][interval - 1]
+			    * m_steps[crit]);
+		}
+	    }
+	}
+
+	m_pool = null;
+	m_random = new SplittableRandom();
+	m_nbChunks = 16;
+	m_chunkSize = 1 << 16;
+	m_maxNbSamples = Long.MAX_VALUE;
+	m_nbMatchPerCats = new long[m_nbProfs + 1];
+	m_bases = getFirstPrimes(m_nbCrits);
+	m_nbReplicas = 16;
+	m_initialReplicaSize = 1 << 10;
+	reset();
+    }
+
+    public PreferencesProbabilisticDifferenceByMonteCarlo(ISortingPreferences pref1, ISortingPreferences pref2) {
+	this(pref1.getCatsAndProfs(), pref1.getCoalitions(), pref1.getProfilesEvaluations(), pref2.getCoalitions(),
+		pref2.getProfilesEvaluations(), pref1.getScales());
+    }
+
+    private void reset() {
+	m_nbSamples = 0;
+	m_nbMatch = 0;
+	for (int cat = 0; cat < m_nbMatchPerCats.length; ++cat) {
+	    m_nbMatchPerCats[cat] = 0;
+	}
+	m_lowerBound = 0d;
+	m_upperBound = 1d;
+    }
+
+    /**
+     * Draws random alternatives until the half-width of the confidence interval of the probability of match is at most
+     * the given one, or the maximal number of samples is reached. Forgets the samples drawn by a previous call.
+     *
+     * @param halfWidth
+     *            strictly positive.
+     * @param confidence
+     *            the confidence level, strictly between zero and one, e.g. 0.95.
+     */
+    public void estimate(double halfWidth, double confidence) {
+	checkArgument(halfWidth > 0d);
+	checkArgument(confidence > 0d && confidence < 1d);
+	final double z = getStandardNormalQuantile(1d - (1d - confidence) / 2d);
+	reset();
+	do {
+	    final long nbRemaining = m_maxNbSamples - m_nbSamples;
+	    final List<RecursiveTask<Counts>> tasks = new ArrayList<RecursiveTask<Counts>>(m_nbChunks);
+	    long nbPlanned = 0;
+	    for (int chunk = 0; chunk < m_nbChunks && nbPlanned < nbRemaining; ++chunk) {
+		final int nbSamples = (int) Math.min(m_chunkSize, nbRemaining - nbPlanned);
+		nbPlanned += nbSamples;
+		final SplittableRandom random = m_random.split();
+		tasks.add(new RecursiveTask<Counts>() {
+		    private static final long serialVersionUID = 1L;
+
+		    @Override
+		    protected Counts compute() {
+			return sample(random, nbSamples);
+		    }
+		});
+	    }
+	    if (m_pool == null) {
+		for (RecursiveTask<Counts> task : tasks) {
+		    task.invoke();
+		}
+	    } else {
+		m_pool.invoke(new RecursiveAction() {
+		    private static final long serialVersionUID = 1L;
+
+		    @Override
+		    protected void compute() {
+			invokeAll(tasks);
+		    }
+		});
+	    }
+	    for (RecursiveTask<Counts> task : tasks) {
+		final Counts counts = task.join();
+		m_nbMatch += counts.m_nbMatch;
+		for (int cat = 0; cat < m_nbMatchPerCats.length; ++cat) {
+		    m_nbMatchPerCats[cat] += counts.m_nbMatchPerCats[cat];
+		}
+	    }
+	    m_nbSamples += nbPlanned;
+	    setBounds(z);
+	} while ((m_upperBound - m_lowerBound) / 2d > halfWidth && m_nbSamples < m_maxNbSamples);
+    }
+
+    /**
+     * Sets the bounds to the Wilson score interval.
+     */
+    private void setBounds(double z) {
+	final double n = m_nbSamples;
+	final double p = m_nbMatch / n;
+	final double z2 = z * z;
+	final double denominator = 1d + z2 / n;
+	final double center = (p + z2 / (2d * n)) / denominator;
+	final double half = z / denominator * Math.sqrt(p * (1d - p) / n + z2 / (4d * n * n));
+	m_lowerBound = Math.max(0d, center - half);
+	m_upperBound = Math.min(1d, center + half);
+    }
+
+    private Counts sample(SplittableRandom random, int nbSamples) {
+	final Counts counts = new Counts(m_nbProfs + 1);
+	final long[] reached = new long[m_nbCrits];
+	final double[] sums = new double[2 * m_nbProfs];
+	for (int sample = 0; sample < nbSamples; ++sample) {
+	    for (int crit = 0; crit < m_nbCrits; ++crit) {
+		if (m_reached[crit] == null) {
+		    reached[crit] = getReached(crit, m_mins[crit] + random.nextDouble() * m_steps[crit]);
+		} else {
+		    reached[crit] = getReachedAtPoint(crit, random.nextInt(m_nbPoints[crit]));
+		}
+	    }
+	    assign(reached, sums, counts);
+	}
+	return counts;
+    }
+
+    /**
+     * Assigns the alternative reaching the given profiles with both models and counts the result.
+     *
+     * @param reached
+     *            in array[crit], the profiles reached on the criterion crit, see {@link #m_reached}.
+     * @param sums
+     *            a working array of size two times the number of profiles, whose content is ignored.
+     * @param counts
+     *            the counts to update.
+     */
+    private void assign(long[] reached, double[] sums, Counts counts) {
+	final double[] weights1 = m_preferencesToArrays1.getWeights();
+	final double[] weights2 = m_preferencesToArrays2.getWeights();
+	for (int idx = 0; idx < sums.length; ++idx) {
+	    sums[idx] = 0d;
+	}
+	for (int crit = 0; crit < m_nbCrits; ++crit) {
+	    final double weight1 = weights1[crit];
+	    long reached1 = reached[crit] & m_model1Mask;
+	    while (reached1 != 0) {
+		sums[Long.numberOfTrailingZeros(reached1)] += weight1;
+		reached1 &= reached1 - 1;
+	    }
+	    final double weight2 = weights2[crit];
+	    long reached2 = reached[crit] & ~m_model1Mask;
+	    while (reached2 != 0) {
+		sums[Long.numberOfTrailingZeros(reached2)] += weight2;
+		reached2 &= reached2 - 1;
+	    }
+	}
+	final int cat1 = getCategory(sums, 0, m_lambda1);
+	final int cat2 = getCategory(sums, m_nbProfs, m_lambda2);
+	if (cat1 == cat2) {
+	    ++counts.m_nbMatch;
+	    ++counts.m_nbMatchPerCats[cat1];
+	}
+    }
+
+    /**
+     * Draws quasi random alternatives, in rounds, until the half-width of the confidence interval of the probability
+     * of match is at most the given one, or the next round would exceed the maximal number of samples. Forgets the
+     * samples drawn by a previous call. Each round doubles the number of points of each replica, and the interval is a
+     * Student interval on the mean of the replicas. The scramblings are drawn from the seed, thus for a given seed the
+     * result does not depend on the pool used.
+     *
+     * @param halfWidth
+     *            strictly positive.
+     * @param confidence
+     *            the confidence level, strictly between zero and one, e.g. 0.95.
+     */
+    public void estimateQuasiRandom(double halfWidth, double confidence) {
+	checkArgument(halfWidth > 0d);
+	checkArgument(confidence > 0d && confidence < 1d);
+	final double t = getStudentQuantile(1d - (1d - confidence) / 2d, m_nbReplicas - 1);
+	reset();
+	final List<Scrambling> scramblings = new ArrayList<Scrambling>(m_nbReplicas);
+	for (int replica = 0; replica < m_nbReplicas; ++replica) {
+	    scramblings.add(new Scrambling(m_bases, m_random.split()));
+	}
+	final long[] replicaMatches = new long[m_nbReplicas];
+	long replicaSize = 0;
+	long nbNew = m_initialReplicaSize;
+	double half;
+	do {
+	    final List<RecursiveTask<Counts>> tasks = new ArrayList<RecursiveTask<Counts>>();
+	    final List<Integer> taskReplicas = new ArrayList<Integer>();
+	    for (int replica = 0; replica < m_nbReplicas; ++replica) {
+		final Scrambling scrambling = scramblings.get(replica);
+		for (long start = replicaSize; start < replicaSize + nbNew; start += m_chunkSize) {
+		    final long first = start;
+		    final int nbSamples = (int) Math.min(m_chunkSize, replicaSize + nbNew - start);
+		    tasks.add(new RecursiveTask<Counts>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected Counts compute() {
+			    return sampleQuasiRandom(scrambling, first, nbSamples);
+			}
+		    });
+		    taskReplicas.add(Integer.valueOf(replica));
+		}
+	    }
+	    if (m_pool == null) {
+		for (RecursiveTask<Counts> task : tasks) {
+		    task.invoke();
+		}
+	    } else {
+		m_pool.invoke(new RecursiveAction() {
+		    private static final long serialVersionUID = 1L;
+
+		    @Override
+		    protected void compute() {
+			invokeAll(tasks);
+		    }
+		});
+	    }
+	    for (int i = 0; i < tasks.size(); ++i) {
+		final Counts counts = tasks.get(i).join();
+		replicaMatches[taskReplicas.get(i).intValue()] += counts.m_nbMatch;
+		m_nbMatch += counts.m_nbMatch;
+		for (int cat = 0; cat < m_nbMatchPerCats.length; ++cat) {
+		    m_nbMatchPerCats[cat] += counts.m_nbMatchPerCats[cat];
+		}
+	    }
+	    replicaSize += nbNew;
+	    m_nbSamples += nbNew * m_nbReplicas;
+	    nbNew = replicaSize;
+
+	    final double mean = (double) m_nbMatch / m_nbSamples;
+	    double sumSquares = 0d;
+	    for (long matches : replicaMatches) {
+		final double deviation = (double) matches / replicaSize - mean;
+		sumSquares += deviation * deviation;
+	    }
+	    half = t * Math.sqrt(sumSquares / (m_nbReplicas - 1) / m_nbReplicas);
+	    m_lowerBound = Math.max(0d, mean - half);
+	    m_upperBound = Math.min(1d, mean + half);
+	} while (half > halfWidth && nbNew * m_nbReplicas <= m_maxNbSamples - m_nbSamples);
+    }
+
+    /**
+     * Assigns the points first to first + nbSamples - 1 of the given scrambled Halton sequence. The digits of the
+     * index of the point are incremented rather than recomputed, thus each point costs a constant amortized time per
+     * criterion.
+     */
+    private Counts sampleQuasiRandom(Scrambling scrambling, long first, int nbSamples) {
+	final Counts counts = new Counts(m_nbProfs + 1);
+	final long[] reached = new long[m_nbCrits];
+	final double[] sums = new double[2 * m_nbProfs];
+	final int[][] digits = new int[m_nbCrits][];
+	/** In array[crit][position], the inverse of the base to the power position + 1. */
+	final double[][] factors = new double[m_nbCrits][];
+	/** In array[crit], the coordinate of the current point, in [0, 1). */
+	final double[] coordinates = new double[m_nbCrits];
+	for (int crit = 0; crit < m_nbCrits; ++crit) {
+	    final int base = m_bases[crit];
+	    final int[][] permutations = scrambling.m_permutations[crit];
+	    digits[crit] = new int[permutations.length];
+	    factors[crit] = new double[permutations.length];
+	    long remaining = first;
+	    double factor = 1d / base;
+	    for (int position = 0; position < permutations.length; ++position) {
+		digits[crit][position] = (int) (remaining % base);
+		remaining /= base;
+		factors[crit][position] = factor;
+		coordinates[crit] += permutations[position][digits[crit][position]] * factor;
+		factor /= base;
+	    }
+	}
+	for (int sample = 0; sample < nbSamples; ++sample) {
+	    for (int crit = 0; crit < m_nbCrits; ++crit) {
+		final double coordinate = coordinates[crit];
+		if (m_reached[crit] == null) {
+		    reached[crit] = getReached(crit, m_mins[crit] + Math.min(coordinate, 1d) * m_steps[crit]);
+		} else {
+		    final int point = Math.min((int) (coordinate * m_nbPoints[crit]), m_nbPoints[crit] - 1);
+		    reached[crit] = getReachedAtPoint(crit, point);
+		}
+	    }
+	    assign(reached, sums, counts);
+
+	    for (int crit = 0; crit < m_nbCrits; ++crit) {
+		final int base = m_bases[crit];
+		final int[][] permutations = scrambling.m_permutations[crit];
+		final int[] critDigits = digits[crit];
+		int position = 0;
+		while (true) {
+		    final int old = critDigits[position];
+		    final int digit = old + 1 < base ? old + 1 : 0;
+		    critDigits[position] = digit;
+		    coordinates[crit] += (permutations[position][digit] - permutations[position][old])
+			    * factors[crit][position];
+		    if (digit != 0) {
+			break;
+		    }
+		    ++position;
+		}
+	    }
+	}
+	return counts;
+    }
+
+    /**
+     * @return the number of digits in the given base needed to write any non negative long.
+     */
+    static private int getNbDigits(int base) {
+	int nbDigits = 0;
+	long remaining = Long.MAX_VALUE;
+	while (remaining > 0) {
+	    remaining /= base;
+	    ++nbDigits;
+	}
+	return nbDigits;
+    }
+
+    static private int[] getFirstPrimes(int nb) {
+	final int[] primes = new int[nb];
+	int candidate = 2;
+	for (int found = 0; found < nb; ++candidate) {
+	    boolean prime = true;
+	    for (int idx = 0; idx < found && primes[idx] * primes[idx] <= candidate; ++idx) {
+		if (candidate % primes[idx] == 0) {
+		    prime = false;
+		    break;
+		}
+	    }
+	    if (prime) {
+		primes[found] = candidate;
+		++found;
+	    }
+	}
+	return primes;
+    }
+
+    /**
+     * Finds, for each profile of each model, the first point of the scale of the given criterion at which it is
+     * reached, or stops being reached, using a binary search as the evaluations of the points are monotone.
+     *
+     * @return the breakpoints of the given criterion, see {@link #m_breakpoints}.
+     */
+    private int[] getBreakpoints(int crit) {
+	final int nbPoints = m_nbPoints[crit];
+	final long reachedAtFirst = getReached(crit, m_mins[crit]);
+	final int[] breakpoints = new int[2 * m_nbProfs];
+	int nbBreakpoints = 0;
+	for (int bit = 0; bit < 2 * m_nbProfs; ++bit) {
+	    final long mask = 1L << bit;
+	    int low = 1;
+	    int high = nbPoints;
+	    while (low < high) {
+		final int middle = (low + high) >>> 1;
+		if (((getReached(crit, m_mins[crit] + middle * m_steps[crit]) ^ reachedAtFirst) & mask) != 0) {
+		    high = middle;
+		} else {
+		    low = middle + 1;
+		}
+	    }
+	    if (low < nbPoints) {
+		breakpoints[nbBreakpoints] = low;
+		++nbBreakpoints;
+	    }
+	}
+	Arrays.sort(breakpoints, 0, nbBreakpoints);
+	int nbDistinct = 0;
+	for (int idx = 0; idx < nbBreakpoints; ++idx) {
+	    if (nbDistinct == 0 || breakpoints[nbDistinct - 1] != breakpoints[idx]) {
+		breakpoints[nbDistinct] = breakpoints[idx];
+		++nbDistinct;
+	    }
+	}
+	return Arrays.copyOf(breakpoints, nbDistinct);
+    }
+
+    /**
+     * @return the set of profiles reached by the given point of the scale of the given criterion, see
+     *         {@link #m_reached}.
+     */
+    private long getReachedAtPoint(int crit, int point) {
+	final int found = Arrays.binarySearch(m_breakpoints[crit], point);
+	return m_reached[crit][found >= 0 ? found + 1 : -found - 1];
+    }
+
+    /**
+     * @return the set of profiles reached by the given evaluation on the given criterion, see {@link #m_reached}.
+     */
+    private long getReached(int crit, double eval) {
+	final double[][] profs1 = m_preferencesToArrays1.getProfs();
+	final double[][] profs2 = m_preferencesToArrays2.getProfs();
+	long reached = 0;
+	for (int prof = 0; prof < m_nbProfs; ++prof) {
+	    if (m_minimize[crit] ? eval <= profs1[prof][crit] : eval >= profs1[prof][crit]) {
+		reached |= 1L << prof;
+	    }
+	    if (m_minimize[crit] ? eval <= profs2[prof][crit] : eval >= profs2[prof][crit]) {
+		reached |= 1L << (m_nbProfs + prof);
+	    }
+	}
+	return reached;
+    }
+
+    /**
+     * @return the best category whose profile below is outranked, considering the sums of weights starting at the
+     *         given offset, or zero.
+     */
+    private int getCategory(double[] sums, int offset, double lambda) {
+	for (int prof = m_nbProfs - 1; prof >= 0; --prof) {
+	    if (sums[offset + prof] >= lambda) {
+		return prof + 1;
+	    }
+	}
+	return 0;
+    }
+
+    /**
+     * Computes the quantile of the standard normal distribution, using the rational approximation by Peter Acklam,
+     * whose relative error is below 1.2e-9.
+     *
+     * @param p
+     *            strictly between zero and one.
+     * @return the value x such that the probability of a standard normal variable to be lower than x is p.
+     */
+    static double getStandardNormalQuantile(double p) {
+	checkArgument(p > 0d && p < 1d);
+	final double[] a = { -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+		1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+	final double[] b = { -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+		6.680131188771972e+01, -1.328068155288572e+01 };
+	final double[] c = { -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+		-2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+	final double[] d = { 7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+		3.754408661907416e+00 };
+	final double pLow = 0.02425d;
+	if (p < pLow) {
+	    final double q = Math.sqrt(-2d * Math.log(p));
+	    return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+		    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1d);
+	}
+	if (p > 1d - pLow) {
+	    return -getStandardNormalQuantile(1d - p);
+	}
+	final double q = p - 0.5d;
+	final double r = q * q;
+	return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+		/ (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1d);
+    }
+
+    /**
+     * Computes the quantile of the Student t distribution using the Cornish-Fisher expansion around the normal
+     * quantile (Abramowitz and Stegun, 26.7.5), whose error is below 1e-3 for at least five degrees of freedom and
+     * usual probabilities.
+     *
+     * @param p
+     *            strictly between zero and one.
+     * @param degreesOfFreedom
+     *            strictly positive.
+     * @return the value x such that the probability of a Student variable to be lower than x is p.
+     */
+    static double getStudentQuantile(double p, int degreesOfFreedom) {
+	checkArgument(degreesOfFreedom > 0);
+	final double z = getStandardNormalQuantile(p);
+	final double z2 = z * z;
+	final double g1 = (z2 + 1d) * z / 4d;
+	final double g2 = ((5d * z2 + 16d) * z2 + 3d) * z / 96d;
+	final double g3 = (((3d * z2 + 19d) * z2 + 17d) * z2 - 15d) * z / 384d;
+	final double g4 = ((((79d * z2 + 776d) * z2 + 1482d) * z2 - 1920d) * z2 - 945d) * z / 92160d;
+	final double n = degreesOfFreedom;
+	return z + g1 / n + g2 / (n * n) + g3 / (n * n * n) + g4 / (n * n * n * n);
+    }
+
+    /**
+     * @return the proportion of samples assigned to the same category by both models.
+     */
+    public double getProbabilityMatch() {
+	checkState(m_nbSamples > 0, "Not estimated yet.");
+	return (double) m_nbMatch / m_nbSamples;
+    }
+
+    /**
+     * @return the lower bound of the confidence interval of the probability of match.
+     */
+    public double getLowerBound() {
+	checkState(m_nbSamples > 0, "Not estimated yet.");
+	return m_lowerBound;
+    }
+
+    /**
+     * @return the upper bound of the confidence interval of the probability of match.
+     */
+    public double getUpperBound() {
+	checkState(m_nbSamples > 0, "Not estimated yet.");
+	return m_upperBound;
+    }
+
+    public double getProbSameAffectation(Category cat) {
+	checkState(m_nbSamples > 0, "Not estimated yet.");
+	return (double) m_nbMatchPerCats[m_preferencesToArrays1.getCatsToInt().get(cat).intValue()] / m_nbSamples;
+    }
+
+    public long getNbSamples() {
+	return m_nbSamples;
+    }
+
+    public long getNbMatch() {
+	return m_nbMatch;
+    }
+
+    /**
+     * Sets the seed of the random streams, permitting to reproduce an estimation.
+     *
+     * @param seed
+     *            any number.
+     */
+    public void setSeed(long seed) {
+	m_random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Sets the pool used to draw the samples of the streams in parallel. The results do not depend on whether a pool
+     * is used.
+     *
+     * @param pool
+     *            <code>null</code> to compute sequentially (the default).
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+	m_pool = pool;
+    }
+
+    /**
+     * @return <code>null</code> iff the computation is sequential.
+     */
+    public ForkJoinPool getForkJoinPool() {
+	return m_pool;
+    }
+
+    /**
+     * Sets the number of samples drawn in each round, between which the precision is checked, as a number of chunks
+     * of a given size. A chunk is the unit of parallelism.
+     *
+     * @param nbChunks
+     *            strictly positive.
+     * @param chunkSize
+     *            strictly positive.
+     */
+    public void setRoundSize(int nbChunks, int chunkSize) {
+	checkArgument(nbChunks > 0 && chunkSize > 0);
+	m_nbChunks = nbChunks;
+	m_chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the number of independently scrambled replicas used in the quasi Monte Carlo mode, and the number of points
+     * of each replica at the first round.
+     *
+     * @param nbReplicas
+     *            at least two. Defaults to 16.
+     * @param initialReplicaSize
+     *            strictly positive. Defaults to 1024.
+     */
+    public void setReplicas(int nbReplicas, int initialReplicaSize) {
+	checkArgument(nbReplicas >= 2 && initialReplicaSize > 0);
+	m_nbReplicas = nbReplicas;
+	m_initialReplicaSize = initialReplicaSize;
+    }
+
+    /**
+     * @param maxNbSamples
+     *            strictly positive. Defaults to {@link Long#MAX_VALUE}.
+     */
+    public void setMaxNbSamples(long maxNbSamples) {
+	checkArgument(maxNbSamples > 0);
+	m_maxNbSamples = maxNbSamples;
+    }
+}
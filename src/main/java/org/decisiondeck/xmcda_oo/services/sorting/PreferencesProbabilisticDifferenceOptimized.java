@@ -1,48 +1,100 @@
 package org.decisiondeck.xmcda_oo.services.sorting;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
-import org.decision_deck.jmcda.structure.Alternative;
 import org.decision_deck.jmcda.structure.Criterion;
 import org.decision_deck.jmcda.structure.interval.Interval;
-import org.decision_deck.jmcda.structure.matrix.Evaluations;
 import org.decision_deck.jmcda.structure.matrix.EvaluationsRead;
-import org.decision_deck.jmcda.structure.matrix.EvaluationsUtils;
-import org.decision_deck.jmcda.structure.sorting.category.Categories;
-import org.decision_deck.jmcda.structure.sorting.category.Category;
 import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
 import org.decision_deck.jmcda.structure.weights.Coalitions;
 import org.decisiondeck.jmcda.structure.sorting.problem.preferences.ISortingPreferences;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.HashBasedTable;
-
+/**
+ * Computes the same probability as {@link PreferencesProbabilisticDifference}, by decomposing it into problems with
+ * two categories: for each pair of categories (cat1, cat2), the probability that an alternative is assigned to at
+ * least cat1 according to the first model and at least cat2 according to the second one. Only the pairs of
+ * categories that are equal or adjacent are required.
+ * <p>
+ * The criteria, weights, profiles and scales are converted to arrays once and shared by the sub-problems, which are
+ * independent and may be computed in parallel. Sub-problems having the same profiles evaluations, e.g. because both
+ * models share some profiles, are computed only once.
+ * </p>
+ *
+ * @author Olivier Cailloux
+ *
+ */
 public class PreferencesProbabilisticDifferenceOptimized {
     private static final Logger s_logger = LoggerFactory.getLogger(PreferencesProbabilisticDifferenceOptimized.class);
 
-    private final CatsAndProfs m_categories;
-    private final Coalitions m_coalitions1;
-    private final EvaluationsRead m_profilesEvaluations1;
-    private final Coalitions m_coalitions2;
-    private final EvaluationsRead m_profilesEvaluations2;
-    private final Map<Criterion, Interval> m_scales;
+    /**
+     * A sub-problem, identified by the evaluations of the profile of each model, in the criteria order.
+     */
+    static private final class SubProblem {
+	private final double[] m_profile1;
+	private final double[] m_profile2;
+
+	public SubProblem(double[] profile1, double[] profile2) {
+	    m_profile1 = profile1;
+	    m_profile2 = profile2;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (!(obj instanceof SubProblem)) {
+		return false;
+	    }
+	    final SubProblem other = (SubProblem) obj;
+	    return Arrays.equals(m_profile1, other.m_profile1) && Arrays.equals(m_profile2, other.m_profile2);
+	}
+
+	@Override
+	public int hashCode() {
+	    return 31 * Arrays.hashCode(m_profile1) + Arrays.hashCode(m_profile2);
+	}
+    }
+
+    private final int m_nbCats;
+    private final PessimisticAtLeastWithArrays m_atLeast;
+    private final PessimisticAtLeastWithArrays.Model m_model1;
+    private final PessimisticAtLeastWithArrays.Model m_model2;
     private boolean m_computed;
-    private final HashBasedTable<Category, Category, Double> m_probsAtLeast = HashBasedTable.create();
+    /**
+     * In array[cat1][cat2], the probability of being assigned to at least cat1 by the first model and at least cat2
+     * by the second one. Only the entries of equal or adjacent categories are computed.
+     */
+    private final double[][] m_probsAtLeast;
+    private ForkJoinPool m_pool;
 
     private double m_prob;
 
-    public PreferencesProbabilisticDifferenceOptimized(CatsAndProfs categories, Coalitions coalitions1,
-	    EvaluationsRead profilesEvaluations1, Coalitions coalitions2, EvaluationsRead profilesEvaluations2,
+    public PreferencesProbabilisticDifferenceOptimized(CatsAndProfs categories, final Coalitions coalitions1,
+	    EvaluationsRead profilesEvaluations1, final Coalitions coalitions2, EvaluationsRead profilesEvaluations2,
 	    Map<Criterion, Interval> scales) {
-	m_categories = categories;
-	m_coalitions1 = coalitions1;
-	m_profilesEvaluations1 = profilesEvaluations1;
-	m_coalitions2 = coalitions2;
-	m_profilesEvaluations2 = profilesEvaluations2;
-	m_scales = scales;
+	PreferencesProbabilisticDifference.checkSameCriteriaAndProfiles(coalitions1, profilesEvaluations1, coalitions2,
+		profilesEvaluations2);
 
+	/** The heaviest criteria first, as they permit to determine the assignments sooner. */
+	final List<Criterion> critsOrder = new ArrayList<Criterion>(coalitions1.getCriteria());
+	Collections.sort(critsOrder, Collections.reverseOrder(new PreferencesProbabilisticDifference.CompareSumWeights(
+		coalitions1.getWeights(), coalitions2.getWeights())));
+	m_atLeast = new PessimisticAtLeastWithArrays(critsOrder, scales);
+	m_model1 = m_atLeast.newModel(categories, coalitions1, profilesEvaluations1);
+	m_model2 = m_atLeast.newModel(categories, coalitions2, profilesEvaluations2);
+	m_nbCats = categories.getCategories().size();
+
+	m_probsAtLeast = new double[m_nbCats][m_nbCats];
 	m_computed = false;
+	m_pool = null;
 	m_prob = -1d;
     }
 
@@ -63,68 +115,96 @@ public class PreferencesProbabilisticDifferenceOptimized {
 	if (m_computed) {
 	    return;
 	}
-	for (Category cat1 : m_categories.getCategories()) {
-	    for (Category cat2 : m_categories.getCategories()) {
-		final int compare = m_categories.getCategories().comparator().compare(cat1, cat2);
-		final String catWorstName;
-		final String catBestName;
-		if (compare < 0) {
-		    catWorstName = cat1.getId();
-		    catBestName = cat2.getId();
-		} else if (compare == 0) {
-		    catWorstName = cat1.getId();
-		    catBestName = cat1.getId() + "-2";
-		} else {
-		    catWorstName = cat2.getId();
-		    catBestName = cat1.getId();
-		}
-		final CatsAndProfs doubleCats = Categories.newCatsAndProfs();
-		doubleCats.addCategory(catWorstName);
-		final Alternative newP = new Alternative("newP");
-		doubleCats.addProfile(newP);
-		doubleCats.addCategory(catBestName);
-		final Alternative cat1Down = cat1.getProfileDown();
-		final Alternative cat2Down = cat2.getProfileDown();
-		final Evaluations profEval1 = EvaluationsUtils.newEvaluationMatrix();
-		final Evaluations profEval2 = EvaluationsUtils.newEvaluationMatrix();
-		for (Criterion criterion : m_profilesEvaluations1.getColumns()) {
-		    final double eval1;
-		    if (cat1Down == null) {
-			eval1 = m_scales.get(criterion).getMinimum();
-		    } else {
-			eval1 = m_profilesEvaluations1.getEntry(cat1Down, criterion).doubleValue();
-		    }
-		    profEval1.put(newP, criterion, eval1);
-		    final double eval2;
-		    if (cat2Down == null) {
-			eval2 = m_scales.get(criterion).getMinimum();
-		    } else {
-			eval2 = m_profilesEvaluations2.getEntry(cat2Down, criterion).doubleValue();
+	/** The pairs of categories to compute, grouped by sub-problem, in a fixed order. */
+	final Map<SubProblem, List<int[]>> subProblems = new LinkedHashMap<SubProblem, List<int[]>>();
+	for (int cat = 0; cat < m_nbCats; ++cat) {
+	    addSubProblem(subProblems, cat, cat);
+	    if (cat + 1 < m_nbCats) {
+		addSubProblem(subProblems, cat, cat + 1);
+		addSubProblem(subProblems, cat + 1, cat);
+	    }
+	}
+
+	final List<Double> probs = new ArrayList<Double>(subProblems.size());
+	if (m_pool == null) {
+	    for (SubProblem subProblem : subProblems.keySet()) {
+		probs.add(Double.valueOf(getProbAtLeast(subProblem)));
+	    }
+	} else {
+	    final List<RecursiveTask<Double>> tasks = new ArrayList<RecursiveTask<Double>>(subProblems.size());
+	    for (final SubProblem subProblem : subProblems.keySet()) {
+		tasks.add(new RecursiveTask<Double>() {
+		    private static final long serialVersionUID = 1L;
+
+		    @Override
+		    protected Double compute() {
+			return Double.valueOf(getProbAtLeast(subProblem));
 		    }
-		    profEval2.put(newP, criterion, eval2);
+		});
+	    }
+	    m_pool.invoke(new RecursiveAction() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+		    invokeAll(tasks);
 		}
-		final PreferencesProbabilisticDifference computer = new PreferencesProbabilisticDifference(doubleCats,
-			m_coalitions1, profEval1, m_coalitions2, profEval2, m_scales);
-		// final double probAllBad = computer.getProbSameAffectation(catWorst);
-		// final double probAtLeast = 1d - probAllBad;
-		final double probOk = computer.getProbSameAffectation(doubleCats.getCategories().last());
-		m_probsAtLeast.put(cat1, cat2, Double.valueOf(probOk));
-		s_logger.info("Prob at least {} for dm1, at least {} for dm2 = " + probOk + ".", cat1, cat2);
+	    });
+	    for (RecursiveTask<Double> task : tasks) {
+		probs.add(task.join());
 	    }
 	}
+	int idx = 0;
+	for (List<int[]> pairs : subProblems.values()) {
+	    final double prob = probs.get(idx).doubleValue();
+	    for (int[] pair : pairs) {
+		m_probsAtLeast[pair[0]][pair[1]] = prob;
+		if (s_logger.isDebugEnabled()) {
+		    s_logger.debug("Prob at least " + pair[0] + " for dm1, at least " + pair[1] + " for dm2 = " + prob
+			    + ".");
+		}
+	    }
+	    ++idx;
+	}
 
 	m_prob = 0d;
-	final Category best = m_categories.getCategories().last();
-	for (Category cat : m_categories.getCategories().headSet(best)) {
-	    m_prob += m_probsAtLeast.get(cat, cat).doubleValue();
-	    final Category betterCat = m_categories.getCategories().higher(cat);
-	    m_prob += m_probsAtLeast.get(betterCat, betterCat).doubleValue();
-	    m_prob -= m_probsAtLeast.get(cat, betterCat).doubleValue();
-	    m_prob -= m_probsAtLeast.get(betterCat, cat).doubleValue();
+	for (double prob : PessimisticAtLeastWithArrays.getProbsSameAffectation(m_probsAtLeast)) {
+	    m_prob += prob;
 	}
-	m_prob += m_probsAtLeast.get(best, best).doubleValue();
 
 	m_computed = true;
     }
 
+    private void addSubProblem(Map<SubProblem, List<int[]>> subProblems, int cat1, int cat2) {
+	final SubProblem subProblem = new SubProblem(m_model1.getProfileDown(cat1), m_model2.getProfileDown(cat2));
+	List<int[]> pairs = subProblems.get(subProblem);
+	if (pairs == null) {
+	    pairs = new ArrayList<int[]>();
+	    subProblems.put(subProblem, pairs);
+	}
+	pairs.add(new int[] { cat1, cat2 });
+    }
+
+    private double getProbAtLeast(SubProblem subProblem) {
+	return m_atLeast.getProbAtLeast(m_model1, subProblem.m_profile1, m_model2, subProblem.m_profile2);
+    }
+
+    /**
+     * Sets the pool used to compute in parallel the sub-problems. The results do not depend on whether a pool is used.
+     * Must be set before the probability is computed to have an effect.
+     *
+     * @param pool
+     *            <code>null</code> to compute sequentially (the default).
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+	m_pool = pool;
+    }
+
+    /**
+     * @return <code>null</code> iff the computation is sequential.
+     */
+    public ForkJoinPool getForkJoinPool() {
+	return m_pool;
+    }
+
 }
@@ -1,5 +1,7 @@
 package org.decisiondeck.xmcda_oo.services.sorting;
 
+import java.util.Arrays;
+import java.util.NavigableSet;
 import java.util.Set;
 
 import org.decision_deck.jmcda.structure.Alternative;
@@ -108,8 +110,7 @@ public class SortingAssigner {
 		m_allAssignments = AssignmentsFactory.newOrderedAssignmentsToMultiple();
 		m_allAssignments.setCategories(categories.getCategories());
 		m_assignments = null;
-		assignOptimistic(alternatives, outranking, categories);
-		assignPessimistic(alternatives, outranking, categories);
+		assignBoth(alternatives, outranking, categories);
 		return m_allAssignments;
 	}
 
@@ -186,6 +187,57 @@ public class SortingAssigner {
 		return m_assignments;
 	}
 
+	/**
+	 * Assigns each alternative to both its optimistic and its pessimistic
+	 * categories, as {@link #assignOptimistic} followed by
+	 * {@link #assignPessimistic} would, but in a single sweep per alternative.
+	 * Each pass stops as soon as its category is found, and the outranking
+	 * entries the optimistic pass read are reused by the pessimistic one, thus
+	 * the entries read are exactly those the two passes read, each being read
+	 * only once.
+	 */
+	private void assignBoth(Set<Alternative> alternatives, SparseAlternativesMatrixFuzzy outranking,
+			CatsAndProfs categories) throws InvalidInputException {
+		InputCheck.check(categories.isComplete(), "Given categories " + categories + " are incomplete.");
+		final NavigableSet<Category> allCategories = categories.getCategories();
+		final Category[] cats = allCategories.toArray(new Category[allCategories.size()]);
+		final Alternative[] profilesUp = new Alternative[cats.length - 1];
+		for (int cat = 0; cat < profilesUp.length; ++cat) {
+			profilesUp[cat] = cats[cat].getProfileUp();
+		}
+		/**
+		 * In array[c], whether the current alternative outranks the up profile
+		 * of the category c, or <code>null</code> if not read yet.
+		 */
+		final Boolean[] altOutranks = new Boolean[profilesUp.length];
+		for (Alternative alternative : alternatives) {
+			Arrays.fill(altOutranks, null);
+			int optimistic = cats.length - 1;
+			for (int cat = 0; cat < profilesUp.length; ++cat) {
+				if (outranks(outranking, profilesUp[cat], alternative)) {
+					altOutranks[cat] = Boolean.valueOf(outranks(outranking, alternative, profilesUp[cat]));
+					if (!altOutranks[cat].booleanValue()) {
+						optimistic = cat;
+						break;
+					}
+				}
+			}
+			int pessimistic = 0;
+			for (int cat = profilesUp.length - 1; cat >= 0; --cat) {
+				final boolean outranksProfile = altOutranks[cat] != null ? altOutranks[cat].booleanValue()
+						: outranks(outranking, alternative, profilesUp[cat]);
+				if (outranksProfile) {
+					pessimistic = cat + 1;
+					break;
+				}
+			}
+			setCategory(alternative, cats[optimistic]);
+			if (pessimistic != optimistic) {
+				setCategory(alternative, cats[pessimistic]);
+			}
+		}
+	}
+
 	private void assignOptimistic(Set<Alternative> alternatives, SparseAlternativesMatrixFuzzy outranking,
 			CatsAndProfs categories) throws InvalidInputException {
 		InputCheck.check(categories.isComplete(), "Given categories are incomplete.");
@@ -0,0 +1,132 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import org.decision_deck.jmcda.structure.interval.Interval;
+
+/**
+ * An evaluation uniformly distributed on a scale: on a step scale, each point of the scale has the same probability;
+ * on a scale without step, the evaluation is continuous and uniform between the minimum and the maximum. A scale
+ * without step reduced to a single value is considered as a step scale having a single point. Immutable.
+ *
+ * @author Olivier Cailloux
+ *
+ */
+class UniformScale {
+    private final double m_min;
+    private final double m_max;
+    /**
+     * Zero iff the scale is continuous.
+     */
+    private final double m_step;
+    /**
+     * The number of points of the scale, meaningful only if the scale is not continuous.
+     */
+    private final long m_nbPoints;
+
+    /**
+     * @param scale
+     *            not <code>null</code>, its maximum must be greater than or equal to its minimum and its step, if any,
+     *            must be positive.
+     */
+    public UniformScale(Interval scale) {
+	m_min = scale.getMinimum();
+	m_max = scale.getMaximum();
+	checkArgument(m_max >= m_min, "Invalid scale: " + scale + ".");
+	if (scale.getStepSize() == null) {
+	    m_step = m_max > m_min ? 0d : 1d;
+	} else {
+	    m_step = scale.getStepSize().doubleValue();
+	    checkArgument(m_step > 0d, "Invalid step in scale: " + scale + ".");
+	}
+	m_nbPoints = m_step == 0d ? 0 : getNbPoints(m_min, m_max, m_step);
+    }
+
+    public boolean isContinuous() {
+	return m_step == 0d;
+    }
+
+    public double getMinimum() {
+	return m_min;
+    }
+
+    /**
+     * @return a value such that the interval from the minimum, inclusive, to that value, not inclusive, has
+     *         probability one: the last point plus one step on a step scale, the maximum on a continuous scale.
+     */
+    public double getEnd() {
+	if (isContinuous()) {
+	    return m_max;
+	}
+	return m_min + m_nbPoints * m_step;
+    }
+
+    /**
+     * Returns the number of points of a step scale: the minimum, then every point one step above the previous one,
+     * up to the maximum, inclusive. The maximum need not be on a point of the scale.
+     *
+     * @param min
+     *            the minimum of the scale.
+     * @param max
+     *            the maximum of the scale, greater than or equal to the minimum.
+     * @param step
+     *            a positive step.
+     * @return at least one, {@link Long#MAX_VALUE} if the scale has at least that many points.
+     */
+    static long getNbPoints(double min, double max, double step) {
+	/** Tolerates a rounding error when the maximum is on a point of the scale, e.g. 0.3 with a step of 0.1. */
+	final double nbSteps = Math.floor((max - min) / step + 1e-9);
+	if (nbSteps >= Long.MAX_VALUE - 1) {
+	    return Long.MAX_VALUE;
+	}
+	return (long) nbSteps + 1;
+    }
+
+    /**
+     * @param value
+     *            any value, possibly outside the scale.
+     * @return the probability that the evaluation is strictly lower than the given value, which is also, on a
+     *         continuous scale, the probability that it is lower than or equal to that value.
+     */
+    public double getProbBelow(double value) {
+	if (isContinuous()) {
+	    if (value <= m_min) {
+		return 0d;
+	    }
+	    if (value >= m_max) {
+		return 1d;
+	    }
+	    return (value - m_min) / (m_max - m_min);
+	}
+	return (double) getNbPointsBelow(value, m_nbPoints) / m_nbPoints;
+    }
+
+    /**
+     * @param begin
+     *            the lower bound of the interval, inclusive.
+     * @param end
+     *            the upper bound of the interval, not inclusive.
+     * @return the probability that the evaluation lies in the given interval, zero if it is empty.
+     */
+    public double getProb(double begin, double end) {
+	if (end <= begin) {
+	    return 0d;
+	}
+	return getProbBelow(end) - getProbBelow(begin);
+    }
+
+    /**
+     * @return the number of points of the step scale strictly lower than the given value, at most the given maximum.
+     */
+    private long getNbPointsBelow(double value, long maxNbPoints) {
+	/** Tolerates a rounding error when the value is on a point of the scale, e.g. 0.3 with a step of 0.1. */
+	final double nbSteps = Math.ceil((value - m_min) / m_step - 1e-9);
+	if (nbSteps <= 0) {
+	    return 0;
+	}
+	if (nbSteps >= maxNbPoints) {
+	    return maxNbPoints;
+	}
+	return (long) nbSteps;
+    }
+}
@@ -2,12 +2,14 @@ package org.decisiondeck.jmcda.persist.text;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.decision_deck.jmcda.structure.Alternative;
 import org.decision_deck.jmcda.structure.Criterion;
@@ -15,6 +17,8 @@ import org.decision_deck.jmcda.structure.DecisionMaker;
 import org.decision_deck.jmcda.structure.matrix.EvaluationsRead;
 import org.decision_deck.jmcda.structure.sorting.category.Category;
 import org.decision_deck.utils.collection.extensional_order.ExtentionalTotalOrder;
+import org.decisiondeck.jmcda.exc.InvalidInputException;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
 import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilities;
 import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsFactory;
 import org.decisiondeck.jmcda.structure.sorting.problem.data.IProblemData;
@@ -24,6 +28,7 @@ import org.junit.Test;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
 import com.google.common.io.Resources;
 
 public class ImportCsvTest {
@@ -82,6 +87,127 @@ public class ImportCsvTest {
 		assertEquals("Incorrect assignment 3.", expected3, assignments3);
 	}
 
+	@Test
+	public void testImportCredibilitiesDense() throws Exception {
+		final List<Category> categoriesList = Arrays.asList(new Category("c1"), new Category("c2"),
+				new Category("c3"), new Category("c4"));
+		final IGroupSortingAssignmentsWithCredibilities expected = new CsvImporterCredibilities(
+				Resources.asCharSource(getClass().getResource("credibilities.csv"), Charsets.UTF_8))
+						.read(categoriesList);
+
+		final CsvImporterCredibilities csv = new CsvImporterCredibilities(
+				Resources.asByteSource(getClass().getResource("credibilities.csv")));
+		/** Small parts, to check that the records split among parts are merged correctly. */
+		csv.setChunkSize(20);
+		final Map<DecisionMaker, DenseCredibilities> data = csv.readDense(categoriesList);
+		assertTrue(Iterables.elementsEqual(data.keySet(), expected.getDms()));
+		for (DecisionMaker dm : expected.getDms()) {
+			assertEquals(expected.getAssignments(dm), data.get(dm));
+		}
+		/** Fewer parts in flight than parts, to check that the window of parsed parts moves. */
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		csv.setForkJoinPool(pool);
+		assertEquals(data, csv.readDense(categoriesList));
+		pool.shutdown();
+
+		assertEquals(-12.5e3d, CredibilitiesChunk.parseDouble("-12.5e3".getBytes(Charsets.US_ASCII), 0, 7), 0d);
+		assertEquals(0.1d, CredibilitiesChunk.parseDouble("0.1".getBytes(Charsets.US_ASCII), 0, 3), 0d);
+	}
+
+	/**
+	 * Quoted fields, an escaped quote, blanks, line feeds with and without carriage returns, an empty line and a last
+	 * line without line feed, with parts boundaries falling anywhere in the lines.
+	 */
+	@SuppressWarnings("boxing")
+	@Test
+	public void testImportCredibilitiesDenseFormats() throws Exception {
+		final List<Category> categoriesList = Arrays.asList(new Category("c1"), new Category("c2"),
+				new Category("c3"), new Category("c4"));
+		final String content = "\"DM\",Alternative,Category,Credibility\r\n\"dm 1\", \"a\"\"1\" ,c2, 0.5\r\n\r\n"
+				+ "dm2,a2,\"c1\",2e-1\n\"dm 1\",a2,c4,3";
+		final DecisionMaker dm1 = new DecisionMaker("dm 1");
+		final DecisionMaker dm2 = new DecisionMaker("dm2");
+		final Alternative a1 = new Alternative("a\"1");
+		final Alternative a2 = new Alternative("a2");
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		for (long chunkSize : new long[] { 1, 7, 1 << 20 }) {
+			for (ForkJoinPool usedPool : Arrays.asList(null, pool)) {
+				final CsvImporterCredibilities csv = new CsvImporterCredibilities(
+						ByteSource.wrap(content.getBytes(Charsets.UTF_8)));
+				csv.setChunkSize(chunkSize);
+				csv.setForkJoinPool(usedPool);
+				final Map<DecisionMaker, DenseCredibilities> data = csv.readDense(categoriesList);
+				assertTrue(Iterables.elementsEqual(Arrays.asList(dm1, dm2), data.keySet()));
+				assertTrue(Iterables.elementsEqual(Arrays.asList(a1, a2), data.get(dm1).getAlternatives()));
+				assertEquals(Collections.singletonMap(new Category("c2"), 0.5d), data.get(dm1).getCredibilities(a1));
+				assertEquals(Collections.singletonMap(new Category("c4"), 3d), data.get(dm1).getCredibilities(a2));
+				assertEquals(Collections.singleton(a2), data.get(dm2).getAlternatives());
+				assertEquals(Collections.singletonMap(new Category("c1"), 0.2d), data.get(dm2).getCredibilities(a2));
+			}
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	public void testImportCredibilitiesDenseInvalid() throws Exception {
+		final String headers = "DM,Alternative,Category,Credibility\n";
+		/** The headers take 36 bytes and the first record 9, thus the second record is at byte 45. */
+		assertInvalid(headers + "d,a,c1,1\nd,b,c1,2\nd,a,c1,2\n", "Duplicate entry at: ");
+		assertInvalid(headers + "d,a,c1,1\nd,a,c9,1\n", "Line at byte 45: Unknown category: c9.");
+		assertInvalid(headers + "d,a,c1,1\nd,a,c1\n", "Line at byte 45: Missing fields in record.");
+		assertInvalid(headers + "d,a,c1,1\nd,a,c1,1,2\n", "Line at byte 45: Too many fields in record: d,a,c1,1,2.");
+		assertInvalid(headers + "d,a,c1,1\nd,a,c2,x\n", "Line at byte 45: Invalid credibility string: x.");
+		assertInvalid(headers + "d,a,c1,1\nd,\"a,c2,1\n", "Line at byte 45: Unterminated quoted field.");
+		assertInvalid("DM,Alternative,Category\nd,a,c1\n", "Unexpected headers.");
+	}
+
+	/**
+	 * Enough strings to grow the arrays and the table several times, including strings sharing their prefixes.
+	 */
+	@Test
+	public void testByteStringDictionary() throws Exception {
+		final ByteStringDictionary dictionary = new ByteStringDictionary();
+		for (int i = 0; i < 1000; ++i) {
+			final byte[] id = ("id é" + i).getBytes(Charsets.UTF_8);
+			assertEquals(i, dictionary.add(id, 0, id.length));
+		}
+		assertEquals(1000, dictionary.size());
+		for (int i = 0; i < 1000; ++i) {
+			final byte[] id = ("[id é" + i + "]").getBytes(Charsets.UTF_8);
+			assertEquals(i, dictionary.get(id, 1, id.length - 1));
+			assertEquals(i, dictionary.add(id, 1, id.length - 1));
+			assertEquals("id é" + i, dictionary.getString(i));
+		}
+		assertEquals(1000, dictionary.size());
+		final byte[] unknown = "id é1000".getBytes(Charsets.UTF_8);
+		assertEquals(-1, dictionary.get(unknown, 0, unknown.length));
+		assertEquals(-1, dictionary.get(unknown, 0, 0));
+	}
+
+	/**
+	 * Checks that reading the given content fails with a message starting with the given one, whatever the parts and
+	 * the pool.
+	 */
+	private void assertInvalid(String content, String message) throws Exception {
+		final List<Category> categoriesList = Arrays.asList(new Category("c1"), new Category("c2"));
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		for (long chunkSize : new long[] { 1, 5, 1 << 20 }) {
+			for (ForkJoinPool usedPool : Arrays.asList(null, pool)) {
+				final CsvImporterCredibilities csv = new CsvImporterCredibilities(
+						ByteSource.wrap(content.getBytes(Charsets.UTF_8)));
+				csv.setChunkSize(chunkSize);
+				csv.setForkJoinPool(usedPool);
+				try {
+					csv.readDense(categoriesList);
+					fail("Invalid content accepted: " + content + ".");
+				} catch (InvalidInputException exc) {
+					assertTrue(exc.getMessage(), exc.getMessage().startsWith(message));
+				}
+			}
+		}
+		pool.shutdown();
+	}
+
 	@Test
 	public void testImportEvaluations() throws Exception {
 		final CsvImporterEvaluations csv = new CsvImporterEvaluations(
@@ -8,6 +8,8 @@ import java.util.List;
 import java.util.Set;
 
 import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.matrix.MatrixesMC;
+import org.decision_deck.jmcda.structure.matrix.SparseAlternativesMatrixFuzzy;
 import org.decision_deck.services.SimpleDistillation;
 import org.decision_deck.utils.matrix.SparseMatrixFuzzyRead;
 import org.decision_deck.utils.relation.graph.Edge;
@@ -24,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
@@ -98,6 +101,70 @@ public class DistillationTest {
 	assertEquals(expected, result);
     }
 
+    /**
+     * The net flows of x and y are both 0.3, but are computed as 0.1 + 0.2 and 0.3 + 0, which differ in doubles; after
+     * x and y, those of z and w are both zero, computed by subtracting the contributions of x and y.
+     */
+    @Test
+    public void testTiesUpToRounding() throws Exception {
+	final Alternative x = new Alternative("x");
+	final Alternative y = new Alternative("y");
+	final Alternative z = new Alternative("z");
+	final Alternative w = new Alternative("w");
+	final SparseAlternativesMatrixFuzzy source = MatrixesMC.newAlternativesFuzzy();
+	for (Alternative alt1 : ImmutableList.of(x, y, z, w)) {
+	    for (Alternative alt2 : ImmutableList.of(x, y, z, w)) {
+		source.put(alt1, alt2, 0d);
+	    }
+	}
+	source.put(x, z, 0.1d);
+	source.put(x, w, 0.2d);
+	source.put(y, z, 0.3d);
+
+	final SimpleDistillation distillation = new SimpleDistillation(source);
+	final Preorder<Alternative> descending = distillation.getDescending();
+	assertEquals(2, descending.getRanksCount());
+	assertEquals(Sets.newHashSet(x, y), descending.get(1));
+	assertEquals(Sets.newHashSet(z, w), descending.get(2));
+
+	final Preorder<Alternative> ascending = distillation.getAscending();
+	assertEquals(3, ascending.getRanksCount());
+	assertEquals(Sets.newHashSet(x, y), ascending.get(1));
+	assertEquals(Sets.newHashSet(w), ascending.get(2));
+	assertEquals(Sets.newHashSet(z), ascending.get(3));
+    }
+
+    @Test
+    public void testSourceChanged() throws Exception {
+	final Alternative x = new Alternative("x");
+	final Alternative y = new Alternative("y");
+	final SparseAlternativesMatrixFuzzy source = MatrixesMC.newAlternativesFuzzy();
+	for (Alternative alt1 : ImmutableList.of(x, y)) {
+	    for (Alternative alt2 : ImmutableList.of(x, y)) {
+		source.put(alt1, alt2, 0d);
+	    }
+	}
+	final SimpleDistillation distillation = new SimpleDistillation(source);
+	assertEquals(1, distillation.getDescending().getRanksCount());
+
+	source.put(y, x, 1d);
+	final Preorder<Alternative> descending = distillation.getDescending();
+	assertEquals(2, descending.getRanksCount());
+	assertEquals(Sets.newHashSet(y), descending.get(1));
+	assertEquals(Sets.newHashSet(x), descending.get(2));
+
+	final Alternative z = new Alternative("z");
+	for (Alternative alt : ImmutableList.of(x, y, z)) {
+	    source.put(alt, z, 0d);
+	    source.put(z, alt, 1d);
+	}
+	final Preorder<Alternative> ascending = distillation.getAscending();
+	assertEquals(3, ascending.getRanksCount());
+	assertEquals(Sets.newHashSet(z), ascending.get(1));
+	assertEquals(Sets.newHashSet(y), ascending.get(2));
+	assertEquals(Sets.newHashSet(x), ascending.get(3));
+    }
+
     private List<Edge<Alternative>> order(final Set<Edge<Alternative>> expected) {
 	final ArrayList<Edge<Alternative>> ordered = Lists.newArrayList(expected);
 	Collections.sort(ordered, Edge.getLexicographicOrdering(Ordering.natural(), Ordering.natural()));
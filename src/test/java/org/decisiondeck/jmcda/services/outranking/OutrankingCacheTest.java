@@ -0,0 +1,28 @@
+package org.decisiondeck.jmcda.services.outranking;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.decision_deck.jmcda.structure.matrix.MatrixesMC;
+import org.decisiondeck.jmcda.services.outranking.OutrankingCache.CachedOutranking;
+import org.decisiondeck.jmcda.services.outranking.OutrankingCache.Key;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+public class OutrankingCacheTest {
+    @Test
+    public void testCollision() throws Exception {
+	final OutrankingCache cache = new OutrankingCache(10);
+	/** Distinct inputs, forced to the same hash. */
+	final HashCode fingerprint = Hashing.murmur3_128().hashLong(1L);
+	final Key key = new Key(fingerprint, ImmutableList.of(Double.valueOf(1d)));
+	final Key colliding = new Key(fingerprint, ImmutableList.of(Double.valueOf(2d)));
+	final CachedOutranking cached = new CachedOutranking(MatrixesMC.newAlternativesFuzzy(), null);
+	cache.put(key, cached);
+	assertNull(cache.get(colliding));
+	assertSame(cached, cache.get(new Key(fingerprint, ImmutableList.of(Double.valueOf(1d)))));
+    }
+}
@@ -3,9 +3,18 @@ package org.decisiondeck.jmcda.services.sorting;
 import static org.junit.Assert.assertEquals;
 
 import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.matrix.EvaluationsUtils;
 import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decision_deck.jmcda.structure.weights.Coalitions;
+import org.decision_deck.jmcda.structure.weights.CoalitionsUtils;
+import org.decisiondeck.jmcda.exc.InvalidInputException;
 import org.decisiondeck.jmcda.persist.xmcda2.aggregates.XMCDASortingProblemReader;
+import org.decisiondeck.jmcda.services.outranking.OutrankingCache;
+import org.decisiondeck.jmcda.services.outranking.OutrankingFull;
 import org.decisiondeck.jmcda.structure.sorting.assignment.IOrderedAssignments;
+import org.decisiondeck.jmcda.structure.sorting.problem.ProblemFactory;
+import org.decisiondeck.jmcda.structure.sorting.problem.data.IProblemData;
 import org.decisiondeck.jmcda.structure.sorting.problem.preferences.ISortingPreferences;
 import org.junit.Test;
 
@@ -24,4 +33,50 @@ public class SortingFullTest {
 	final Category catAlt09 = assigned.getCategory(new Alternative("Alt09"));
 	assertEquals(new Category("Cat2"), catAlt09);
     }
+
+    @Test
+    public void testCache() throws Exception {
+	final ISortingPreferences sortingPreferences = new XMCDASortingProblemReader(
+		Resources.asByteSource(getClass().getResource(
+			"Ten alternatives, Three categories, Non normalized weights.xml")))
+		.readSortingResultsToMultiple();
+
+	final OutrankingCache cache = new OutrankingCache(10);
+	final SortingFull sorter = new SortingFull();
+	sorter.setCache(cache);
+	final IOrderedAssignments first = sorter.pessimistic(sortingPreferences);
+	assertEquals(0, cache.getStats().hitCount());
+	assertEquals(1, cache.getStats().missCount());
+	final SortingFull otherSorter = new SortingFull();
+	otherSorter.setCache(cache);
+	final IOrderedAssignments second = otherSorter.pessimistic(sortingPreferences);
+	assertEquals(1, cache.getStats().hitCount());
+	assertEquals(first, second);
+	assertEquals(new Category("Cat2"), second.getCategory(new Alternative("Alt09")));
+	assertEquals(sorter.getSmallestSep(), otherSorter.getSmallestSep());
+    }
+
+    @Test(expected = InvalidInputException.class)
+    public void testCacheDoesNotHideInvalidInput() throws Exception {
+	final ISortingPreferences sortingPreferences = new XMCDASortingProblemReader(
+		Resources.asByteSource(getClass().getResource(
+			"Ten alternatives, Three categories, Non normalized weights.xml")))
+		.readSortingResultsToMultiple();
+	final IProblemData data = ProblemFactory.newProblemData(EvaluationsUtils.merge(
+		sortingPreferences.getAlternativesEvaluations(), sortingPreferences.getProfilesEvaluations()),
+		sortingPreferences.getScales());
+
+	final OutrankingFull outranking = new OutrankingFull();
+	outranking.setCache(new OutrankingCache(10));
+	outranking.getOutranking(data, sortingPreferences.getThresholds(), sortingPreferences.getCoalitions());
+
+	/** Same key, as only the weights of the criteria of the data are hashed. */
+	final Coalitions invalid = CoalitionsUtils.newCoalitions();
+	for (Criterion criterion : data.getCriteria()) {
+	    invalid.putWeight(criterion, sortingPreferences.getCoalitions().getWeight(criterion));
+	}
+	invalid.putWeight(new Criterion("Unknown"), 1d);
+	invalid.setMajorityThreshold(sortingPreferences.getCoalitions().getMajorityThreshold());
+	outranking.getOutranking(data, sortingPreferences.getThresholds(), invalid);
+    }
 }
@@ -0,0 +1,118 @@
+package org.decisiondeck.jmcda.services.sorting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Set;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.sorting.SortingMode;
+import org.decision_deck.jmcda.structure.weights.Coalitions;
+import org.decision_deck.jmcda.structure.weights.CoalitionsUtils;
+import org.decisiondeck.jmcda.persist.xmcda2.aggregates.XMCDASortingProblemReader;
+import org.decisiondeck.jmcda.structure.sorting.assignment.IOrderedAssignmentsToMultipleRead;
+import org.decisiondeck.jmcda.structure.sorting.problem.preferences.ISortingPreferences;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Resources;
+
+public class SortingWeightsWhatIfTest {
+    @Test
+    public void testSameAsFull() throws Exception {
+	final ISortingPreferences problem = new XMCDASortingProblemReader(Resources.asByteSource(getClass()
+		.getResource("Ten alternatives, Three categories, Non normalized weights.xml")))
+		.readSortingResultsToMultiple();
+
+	final SortingWeightsWhatIf whatIf = new SortingWeightsWhatIf(problem, SortingMode.BOTH);
+	final SortingFull sorter = new SortingFull();
+	IOrderedAssignmentsToMultipleRead expected = sorter.assign(SortingMode.BOTH, problem);
+	assertEquals(expected, whatIf.getAssignments());
+
+	final Coalitions original = problem.getCoalitions();
+	for (Criterion criterion : problem.getCriteria()) {
+	    final double newWeight = original.getWeight(criterion) * 3d;
+	    final Set<Alternative> changed = whatIf.setWeight(criterion, newWeight);
+
+	    final Coalitions coalitions = CoalitionsUtils.newCoalitions();
+	    for (Criterion other : problem.getCriteria()) {
+		coalitions.putWeight(other, whatIf.getWeight(other));
+	    }
+	    coalitions.setMajorityThreshold(original.getMajorityThreshold());
+	    problem.setCoalitions(coalitions);
+	    final IOrderedAssignmentsToMultipleRead newExpected = sorter.assign(SortingMode.BOTH, problem);
+	    assertEquals(newExpected, whatIf.getAssignments());
+
+	    final Set<Alternative> expectedChanged = Sets.newHashSet();
+	    for (Alternative alternative : problem.getAlternatives()) {
+		if (!newExpected.getCategories(alternative).equals(expected.getCategories(alternative))) {
+		    expectedChanged.add(alternative);
+		}
+	    }
+	    assertEquals(expectedChanged, changed);
+	    expected = newExpected;
+	}
+    }
+
+    @Test
+    public void testRejectedUpdatesKeepAssignments() throws Exception {
+	final ISortingPreferences problem = new XMCDASortingProblemReader(Resources.asByteSource(getClass()
+		.getResource("Ten alternatives, Three categories, Non normalized weights.xml")))
+		.readSortingResultsToMultiple();
+	final SortingWeightsWhatIf whatIf = new SortingWeightsWhatIf(problem, SortingMode.BOTH);
+	final IOrderedAssignmentsToMultipleRead expected = new SortingFull().assign(SortingMode.BOTH, problem);
+	final Coalitions original = problem.getCoalitions();
+	double sum = 0d;
+	for (Criterion criterion : problem.getCriteria()) {
+	    sum += original.getWeight(criterion);
+	}
+
+	try {
+	    whatIf.setMajorityThreshold(sum * 2d);
+	    fail("Majority threshold greater than the sum of the weights accepted.");
+	} catch (IllegalArgumentException exc) {
+	    /** Expected. */
+	}
+	assertEquals(original.getMajorityThreshold(), whatIf.getMajorityThreshold(), 0d);
+	assertEquals(expected, whatIf.getAssignments());
+
+	final Criterion first = problem.getCriteria().iterator().next();
+	try {
+	    whatIf.setWeight(first, -1d);
+	    fail("Negative weight accepted.");
+	} catch (IllegalArgumentException exc) {
+	    /** Expected. */
+	}
+	assertEquals(original.getWeight(first), whatIf.getWeight(first), 0d);
+	assertEquals(expected, whatIf.getAssignments());
+
+	/** With a null threshold, all weights but the last one may be zeroed, not the last one. */
+	whatIf.setMajorityThreshold(0d);
+	final IOrderedAssignmentsToMultipleRead withNullThreshold = whatIf.getAssignments();
+	Criterion last = null;
+	for (Criterion criterion : problem.getCriteria()) {
+	    if (last != null) {
+		whatIf.setWeight(last, 0d);
+	    }
+	    last = criterion;
+	}
+	final IOrderedAssignmentsToMultipleRead withOneWeight = whatIf.getAssignments();
+	try {
+	    whatIf.setWeight(last, 0d);
+	    fail("Null sum of the weights accepted.");
+	} catch (IllegalArgumentException exc) {
+	    /** Expected. */
+	}
+	assertEquals(original.getWeight(last), whatIf.getWeight(last), 0d);
+	assertEquals(withOneWeight, whatIf.getAssignments());
+	assertEquals(withNullThreshold, withOneWeight);
+
+	/** The session is still usable. */
+	for (Criterion criterion : problem.getCriteria()) {
+	    whatIf.setWeight(criterion, original.getWeight(criterion));
+	}
+	whatIf.setMajorityThreshold(original.getMajorityThreshold());
+	assertEquals(expected, whatIf.getAssignments());
+    }
+}
@@ -1,29 +1,48 @@
 package org.decisiondeck.jmcda.services.sorting.assignments;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
+import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.Spliterator;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import org.decision_deck.jmcda.services.generator.DataGenerator;
 import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.DecisionMaker;
 import org.decision_deck.jmcda.structure.sorting.category.Categories;
 import org.decision_deck.jmcda.structure.sorting.category.Category;
 import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
+import org.decisiondeck.jmcda.structure.sorting.assignment.IOrderedAssignmentsToMultiple;
+import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.DenseCredibilities;
 import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilities;
 import org.decisiondeck.jmcda.structure.sorting.assignment.credibilities.IOrderedAssignmentsWithCredibilitiesRead;
 import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsFactory;
+import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsUtils;
+import org.decisiondeck.jmcda.structure.sorting.assignment.utils.AssignmentsViewFactory;
 import org.junit.Test;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -65,6 +84,25 @@ public class EmbeddedCredibilitiesTest {
 	assertEquals(expectedHole, intervalsHole);
     }
 
+    @Test
+    public void testSmallestIntervalsByRanks() throws Exception {
+	assertArrayEquals(new int[][] { { 0, 1 } }, SmallestCredibleIntervals.getSmallestMostCredibleIntervals(
+		new double[] { 3d, 4d, 1d }, 5d, 1e-6));
+	assertArrayEquals(new int[][] { { 0, 1 }, { 1, 2 } },
+		SmallestCredibleIntervals.getSmallestMostCredibleIntervals(new double[] { 2d, 4d, 2d }, 5d, 1e-6));
+	assertArrayEquals(new int[][] { { 0, 1 }, { 1, 2 } },
+		SmallestCredibleIntervals.getSmallestIntervals(new double[] { 3d, 4d, 1d }, 5d));
+	assertArrayEquals(new int[][] { { 3, 3 } }, SmallestCredibleIntervals.getSmallestMostCredibleIntervals(
+		new double[] { 2d, 2d, 0d, 4d }, 4d, 1e-6));
+
+	/** The sums reach the level exactly although the values are not exactly representable. */
+	final double third = 0.1d + 0.2d;
+	assertArrayEquals(new int[][] { { 3, 3 }, { 5, 5 } }, SmallestCredibleIntervals.getSmallestIntervals(
+		new double[] { 0.2d, 0d, 0d, third, 0d, third, 0.2d, 0.1d }, third));
+	assertArrayEquals(new int[][] { { 0, 2 } }, SmallestCredibleIntervals.getSmallestIntervals(
+		new double[] { 0.1d, 0.1d, 0.1d, 0d }, 0.1d + 0.1d + 0.1d));
+    }
+
     @Test
     public void testProductSet() throws Exception {
 	final TreeMap<Category, Double> credibilitiesFirst = getCredibilities(getThreeCategories(), true,
@@ -120,6 +158,164 @@ public class EmbeddedCredibilitiesTest {
 	assertEquals(expected, productSet);
     }
 
+    @Test
+    public void testProductSetByIndex() throws Exception {
+	final IOrderedAssignmentsWithCredibilities assignments = AssignmentsFactory
+		.newOrderedAssignmentsWithCredibilities();
+	assignments.setCategories(getThreeCategories());
+	assignments.setCredibilities(getA1(), getCredibilities(getThreeCategories(), true, 2d, 4d, 2d));
+	assignments.setCredibilities(getA2(), getCredibilities(getThreeCategories(), true, 3d, 1d, 2d));
+	assignments.setCredibilities(getA3(), getCredibilities(getThreeCategories(), true, 1d, 4d, 1d));
+	final ProductSetOfIntervals productSet = EmbeddedCredibilitiesExtractor.getProductSetOfIntervals(assignments,
+		5d);
+	assertEquals(4, productSet.getSize());
+	assertEquals(4, productSet.size());
+
+	final Set<IOrderedAssignmentsWithCredibilitiesRead> byIndex = Sets.newHashSet();
+	for (long index = 0; index < productSet.getSize(); ++index) {
+	    byIndex.add(productSet.get(index));
+	}
+	assertEquals(4, byIndex.size());
+	assertEquals(byIndex, productSet);
+	assertEquals(productSet.get(1), Iterables.get(productSet, 1));
+
+	final Spliterator<IOrderedAssignmentsWithCredibilitiesRead> second = productSet.spliterator();
+	final Spliterator<IOrderedAssignmentsWithCredibilitiesRead> first = second.trySplit();
+	assertEquals(2, first.estimateSize());
+	assertEquals(2, second.estimateSize());
+	assertEquals(byIndex, StreamSupport.stream(productSet.spliterator(), true).collect(Collectors.toSet()));
+	assertEquals(productSet, EmbeddedCredibilitiesExtractor.getProductSetOfIntervals(assignments, 5d));
+
+	assertEquals(byIndex.hashCode(), productSet.hashCode());
+	for (IOrderedAssignmentsWithCredibilitiesRead element : byIndex) {
+	    assertTrue(productSet.contains(element));
+	}
+	assertFalse(productSet.contains(assignments));
+	assertFalse(productSet.equals(EmbeddedCredibilitiesExtractor.getProductSetOfIntervals(assignments, 1d)));
+    }
+
+    @Test
+    public void testProductSetHashCodeWithoutElements() throws Exception {
+	final Set<SortedMap<Category, Double>> intervals = Sets.newHashSet();
+	intervals.add(getC1C2(1d, 2d));
+	intervals.add(getC2C3(2d, 1d));
+	final Map<Alternative, Set<SortedMap<Category, Double>>> allIntervals = Maps.newHashMap();
+	for (int alternative = 1; alternative <= 40; ++alternative) {
+	    allIntervals.put(new Alternative("a" + alternative), intervals);
+	}
+	final ProductSetOfIntervals large = new ProductSetOfIntervals(getThreeCategories(), allIntervals);
+	assertEquals(1L << 40, large.getSize());
+	assertEquals(large.hashCode(), new ProductSetOfIntervals(getThreeCategories(), allIntervals).hashCode());
+
+	final Map<Alternative, Set<SortedMap<Category, Double>>> fewIntervals = Maps.newHashMap();
+	fewIntervals.put(getA1(), intervals);
+	fewIntervals.put(getA2(), intervals);
+	fewIntervals.put(getA3(), Collections.<SortedMap<Category, Double>> singleton(getC1C2(3d, 4d)));
+	final ProductSetOfIntervals small = new ProductSetOfIntervals(getThreeCategories(), fewIntervals);
+	assertEquals(Sets.newHashSet(small).hashCode(), small.hashCode());
+    }
+
+    @Test
+    public void testDenseCredibilities() throws Exception {
+	final IOrderedAssignmentsWithCredibilities assignments = AssignmentsFactory
+		.newOrderedAssignmentsWithCredibilities();
+	assignments.setCategories(getThreeCategories());
+	assignments.setCredibilities(getA1(), getCredibilities(getThreeCategories(), false, 2d, 0d, 3d));
+	assignments.setCredibilities(getA2(), getCredibilities(getThreeCategories(), false, 0d, 1d, 0d));
+	final DenseCredibilities dense = DenseCredibilities.copyOf(assignments);
+	assertSame(dense, DenseCredibilities.copyOf(dense));
+	assertEquals(2, dense.getNbAlternatives());
+	assertEquals(3, dense.getNbCategories());
+	final int a1 = dense.getAlternativeIndex(getA1());
+	assertEquals(0d, dense.getCredibility(a1, dense.getCategoryIndex(getC2())), 0d);
+	assertEquals(3d, dense.getCredibility(a1, dense.getCategoryIndex(getC3())), 0d);
+	assertEquals(assignments.getCredibilities(getA1()), dense.getCredibilities(getA1()));
+	assertEquals(assignments, dense);
+	assertEquals(-1, dense.getAlternativeIndex(getA3()));
+	try {
+	    dense.getCredibility(2, 0);
+	    fail("Unknown alternative accepted.");
+	} catch (IndexOutOfBoundsException exc) {
+	    /** Expected. */
+	}
+
+	final CredibilitiesHelper helper = new CredibilitiesHelper();
+	helper.computeStatistics(dense);
+	assertEquals(1d, helper.getMinValue(), 0d);
+	assertEquals(1d, helper.getMinSum(), 0d);
+	assertEquals(5d, helper.getMaxSum(), 0d);
+	assertEquals(1d, helper.getMinDiff().doubleValue(), 0d);
+    }
+
+    @Test
+    public void testVotesToCredibilities() throws Exception {
+	final DecisionMaker dm1 = new DecisionMaker("dm1");
+	final DecisionMaker dm2 = new DecisionMaker("dm2");
+	final Map<DecisionMaker, IOrderedAssignmentsToMultiple> groupAssignments = Maps.newLinkedHashMap();
+	for (DecisionMaker dm : ImmutableList.of(dm1, dm2)) {
+	    final IOrderedAssignmentsToMultiple assignments = AssignmentsFactory.newOrderedAssignmentsToMultiple();
+	    assignments.setCategories(getThreeCategories());
+	    groupAssignments.put(dm, assignments);
+	}
+	AssignmentsUtils.addToCategories(groupAssignments.get(dm1), getA1(), getC1());
+	AssignmentsUtils.addToCategories(groupAssignments.get(dm1), getA2(), getC2());
+	AssignmentsUtils.addToCategories(groupAssignments.get(dm1), getA2(), getC3());
+	AssignmentsUtils.addToCategories(groupAssignments.get(dm2), getA1(), getC3());
+	AssignmentsUtils.addToCategories(groupAssignments.get(dm2), getA2(), getC3());
+	final Map<DecisionMaker, Double> weights = Maps.newHashMap();
+	weights.put(dm1, Double.valueOf(2d));
+	weights.put(dm2, Double.valueOf(1d));
+
+	final IOrderedAssignmentsWithCredibilities expected = AssignmentsFactory
+		.newOrderedAssignmentsWithCredibilities();
+	expected.setCategories(getThreeCategories());
+	expected.setCredibilities(getA1(), getCredibilities(getThreeCategories(), false, 2d, 0d, 1d));
+	expected.setCredibilities(getA2(), getCredibilities(getThreeCategories(), false, 0d, 1d, 2d));
+	final VotesToCredibilities votes = new VotesToCredibilities();
+	assertEquals(expected, votes.aggregate(getThreeCategories(), groupAssignments, weights));
+	final ForkJoinPool pool = new ForkJoinPool(4);
+	votes.setForkJoinPool(pool);
+	assertEquals(expected, votes.aggregate(getThreeCategories(), groupAssignments, weights));
+	pool.shutdown();
+	assertEquals(1.5d, votes.aggregate(getThreeCategories(), groupAssignments).getCredibility(1, 2), 0d);
+    }
+
+    @Test
+    public void testVotesOnDifferentAlternatives() throws Exception {
+	final DecisionMaker dm1 = new DecisionMaker("dm1");
+	final DecisionMaker dm2 = new DecisionMaker("dm2");
+	final Alternative a3 = new Alternative("a3");
+	final Map<DecisionMaker, IOrderedAssignmentsToMultiple> groupAssignments = Maps.newLinkedHashMap();
+	for (DecisionMaker dm : ImmutableList.of(dm1, dm2)) {
+	    final IOrderedAssignmentsToMultiple assignments = AssignmentsFactory.newOrderedAssignmentsToMultiple();
+	    assignments.setCategories(getThreeCategories());
+	    groupAssignments.put(dm, assignments);
+	}
+	AssignmentsUtils.addToCategories(groupAssignments.get(dm1), getA2(), getC1());
+	AssignmentsUtils.addToCategories(groupAssignments.get(dm2), a3, getC3());
+	AssignmentsUtils.addToCategories(groupAssignments.get(dm2), getA1(), getC2());
+	AssignmentsUtils.addToCategories(groupAssignments.get(dm2), getA2(), getC2());
+
+	final IOrderedAssignmentsWithCredibilities expected = AssignmentsFactory
+		.newOrderedAssignmentsWithCredibilities();
+	expected.setCategories(getThreeCategories());
+	expected.setCredibilities(getA1(), getCredibilities(getThreeCategories(), false, 0d, 1d, 0d));
+	expected.setCredibilities(getA2(), getCredibilities(getThreeCategories(), false, 1d, 1d, 0d));
+	expected.setCredibilities(a3, getCredibilities(getThreeCategories(), false, 0d, 0d, 1d));
+	final DenseCredibilities aggregated = new VotesToCredibilities().aggregate(getThreeCategories(),
+		groupAssignments);
+	assertEquals(expected, aggregated);
+
+	/** The alternatives come in the same order when the decision makers come in the other order. */
+	final Map<DecisionMaker, IOrderedAssignmentsToMultiple> reversed = Maps.newLinkedHashMap();
+	reversed.put(dm2, groupAssignments.get(dm2));
+	reversed.put(dm1, groupAssignments.get(dm1));
+	final DenseCredibilities aggregatedReversed = new VotesToCredibilities().aggregate(getThreeCategories(),
+		reversed);
+	assertEquals(expected, aggregatedReversed);
+	assertEquals(ImmutableList.of(getA1(), getA2(), a3), ImmutableList.copyOf(aggregatedReversed.getAlternatives()));
+    }
+
     SortedMap<Category, Double> getC2C3(double c2, double c3) {
 	final SortedMap<Category, Double> c2c3 = Maps.newTreeMap(getThreeCategories().comparator());
 	c2c3.put(getC2(), Double.valueOf(c2));
@@ -282,6 +478,185 @@ public class EmbeddedCredibilitiesTest {
 	assertEquals(expected, results);
     }
 
+    @Test
+    public void testSweepMatchesFromScratch() throws Exception {
+	final Random random = new Random(43);
+	final DataGenerator gen = new DataGenerator();
+	for (int trial = 0; trial < 50; ++trial) {
+	    final NavigableSet<Category> categories = gen.genCatsAndProfs(2 + random.nextInt(4)).getCategories();
+	    final int nbAlts = 1 + random.nextInt(4);
+	    /** Multiples of one tenth give ties between sums, some of which differ by a few ulps. */
+	    final double[][] rows = new double[nbAlts][categories.size()];
+	    final IOrderedAssignmentsWithCredibilities input = AssignmentsFactory
+		    .newOrderedAssignmentsWithCredibilities();
+	    input.setCategories(categories);
+	    for (int alt = 0; alt < nbAlts; ++alt) {
+		for (int cat = 0; cat < categories.size(); ++cat) {
+		    rows[alt][cat] = random.nextInt(5) / 10d;
+		}
+		rows[alt][random.nextInt(categories.size())] += .1d;
+		setCredibilities(input, "a" + alt, rows[alt]);
+	    }
+
+	    /**
+	     * Every sum of an interval, computed in order, and the midpoints between them, in decreasing order. Two
+	     * sums may be consecutive numbers, with no midpoint.
+	     */
+	    double maxLevel = Double.POSITIVE_INFINITY;
+	    final Set<Double> sums = Sets.newTreeSet();
+	    for (double[] row : rows) {
+		for (int first = 0; first < row.length; ++first) {
+		    double sum = 0d;
+		    for (int last = first; last < row.length; ++last) {
+			sum += row[last];
+			sums.add(Double.valueOf(sum));
+		    }
+		    if (first == 0) {
+			maxLevel = Math.min(maxLevel, sum);
+		    }
+		}
+	    }
+	    final List<Double> levels = Lists.newArrayList();
+	    double previous = 0d;
+	    for (Double sum : sums) {
+		if (sum.doubleValue() > 0d && sum.doubleValue() <= maxLevel) {
+		    final double middle = (previous + sum.doubleValue()) / 2d;
+		    if (middle > previous && middle < sum.doubleValue()) {
+			levels.add(Double.valueOf(middle));
+		    }
+		    levels.add(sum);
+		    previous = sum.doubleValue();
+		}
+	    }
+	    Collections.reverse(levels);
+
+	    for (boolean mostCredibleOnly : new boolean[] { true, false }) {
+		final CredibilityLevelsSweep sweep = new CredibilityLevelsSweep(DenseCredibilities.copyOf(input),
+			mostCredibleOnly);
+		for (Double level : levels) {
+		    sweep.lowerTo(level.doubleValue());
+		    final Map<Alternative, Set<SortedMap<Category, Double>>> allIntervals = Maps.newHashMap();
+		    for (int alt = 0; alt < nbAlts; ++alt) {
+			final TreeMap<Category, Double> credibilities = getCredibilities(categories, true, rows[alt]);
+			allIntervals.put(getAlt("a" + alt), mostCredibleOnly ? EmbeddedCredibilitiesExtractor
+				.getSmallestMostCredibleIntervals(credibilities, level.doubleValue())
+				: EmbeddedCredibilitiesExtractorT2.getSmallestMostCredibleIntervals(credibilities,
+					level.doubleValue()));
+		    }
+		    final ProductSetOfIntervals fromScratch = mostCredibleOnly ? new EmbeddedCredibilitiesExtractor(
+			    input).getProductSetOfIntervals(level.doubleValue()) : new EmbeddedCredibilitiesExtractorT2(
+			    input).getProductSetOfIntervals(level.doubleValue());
+		    final ProductSetOfIntervals swept = sweep.getProductSet();
+		    assertEquals(new ProductSetOfIntervals(categories, allIntervals), swept);
+		    assertEquals(fromScratch, swept);
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testSortedCellsMatchViews() throws Exception {
+	final Random random = new Random(45);
+	final DataGenerator gen = new DataGenerator();
+	for (int trial = 0; trial < 50; ++trial) {
+	    final IOrderedAssignmentsWithCredibilities assignments = getRandomConstantSum(random,
+		    gen.genCatsAndProfs(3 + random.nextInt(3)).getCategories(), 1 + random.nextInt(6));
+	    final SortedCredibilityCells cells = new SortedCredibilityCells(DenseCredibilities.copyOf(assignments));
+	    for (Double level : AssignmentsUtils.getCredibilityLevels(assignments)) {
+		for (double threshold : new double[] { level.doubleValue(), Math.nextUp(level.doubleValue()),
+			Math.nextDown(level.doubleValue()), level.doubleValue() + 1e-7d }) {
+		    assertEquals(
+			    AssignmentsFactory.newOrderedAssignmentsWithCredibilities(AssignmentsViewFactory
+				    .getAssignmentsGEQ(assignments, threshold)),
+			    AssignmentsFactory.newOrderedAssignmentsWithCredibilities(cells.getAtLeast(threshold)));
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testExcludeLeastCredibilitiesMatchesViews() throws Exception {
+	final Random random = new Random(46);
+	final DataGenerator gen = new DataGenerator();
+	for (int trial = 0; trial < 50; ++trial) {
+	    final IOrderedAssignmentsWithCredibilities assignments = getRandomConstantSum(random,
+		    gen.genCatsAndProfs(3 + random.nextInt(3)).getCategories(), 1 + random.nextInt(6));
+	    final NavigableMap<Double, IOrderedAssignmentsWithCredibilitiesRead> expected = getByCredibilityLevelAsViews(assignments);
+	    final NavigableMap<Double, IOrderedAssignmentsWithCredibilitiesRead> results = new ExcludeLeastCredibilities(
+		    assignments).getByCredibilityLevel();
+	    assertEquals(expected.keySet(), results.keySet());
+	    for (Double level : expected.keySet()) {
+		assertEquals(AssignmentsFactory.newOrderedAssignmentsWithCredibilities(expected.get(level)),
+			AssignmentsFactory.newOrderedAssignmentsWithCredibilities(results.get(level)));
+	    }
+	}
+    }
+
+    /**
+     * Builds assignments whose credibilities, multiples of one tenth, sum to one for each alternative, up to a few
+     * ulps as they are summed in different orders. Some credibilities are moved by less than the tolerance of
+     * {@link ExcludeLeastCredibilities}, thus some values and some sums are equal within that tolerance only.
+     */
+    IOrderedAssignmentsWithCredibilities getRandomConstantSum(Random random, NavigableSet<Category> categories,
+	    int nbAlts) {
+	final IOrderedAssignmentsWithCredibilities assignments = AssignmentsFactory
+		.newOrderedAssignmentsWithCredibilities();
+	assignments.setCategories(categories);
+	for (int alt = 0; alt < nbAlts; ++alt) {
+	    final double[] values = new double[categories.size()];
+	    for (int tenth = 0; tenth < 10; ++tenth) {
+		values[random.nextInt(values.length)] += .1d;
+	    }
+	    if (random.nextBoolean()) {
+		final int cat = random.nextInt(values.length);
+		if (values[cat] > 0d) {
+		    values[cat] += 2e-6d;
+		}
+	    }
+	    setCredibilities(assignments, "a" + alt, values);
+	}
+	return assignments;
+    }
+
+    /**
+     * The credibility levels as {@link ExcludeLeastCredibilities} computed them before it shared sorted cells: each
+     * level is a view of the credibilities reaching a threshold, and the statistics are computed from their
+     * definitions.
+     */
+    NavigableMap<Double, IOrderedAssignmentsWithCredibilitiesRead> getByCredibilityLevelAsViews(
+	    IOrderedAssignmentsWithCredibilitiesRead assignments) {
+	double sum = Double.NEGATIVE_INFINITY;
+	double minMax = Double.POSITIVE_INFINITY;
+	for (Alternative alternative : assignments.getAlternatives()) {
+	    double altSum = 0d;
+	    double altMax = Double.NEGATIVE_INFINITY;
+	    for (Double credibility : assignments.getCredibilities(alternative).values()) {
+		altSum += credibility.doubleValue();
+		altMax = Math.max(altMax, credibility.doubleValue());
+	    }
+	    sum = Math.max(sum, altSum);
+	    minMax = Math.min(minMax, altMax);
+	}
+	final NavigableSet<Double> credibilityLevels = AssignmentsUtils.getCredibilityLevels(assignments);
+	double minDiff = Double.POSITIVE_INFINITY;
+	Double previous = null;
+	for (Double level : credibilityLevels) {
+	    if (previous != null) {
+		minDiff = Math.min(minDiff, level.doubleValue() - previous.doubleValue());
+	    }
+	    previous = level;
+	}
+
+	final TreeMap<Double, IOrderedAssignmentsWithCredibilitiesRead> res = new TreeMap<Double, IOrderedAssignmentsWithCredibilitiesRead>();
+	res.put(Double.valueOf(sum), assignments);
+	for (Double level : credibilityLevels.headSet(Double.valueOf(minMax))) {
+	    final double toExclude = level.doubleValue();
+	    res.put(Double.valueOf(sum - toExclude),
+		    AssignmentsViewFactory.getAssignmentsGEQ(assignments, toExclude + minDiff / 2d));
+	}
+	return res;
+    }
+
     void setCredibilities(IOrderedAssignmentsWithCredibilities assignments, String alternative, double... values) {
 	assignments.setCredibilities(getAlt(alternative),
  getCredibilities(assignments.getCategories(), false, values));
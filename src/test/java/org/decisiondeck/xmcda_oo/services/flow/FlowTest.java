@@ -1,14 +1,40 @@
 package org.decisiondeck.xmcda_oo.services.flow;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.interval.Interval;
+import org.decision_deck.jmcda.structure.interval.Intervals;
+import org.decision_deck.jmcda.structure.interval.PreferenceDirection;
+import org.decision_deck.jmcda.structure.matrix.Evaluations;
+import org.decision_deck.jmcda.structure.matrix.EvaluationsUtils;
+import org.decision_deck.jmcda.structure.matrix.MatrixesMC;
+import org.decision_deck.jmcda.structure.matrix.SparseAlternativesMatrixFuzzy;
 import org.decision_deck.jmcda.structure.scores.AlternativesScores;
+import org.decision_deck.jmcda.structure.thresholds.Thresholds;
+import org.decision_deck.jmcda.structure.thresholds.ThresholdsUtils;
+import org.decision_deck.jmcda.structure.weights.Weights;
+import org.decision_deck.jmcda.structure.weights.WeightsUtils;
 import org.decision_deck.utils.matrix.SparseMatrixFuzzy;
 import org.decisiondeck.jmcda.sample_problems.SixRealCars;
+import org.decisiondeck.jmcda.services.outranking.Concordance;
+import org.decisiondeck.jmcda.structure.sorting.problem.ProblemFactory;
+import org.decisiondeck.jmcda.structure.sorting.problem.data.IProblemData;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
 public class FlowTest {
     @Test
     public void testNetFlows() throws Exception {
@@ -57,4 +83,159 @@ public class FlowTest {
 	final AlternativesScores expected = testData.getPositiveFlows();
 	assertTrue("Scores do not match.", expected.approxEquals(flowsComp, 0.00005f));
     }
+
+    @Test
+    public void testFlowEngine() throws Exception {
+	final SixRealCars testData = SixRealCars.getInstance();
+	final SparseMatrixFuzzy<Alternative, Alternative> preference = testData.getPreference();
+	final FlowEngine engine = FlowEngine.compile(preference);
+	assertEquals(preference.getRows().size(), engine.getNbAlternatives());
+	assertTrue("Scores do not match.",
+		testData.getPositiveFlows().approxEquals(engine.getFlows(FlowType.POSITIVE), 0.00005f));
+	assertTrue("Scores do not match.", testData.getNetFlows().approxEquals(engine.getFlows(FlowType.NET), 0.00005f));
+
+	final FlowEngine parallel = FlowEngine.compile(preference);
+	final ForkJoinPool pool = new ForkJoinPool(4);
+	parallel.setForkJoinPool(pool);
+	for (FlowType type : FlowType.values()) {
+	    for (int alternative = 0; alternative < engine.getNbAlternatives(); ++alternative) {
+		assertEquals(engine.getFlow(type, alternative), parallel.getFlow(type, alternative), 0d);
+	    }
+	}
+	pool.shutdown();
+    }
+
+    @Test
+    public void testFlowEngineNetFlowsAsFlow() throws Exception {
+	/** Preferences on a coarse grid give many net flows equal up to rounding, which must round the same way. */
+	final Random random = new Random(49);
+	final SparseAlternativesMatrixFuzzy preference = MatrixesMC.newAlternativesFuzzy();
+	final int nbAlts = 60;
+	final Alternative[] alternatives = new Alternative[nbAlts];
+	for (int i = 0; i < nbAlts; ++i) {
+	    alternatives[i] = new Alternative("a" + i);
+	}
+	for (Alternative alt1 : alternatives) {
+	    for (Alternative alt2 : alternatives) {
+		preference.put(alt1, alt2, alt1.equals(alt2) ? 0d : random.nextInt(11) / 10d);
+	    }
+	}
+	final AlternativesScores expected = new Flow().getNetFlows(preference);
+	final FlowEngine engine = FlowEngine.compile(preference);
+	final ForkJoinPool pool = new ForkJoinPool(4);
+	final FlowEngine parallel = FlowEngine.compile(preference);
+	parallel.setForkJoinPool(pool);
+	for (int alternative = 0; alternative < nbAlts; ++alternative) {
+	    final double flow = expected.get(engine.getAlternative(alternative)).doubleValue();
+	    assertEquals(flow, engine.getFlow(FlowType.NET, alternative), 0d);
+	    assertEquals(flow, parallel.getFlow(FlowType.NET, alternative), 0d);
+	}
+	pool.shutdown();
+    }
+
+    @Test
+    public void testNearlyEqualNetFlows() throws Exception {
+	/**
+	 * The net flow of a is 1 + 4 × 2^-53 and the one of b is 1 + 2^-52. Summed without compensation, each tiny
+	 * difference of a is lost against 1, which ranks b first.
+	 */
+	final double tiny = Math.ulp(0.5d);
+	final Alternative x0 = new Alternative("x0");
+	final Alternative a = new Alternative("a");
+	final Alternative b = new Alternative("b");
+	final List<Alternative> alternatives = Lists.newArrayList(x0, a, b);
+	for (int i = 1; i <= 4; ++i) {
+	    alternatives.add(new Alternative("x" + i));
+	}
+	final SparseAlternativesMatrixFuzzy preference = MatrixesMC.newAlternativesFuzzy();
+	for (Alternative alt1 : alternatives) {
+	    for (Alternative alt2 : alternatives) {
+		preference.put(alt1, alt2, 0d);
+	    }
+	}
+	preference.put(a, x0, 1d);
+	preference.put(b, x0, 1d);
+	for (Alternative other : alternatives.subList(3, 7)) {
+	    preference.put(a, other, 0.5d + tiny);
+	    preference.put(other, a, 0.5d);
+	}
+	preference.put(b, alternatives.get(3), 0.5d + 2d * tiny);
+	preference.put(alternatives.get(3), b, 0.5d);
+
+	final AlternativesScores notDivided = new Flow().getNetFlowsNotDivided(preference);
+	assertEquals(1d + 4d * tiny, notDivided.get(a).doubleValue(), 0d);
+	assertEquals(1d + 2d * tiny, notDivided.get(b).doubleValue(), 0d);
+	final AlternativesScores netFlows = new Flow().getNetFlows(preference);
+	assertTrue(netFlows.get(a).doubleValue() > netFlows.get(b).doubleValue());
+	final FlowEngine engine = FlowEngine.compile(preference);
+	for (int alternative = 0; alternative < engine.getNbAlternatives(); ++alternative) {
+	    assertEquals(notDivided.get(engine.getAlternative(alternative)).doubleValue(),
+		    engine.getFlowNotDivided(FlowType.NET, alternative), 0d);
+	}
+    }
+
+    @Test
+    public void testTopNetFlows() throws Exception {
+	final SixRealCars testData = SixRealCars.getInstance();
+	final IProblemData data = testData.getAsProblemData();
+	final TopNetFlows top = new TopNetFlows(data, testData.getThresholds(), testData.getWeights());
+	final AlternativesScores expected = new Flow().getNetFlows(new Concordance().preference(data,
+		testData.getThresholds(), testData.getWeights()));
+	for (Alternative alternative : data.getAlternatives()) {
+	    assertEquals(expected.get(alternative).doubleValue(), top.getNetFlow(alternative), 0d);
+	}
+
+	assertEquals(getBest(data, expected, 3), top.getBest(3));
+	assertEquals(data.getAlternatives().size(), top.getBest(100).size());
+	assertEquals(getBest(data, expected, 100), top.getBest(100));
+	assertTrue(top.getBest(0).isEmpty());
+    }
+
+    @Test
+    public void testTopNetFlowsGenerated() throws Exception {
+	/** Few distinct evaluations give many alternatives with exactly equal net flows. */
+	final Random random = new Random(50);
+	final int nbAlts = 300;
+	final Evaluations evaluations = EvaluationsUtils.newEvaluationMatrix();
+	final Map<Criterion, Interval> scales = Maps.newLinkedHashMap();
+	final Thresholds thresholds = ThresholdsUtils.newThresholds();
+	final Weights weights = WeightsUtils.newWeights();
+	for (int c = 0; c < 4; ++c) {
+	    final Criterion criterion = new Criterion("g" + c);
+	    scales.put(criterion, Intervals.newDirection(random.nextBoolean() ? PreferenceDirection.MAXIMIZE
+		    : PreferenceDirection.MINIMIZE));
+	    final double q = random.nextInt(3);
+	    thresholds.setIndifferenceThreshold(criterion, q);
+	    thresholds.setPreferenceThreshold(criterion, q + random.nextInt(4));
+	    weights.putWeight(criterion, random.nextDouble());
+	    for (int i = 0; i < nbAlts; ++i) {
+		evaluations.put(new Alternative("a" + i), criterion, random.nextInt(6));
+	    }
+	}
+	final IProblemData data = ProblemFactory.newProblemData(evaluations, scales);
+	assertEquals(nbAlts, data.getAlternatives().size());
+
+	final AlternativesScores netFlows = new Flow().getNetFlows(new Concordance().preference(data, thresholds,
+		weights));
+	final TopNetFlows top = new TopNetFlows(data, thresholds, weights);
+	for (int k : new int[] { 1, 2, 10, 50, 150, nbAlts }) {
+	    assertEquals(getBest(data, netFlows, k), top.getBest(k));
+	}
+    }
+
+    /**
+     * @return the k alternatives having the best given net flows, from a full sort, ties being in the order of the
+     *         alternatives of the given data.
+     */
+    static private List<Alternative> getBest(IProblemData data, final AlternativesScores netFlows, int k) {
+	final List<Alternative> sorted = Lists.newArrayList(data.getAlternatives());
+	/** The sort is stable, thus keeps the order of the data among ties. */
+	Collections.sort(sorted, new Comparator<Alternative>() {
+	    @Override
+	    public int compare(Alternative o1, Alternative o2) {
+		return Double.compare(netFlows.get(o2).doubleValue(), netFlows.get(o1).doubleValue());
+	    }
+	});
+	return sorted.subList(0, Math.min(k, sorted.size()));
+    }
 }
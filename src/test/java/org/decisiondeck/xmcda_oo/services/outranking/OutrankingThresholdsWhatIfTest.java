@@ -0,0 +1,67 @@
+package org.decisiondeck.xmcda_oo.services.outranking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.matrix.SparseAlternativesMatrixFuzzy;
+import org.decision_deck.jmcda.structure.thresholds.Thresholds;
+import org.decision_deck.jmcda.structure.thresholds.ThresholdsUtils;
+import org.decisiondeck.jmcda.sample_problems.SixRealCars;
+import org.decisiondeck.jmcda.services.outranking.Outranking;
+import org.decisiondeck.jmcda.services.outranking.OutrankingFull;
+import org.decisiondeck.jmcda.services.outranking.OutrankingThresholdsWhatIf;
+import org.decisiondeck.jmcda.structure.sorting.problem.data.IProblemData;
+import org.junit.Test;
+
+public class OutrankingThresholdsWhatIfTest {
+    @Test
+    public void testSameAsFull() throws Exception {
+	final SixRealCars testData = SixRealCars.getInstance();
+	final IProblemData data = testData.getAsProblemData();
+	final Thresholds original = testData.getThresholds();
+	final OutrankingThresholdsWhatIf whatIf = new OutrankingThresholdsWhatIf(data, original,
+		testData.getCoalitions55(), true, Outranking.DEFAULT_TOLERANCE);
+	final OutrankingFull full = new OutrankingFull();
+	full.setSharpVetoes(true);
+	SparseAlternativesMatrixFuzzy expected = full.getOutranking(data, original, testData.getCoalitions55());
+	assertTrue(expected.approxEquals(whatIf.getOutranking(), 0.00005f));
+
+	final Thresholds thresholds = ThresholdsUtils.newThresholds();
+	for (Criterion criterion : data.getCriteria()) {
+	    thresholds.setPreferenceThreshold(criterion, whatIf.getPreferenceThreshold(criterion));
+	    thresholds.setIndifferenceThreshold(criterion, whatIf.getIndifferenceThreshold(criterion));
+	    if (whatIf.getVetoThreshold(criterion) != null) {
+		thresholds.setVetoThreshold(criterion, whatIf.getVetoThreshold(criterion).doubleValue());
+	    }
+	}
+	for (Criterion criterion : data.getCriteria()) {
+	    final double p = whatIf.getPreferenceThreshold(criterion) * 2d;
+	    final double q = whatIf.getIndifferenceThreshold(criterion) / 2d;
+	    final Double v = whatIf.getVetoThreshold(criterion) == null ? null : Double.valueOf(Math.max(p, whatIf
+		    .getVetoThreshold(criterion).doubleValue() / 2d));
+	    final int nbChanged = whatIf.setThresholds(criterion, p, q, v);
+
+	    thresholds.setPreferenceThreshold(criterion, p);
+	    thresholds.setIndifferenceThreshold(criterion, q);
+	    if (v != null) {
+		thresholds.setVetoThreshold(criterion, v.doubleValue());
+	    }
+	    final SparseAlternativesMatrixFuzzy newExpected = full.getOutranking(data, thresholds,
+		    testData.getCoalitions55());
+	    assertTrue(newExpected.approxEquals(whatIf.getOutranking(), 0.00005f));
+
+	    int expectedChanged = 0;
+	    for (Alternative alt1 : data.getAlternatives()) {
+		for (Alternative alt2 : data.getAlternatives()) {
+		    if (!newExpected.getEntry(alt1, alt2).equals(expected.getEntry(alt1, alt2))) {
+			++expectedChanged;
+		    }
+		}
+	    }
+	    assertEquals(expectedChanged, nbChanged);
+	    expected = newExpected;
+	}
+    }
+}
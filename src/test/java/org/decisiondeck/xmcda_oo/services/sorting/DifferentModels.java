@@ -0,0 +1,132 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+import java.util.Map;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.Criterion;
+import org.decision_deck.jmcda.structure.interval.Interval;
+import org.decision_deck.jmcda.structure.interval.Intervals;
+import org.decision_deck.jmcda.structure.interval.PreferenceDirection;
+import org.decision_deck.jmcda.structure.matrix.Evaluations;
+import org.decision_deck.jmcda.structure.matrix.EvaluationsUtils;
+import org.decision_deck.jmcda.structure.sorting.category.Categories;
+import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
+import org.decision_deck.jmcda.structure.weights.Coalitions;
+import org.decision_deck.jmcda.structure.weights.CoalitionsUtils;
+import org.decisiondeck.jmcda.structure.sorting.problem.ProblemFactory;
+import org.decisiondeck.jmcda.structure.sorting.problem.preferences.ISortingPreferences;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Test data: two models differing by their weights and profiles, on three criteria and three categories, with scales
+ * from 0 to 99 by steps of one. The probability that both models agree is strictly between zero and one. Every call
+ * returns new objects.
+ *
+ * @author Olivier Cailloux
+ *
+ */
+class DifferentModels {
+	static public final Criterion G1 = new Criterion("g1");
+	static public final Criterion G2 = new Criterion("g2");
+	static public final Criterion G3 = new Criterion("g3");
+	static public final Alternative P1 = new Alternative("p1");
+	static public final Alternative P2 = new Alternative("p2");
+
+	static public PreferencesProbabilisticDifference newDifference() {
+		return new PreferencesProbabilisticDifference(getCategories(), getCoalitions1(), getProfiles1(),
+				getCoalitions2(), getProfiles2(), getScales());
+	}
+
+	static public PreferencesProbabilisticDifferenceByDynamicProgramming newDynamicProgramming() {
+		return new PreferencesProbabilisticDifferenceByDynamicProgramming(getCategories(), getCoalitions1(),
+				getProfiles1(), getCoalitions2(), getProfiles2(), getScales());
+	}
+
+	static public PreferencesProbabilisticDifferenceOptimized newOptimized() {
+		return new PreferencesProbabilisticDifferenceOptimized(getCategories(), getCoalitions1(), getProfiles1(),
+				getCoalitions2(), getProfiles2(), getScales());
+	}
+
+	static public PreferencesProbabilisticDifferenceByMonteCarlo newMonteCarlo() {
+		return new PreferencesProbabilisticDifferenceByMonteCarlo(getCategories(), getCoalitions1(), getProfiles1(),
+				getCoalitions2(), getProfiles2(), getScales());
+	}
+
+	/**
+	 * @return the preferences of a decision maker using the categories and scales of these models and the given
+	 *         coalitions and profiles.
+	 */
+	static public ISortingPreferences newPreferences(Coalitions coalitions, Evaluations profiles) {
+		final ISortingPreferences preferences = ProblemFactory.newSortingPreferences();
+		preferences.getCatsAndProfs().addAll(getCategories());
+		preferences.setCoalitions(coalitions);
+		preferences.setProfilesEvaluations(profiles);
+		for (Map.Entry<Criterion, Interval> scale : getScales().entrySet()) {
+			preferences.setScale(scale.getKey(), scale.getValue());
+		}
+		return preferences;
+	}
+
+	static public CatsAndProfs getCategories() {
+		final CatsAndProfs categories = Categories.newCatsAndProfs();
+		categories.addCategory("bad");
+		categories.addCategory("medium");
+		categories.addCategory("good");
+		categories.setProfileUp("bad", P1);
+		categories.setProfileUp("medium", P2);
+		return categories;
+	}
+
+	static public Coalitions getCoalitions1() {
+		final Coalitions coalitions = CoalitionsUtils.newCoalitions();
+		coalitions.putWeight(G1, .3d);
+		coalitions.putWeight(G2, .3d);
+		coalitions.putWeight(G3, .4d);
+		coalitions.setMajorityThreshold(.6d);
+		return coalitions;
+	}
+
+	static public Coalitions getCoalitions2() {
+		final Coalitions coalitions = CoalitionsUtils.newCoalitions();
+		coalitions.putWeight(G1, .7d);
+		coalitions.putWeight(G2, .1d);
+		coalitions.putWeight(G3, .2d);
+		coalitions.setMajorityThreshold(.8d);
+		return coalitions;
+	}
+
+	static public Evaluations getProfiles1() {
+		final Evaluations profiles = EvaluationsUtils.newEvaluationMatrix();
+		profiles.put(P1, G1, 20d);
+		profiles.put(P1, G2, 30d);
+		profiles.put(P1, G3, 50d);
+		profiles.put(P2, G1, 70d);
+		profiles.put(P2, G2, 80d);
+		profiles.put(P2, G3, 60d);
+		return profiles;
+	}
+
+	static public Evaluations getProfiles2() {
+		final Evaluations profiles = EvaluationsUtils.newEvaluationMatrix();
+		profiles.put(P1, G1, 40d);
+		profiles.put(P1, G2, 40d);
+		profiles.put(P1, G3, 20d);
+		profiles.put(P2, G1, 50d);
+		profiles.put(P2, G2, 90d);
+		profiles.put(P2, G3, 30d);
+		return profiles;
+	}
+
+	static public Map<Criterion, Interval> getScales() {
+		final Map<Criterion, Interval> scales = Maps.newHashMap();
+		scales.put(G1, Intervals.newDiscreteInterval(PreferenceDirection.MAXIMIZE, 0d, 99d, 1d));
+		scales.put(G2, Intervals.newDiscreteInterval(PreferenceDirection.MAXIMIZE, 0d, 99d, 1d));
+		scales.put(G3, Intervals.newDiscreteInterval(PreferenceDirection.MAXIMIZE, 0d, 99d, 1d));
+		return scales;
+	}
+
+	private DifferentModels() {
+		/** Static methods only. */
+	}
+}
@@ -0,0 +1,70 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ElectrePessimisticProgressiveBatchTest {
+    @Test
+    public void testSameAsProgressive() throws Exception {
+	assertSameAsProgressive(new double[] { 0.3d, 0.3d, 0.4d }, 0.6d);
+    }
+
+    @Test
+    public void testSameAsProgressiveNonNormalized() throws Exception {
+	assertSameAsProgressive(new double[] { 3d, 3d, 4d }, 6d);
+    }
+
+    private void assertSameAsProgressive(double[] weights, double lambda) {
+	final double[][] profs = new double[][] { { 20d, 30d, 50d }, { 70d, 80d, 60d } };
+	final int nbAlts = 200;
+	final Random random = new Random(7);
+	final double[][] minEvals = new double[weights.length][nbAlts];
+	final double[][] maxEvals = new double[weights.length][nbAlts];
+	for (int crit = 0; crit < weights.length; ++crit) {
+	    for (int alt = 0; alt < nbAlts; ++alt) {
+		final int a = random.nextInt(100);
+		final int b = random.nextInt(100);
+		minEvals[crit][alt] = Math.min(a, b);
+		maxEvals[crit][alt] = Math.max(a, b) + 1;
+	    }
+	}
+
+	final ElectrePessimisticProgressiveBatch batch = new ElectrePessimisticProgressiveBatch(weights, lambda, profs,
+		nbAlts);
+	final ElectrePessimisticProgressiveWithArrays single = new ElectrePessimisticProgressiveWithArrays(weights,
+		lambda, profs);
+	for (int crit = 0; crit < weights.length; ++crit) {
+	    batch.setEvaluations(crit, minEvals[crit], maxEvals[crit]);
+	    for (int alt = 0; alt < nbAlts; ++alt) {
+		single.reset();
+		for (int setCrit = 0; setCrit <= crit; ++setCrit) {
+		    single.setEvaluation(setCrit, new double[] { minEvals[setCrit][alt], maxEvals[setCrit][alt] });
+		}
+		assertEquals("Worst of " + alt + " at " + crit + ".", single.getWorstCat(), batch.getWorstCats()[alt]);
+		assertEquals("Best of " + alt + " at " + crit + ".", single.getBestCat(), batch.getBestCats()[alt]);
+	    }
+	}
+    }
+
+    @Test
+    public void testNarrowing() throws Exception {
+	final double[] weights = new double[] { 1d, 1d };
+	final double[][] profs = new double[][] { { 10d, 10d } };
+	final ElectrePessimisticProgressiveBatch batch = new ElectrePessimisticProgressiveBatch(weights, 2d, profs, 1);
+	assertEquals(0, batch.getWorstCats()[0]);
+	assertEquals(1, batch.getBestCats()[0]);
+	batch.setEvaluation(0, 0, 5d, 15d);
+	batch.setEvaluation(0, 1, 12d, 13d);
+	assertEquals(0, batch.getWorstCats()[0]);
+	assertEquals(1, batch.getBestCats()[0]);
+	batch.setEvaluation(0, 0, 11d, 12d);
+	assertEquals(1, batch.getWorstCats()[0]);
+	batch.setEvaluation(0, 0, 5d, 6d);
+	assertEquals(0, batch.getBestCats()[0]);
+	batch.reset();
+	assertEquals(1, batch.getBestCats()[0]);
+    }
+}
@@ -1,10 +1,29 @@
 package org.decisiondeck.xmcda_oo.services.sorting;
 
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.getCategories;
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.getCoalitions1;
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.getCoalitions2;
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.getProfiles1;
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.getProfiles2;
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.getScales;
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.newDifference;
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.newDynamicProgramming;
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.newMonteCarlo;
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.newOptimized;
+import static org.decisiondeck.xmcda_oo.services.sorting.DifferentModels.newPreferences;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import org.decision_deck.jmcda.services.generator.DataGenerator;
 import org.decision_deck.jmcda.structure.Alternative;
@@ -15,6 +34,7 @@ import org.decision_deck.jmcda.structure.interval.PreferenceDirection;
 import org.decision_deck.jmcda.structure.matrix.Evaluations;
 import org.decision_deck.jmcda.structure.matrix.EvaluationsUtils;
 import org.decision_deck.jmcda.structure.sorting.category.Categories;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
 import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
 import org.decision_deck.jmcda.structure.weights.Coalitions;
 import org.decision_deck.jmcda.structure.weights.CoalitionsUtils;
@@ -25,6 +45,7 @@ import org.decisiondeck.jmcda.structure.sorting.problem.preferences.ISortingPref
 import org.decisiondeck.xmcda_oo.structure.sorting.SortingProblemUtils;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 
@@ -110,6 +131,330 @@ public class PreferencesProbabilisticTest {
 		assertEquals("Unexpected proba.", 1d, prob.getProb(), 1e-6);
 	}
 
+	@Test
+	public void testParallel() throws Exception {
+		final PreferencesProbabilisticDifference sequential = newDifference();
+		final PreferencesProbabilisticDifference parallel = newDifference();
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		parallel.setForkJoinPool(pool);
+		final double probSequential = sequential.getProbabilityMatch();
+		assertEquals("Unexpected proba.", probSequential, parallel.getProbabilityMatch(), 0d);
+		for (Category category : getCategories().getCategories()) {
+			assertEquals(sequential.getProbSameAffectation(category), parallel.getProbSameAffectation(category), 0d);
+		}
+		pool.shutdown();
+		assertTrue(probSequential > 0d && probSequential < 1d);
+	}
+
+	@Test
+	public void testAnytime() throws Exception {
+		final double exact = newLargeDifference().getProbabilityMatch();
+		final PreferencesProbabilisticDifference anytime = newLargeDifference();
+		final List<double[]> reported = Lists.newArrayList();
+		anytime.setListener(new IProbabilityBoundsListener() {
+			@Override
+			public void boundsChanged(double atLeast, double atMost) {
+				reported.add(new double[] { atLeast, atMost });
+			}
+		});
+		assertTrue(!anytime.computeBounds(0, TimeUnit.MILLISECONDS));
+		assertEquals(0d, anytime.getProbabilityMatchAtLeast(), 0d);
+		assertEquals(1d, anytime.getProbabilityMatchAtMost(), 0d);
+		/** Interrupted after each block of leaves, thus at the same points on every run. */
+		int nbComputations = 1;
+		while (!anytime.computeLeaves(1)) {
+			assertTrue(anytime.getProbabilityMatchAtLeast() <= exact + 1e-12);
+			assertTrue(anytime.getProbabilityMatchAtMost() >= exact - 1e-12);
+			++nbComputations;
+		}
+		assertTrue(nbComputations > 1);
+		assertTrue(anytime.isComputed());
+		assertEquals(exact, anytime.getProbabilityMatchAtLeast(), 0d);
+		assertEquals(exact, anytime.getProbabilityMatch(), 0d);
+		final double[] last = reported.get(reported.size() - 1);
+		assertEquals(exact, last[0], 0d);
+	}
+
+	@Test
+	public void testCancelBeforeStart() throws Exception {
+		final double exact = newDifference().getProbabilityMatch();
+		final PreferencesProbabilisticDifference cancelled = newDifference();
+		cancelled.cancel();
+		try {
+			cancelled.getProbabilityMatch();
+			fail("Cancellation lost.");
+		} catch (CancellationException exc) {
+			/** Expected. */
+		}
+		cancelled.cancel();
+		assertFalse(cancelled.computeBounds(1, TimeUnit.DAYS));
+		assertEquals(0d, cancelled.getProbabilityMatchAtLeast(), 0d);
+		assertEquals(1d, cancelled.getProbabilityMatchAtMost(), 0d);
+		assertTrue(cancelled.computeBounds(1, TimeUnit.DAYS));
+		assertEquals(exact, cancelled.getProbabilityMatch(), 0d);
+	}
+
+	@Test
+	public void testCheckpoint() throws Exception {
+		final PreferencesProbabilisticDifference expected = newDifference();
+		final File dir = Files.createTempDir();
+		final File checkpoint = new File(dir, "checkpoint");
+
+		final PreferencesProbabilisticDifference interrupted = newDifference();
+		interrupted.setCheckpoint(checkpoint, 0, TimeUnit.MILLISECONDS);
+		assertFalse(interrupted.computeBounds(0, TimeUnit.MILLISECONDS));
+
+		final PreferencesProbabilisticDifference resumed = newDifference();
+		assertFalse(resumed.resume(checkpoint));
+		resumed.setCheckpoint(checkpoint, 0, TimeUnit.MILLISECONDS);
+		assertEquals(expected.getProbabilityMatch(), resumed.getProbabilityMatch(), 0d);
+
+		final PreferencesProbabilisticDifference completed = newDifference();
+		assertTrue(completed.resume(checkpoint));
+		assertTrue(completed.isComputed());
+		assertEquals(expected.getProbabilityMatch(), completed.getProbabilityMatch(), 0d);
+		for (Category category : getCategories().getCategories()) {
+			assertEquals(expected.getProbSameAffectation(category), completed.getProbSameAffectation(category), 0d);
+		}
+
+		final PreferencesProbabilisticDifference other = new PreferencesProbabilisticDifference(getCategories(),
+				getCoalitions2(), getProfiles1(), getCoalitions1(), getProfiles2(), getScales());
+		try {
+			other.resume(checkpoint);
+			fail("Checkpoint of other models accepted.");
+		} catch (IllegalArgumentException exc) {
+			/** Expected. */
+		}
+		checkpoint.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testCheckpointPartway() throws Exception {
+		final PreferencesProbabilisticDifference expected = newLargeDifference();
+		final File dir = Files.createTempDir();
+		final File checkpoint = new File(dir, "checkpoint");
+
+		final PreferencesProbabilisticDifference interrupted = newLargeDifference();
+		interrupted.setCheckpoint(checkpoint, 1, TimeUnit.DAYS);
+		/** Interrupted after the first block of leaves, thus at the same point on every run. */
+		assertFalse(interrupted.computeLeaves(1));
+		final double atLeast = interrupted.getProbabilityMatchAtLeast();
+		final double atMost = interrupted.getProbabilityMatchAtMost();
+		assertTrue(atLeast > 0d && atMost < 1d);
+
+		/** The checkpoint written when the computation stopped holds the bounds reached. */
+		final PreferencesProbabilisticDifference resumed = newLargeDifference();
+		assertFalse(resumed.resume(checkpoint));
+		assertEquals(atLeast, resumed.getProbabilityMatchAtLeast(), 0d);
+		assertEquals(atMost, resumed.getProbabilityMatchAtMost(), 0d);
+		assertEquals(expected.getProbabilityMatch(), resumed.getProbabilityMatch(), 0d);
+		assertEquals(expected.getProbabilityMatchAtMost(), resumed.getProbabilityMatchAtMost(), 0d);
+		for (int cat = 1; cat <= 4; ++cat) {
+			final Category category = new Category("c" + cat);
+			assertEquals(expected.getProbSameAffectation(category), resumed.getProbSameAffectation(category), 0d);
+		}
+		checkpoint.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testDynamicProgramming() throws Exception {
+		final PreferencesProbabilisticDifference enumerated = newDifference();
+		final PreferencesProbabilisticDifferenceByDynamicProgramming dynamic = newDynamicProgramming();
+		assertEquals("Unexpected proba.", enumerated.getProbabilityMatch(), dynamic.getProbabilityMatch(), 1e-12);
+		for (Category category : getCategories().getCategories()) {
+			assertEquals(enumerated.getProbSameAffectation(category), dynamic.getProbSameAffectation(category), 1e-12);
+		}
+	}
+
+	@Test
+	public void testDynamicProgrammingWithoutCriteria() throws Exception {
+		final Coalitions coalitions1 = CoalitionsUtils.newCoalitions();
+		coalitions1.setMajorityThreshold(.6d);
+		final Coalitions coalitions2 = CoalitionsUtils.newCoalitions();
+		coalitions2.setMajorityThreshold(.8d);
+		final Map<Criterion, Interval> noScales = Maps.newHashMap();
+		final PreferencesProbabilisticDifferenceByDynamicProgramming dynamic;
+		dynamic = new PreferencesProbabilisticDifferenceByDynamicProgramming(getCategories(), coalitions1,
+				EvaluationsUtils.newEvaluationMatrix(), coalitions2, EvaluationsUtils.newEvaluationMatrix(), noScales);
+		assertEquals(1d, dynamic.getProbabilityMatch(), 0d);
+		assertEquals(1d, dynamic.getProbSameAffectation(new Category("bad")), 0d);
+		assertEquals(0d, dynamic.getProbSameAffectation(new Category("good")), 0d);
+	}
+
+	@Test
+	public void testOptimized() throws Exception {
+		final double expected = newDifference().getProbabilityMatch();
+		final PreferencesProbabilisticDifferenceOptimized sequential = newOptimized();
+		assertEquals("Unexpected proba.", expected, sequential.getProb(), 1e-12);
+		final PreferencesProbabilisticDifferenceOptimized parallel = newOptimized();
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		parallel.setForkJoinPool(pool);
+		assertEquals(sequential.getProb(), parallel.getProb(), 0d);
+		pool.shutdown();
+	}
+
+	@Test
+	public void testDecimalAndContinuousScales() throws Exception {
+		final double expected = newDifference().getProbabilityMatch();
+		final Map<Criterion, Interval> decimalScales = Maps.newHashMap();
+		final Map<Criterion, Interval> continuousScales = Maps.newHashMap();
+		final Map<Criterion, Interval> offGridScales = Maps.newHashMap();
+		for (Criterion criterion : getScales().keySet()) {
+			decimalScales.put(criterion, Intervals.newDiscreteInterval(PreferenceDirection.MAXIMIZE, 0d, 9.9d, 0.1d));
+			continuousScales.put(criterion, Intervals.newInterval(PreferenceDirection.MAXIMIZE, 0d, 100d));
+			/** The maximum is not a point of the scale: the points are still 0 to 99. */
+			offGridScales.put(criterion, Intervals.newDiscreteInterval(PreferenceDirection.MAXIMIZE, 0d, 99.5d, 1d));
+		}
+		final Evaluations decimalProfiles1 = getDividedByTen(getProfiles1());
+		final Evaluations decimalProfiles2 = getDividedByTen(getProfiles2());
+
+		final PreferencesProbabilisticDifference decimal = new PreferencesProbabilisticDifference(getCategories(),
+				getCoalitions1(), decimalProfiles1, getCoalitions2(), decimalProfiles2, decimalScales);
+		assertEquals(expected, decimal.getProbabilityMatch(), 1e-12);
+		final PreferencesProbabilisticDifferenceOptimized decimalOptimized = new PreferencesProbabilisticDifferenceOptimized(
+				getCategories(), getCoalitions1(), decimalProfiles1, getCoalitions2(), decimalProfiles2, decimalScales);
+		assertEquals(expected, decimalOptimized.getProb(), 1e-12);
+		final PreferencesProbabilisticDifferenceByDynamicProgramming decimalDynamic = new PreferencesProbabilisticDifferenceByDynamicProgramming(
+				getCategories(), getCoalitions1(), decimalProfiles1, getCoalitions2(), decimalProfiles2, decimalScales);
+		assertEquals(expected, decimalDynamic.getProbabilityMatch(), 1e-12);
+
+		/** Uniform on [0, 100], the probability of each interval is as in the discrete scale from 0 to 99. */
+		final PreferencesProbabilisticDifference continuous = new PreferencesProbabilisticDifference(getCategories(),
+				getCoalitions1(), getProfiles1(), getCoalitions2(), getProfiles2(), continuousScales);
+		assertEquals(expected, continuous.getProbabilityMatch(), 1e-12);
+		final PreferencesProbabilisticDifferenceOptimized continuousOptimized = new PreferencesProbabilisticDifferenceOptimized(
+				getCategories(), getCoalitions1(), getProfiles1(), getCoalitions2(), getProfiles2(), continuousScales);
+		assertEquals(expected, continuousOptimized.getProb(), 1e-12);
+		final PreferencesProbabilisticDifferenceByDynamicProgramming continuousDynamic = new PreferencesProbabilisticDifferenceByDynamicProgramming(
+				getCategories(), getCoalitions1(), getProfiles1(), getCoalitions2(), getProfiles2(), continuousScales);
+		assertEquals(expected, continuousDynamic.getProbabilityMatch(), 1e-12);
+
+		final PreferencesProbabilisticDifference offGrid = new PreferencesProbabilisticDifference(getCategories(),
+				getCoalitions1(), getProfiles1(), getCoalitions2(), getProfiles2(), offGridScales);
+		assertEquals(expected, offGrid.getProbabilityMatch(), 1e-12);
+		final PreferencesProbabilisticDifferenceByDynamicProgramming offGridDynamic = new PreferencesProbabilisticDifferenceByDynamicProgramming(
+				getCategories(), getCoalitions1(), getProfiles1(), getCoalitions2(), getProfiles2(), offGridScales);
+		assertEquals(expected, offGridDynamic.getProbabilityMatch(), 1e-12);
+	}
+
+	@Test
+	public void testAgreementMatrix() throws Exception {
+		final List<ISortingPreferences> preferences = Lists.newArrayList();
+		preferences.add(newPreferences(getCoalitions1(), getProfiles1()));
+		preferences.add(newPreferences(getCoalitions2(), getProfiles2()));
+		preferences.add(newPreferences(getCoalitions1(), getProfiles1()));
+		final PreferencesAgreementMatrix agreements = new PreferencesAgreementMatrix(preferences);
+		final double[][] matrix = agreements.getProbabilitiesMatch();
+		final PreferencesProbabilisticDifference expected = newDifference();
+		assertEquals(expected.getProbabilityMatch(), matrix[0][1], 1e-12);
+		assertEquals(matrix[0][1], matrix[1][0], 0d);
+		assertEquals(matrix[1][2], matrix[0][1], 0d);
+		assertEquals(1d, matrix[0][2], 1e-12);
+		assertEquals(1d, matrix[1][1], 1e-12);
+		for (Category category : getCategories().getCategories()) {
+			assertEquals(expected.getProbSameAffectation(category), agreements.getProbSameAffectation(1, 0, category),
+					1e-12);
+		}
+
+		final PreferencesAgreementMatrix parallel = new PreferencesAgreementMatrix(preferences);
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		parallel.setForkJoinPool(pool);
+		for (int dm = 0; dm < preferences.size(); ++dm) {
+			assertTrue(Arrays.equals(matrix[dm], parallel.getProbabilitiesMatch()[dm]));
+		}
+		pool.shutdown();
+
+		final ISortingPreferences otherScales = newPreferences(getCoalitions1(), getProfiles1());
+		final Criterion criterion = getScales().keySet().iterator().next();
+		otherScales.setScale(criterion, Intervals.newDiscreteInterval(PreferenceDirection.MAXIMIZE, 0d, 9.9d, 0.1d));
+		preferences.add(otherScales);
+		try {
+			new PreferencesAgreementMatrix(preferences);
+			fail("Models on other scales accepted.");
+		} catch (IllegalArgumentException exc) {
+			/** Expected. */
+		}
+	}
+
+	@Test
+	public void testMonteCarlo() throws Exception {
+		final double exact = newDifference().getProbabilityMatch();
+		final PreferencesProbabilisticDifferenceByMonteCarlo simulation = newMonteCarlo();
+		simulation.setSeed(1);
+		simulation.estimate(0.005d, 0.999d);
+		assertTrue(simulation.getUpperBound() - simulation.getLowerBound() <= 0.01d);
+		assertTrue(simulation.getLowerBound() <= exact && exact <= simulation.getUpperBound());
+
+		simulation.estimateQuasiRandom(0.005d, 0.999d);
+		assertTrue(simulation.getUpperBound() - simulation.getLowerBound() <= 0.01d);
+		assertTrue(simulation.getLowerBound() <= exact && exact <= simulation.getUpperBound());
+	}
+
+	@Test
+	public void testMonteCarloFineScales() throws Exception {
+		/** A billion points per scale: tabulating every point would need gigabytes. */
+		final double expected = newDifference().getProbabilityMatch();
+		final Map<Criterion, Interval> fineScales = Maps.newHashMap();
+		for (Criterion criterion : getScales().keySet()) {
+			fineScales.put(criterion,
+					Intervals.newDiscreteInterval(PreferenceDirection.MAXIMIZE, 0d, 100d - 1e-7d, 1e-7d));
+		}
+		final PreferencesProbabilisticDifferenceByMonteCarlo simulation = new PreferencesProbabilisticDifferenceByMonteCarlo(
+				getCategories(), getCoalitions1(), getProfiles1(), getCoalitions2(), getProfiles2(), fineScales);
+		simulation.setSeed(1);
+		simulation.estimate(0.005d, 0.999d);
+		assertTrue(simulation.getLowerBound() <= expected && expected <= simulation.getUpperBound());
+	}
+
+	/**
+	 * @return two models on six criteria and four categories, whose enumeration has enough leaves to be interrupted
+	 *         partway.
+	 */
+	static private PreferencesProbabilisticDifference newLargeDifference() {
+		final CatsAndProfs categories = Categories.newCatsAndProfs();
+		final List<Alternative> profiles = Lists.newArrayList();
+		for (int cat = 1; cat <= 4; ++cat) {
+			categories.addCategory("c" + cat);
+			if (cat < 4) {
+				final Alternative profile = new Alternative("p" + cat);
+				categories.setProfileUp("c" + cat, profile);
+				profiles.add(profile);
+			}
+		}
+		final int nbCrits = 6;
+		final Coalitions coalitions1 = CoalitionsUtils.newCoalitions();
+		final Coalitions coalitions2 = CoalitionsUtils.newCoalitions();
+		final Evaluations profiles1 = EvaluationsUtils.newEvaluationMatrix();
+		final Evaluations profiles2 = EvaluationsUtils.newEvaluationMatrix();
+		final Map<Criterion, Interval> scales = Maps.newHashMap();
+		for (int crit = 0; crit < nbCrits; ++crit) {
+			final Criterion criterion = new Criterion("g" + crit);
+			coalitions1.putWeight(criterion, 1d / nbCrits);
+			coalitions2.putWeight(criterion, (1 + crit % 3) / 12d);
+			for (int prof = 0; prof < profiles.size(); ++prof) {
+				profiles1.put(profiles.get(prof), criterion, 20d + 25d * prof + crit);
+				profiles2.put(profiles.get(prof), criterion, 15d + 25d * prof + 2d * crit);
+			}
+			scales.put(criterion, Intervals.newDiscreteInterval(PreferenceDirection.MAXIMIZE, 0d, 99d, 1d));
+		}
+		coalitions1.setMajorityThreshold(.6d);
+		coalitions2.setMajorityThreshold(.7d);
+		return new PreferencesProbabilisticDifference(categories, coalitions1, profiles1, coalitions2, profiles2,
+				scales);
+	}
+
+	static private Evaluations getDividedByTen(Evaluations profiles) {
+		final Evaluations divided = EvaluationsUtils.newEvaluationMatrix();
+		for (Alternative profile : profiles.getRows()) {
+			for (Criterion criterion : profiles.getColumns()) {
+				divided.put(profile, criterion, profiles.getEntry(profile, criterion).doubleValue() / 10d);
+			}
+		}
+		return divided;
+	}
+
 	void generate() throws IOException {
 		final DataGenerator gen = new DataGenerator();
 
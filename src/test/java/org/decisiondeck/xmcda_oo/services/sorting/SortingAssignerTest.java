@@ -0,0 +1,51 @@
+package org.decisiondeck.xmcda_oo.services.sorting;
+
+import static org.junit.Assert.assertEquals;
+
+import org.decision_deck.jmcda.structure.Alternative;
+import org.decision_deck.jmcda.structure.matrix.MatrixesMC;
+import org.decision_deck.jmcda.structure.matrix.SparseAlternativesMatrixFuzzy;
+import org.decision_deck.jmcda.structure.sorting.SortingMode;
+import org.decision_deck.jmcda.structure.sorting.category.Categories;
+import org.decision_deck.jmcda.structure.sorting.category.Category;
+import org.decision_deck.jmcda.structure.sorting.category.CatsAndProfs;
+import org.decisiondeck.jmcda.structure.sorting.assignment.IOrderedAssignmentsToMultipleRead;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class SortingAssignerTest {
+    @Test
+    public void testBothWithPartialOutranking() throws Exception {
+	final CatsAndProfs categories = Categories.newCatsAndProfs();
+	final Alternative p1 = new Alternative("p1");
+	final Alternative p2 = new Alternative("p2");
+	final Alternative p3 = new Alternative("p3");
+	categories.addCategory("C1");
+	categories.addProfile(p1);
+	categories.addCategory("C2");
+	categories.addProfile(p2);
+	categories.addCategory("C3");
+	categories.addProfile(p3);
+	categories.addCategory("C4");
+
+	/** Only the entries that the optimistic and the pessimistic procedures read are given. */
+	final Alternative a = new Alternative("a");
+	final Alternative b = new Alternative("b");
+	final SparseAlternativesMatrixFuzzy outranking = MatrixesMC.newAlternativesFuzzy();
+	outranking.put(p1, a, 0d);
+	outranking.put(p2, a, 1d);
+	outranking.put(a, p1, 1d);
+	outranking.put(a, p2, 0d);
+	outranking.put(a, p3, 0d);
+	outranking.put(p1, b, 1d);
+	outranking.put(b, p1, 0d);
+	outranking.put(b, p2, 0d);
+	outranking.put(b, p3, 0d);
+
+	final IOrderedAssignmentsToMultipleRead assignments = new SortingAssigner().assign(SortingMode.BOTH,
+		ImmutableSet.of(a, b), outranking, categories);
+	assertEquals(ImmutableSet.of(new Category("C2")), assignments.getCategories(a));
+	assertEquals(ImmutableSet.of(new Category("C1")), assignments.getCategories(b));
+    }
+}